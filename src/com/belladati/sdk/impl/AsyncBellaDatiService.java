@@ -0,0 +1,329 @@
+package com.belladati.sdk.impl;
+
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.belladati.sdk.BellaDatiService;
+import com.belladati.sdk.dashboard.Dashboard;
+import com.belladati.sdk.dataset.AttributeValue;
+import com.belladati.sdk.dataset.DataSet;
+import com.belladati.sdk.filter.Filter;
+import com.belladati.sdk.report.Report;
+import com.belladati.sdk.user.User;
+import com.belladati.sdk.util.CachedList;
+import com.belladati.sdk.view.ViewLoader;
+import com.belladati.sdk.view.ViewType;
+
+/**
+ * Asynchronous facade for a {@link BellaDatiService}. Each call is submitted
+ * to an executor and immediately returns a {@link BellaDatiFuture} that can be
+ * cancelled, observed through callbacks or chained with further calls.
+ * <p>
+ * By default, calls run on a bounded pool with as many threads as the HTTP
+ * client has connections, configured by the <tt>bdMaxConnections</tt> system
+ * property. Calls exceeding that number are queued in order of priority.
+ * Calls are made with {@link RequestPriority#NORMAL} priority unless
+ * requested otherwise through {@link #withPriority(RequestPriority)}.
+ */
+public class AsyncBellaDatiService {
+
+	private final BellaDatiService service;
+	private final ExecutorService executor;
+	private final RequestPriority priority;
+
+	/**
+	 * Creates an asynchronous facade using a thread pool sized to the HTTP
+	 * client's connection limit.
+	 * 
+	 * @param service the service to make calls on
+	 */
+	public AsyncBellaDatiService(BellaDatiService service) {
+		this(service, createExecutor(BellaDatiClient.readFromProperty("bdMaxConnections", 40)));
+	}
+
+	/**
+	 * Creates an asynchronous facade using the given executor.
+	 * 
+	 * @param service the service to make calls on
+	 * @param executor executor to run calls on
+	 */
+	public AsyncBellaDatiService(BellaDatiService service, ExecutorService executor) {
+		this(service, executor, RequestPriority.NORMAL);
+	}
+
+	private AsyncBellaDatiService(BellaDatiService service, ExecutorService executor, RequestPriority priority) {
+		this.service = service;
+		this.executor = executor;
+		this.priority = priority;
+	}
+
+	/**
+	 * Returns a facade making calls with the given priority, sharing this
+	 * facade's service and executor. Use {@link RequestPriority#INTERACTIVE}
+	 * for calls a user is waiting for and {@link RequestPriority#BACKGROUND}
+	 * for prefetching and synchronization.
+	 * 
+	 * @param priority priority of the calls
+	 * @return a facade making calls with the given priority
+	 */
+	public AsyncBellaDatiService withPriority(RequestPriority priority) {
+		if (priority == null) {
+			throw new NullPointerException("Priority must not be null");
+		}
+		return new AsyncBellaDatiService(service, executor, priority);
+	}
+
+	/**
+	 * Returns the priority of calls made through this facade.
+	 * 
+	 * @return the priority of calls
+	 */
+	public RequestPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Creates a bounded executor with the given number of threads. Idle
+	 * threads are released after a minute, and threads don't prevent the VM
+	 * from exiting. Queued calls are run in order of priority.
+	 * 
+	 * @param threads maximum number of concurrently running calls
+	 * @return a new executor
+	 */
+	public static ExecutorService createExecutor(int threads) {
+		if (threads <= 0) {
+			throw new IllegalArgumentException("Threads must be > 0, was " + threads);
+		}
+		ThreadPoolExecutor executor = new PriorityExecutor(threads, new DaemonThreadFactory("BellaDati-async"));
+		executor.allowCoreThreadTimeOut(true);
+		return executor;
+	}
+
+	/**
+	 * Returns the service this facade makes calls on.
+	 * 
+	 * @return the service this facade makes calls on
+	 */
+	public BellaDatiService getService() {
+		return service;
+	}
+
+	/**
+	 * Submits an arbitrary call to this facade's executor.
+	 * 
+	 * @param callable the call to make
+	 * @return a future for the call's result
+	 */
+	public <T> BellaDatiFuture<T> submit(Callable<T> callable) {
+		BellaDatiFuture<T> future = new BellaDatiFuture<T>(callable, executor, priority);
+		executor.execute(new PrioritizedTask(priority, future));
+		return future;
+	}
+
+	/**
+	 * Loads a dashboard asynchronously.
+	 * 
+	 * @see BellaDatiService#loadDashboard(String)
+	 */
+	public BellaDatiFuture<Dashboard> loadDashboard(final String id) {
+		return submit(new Callable<Dashboard>() {
+			@Override
+			public Dashboard call() {
+				return service.loadDashboard(id);
+			}
+		});
+	}
+
+	/**
+	 * Loads a dashboard thumbnail asynchronously.
+	 * 
+	 * @see BellaDatiService#loadDashboardThumbnail(String)
+	 */
+	public BellaDatiFuture<Object> loadDashboardThumbnail(final String id) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return service.loadDashboardThumbnail(id);
+			}
+		});
+	}
+
+	/**
+	 * Loads a report asynchronously.
+	 * 
+	 * @see BellaDatiService#loadReport(String)
+	 */
+	public BellaDatiFuture<Report> loadReport(final String id) {
+		return submit(new Callable<Report>() {
+			@Override
+			public Report call() {
+				return service.loadReport(id);
+			}
+		});
+	}
+
+	/**
+	 * Loads a report thumbnail asynchronously.
+	 * 
+	 * @see BellaDatiService#loadReportThumbnail(String)
+	 */
+	public BellaDatiFuture<Object> loadReportThumbnail(final String id) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return service.loadReportThumbnail(id);
+			}
+		});
+	}
+
+	/**
+	 * Loads view content asynchronously.
+	 * 
+	 * @see BellaDatiService#loadViewContent(String, ViewType, Filter...)
+	 */
+	public BellaDatiFuture<Object> loadViewContent(String viewId, ViewType viewType, Filter<?>... filters) {
+		return loadViewContent(viewId, viewType, Arrays.asList(filters));
+	}
+
+	/**
+	 * Loads view content asynchronously.
+	 * 
+	 * @see BellaDatiService#loadViewContent(String, ViewType, Collection)
+	 */
+	public BellaDatiFuture<Object> loadViewContent(final String viewId, final ViewType viewType,
+		final Collection<Filter<?>> filters) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return service.loadViewContent(viewId, viewType, filters);
+			}
+		});
+	}
+
+	/**
+	 * Loads view content from a configured view loader asynchronously.
+	 * 
+	 * @see ViewLoader#loadContent()
+	 */
+	public BellaDatiFuture<Object> loadViewContent(final ViewLoader loader) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() {
+				return loader.loadContent();
+			}
+		});
+	}
+
+	/**
+	 * Loads the values of an attribute asynchronously. The returned list has
+	 * been loaded from the server.
+	 * 
+	 * @see BellaDatiService#getAttributeValues(String, String)
+	 */
+	public BellaDatiFuture<CachedList<AttributeValue>> loadAttributeValues(final String dataSetId, final String attributeCode) {
+		return submit(new Callable<CachedList<AttributeValue>>() {
+			@Override
+			public CachedList<AttributeValue> call() {
+				return service.getAttributeValues(dataSetId, attributeCode).load();
+			}
+		});
+	}
+
+	/**
+	 * Loads a data set asynchronously.
+	 * 
+	 * @see BellaDatiService#loadDataSet(String)
+	 */
+	public BellaDatiFuture<DataSet> loadDataSet(final String id) {
+		return submit(new Callable<DataSet>() {
+			@Override
+			public DataSet call() {
+				return service.loadDataSet(id);
+			}
+		});
+	}
+
+	/**
+	 * Loads a user asynchronously.
+	 * 
+	 * @see BellaDatiService#loadUser(String)
+	 */
+	public BellaDatiFuture<User> loadUser(final String userId) {
+		return submit(new Callable<User>() {
+			@Override
+			public User call() {
+				return service.loadUser(userId);
+			}
+		});
+	}
+
+	/**
+	 * Loads a user's image asynchronously.
+	 * 
+	 * @see BellaDatiService#loadUserImage(String)
+	 */
+	public BellaDatiFuture<Object> loadUserImage(final String userId) {
+		return submit(new Callable<Object>() {
+			@Override
+			public Object call() throws Exception {
+				return service.loadUserImage(userId);
+			}
+		});
+	}
+
+	/**
+	 * Shuts down the executor. Calls already submitted are completed, but no
+	 * new calls are accepted.
+	 */
+	public void shutdown() {
+		executor.shutdown();
+	}
+
+	@Override
+	public String toString() {
+		return "Async " + service;
+	}
+
+	/**
+	 * Runs queued tasks in order of priority. Tasks submitted without a
+	 * priority get the priority of the submitting thread.
+	 */
+	private static class PriorityExecutor extends ThreadPoolExecutor {
+		PriorityExecutor(int threads, ThreadFactory threadFactory) {
+			super(threads, threads, 60, TimeUnit.SECONDS, new PriorityBlockingQueue<Runnable>(), threadFactory);
+		}
+
+		@Override
+		public void execute(Runnable command) {
+			if (command instanceof PrioritizedTask) {
+				super.execute(command);
+			} else {
+				super.execute(new PrioritizedTask(RequestPriority.current(), command));
+			}
+		}
+	}
+
+	/** Creates named daemon threads. */
+	static class DaemonThreadFactory implements ThreadFactory {
+		private final String prefix;
+		private final AtomicInteger count = new AtomicInteger();
+
+		DaemonThreadFactory(String prefix) {
+			this.prefix = prefix;
+		}
+
+		@Override
+		public Thread newThread(Runnable r) {
+			Thread thread = new Thread(r, prefix + "-" + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,348 @@
+package com.belladati.sdk.impl;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import com.belladati.sdk.BellaDatiService;
+import com.belladati.sdk.dataset.data.DataColumn;
+import com.belladati.sdk.dataset.data.DataTable;
+import com.belladati.sdk.dataset.data.OverwritePolicy;
+import com.belladati.sdk.exception.ConnectionException;
+
+/**
+ * Uploads data to a data set in batches, sending several batches at the same
+ * time over separate connections.
+ * <p>
+ * The first batch is sent on its own, together with the overwrite policy;
+ * existing data is deleted only then. Once it's complete, the remaining
+ * batches are sent concurrently without deleting anything. If a batch or
+ * reading rows fails, no further batches are started and the failure is
+ * thrown once the batches in progress are complete. If more than one fails,
+ * the first failure is thrown and the others are only reported to the
+ * progress listener, or dropped if they happened while reading rows.
+ * Batches reported as complete were imported and don't need to be sent
+ * again.
+ * <p>
+ * Rows are read from their source while uploading, so only the batches in
+ * progress are held in memory.
+ */
+public class BatchedDataUpload {
+
+	private final BellaDatiServiceImpl service;
+	private final String dataSetId;
+
+	private int batchSize = 10000;
+	private int parallelism = 4;
+	private ProgressListener listener;
+
+	/**
+	 * Creates a new batched upload.
+	 * 
+	 * @param service a service created by this SDK implementation
+	 * @param dataSetId ID of the data set to upload to
+	 * @throws IllegalArgumentException if the service wasn't created by this
+	 *             SDK implementation
+	 */
+	public BatchedDataUpload(BellaDatiService service, String dataSetId) {
+		if (!(service instanceof BellaDatiServiceImpl)) {
+			throw new IllegalArgumentException("Unsupported service: " + service);
+		}
+		this.service = (BellaDatiServiceImpl) service;
+		this.dataSetId = dataSetId;
+	}
+
+	/**
+	 * Sets the number of rows to send in each batch. The default is 10000.
+	 * 
+	 * @param batchSize the number of rows per batch
+	 * @return this instance
+	 */
+	public BatchedDataUpload setBatchSize(int batchSize) {
+		if (batchSize <= 0) {
+			throw new IllegalArgumentException("Batch size must be > 0, was " + batchSize);
+		}
+		this.batchSize = batchSize;
+		return this;
+	}
+
+	/**
+	 * Sets the maximum number of batches to send at the same time. The default
+	 * is 4. Each batch uses a connection from the pool, limited by the
+	 * <tt>bdMaxConnections</tt> system property.
+	 * 
+	 * @param parallelism the maximum number of concurrent batches
+	 * @return this instance
+	 */
+	public BatchedDataUpload setParallelism(int parallelism) {
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be > 0, was " + parallelism);
+		}
+		this.parallelism = parallelism;
+		return this;
+	}
+
+	/**
+	 * Sets a listener to notify when a batch is complete or has failed.
+	 * 
+	 * @param listener the listener, may be <tt>null</tt>
+	 * @return this instance
+	 */
+	public BatchedDataUpload setProgressListener(ProgressListener listener) {
+		this.listener = listener;
+		return this;
+	}
+
+	/**
+	 * Uploads the contents of the given table.
+	 * 
+	 * @param data the data to upload
+	 * @return the number of rows uploaded
+	 */
+	public int upload(DataTable data) {
+		return upload(data.getColumns(), data.getOverwritePolicy(), BellaDatiServiceImpl.rowValues(data));
+	}
+
+	/**
+	 * Uploads the given rows. Each row holds the values for the given columns
+	 * in the same order.
+	 * 
+	 * @param columns the columns to import
+	 * @param overwritePolicy policy for existing data, applied with the first
+	 *            batch; may be <tt>null</tt> to keep all existing data
+	 * @param rows provides the rows to import
+	 * @return the number of rows uploaded
+	 */
+	public int upload(List<DataColumn> columns, OverwritePolicy overwritePolicy, Iterator<? extends List<String>> rows) {
+		Progress progress = new Progress();
+		List<List<String>> first = nextBatch(rows);
+		if (first.isEmpty()) {
+			return 0;
+		}
+		// existing data must be deleted before any other batch is imported
+		uploadBatch(0, columns, overwritePolicy, first, progress);
+		progress.throwFailure();
+		if (!rows.hasNext()) {
+			return progress.uploadedRows.get();
+		}
+
+		ExecutorService executor = AsyncBellaDatiService.createExecutor(parallelism);
+		Semaphore permits = new Semaphore(parallelism);
+		try {
+			for (int index = 1; progress.failure.get() == null; index++) {
+				permits.acquire();
+				if (progress.failure.get() != null) {
+					permits.release();
+					break;
+				}
+				List<List<String>> batch;
+				try {
+					batch = nextBatch(rows);
+				} catch (RuntimeException e) {
+					// thrown below, unless a batch has failed first
+					permits.release();
+					progress.failure.compareAndSet(null, e);
+					break;
+				}
+				if (batch.isEmpty()) {
+					permits.release();
+					break;
+				}
+				try {
+					executor.execute(new BatchTask(index, columns, batch, progress, permits));
+				} catch (RuntimeException e) {
+					// no task to release the permit
+					permits.release();
+					throw e;
+				}
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while uploading data", e);
+		} finally {
+			// wait for the batches in progress, even if sending failed
+			permits.acquireUninterruptibly(parallelism);
+			permits.release(parallelism);
+			executor.shutdown();
+		}
+		progress.throwFailure();
+		return progress.uploadedRows.get();
+	}
+
+	/** Reads up to a batch of rows from the given source. */
+	private List<List<String>> nextBatch(Iterator<? extends List<String>> rows) {
+		List<List<String>> batch = new ArrayList<List<String>>(batchSize);
+		while (batch.size() < batchSize && rows.hasNext()) {
+			batch.add(rows.next());
+		}
+		return batch;
+	}
+
+	/** Uploads a batch and notifies the listener of the result. */
+	private void uploadBatch(int index, List<DataColumn> columns, OverwritePolicy overwritePolicy,
+		List<List<String>> batch, Progress progress) {
+		RuntimeException failure = null;
+		try {
+			service.uploadData(dataSetId, columns, overwritePolicy, batch.iterator());
+			progress.uploadedRows.addAndGet(batch.size());
+			progress.completedBatches.incrementAndGet();
+		} catch (RuntimeException e) {
+			failure = e;
+			progress.failure.compareAndSet(null, e);
+		}
+		if (listener != null) {
+			listener.batchCompleted(new BatchProgress(index, batch.size(), progress.uploadedRows.get(),
+				progress.completedBatches.get(), System.nanoTime() - progress.start, failure));
+		}
+	}
+
+	/** Uploads a batch without deleting existing data. */
+	private class BatchTask implements Runnable {
+		private final int index;
+		private final List<DataColumn> columns;
+		private final List<List<String>> batch;
+		private final Progress progress;
+		private final Semaphore permits;
+
+		BatchTask(int index, List<DataColumn> columns, List<List<String>> batch, Progress progress, Semaphore permits) {
+			this.index = index;
+			this.columns = columns;
+			this.batch = batch;
+			this.progress = progress;
+			this.permits = permits;
+		}
+
+		@Override
+		public void run() {
+			try {
+				uploadBatch(index, columns, OverwritePolicy.deleteNone(), batch, progress);
+			} finally {
+				permits.release();
+			}
+		}
+	}
+
+	/** State of a single upload, shared by its batches. */
+	private static class Progress {
+		private final long start = System.nanoTime();
+		private final AtomicInteger uploadedRows = new AtomicInteger();
+		private final AtomicInteger completedBatches = new AtomicInteger();
+		private final AtomicReference<RuntimeException> failure = new AtomicReference<RuntimeException>();
+
+		/** Throws the first failure of any batch or of reading rows, if any. */
+		void throwFailure() {
+			RuntimeException e = failure.get();
+			if (e != null) {
+				throw e;
+			}
+		}
+	}
+
+	/** Notified of the progress of a batched upload. */
+	public interface ProgressListener {
+		/**
+		 * Called when a batch has been uploaded or has failed. May be called
+		 * concurrently from the threads uploading the batches.
+		 * 
+		 * @param progress the batch's result and the upload's progress
+		 */
+		void batchCompleted(BatchProgress progress);
+	}
+
+	/** Result of a single batch and progress of the upload so far. */
+	public static class BatchProgress {
+		private final int batch;
+		private final int batchRows;
+		private final int uploadedRows;
+		private final int completedBatches;
+		private final long elapsedNanos;
+		private final RuntimeException failure;
+
+		BatchProgress(int batch, int batchRows, int uploadedRows, int completedBatches, long elapsedNanos,
+			RuntimeException failure) {
+			this.batch = batch;
+			this.batchRows = batchRows;
+			this.uploadedRows = uploadedRows;
+			this.completedBatches = completedBatches;
+			this.elapsedNanos = elapsedNanos;
+			this.failure = failure;
+		}
+
+		/**
+		 * Returns the index of the batch, starting at 0. Batch <tt>n</tt>
+		 * holds the rows starting at <tt>n * batchSize</tt>.
+		 * 
+		 * @return the index of the batch
+		 */
+		public int getBatch() {
+			return batch;
+		}
+
+		/**
+		 * Returns the number of rows in the batch.
+		 * 
+		 * @return the number of rows in the batch
+		 */
+		public int getBatchRows() {
+			return batchRows;
+		}
+
+		/**
+		 * Returns the number of rows uploaded successfully so far, in all
+		 * batches.
+		 * 
+		 * @return the number of rows uploaded so far
+		 */
+		public int getUploadedRows() {
+			return uploadedRows;
+		}
+
+		/**
+		 * Returns the number of batches uploaded successfully so far.
+		 * 
+		 * @return the number of batches uploaded so far
+		 */
+		public int getCompletedBatches() {
+			return completedBatches;
+		}
+
+		/**
+		 * Returns the time since the upload started.
+		 * 
+		 * @param unit unit to return the time in
+		 * @return the time since the upload started
+		 */
+		public long getElapsedTime(TimeUnit unit) {
+			return unit.convert(elapsedNanos, TimeUnit.NANOSECONDS);
+		}
+
+		/**
+		 * Returns the average throughput of the upload so far.
+		 * 
+		 * @return the number of rows uploaded per second
+		 */
+		public double getRowsPerSecond() {
+			return elapsedNanos <= 0 ? 0 : uploadedRows * 1e9 / elapsedNanos;
+		}
+
+		/**
+		 * Returns the exception the batch failed with.
+		 * 
+		 * @return the exception the batch failed with, or <tt>null</tt> if it
+		 *         was uploaded successfully
+		 */
+		public RuntimeException getFailure() {
+			return failure;
+		}
+
+		@Override
+		public String toString() {
+			return "Batch " + batch + (failure == null ? " complete" : " failed") + ": " + uploadedRows + " rows uploaded";
+		}
+	}
+}
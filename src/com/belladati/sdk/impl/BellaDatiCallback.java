@@ -0,0 +1,25 @@
+package com.belladati.sdk.impl;
+
+/**
+ * Receives the outcome of an asynchronous SDK call.
+ * 
+ * @param <T> type of the result
+ */
+public interface BellaDatiCallback<T> {
+
+	/**
+	 * Called when the call completed successfully.
+	 * 
+	 * @param result the call's result
+	 */
+	void onSuccess(T result);
+
+	/**
+	 * Called when the call failed or was cancelled.
+	 * 
+	 * @param t the exception thrown by the call, or a
+	 *            {@link java.util.concurrent.CancellationException} if the
+	 *            call was cancelled
+	 */
+	void onFailure(Throwable t);
+}
@@ -4,40 +4,37 @@ import java.io.ByteArrayInputStream;
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.io.InterruptedIOException;
 import java.io.ObjectInputStream;
 import java.io.Serializable;
 import java.io.UnsupportedEncodingException;
 import java.lang.reflect.Field;
-import java.security.GeneralSecurityException;
+import java.net.URI;
 import java.util.List;
-
-import javax.net.ssl.SSLContext;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 import oauth.signpost.OAuth;
-import oauth.signpost.OAuthConsumer;
 import oauth.signpost.exception.OAuthException;
 import oauth.signpost.http.HttpParameters;
 
+import com.belladati.httpclientandroidlib.Header;
 import com.belladati.httpclientandroidlib.HttpEntity;
+import com.belladati.httpclientandroidlib.HttpEntityEnclosingRequest;
+import com.belladati.httpclientandroidlib.HttpHeaders;
+import com.belladati.httpclientandroidlib.HttpResponse;
+import com.belladati.httpclientandroidlib.HttpStatus;
 import com.belladati.httpclientandroidlib.NameValuePair;
-import com.belladati.httpclientandroidlib.client.config.RequestConfig;
+import com.belladati.httpclientandroidlib.client.cache.HttpCacheContext;
+import com.belladati.httpclientandroidlib.client.entity.GzipCompressingEntity;
 import com.belladati.httpclientandroidlib.client.entity.UrlEncodedFormEntity;
 import com.belladati.httpclientandroidlib.client.methods.CloseableHttpResponse;
 import com.belladati.httpclientandroidlib.client.methods.HttpGet;
 import com.belladati.httpclientandroidlib.client.methods.HttpPost;
 import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
-import com.belladati.httpclientandroidlib.config.RegistryBuilder;
-import com.belladati.httpclientandroidlib.conn.socket.ConnectionSocketFactory;
-import com.belladati.httpclientandroidlib.conn.socket.PlainConnectionSocketFactory;
-import com.belladati.httpclientandroidlib.conn.ssl.SSLConnectionSocketFactory;
-import com.belladati.httpclientandroidlib.conn.ssl.SSLContexts;
-import com.belladati.httpclientandroidlib.conn.ssl.TrustSelfSignedStrategy;
 import com.belladati.httpclientandroidlib.entity.ByteArrayEntity;
 import com.belladati.httpclientandroidlib.entity.StringEntity;
-import com.belladati.httpclientandroidlib.impl.client.CloseableHttpClient;
-import com.belladati.httpclientandroidlib.impl.client.cache.CacheConfig;
-import com.belladati.httpclientandroidlib.impl.client.cache.CachingHttpClientBuilder;
-import com.belladati.httpclientandroidlib.impl.conn.PoolingHttpClientConnectionManager;
+import com.belladati.httpclientandroidlib.util.EntityUtils;
 import com.belladati.sdk.exception.BellaDatiRuntimeException;
 import com.belladati.sdk.exception.ConnectionException;
 import com.belladati.sdk.exception.InternalConfigurationException;
@@ -48,68 +45,197 @@ import com.belladati.sdk.exception.server.InternalErrorException;
 import com.belladati.sdk.exception.server.InvalidJsonException;
 import com.belladati.sdk.exception.server.NotFoundException;
 import com.belladati.sdk.exception.server.UnexpectedResponseException;
+import com.belladati.sdk.impl.RequestEvent.Phase;
+import com.fasterxml.jackson.core.JsonProcessingException;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
 
 class BellaDatiClient implements Serializable {
 
 	/** The serialVersionUID */
 	private static final long serialVersionUID = 9138881190417975299L;
 
+	/** smaller request bodies aren't worth compressing */
+	private static final int MIN_COMPRESSED_SIZE = 1024;
+
+	/** properties configuring the HTTP client, clients can be shared if equal */
+	private static final String[] CLIENT_PROPERTIES = { "bdTimeout", "bdConnectTimeout", "bdConnectionRequestTimeout",
+		"bdSocketTimeout", "bdMaxConnections", "bdCacheDir", "bdCacheMaxSize", "bdCompressResponses", "bdTransport",
+		"bdMaxConcurrentRequests", "bdMaxRequestsPerSecond", "bdRequestBurst", "bdAdaptiveLimit",
+		"bdMaxBackgroundRequests", "bdPrioritizeRequests" };
+
+	/** Shared JSON reader; readers are immutable and safe to use concurrently. */
+	private static final ObjectReader JSON_READER = new ObjectMapper().reader();
+
+	/** Reads a successful response body into a byte array. */
+	private static final ContentReader<byte[]> BYTES = new ContentReader<byte[]>() {
+		@Override
+		public byte[] read(HttpResponse response) throws IOException {
+			return readBytes(response.getEntity());
+		}
+	};
+
+	/** Gives each caller sharing a request its own copy of the content. */
+	private static final RequestCoalescer.Copier<byte[]> BYTES_COPIER = new RequestCoalescer.Copier<byte[]>() {
+		@Override
+		public byte[] copy(byte[] result) {
+			return result.clone();
+		}
+	};
+
+	/** Parses a successful response body as JSON directly from the stream. */
+	private static final ContentReader<JsonNode> JSON = new ContentReader<JsonNode>() {
+		@Override
+		public JsonNode read(HttpResponse response) throws IOException {
+			return readJson(response.getEntity());
+		}
+	};
+
+	/**
+	 * Parses a successful response body as JSON and keeps its validators, or
+	 * reports content as unchanged if the server said so.
+	 */
+	private static final ContentReader<ConditionalResponse<JsonNode>> CONDITIONAL_JSON = new ContentReader<ConditionalResponse<JsonNode>>() {
+		@Override
+		public ConditionalResponse<JsonNode> read(HttpResponse response) throws IOException {
+			Header eTag = response.getFirstHeader(HttpHeaders.ETAG);
+			Header lastModified = response.getFirstHeader(HttpHeaders.LAST_MODIFIED);
+			boolean notModified = response.getStatusLine().getStatusCode() == HttpStatus.SC_NOT_MODIFIED;
+			return new ConditionalResponse<JsonNode>(notModified ? null : readJson(response.getEntity()), notModified,
+				eTag == null ? null : eTag.getValue(), lastModified == null ? null : lastModified.getValue());
+		}
+	};
+
+	/**
+	 * Parses the given entity as JSON directly from its stream.
+	 * 
+	 * @param entity the entity to parse, may be <tt>null</tt>
+	 * @return the parsed JSON
+	 * @throws IOException if reading the content failed
+	 */
+	private static JsonNode readJson(HttpEntity entity) throws IOException {
+		if (entity == null) {
+			throw new InvalidJsonException("Could not parse JSON response, was empty");
+		}
+		InputStream in = entity.getContent();
+		try {
+			return JSON_READER.readTree(in);
+		} catch (JsonProcessingException e) {
+			throw new InvalidJsonException("Could not parse JSON response", e);
+		} finally {
+			in.close();
+		}
+	}
+
 	private final String baseUrl;
 	private final boolean trustSelfSigned;
 
-	private final transient CloseableHttpClient client;
+	/** HTTP client and pool, shared with other clients of the same server */
+	final transient ClientRegistry.SharedClient sharedClient;
+
+	/** transport metrics of the shared client */
+	private final transient ClientMetrics metrics;
+
+	/** sends requests to the server */
+	private final transient HttpTransport transport;
+
+	/** shares identical GET requests in flight, <tt>null</tt> if disabled */
+	private final transient RequestCoalescer coalescer;
+
+	/** duplicates slow GET requests, <tt>null</tt> if disabled */
+	private final transient RequestHedger hedger;
+
+	/** <tt>true</tt> to gzip request bodies other than forms */
+	private final transient boolean compressUploads;
+
+	/** notified of the timings of each request */
+	private final transient List<RequestListener> listeners = new CopyOnWriteArrayList<RequestListener>();
+
+	/** <tt>true</tt> once the shared client has been released, set under this */
+	private transient volatile boolean closed;
 
 	BellaDatiClient(String baseUrl, boolean trustSelfSigned) {
 		this.baseUrl = baseUrl.endsWith("/") ? baseUrl : (baseUrl + "/");
 		this.trustSelfSigned = trustSelfSigned;
-		this.client = buildClient(trustSelfSigned);
+		this.sharedClient = acquireClient();
+		this.metrics = sharedClient.metrics;
+		this.transport = sharedClient.transport;
+		this.coalescer = buildCoalescer();
+		this.hedger = buildHedger();
+		this.compressUploads = readFromProperty("bdCompressUploads", false);
 	}
 
 	/**
-	 * Builds the HTTP client to connect to the server.
+	 * Gets an HTTP transport from the registry, shared with all other clients
+	 * connecting to the same server with the same configuration. Sharing can
+	 * be disabled through the <tt>bdShareClients</tt> property.
+	 * <p>
+	 * By default, requests are sent using the bundled HTTP client. Setting the
+	 * <tt>bdTransport</tt> property to <tt>urlconnection</tt> uses the
+	 * platform's {@link java.net.HttpURLConnection} instead.
 	 * 
-	 * @param trustSelfSigned <tt>true</tt> if the client should accept
-	 *            self-signed certificates
-	 * @return a new client instance
+	 * @return the shared client, to be released when this instance isn't used
+	 *         anymore
 	 */
-	private CloseableHttpClient buildClient(boolean trustSelfSigned) {
-		try {
-			// if required, define custom SSL context allowing self-signed certs
-			SSLContext sslContext = !trustSelfSigned ? SSLContexts.createSystemDefault() : SSLContexts.custom()
-				.loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
-
-			// set timeouts for the HTTP client
-			int globalTimeout = readFromProperty("bdTimeout", 10000);
-			int connectTimeout = readFromProperty("bdConnectTimeout", globalTimeout);
-			int connectionRequestTimeout = readFromProperty("bdConnectionRequestTimeout", globalTimeout);
-			int socketTimeout = readFromProperty("bdSocketTimeout", globalTimeout);
-			RequestConfig requestConfig = RequestConfig.copy(RequestConfig.DEFAULT).setConnectTimeout(connectTimeout)
-				.setSocketTimeout(socketTimeout).setConnectionRequestTimeout(connectionRequestTimeout).build();
-
-			// configure caching
-			CacheConfig cacheConfig = CacheConfig.copy(CacheConfig.DEFAULT).setSharedCache(false).setMaxCacheEntries(1000)
-				.setMaxObjectSize(2 * 1024 * 1024).build();
-
-			// configure connection pooling
-			PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager(RegistryBuilder
-				.<ConnectionSocketFactory> create().register("http", PlainConnectionSocketFactory.getSocketFactory())
-				.register("https", new SSLConnectionSocketFactory(sslContext)).build());
-			int connectionLimit = readFromProperty("bdMaxConnections", 40);
-			// there's only one server to connect to, so max per route matters
-			connManager.setMaxTotal(connectionLimit);
-			connManager.setDefaultMaxPerRoute(connectionLimit);
-
-			// create the HTTP client
-			return CachingHttpClientBuilder.create().setCacheConfig(cacheConfig).setDefaultRequestConfig(requestConfig)
-				.setConnectionManager(connManager).build();
-		} catch (GeneralSecurityException e) {
-			throw new InternalConfigurationException("Failed to set up SSL context", e);
-		}
-	}
-
-	private int readFromProperty(String property, int defaultValue) {
+	private ClientRegistry.SharedClient acquireClient() {
+		String key = null;
+		if (readFromProperty("bdShareClients", true)) {
+			StringBuilder sb = new StringBuilder(baseUrl).append('|').append(trustSelfSigned);
+			for (String property : CLIENT_PROPERTIES) {
+				sb.append('|').append(System.getProperty(property));
+			}
+			key = sb.toString();
+		}
+		return ClientRegistry.acquire(key, new ClientRegistry.ClientFactory() {
+			@Override
+			public HttpTransport build(ClientMetrics metrics) {
+				if ("urlconnection".equalsIgnoreCase(System.getProperty("bdTransport", "").trim())) {
+					return new UrlConnectionTransport(trustSelfSigned, metrics);
+				}
+				return new HttpClientTransport(baseUrl, trustSelfSigned, metrics);
+			}
+		});
+	}
+
+	/**
+	 * Builds the coalescer for identical concurrent GET requests, unless
+	 * disabled through the <tt>bdCoalesceRequests</tt> property.
+	 * 
+	 * @return a new coalescer, or <tt>null</tt> if coalescing is disabled
+	 */
+	private RequestCoalescer buildCoalescer() {
+		return readFromProperty("bdCoalesceRequests", true) ? new RequestCoalescer() : null;
+	}
+
+	/**
+	 * Builds the hedger for slow GET requests if enabled through the
+	 * <tt>bdHedgeRequests</tt> property. A duplicate request is sent when no
+	 * response arrived within the <tt>bdHedgePercentile</tt> percentile of
+	 * recent response times (default 95), but no sooner than
+	 * <tt>bdHedgeMinDelay</tt> milliseconds (default 20). At most
+	 * <tt>bdHedgeMaxPercent</tt> percent of requests are duplicated (default
+	 * 5). Requests and their duplicates are sent on at most twice as many
+	 * threads as there are connections (<tt>bdMaxConnections</tt>).
+	 * 
+	 * @return a new hedger, or <tt>null</tt> if hedging is disabled
+	 */
+	private RequestHedger buildHedger() {
+		if (!readFromProperty("bdHedgeRequests", false)) {
+			return null;
+		}
+		return new RequestHedger(readFromProperty("bdHedgePercentile", 95), readFromProperty("bdHedgeMinDelay", 20),
+			readFromProperty("bdHedgeMaxPercent", 5), 2 * readFromProperty("bdMaxConnections", 40));
+	}
+
+	/**
+	 * Reads an integer configuration value from a system property.
+	 * 
+	 * @param property name of the system property
+	 * @param defaultValue value to use if the property isn't set or invalid
+	 * @return the configured value
+	 */
+	static int readFromProperty(String property, int defaultValue) {
 		try {
 			return Integer.parseInt(System.getProperty(property));
 		} catch (NumberFormatException e) {
@@ -117,6 +243,18 @@ class BellaDatiClient implements Serializable {
 		}
 	}
 
+	/**
+	 * Reads a boolean configuration value from a system property.
+	 * 
+	 * @param property name of the system property
+	 * @param defaultValue value to use if the property isn't set
+	 * @return the configured value
+	 */
+	static boolean readFromProperty(String property, boolean defaultValue) {
+		String value = System.getProperty(property);
+		return value == null ? defaultValue : Boolean.parseBoolean(value.trim());
+	}
+
 	public byte[] post(String relativeUrl, TokenHolder tokenHolder) {
 		return post(relativeUrl, tokenHolder, null, null);
 	}
@@ -139,7 +277,7 @@ class BellaDatiClient implements Serializable {
 				throw new IllegalArgumentException("Invalid URL encoding", e);
 			}
 		}
-		return doRequest(post, tokenHolder, oauthParams);
+		return doRequest(post, tokenHolder, oauthParams, BYTES);
 	}
 
 	public byte[] postUpload(String relativeUrl, TokenHolder tokenHolder, String content) {
@@ -154,6 +292,21 @@ class BellaDatiClient implements Serializable {
 		return doRequest(post, tokenHolder);
 	}
 
+	/**
+	 * Posts the given entity to the server. The entity is written directly to
+	 * the connection, so it can be streamed while it's sent.
+	 * 
+	 * @param relativeUrl URL to post to, relative to the base URL
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @param entity the entity to post
+	 * @return the response content
+	 */
+	public byte[] postUpload(String relativeUrl, TokenHolder tokenHolder, HttpEntity entity) {
+		HttpPost post = new HttpPost(baseUrl + relativeUrl);
+		post.setEntity(entity);
+		return doRequest(post, tokenHolder);
+	}
+
 	public byte[] postData(String relativeUrl, TokenHolder tokenHolder, byte[] content) {
 		HttpPost post = new HttpPost(baseUrl + relativeUrl);
 		ByteArrayEntity entity = new ByteArrayEntity(content);
@@ -188,17 +341,180 @@ class BellaDatiClient implements Serializable {
 		}
 	}
 
+	/**
+	 * Loads the content at the given URL. Identical requests made concurrently
+	 * with the same token share a single round trip; each caller receives its
+	 * own copy of the content.
+	 * 
+	 * @param relativeUrl URL to load, relative to the base URL
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @return the response content
+	 */
 	public byte[] get(String relativeUrl, TokenHolder tokenHolder) {
-		return doRequest(new HttpGet(baseUrl + relativeUrl), tokenHolder);
+		return coalesce("bytes", new HttpGet(baseUrl + relativeUrl), tokenHolder, BYTES, BYTES_COPIER);
 	}
 
+	/**
+	 * Loads JSON from the given URL. The response is parsed directly from the
+	 * connection's stream without buffering the full content in memory first.
+	 * 
+	 * @param relativeUrl URL to load, relative to the base URL
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @return the parsed JSON response
+	 */
 	public JsonNode getJson(String relativeUrl, TokenHolder tokenHolder) {
-		byte[] response = get(relativeUrl, tokenHolder);
-		try {
-			return new ObjectMapper().readTree(response);
-		} catch (IOException e) {
-			throw new InvalidJsonException("Could not parse JSON response, was " + new String(response), e);
+		return coalesce("json", new HttpGet(baseUrl + relativeUrl), tokenHolder, JSON, null);
+	}
+
+	/**
+	 * Loads JSON from the given URL, unless it hasn't changed since it was
+	 * last loaded. Validators from a previous response are sent along with
+	 * the request, allowing the server to respond that the content is
+	 * unchanged instead of sending it again.
+	 * 
+	 * @param relativeUrl URL to load, relative to the base URL
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @param eTag entity tag of the previous response, may be <tt>null</tt>
+	 * @param lastModified last modification date of the previous response,
+	 *            may be <tt>null</tt>
+	 * @return the parsed JSON response, or an indication that the content is
+	 *         unchanged
+	 */
+	public ConditionalResponse<JsonNode> getJson(String relativeUrl, TokenHolder tokenHolder, String eTag,
+		String lastModified) {
+		HttpGet get = new HttpGet(baseUrl + relativeUrl);
+		if (eTag != null) {
+			get.addHeader(HttpHeaders.IF_NONE_MATCH, eTag);
 		}
+		if (lastModified != null) {
+			get.addHeader(HttpHeaders.IF_MODIFIED_SINCE, lastModified);
+		}
+		return coalesce("json " + eTag + " " + lastModified, get, tokenHolder, CONDITIONAL_JSON, null);
+	}
+
+	/**
+	 * Executes a GET request, sharing the result with identical requests
+	 * already in flight. Requests are identical if they have the same URL and
+	 * are made with the same consumer, token and priority, so that requests
+	 * don't wait for a lower priority request.
+	 * 
+	 * @param type type of result, to keep different readers and request
+	 *            headers apart
+	 * @param get the request to execute
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @param reader reads the response content
+	 * @param copier copies the content for callers sharing a request, or
+	 *            <tt>null</tt> if they can share the same instance
+	 * @return the response content
+	 */
+	private <T> T coalesce(String type, final HttpGet get, final TokenHolder tokenHolder, final ContentReader<T> reader,
+		RequestCoalescer.Copier<T> copier) {
+		if (coalescer == null) {
+			return executeGet(get, tokenHolder, reader);
+		}
+		String key = type + " " + tokenHolder.getConsumerKey() + " " + tokenHolder.getToken() + " "
+			+ RequestPriority.current() + " " + get.getURI();
+		return coalescer.execute(key, new Callable<T>() {
+			@Override
+			public T call() {
+				return executeGet(get, tokenHolder, reader);
+			}
+		}, copier);
+	}
+
+	/**
+	 * Executes a GET request, sending a duplicate if hedging is enabled and
+	 * the response takes unusually long.
+	 * 
+	 * @param get the request to execute
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @param reader reads the response content
+	 * @return the response content
+	 */
+	private <T> T executeGet(final HttpGet get, final TokenHolder tokenHolder, final ContentReader<T> reader) {
+		if (hedger == null) {
+			return doRequest(get, tokenHolder, null, reader);
+		}
+		// attempts run on other threads
+		final RequestPriority priority = RequestPriority.current();
+		return hedger.execute(new RequestHedger.Attempt<T>() {
+			@Override
+			public HttpRequestBase createRequest() {
+				// each attempt is signed separately, with its own nonce
+				HttpGet copy = new HttpGet(get.getURI());
+				copy.setHeaders(get.getAllHeaders());
+				return copy;
+			}
+
+			@Override
+			public T execute(HttpRequestBase request) {
+				RequestPriority previous = priority.enter();
+				try {
+					return doRequest(request, tokenHolder, null, reader);
+				} finally {
+					RequestPriority.restore(previous);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Returns the number of GET requests that didn't go to the server because
+	 * they joined an identical request already in flight.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	long getCoalescedRequestCount() {
+		return coalescer == null ? 0 : coalescer.getCoalescedCount();
+	}
+
+	/**
+	 * Returns the number of GET requests for which a duplicate was sent
+	 * because the response took unusually long.
+	 * 
+	 * @return the number of hedged requests
+	 */
+	long getHedgeCount() {
+		return hedger == null ? 0 : hedger.getHedgeCount();
+	}
+
+	/**
+	 * Returns the number of duplicate GET requests that completed before the
+	 * original request.
+	 * 
+	 * @return the number of hedged requests won by the duplicate
+	 */
+	long getHedgeWonCount() {
+		return hedger == null ? 0 : hedger.getHedgeWonCount();
+	}
+
+	/**
+	 * Returns a snapshot of this client's transport metrics. Except for
+	 * request coalescing and hedging, the metrics are shared with all clients
+	 * using the same HTTP client, i.e. connecting to the same server.
+	 * 
+	 * @return the current metrics
+	 */
+	BellaDatiMetrics getMetrics() {
+		return metrics.snapshot(getCoalescedRequestCount(), getHedgeCount(), getHedgeWonCount());
+	}
+
+	/**
+	 * Registers a listener to be notified of the timings of each request.
+	 * 
+	 * @param listener the listener to register
+	 */
+	void addRequestListener(RequestListener listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a previously registered request listener.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	void removeRequestListener(RequestListener listener) {
+		listeners.remove(listener);
 	}
 
 	public String getBaseUrl() {
@@ -206,39 +522,161 @@ class BellaDatiClient implements Serializable {
 	}
 
 	private byte[] doRequest(HttpRequestBase request, TokenHolder tokenHolder) {
-		return doRequest(request, tokenHolder, null);
+		return doRequest(request, tokenHolder, null, BYTES);
 	}
 
-	private byte[] doRequest(HttpRequestBase request, TokenHolder tokenHolder, HttpParameters oauthParams) {
+	/**
+	 * Signs and executes the given request and maps the response status to
+	 * the corresponding result or exception. The request's time is recorded
+	 * by priority. If request listeners are registered, its phases are timed
+	 * and the listeners are notified.
+	 * 
+	 * @param request the request to execute
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @param oauthParams additional OAuth parameters, may be <tt>null</tt>
+	 * @param reader reads the response entity if the request was successful
+	 * @return the content read from a successful response
+	 */
+	private <T> T doRequest(HttpRequestBase request, TokenHolder tokenHolder, HttpParameters oauthParams,
+		ContentReader<T> reader) {
+		if (closed) {
+			throw new IllegalStateException("Connection to " + baseUrl + " has been closed");
+		}
+		RequestPriority priority = RequestPriority.current();
+		long start = System.nanoTime();
+		if (listeners.isEmpty()) {
+			try {
+				return doRequest(request, tokenHolder, oauthParams, reader, priority, null);
+			} finally {
+				metrics.recordRequestTime(priority, System.nanoTime() - start);
+			}
+		}
+		RequestTimer timer = new RequestTimer();
+		timer.attach();
+		RuntimeException failure = null;
+		try {
+			return doRequest(request, tokenHolder, oauthParams, reader, priority, timer);
+		} catch (RuntimeException e) {
+			failure = e;
+			throw e;
+		} finally {
+			metrics.recordRequestTime(priority, System.nanoTime() - start);
+			timer.detach();
+			RequestEvent event = timer.finish(request.getMethod(), request.getURI().toString(),
+				getUriTemplate(request), priority, failure);
+			for (RequestListener listener : listeners) {
+				try {
+					listener.requestCompleted(event);
+				} catch (RuntimeException e) {
+					// a broken listener shouldn't break the request
+				}
+			}
+		}
+	}
+
+	/**
+	 * Executes the given request once the dispatcher allows it to be sent,
+	 * waiting for requests with higher priority.
+	 * 
+	 * @param request the request to execute
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @param oauthParams additional OAuth parameters, may be <tt>null</tt>
+	 * @param reader reads the response entity if the request was successful
+	 * @param priority priority of the request
+	 * @param timer measures the request's phases, may be <tt>null</tt>
+	 * @return the content read from a successful response
+	 */
+	private <T> T doRequest(HttpRequestBase request, TokenHolder tokenHolder, HttpParameters oauthParams,
+		ContentReader<T> reader, RequestPriority priority, RequestTimer timer) {
+		RequestDispatcher dispatcher = sharedClient.dispatcher;
+		if (dispatcher == null) {
+			return doLimitedRequest(request, tokenHolder, oauthParams, reader, priority, timer);
+		}
+		dispatcher.acquire(priority);
+		try {
+			return doLimitedRequest(request, tokenHolder, oauthParams, reader, priority, timer);
+		} finally {
+			dispatcher.release(priority);
+		}
+	}
+
+	/**
+	 * Signs and executes the given request once allowed by the request
+	 * limiter, if there is one, and maps the response status to the
+	 * corresponding result or exception.
+	 * 
+	 * @param request the request to execute
+	 * @param tokenHolder holds the tokens to sign the request with
+	 * @param oauthParams additional OAuth parameters, may be <tt>null</tt>
+	 * @param reader reads the response entity if the request was successful
+	 * @param priority priority of the request
+	 * @param timer measures the request's phases, may be <tt>null</tt>
+	 * @return the content read from a successful response
+	 */
+	private <T> T doLimitedRequest(HttpRequestBase request, TokenHolder tokenHolder, HttpParameters oauthParams,
+		ContentReader<T> reader, RequestPriority priority, RequestTimer timer) {
+		// wait for the limiter before signing, the signature has a timestamp
+		RequestLimiter limiter = sharedClient.limiter;
+		long acquiredAt = limiter == null ? 0 : limiter.acquire(priority);
+		boolean overloaded = false;
 		CloseableHttpResponse response = null;
 		try {
-			OAuthConsumer consumer = tokenHolder.createConsumer();
-			consumer.setAdditionalParameters(oauthParams);
-			consumer.sign(request);
-			response = client.execute(request);
+			long start = System.nanoTime();
+			tokenHolder.sign(request, oauthParams);
+			if (request instanceof HttpEntityEnclosingRequest) {
+				// only after signing, the signature covers the original content
+				prepareEntity((HttpEntityEnclosingRequest) request);
+			}
+			HttpCacheContext context = HttpCacheContext.create();
+			long executeStart = System.nanoTime();
+			try {
+				response = transport.execute(request, context);
+			} catch (IOException e) {
+				metrics.recordFailure();
+				throw e;
+			}
 			int statusCode = response.getStatusLine().getStatusCode();
-			HttpEntity entity = response.getEntity();
-			byte[] content = entity != null ? readBytes(entity.getContent()) : new byte[0];
+			metrics.recordResponse(statusCode, context.getCacheResponseStatus());
+			overloaded = statusCode >= 500;
+			if (timer != null) {
+				timer.add(Phase.SIGNING, executeStart - start);
+				// waiting for and opening the connection were measured by the pool
+				timer.add(Phase.TIME_TO_FIRST_BYTE, Math.max(0, System.nanoTime() - executeStart
+					- timer.get(Phase.CONNECTION_WAIT) - timer.get(Phase.CONNECT)));
+				timer.setStatusCode(statusCode);
+			}
+			HttpEntity entity = metrics.countReceived(response.getEntity());
+			response.setEntity(entity);
 			switch (statusCode) {
 			case 200:
 			case 204:
-				// all is well, return
+				// all is well, read the content and return
+				T content = read(reader, response, timer);
+				EntityUtils.consume(entity);
 				return content;
+			case 304:
+				// only expected when we asked for it in a conditional request
+				if (request.containsHeader(HttpHeaders.IF_NONE_MATCH) || request.containsHeader(HttpHeaders.IF_MODIFIED_SINCE)) {
+					return read(reader, response, timer);
+				}
+				throw new UnexpectedResponseException(statusCode, new String(readBytes(entity)));
 				// there was some sort of error - throw the right exception
 			case 400:
 			case 401:
 			case 403:
-				throw buildException(statusCode, content, tokenHolder.hasToken());
+				throw buildException(statusCode, readBytes(entity), tokenHolder.hasToken());
 			case 404:
 				throw new NotFoundException(request.getRequestLine().getUri());
 			case 500:
 				throw new InternalErrorException();
 			default:
-				throw new UnexpectedResponseException(statusCode, new String(content));
+				throw new UnexpectedResponseException(statusCode, new String(readBytes(entity)));
 			}
 		} catch (OAuthException e) {
 			throw new InternalConfigurationException("Failed to create OAuth signature", e);
 		} catch (IOException e) {
+			// timeouts indicate an overloaded server, unless we aborted
+			overloaded = e instanceof InterruptedIOException && !request.isAborted();
 			throw new ConnectionException("Failed to connect to BellaDati", e);
 		} finally {
 			try {
@@ -247,11 +685,80 @@ class BellaDatiClient implements Serializable {
 				}
 			} catch (IOException e) {
 				throw new ConnectionException("Failed to connect to BellaDati", e);
+			} finally {
+				request.releaseConnection();
+				if (limiter != null) {
+					limiter.release(acquiredAt, overloaded);
+				}
 			}
-			request.releaseConnection();
 		}
 	}
 
+	/**
+	 * Prepares a request's entity for sending: counts its content and, if
+	 * enabled, compresses it. Forms aren't compressed, since their content is
+	 * part of the OAuth signature and the server needs to read it as is.
+	 * 
+	 * @param request the request to send
+	 */
+	private void prepareEntity(HttpEntityEnclosingRequest request) {
+		HttpEntity entity = request.getEntity();
+		if (entity == null) {
+			return;
+		}
+		Header contentType = entity.getContentType();
+		boolean form = contentType != null && contentType.getValue().startsWith("application/x-www-form-urlencoded");
+		long length = entity.getContentLength();
+		entity = metrics.countSent(entity);
+		if (compressUploads && !form && (length < 0 || length >= MIN_COMPRESSED_SIZE)) {
+			entity = new GzipCompressingEntity(entity);
+		}
+		request.setEntity(entity);
+	}
+
+	/**
+	 * Reads the given response, adding the time spent reading and processing
+	 * its content to the timer if there is one.
+	 * 
+	 * @param reader reads the response
+	 * @param response the response to read
+	 * @param timer measures the request's phases, may be <tt>null</tt>
+	 * @return the content read from the response
+	 * @throws IOException if reading the content failed
+	 */
+	private static <T> T read(ContentReader<T> reader, CloseableHttpResponse response, RequestTimer timer)
+		throws IOException {
+		if (timer == null) {
+			return reader.read(response);
+		}
+		response.setEntity(timer.timeReads(response.getEntity()));
+		long start = System.nanoTime();
+		try {
+			return reader.read(response);
+		} finally {
+			// whatever wasn't spent waiting for the stream was spent processing
+			timer.add(Phase.PARSE, Math.max(0, System.nanoTime() - start - timer.get(Phase.BODY_READ)));
+		}
+	}
+
+	/**
+	 * Returns the template of the given request's URI, relative to the base
+	 * URL and with IDs replaced by placeholders.
+	 * 
+	 * @param request the request
+	 * @return the request's URI template
+	 */
+	private String getUriTemplate(HttpRequestBase request) {
+		String path = request.getURI().getRawPath();
+		String basePath = URI.create(baseUrl).getRawPath();
+		if (path == null) {
+			path = "";
+		} else if (basePath != null && path.startsWith(basePath)) {
+			path = path.substring(basePath.length());
+		}
+		return UriTemplates.of(path);
+	}
+
 	/**
 	 * Builds an exception based on the given content, assuming that it has been
 	 * returned as an error from the server.
@@ -306,24 +813,125 @@ class BellaDatiClient implements Serializable {
 
 	}
 
-	private static byte[] readBytes(InputStream in) throws IOException {
-		int len;
-		byte[] buffer = new byte[128];
-		ByteArrayOutputStream buf = new ByteArrayOutputStream(8192);
-		while ((len = in.read(buffer, 0, buffer.length)) != -1) {
-			buf.write(buffer, 0, len);
+	/**
+	 * Reads the full content of the given entity into a byte array.
+	 * 
+	 * @param entity the entity to read, may be <tt>null</tt>
+	 * @return the entity's content, empty if there was no entity
+	 * @throws IOException if reading the content failed
+	 */
+	private static byte[] readBytes(HttpEntity entity) throws IOException {
+		if (entity == null) {
+			return new byte[0];
+		}
+		InputStream in = entity.getContent();
+		if (in == null) {
+			return new byte[0];
+		}
+		try {
+			long length = entity.getContentLength();
+			// size the buffer up front if the server told us the length
+			ByteArrayOutputStream buf = new ByteArrayOutputStream(length > 0 && length < Integer.MAX_VALUE ? (int) length
+				: 8192);
+			byte[] buffer = new byte[8192];
+			int len;
+			while ((len = in.read(buffer, 0, buffer.length)) != -1) {
+				buf.write(buffer, 0, len);
+			}
+			return buf.toByteArray();
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Reads the entity of a successful response.
+	 * 
+	 * @param <T> type of content read from the entity
+	 */
+	interface ContentReader<T> {
+		/**
+		 * Reads the given response's content.
+		 * 
+		 * @param response the response to read, its entity may be
+		 *            <tt>null</tt> if the response had no content
+		 * @return the content read from the response
+		 * @throws IOException if reading the content failed
+		 */
+		T read(HttpResponse response) throws IOException;
+	}
+
+	/**
+	 * Releases the shared HTTP client, closing it if no other client uses it
+	 * anymore. Requests made through this instance afterwards fail with an
+	 * {@link IllegalStateException}. Closing more than once has no effect.
+	 */
+	void close() {
+		synchronized (this) {
+			if (closed) {
+				return;
+			}
+			closed = true;
+		}
+		if (sharedClient != null) {
+			ClientRegistry.release(sharedClient);
+		}
+	}
+
+	/**
+	 * Checks if this client has been closed.
+	 * 
+	 * @return <tt>true</tt> if {@link #close()} has been called
+	 */
+	boolean isClosed() {
+		return closed;
+	}
+
+	/**
+	 * Releases the shared HTTP client if this instance was never closed
+	 * explicitly.
+	 */
+	@Override
+	protected void finalize() throws Throwable {
+		try {
+			close();
+		} finally {
+			super.finalize();
 		}
-		buf.flush();
-		return buf.toByteArray();
 	}
 
 	/** Deserialization. Sets up an HTTP client instance. */
 	private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException {
 		in.defaultReadObject();
 		try {
-			Field client = getClass().getDeclaredField("client");
-			client.setAccessible(true);
-			client.set(this, buildClient(trustSelfSigned));
+			ClientRegistry.SharedClient newSharedClient = acquireClient();
+			Field sharedClient = getClass().getDeclaredField("sharedClient");
+			sharedClient.setAccessible(true);
+			sharedClient.set(this, newSharedClient);
+
+			Field metrics = getClass().getDeclaredField("metrics");
+			metrics.setAccessible(true);
+			metrics.set(this, newSharedClient.metrics);
+
+			Field transport = getClass().getDeclaredField("transport");
+			transport.setAccessible(true);
+			transport.set(this, newSharedClient.transport);
+
+			Field coalescer = getClass().getDeclaredField("coalescer");
+			coalescer.setAccessible(true);
+			coalescer.set(this, buildCoalescer());
+
+			Field hedger = getClass().getDeclaredField("hedger");
+			hedger.setAccessible(true);
+			hedger.set(this, buildHedger());
+
+			Field compressUploads = getClass().getDeclaredField("compressUploads");
+			compressUploads.setAccessible(true);
+			compressUploads.setBoolean(this, readFromProperty("bdCompressUploads", false));
+
+			Field listeners = getClass().getDeclaredField("listeners");
+			listeners.setAccessible(true);
+			listeners.set(this, new CopyOnWriteArrayList<RequestListener>());
 		} catch (NoSuchFieldException e) {
 			throw new InternalConfigurationException("Failed to set client fields", e);
 		} catch (IllegalAccessException e) {
@@ -21,7 +21,7 @@ class BellaDatiConnectionImpl implements BellaDatiConnection {
 	/** The serialVersionUID */
 	private static final long serialVersionUID = -4137207765985769374L;
 
-	private final BellaDatiClient client;
+	final BellaDatiClient client;
 
 	BellaDatiConnectionImpl(String baseUrl, boolean trustSelfSigned) {
 		client = new BellaDatiClient(baseUrl, trustSelfSigned);
@@ -0,0 +1,82 @@
+package com.belladati.sdk.impl;
+
+import com.belladati.sdk.BellaDatiConnection;
+import com.belladati.sdk.BellaDatiService;
+
+/**
+ * Releases the resources held by connections created by this SDK
+ * implementation.
+ * <p>
+ * Connections to the same server share an HTTP client and its connection
+ * pool, which is closed once no connection uses it anymore. A connection and
+ * all services created from it use the same client, so closing either closes
+ * the others as well. Requests made through them afterwards fail with an
+ * {@link IllegalStateException}. Connections and services that are never
+ * closed release their client when they're garbage collected.
+ */
+public class BellaDatiConnections {
+
+	private BellaDatiConnections() {}
+
+	/**
+	 * Closes the given connection and all services created from it. Closing
+	 * more than once has no effect.
+	 * 
+	 * @param connection a connection created by this SDK implementation
+	 * @throws IllegalArgumentException if the connection wasn't created by
+	 *             this SDK implementation
+	 */
+	public static void close(BellaDatiConnection connection) {
+		clientOf(connection).close();
+	}
+
+	/**
+	 * Closes the connection the given service uses, along with all other
+	 * services created from it. Closing more than once has no effect.
+	 * 
+	 * @param service a service created by this SDK implementation
+	 * @throws IllegalArgumentException if the service wasn't created by this
+	 *             SDK implementation
+	 */
+	public static void close(BellaDatiService service) {
+		clientOf(service).close();
+	}
+
+	/**
+	 * Checks if the given connection has been closed.
+	 * 
+	 * @param connection a connection created by this SDK implementation
+	 * @return <tt>true</tt> if the connection has been closed
+	 * @throws IllegalArgumentException if the connection wasn't created by
+	 *             this SDK implementation
+	 */
+	public static boolean isClosed(BellaDatiConnection connection) {
+		return clientOf(connection).isClosed();
+	}
+
+	/**
+	 * Checks if the connection the given service uses has been closed.
+	 * 
+	 * @param service a service created by this SDK implementation
+	 * @return <tt>true</tt> if the service's connection has been closed
+	 * @throws IllegalArgumentException if the service wasn't created by this
+	 *             SDK implementation
+	 */
+	public static boolean isClosed(BellaDatiService service) {
+		return clientOf(service).isClosed();
+	}
+
+	private static BellaDatiClient clientOf(BellaDatiService service) {
+		if (service instanceof BellaDatiServiceImpl) {
+			return ((BellaDatiServiceImpl) service).client;
+		}
+		throw new IllegalArgumentException("Unsupported service: " + service);
+	}
+
+	private static BellaDatiClient clientOf(BellaDatiConnection connection) {
+		if (connection instanceof BellaDatiConnectionImpl) {
+			return ((BellaDatiConnectionImpl) connection).client;
+		}
+		throw new IllegalArgumentException("Unsupported connection: " + connection);
+	}
+}
@@ -0,0 +1,314 @@
+package com.belladati.sdk.impl;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * A cancellable future for an asynchronous SDK call. In addition to the
+ * methods of {@link java.util.concurrent.Future}, callers can register
+ * callbacks to be notified on completion and chain further work without
+ * blocking a thread while waiting for the result.
+ * 
+ * @param <T> type of the result
+ */
+public class BellaDatiFuture<T> extends FutureTask<T> {
+
+	/** Callable for futures that are completed externally instead of run. */
+	private static final Callable<Object> NO_OP = new Callable<Object>() {
+		@Override
+		public Object call() {
+			throw new IllegalStateException("Future must be completed externally");
+		}
+	};
+
+	/** executor used to run continuations */
+	private final Executor executor;
+
+	/** priority of continuations */
+	private final RequestPriority priority;
+
+	/** callbacks waiting for completion; <tt>null</tt> once completed */
+	private List<Runnable> listeners = new ArrayList<Runnable>();
+
+	/** future this future's result depends on, cancelled along with it */
+	private volatile BellaDatiFuture<?> upstream;
+
+	BellaDatiFuture(Callable<T> callable, Executor executor, RequestPriority priority) {
+		super(callable);
+		this.executor = executor;
+		this.priority = priority;
+	}
+
+	/**
+	 * Creates a future that isn't backed by a task and needs to be completed
+	 * by calling {@link #complete(Object)} or {@link #fail(Throwable)}.
+	 */
+	@SuppressWarnings("unchecked")
+	private BellaDatiFuture(Executor executor, RequestPriority priority) {
+		this((Callable<T>) NO_OP, executor, priority);
+	}
+
+	/**
+	 * Returns a future that completes with the results of all given futures,
+	 * in the same order, once all of them have completed. If any of them
+	 * fails or is cancelled, the returned future fails as well. No thread is
+	 * blocked while waiting for the futures.
+	 * 
+	 * @param futures the futures to combine
+	 * @return a future completing with all results
+	 */
+	public static <T> BellaDatiFuture<List<T>> allOf(Collection<? extends BellaDatiFuture<? extends T>> futures) {
+		final List<BellaDatiFuture<? extends T>> sources = new ArrayList<BellaDatiFuture<? extends T>>(futures);
+		if (sources.isEmpty()) {
+			BellaDatiFuture<List<T>> result = new BellaDatiFuture<List<T>>(new SameThreadExecutor(),
+				RequestPriority.current());
+			result.complete(Collections.<T> emptyList());
+			return result;
+		}
+		final BellaDatiFuture<List<T>> result = new BellaDatiFuture<List<T>>(sources.get(0).executor,
+			sources.get(0).priority);
+		final AtomicInteger remaining = new AtomicInteger(sources.size());
+		for (BellaDatiFuture<? extends T> source : sources) {
+			source.addListener(new Runnable() {
+				@Override
+				public void run() {
+					if (remaining.decrementAndGet() == 0) {
+						List<T> values = new ArrayList<T>(sources.size());
+						try {
+							for (BellaDatiFuture<? extends T> finished : sources) {
+								values.add(finished.get());
+							}
+							result.complete(values);
+						} catch (ExecutionException e) {
+							result.fail(e.getCause());
+						} catch (CancellationException e) {
+							result.fail(e);
+						} catch (InterruptedException e) {
+							// cannot happen, all sources are done
+							result.fail(e);
+						}
+					}
+				}
+			});
+		}
+		return result;
+	}
+
+	/**
+	 * Registers a callback to be notified when this future completes. If the
+	 * future is already complete, the callback is invoked immediately on the
+	 * calling thread, otherwise on the thread completing the future.
+	 * 
+	 * @param callback the callback to notify
+	 * @return this future, for chaining
+	 */
+	public BellaDatiFuture<T> addCallback(final BellaDatiCallback<? super T> callback) {
+		addListener(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					callback.onSuccess(get());
+				} catch (ExecutionException e) {
+					callback.onFailure(e.getCause());
+				} catch (CancellationException e) {
+					callback.onFailure(e);
+				} catch (InterruptedException e) {
+					// cannot happen, this future is done
+					callback.onFailure(e);
+				}
+			}
+		});
+		return this;
+	}
+
+	/**
+	 * Returns a future for the result of applying the given continuation to
+	 * this future's result. The continuation runs asynchronously once this
+	 * future has completed successfully. If this future fails, the returned
+	 * future fails with the same cause.
+	 * <p>
+	 * Cancelling the returned future also cancels this future, including for
+	 * any other futures derived from it.
+	 * 
+	 * @param continuation work to do with the result of this future
+	 * @return a future for the result of the continuation
+	 */
+	public <R> BellaDatiFuture<R> then(final Continuation<? super T, ? extends R> continuation) {
+		final BellaDatiFuture<R> result = new BellaDatiFuture<R>(executor, priority);
+		result.upstream = this;
+		addCallback(new BellaDatiCallback<T>() {
+			@Override
+			public void onSuccess(final T value) {
+				result.runOn(new Runnable() {
+					@Override
+					public void run() {
+						if (result.isDone()) {
+							return;
+						}
+						try {
+							result.complete(continuation.apply(value));
+						} catch (Throwable t) {
+							result.fail(t);
+						}
+					}
+				});
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				result.fail(t);
+			}
+		});
+		return result;
+	}
+
+	/**
+	 * Returns a future for the result of the future returned by the given
+	 * continuation. Use this to chain further asynchronous calls, e.g. to load
+	 * all views of a dashboard after loading the dashboard itself.
+	 * <p>
+	 * Cancelling the returned future also cancels this future or, once the
+	 * continuation has run, the future returned by the continuation.
+	 * 
+	 * @param continuation asynchronous work to do with the result of this
+	 *            future
+	 * @return a future completing with the result of the continuation's
+	 *         future
+	 */
+	public <R> BellaDatiFuture<R> thenCompose(final Continuation<? super T, ? extends BellaDatiFuture<? extends R>> continuation) {
+		final BellaDatiFuture<R> result = new BellaDatiFuture<R>(executor, priority);
+		result.upstream = this;
+		addCallback(new BellaDatiCallback<T>() {
+			@Override
+			public void onSuccess(final T value) {
+				result.runOn(new Runnable() {
+					@Override
+					public void run() {
+						if (result.isDone()) {
+							return;
+						}
+						try {
+							BellaDatiFuture<? extends R> next = continuation.apply(value);
+							result.upstream = next;
+							if (result.isCancelled()) {
+								// cancelled while the continuation was running
+								next.cancel(false);
+							}
+							next.addCallback(new BellaDatiCallback<R>() {
+								@Override
+								public void onSuccess(R nextValue) {
+									result.complete(nextValue);
+								}
+
+								@Override
+								public void onFailure(Throwable t) {
+									result.fail(t);
+								}
+							});
+						} catch (Throwable t) {
+							result.fail(t);
+						}
+					}
+				});
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				result.fail(t);
+			}
+		});
+		return result;
+	}
+
+	@Override
+	public boolean cancel(boolean mayInterruptIfRunning) {
+		if (!super.cancel(mayInterruptIfRunning)) {
+			return false;
+		}
+		BellaDatiFuture<?> source = upstream;
+		if (source != null) {
+			source.cancel(mayInterruptIfRunning);
+		}
+		return true;
+	}
+
+	/** Completes this future with the given value. */
+	void complete(T value) {
+		set(value);
+	}
+
+	/** Completes this future with the given failure. */
+	void fail(Throwable t) {
+		setException(t);
+	}
+
+	/**
+	 * Runs the given task on this future's executor with this future's
+	 * priority, failing if rejected.
+	 */
+	private void runOn(Runnable task) {
+		try {
+			executor.execute(new PrioritizedTask(priority, task));
+		} catch (RejectedExecutionException e) {
+			fail(e);
+		}
+	}
+
+	/** Runs the given listener on completion, or now if already complete. */
+	private void addListener(Runnable listener) {
+		synchronized (this) {
+			// done() may still be pending after the result was set
+			if (listeners != null && !isDone()) {
+				listeners.add(listener);
+				return;
+			}
+		}
+		listener.run();
+	}
+
+	@Override
+	protected void done() {
+		List<Runnable> toNotify;
+		synchronized (this) {
+			toNotify = listeners;
+			listeners = null;
+		}
+		for (Runnable listener : toNotify) {
+			listener.run();
+		}
+	}
+
+	/**
+	 * Work to do with the result of a completed future.
+	 * 
+	 * @param <T> type of the input
+	 * @param <R> type of the result
+	 */
+	public interface Continuation<T, R> {
+		/**
+		 * Computes a result from the given input.
+		 * 
+		 * @param input the result of the previous future
+		 * @return the result of this step
+		 * @throws Exception if the computation failed
+		 */
+		R apply(T input) throws Exception;
+	}
+
+	/** Runs tasks directly on the calling thread. */
+	private static class SameThreadExecutor implements Executor {
+		@Override
+		public void execute(Runnable command) {
+			command.run();
+		}
+	}
+}
@@ -0,0 +1,626 @@
+package com.belladati.sdk.impl;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.belladati.sdk.BellaDatiConnection;
+import com.belladati.sdk.BellaDatiService;
+
+/**
+ * Snapshot of the transport metrics of a connection to BellaDati: the state
+ * of the connection pool and request limiter, request times by priority,
+ * responses by status code, bytes transferred and use of the HTTP cache.
+ * Counters are cumulative since
+ * the connection was created, so rates can be determined by polling at
+ * regular intervals.
+ * <p>
+ * Metrics are shared by a connection and all services created from it, and
+ * by all connections and services to the same server that share a connection
+ * pool, including restored ones. Request coalescing and hedging are counted
+ * per connection. To publish them to an external metrics registry, register
+ * a gauge for each entry of {@link #toMap()}. To measure individual
+ * requests, register a {@link RequestListener}.
+ */
+public class BellaDatiMetrics {
+
+	private final int leasedConnections;
+	private final int availableConnections;
+	private final int pendingConnections;
+	private final int maxConnections;
+	private final long connectionRequests;
+	private final long connectionTimeouts;
+	private final long connectionWaitNanos;
+	private final long maxConnectionWaitNanos;
+	private final int requestLimit;
+	private final int requestsInFlight;
+	private final int waitingRequests;
+	private final long limitedRequests;
+	private final long queueTimeouts;
+	private final long queueWaitNanos;
+	private final long maxQueueWaitNanos;
+	private final Map<RequestPriority, PriorityMetrics> priorities;
+	private final Map<Integer, Long> responseCounts;
+	private final long failedRequests;
+	private final long bytesSent;
+	private final long bytesReceived;
+	private final long contentBytesSent;
+	private final long contentBytesReceived;
+	private final long cacheHits;
+	private final long cacheMisses;
+	private final long cacheValidations;
+	private final long coalescedRequests;
+	private final long hedgedRequests;
+	private final long hedgesWon;
+
+	BellaDatiMetrics(int leasedConnections, int availableConnections, int pendingConnections, int maxConnections,
+		long connectionRequests, long connectionTimeouts, long connectionWaitNanos, long maxConnectionWaitNanos,
+		int requestLimit, int requestsInFlight, int waitingRequests, long limitedRequests, long queueTimeouts,
+		long queueWaitNanos, long maxQueueWaitNanos, Map<RequestPriority, PriorityMetrics> priorities,
+		Map<Integer, Long> responseCounts, long failedRequests,
+		long bytesSent, long bytesReceived, long contentBytesSent, long contentBytesReceived, long cacheHits,
+		long cacheMisses, long cacheValidations, long coalescedRequests, long hedgedRequests, long hedgesWon) {
+		this.leasedConnections = leasedConnections;
+		this.availableConnections = availableConnections;
+		this.pendingConnections = pendingConnections;
+		this.maxConnections = maxConnections;
+		this.connectionRequests = connectionRequests;
+		this.connectionTimeouts = connectionTimeouts;
+		this.connectionWaitNanos = connectionWaitNanos;
+		this.maxConnectionWaitNanos = maxConnectionWaitNanos;
+		this.requestLimit = requestLimit;
+		this.requestsInFlight = requestsInFlight;
+		this.waitingRequests = waitingRequests;
+		this.limitedRequests = limitedRequests;
+		this.queueTimeouts = queueTimeouts;
+		this.queueWaitNanos = queueWaitNanos;
+		this.maxQueueWaitNanos = maxQueueWaitNanos;
+		this.priorities = priorities;
+		this.responseCounts = Collections.unmodifiableMap(responseCounts);
+		this.failedRequests = failedRequests;
+		this.bytesSent = bytesSent;
+		this.bytesReceived = bytesReceived;
+		this.contentBytesSent = contentBytesSent;
+		this.contentBytesReceived = contentBytesReceived;
+		this.cacheHits = cacheHits;
+		this.cacheMisses = cacheMisses;
+		this.cacheValidations = cacheValidations;
+		this.coalescedRequests = coalescedRequests;
+		this.hedgedRequests = hedgedRequests;
+		this.hedgesWon = hedgesWon;
+	}
+
+	/**
+	 * Returns the current metrics of the connection the given service uses.
+	 * Except for request coalescing and hedging, the metrics include all
+	 * connections to the same server sharing its connection pool.
+	 * 
+	 * @param service a service created by this SDK implementation
+	 * @return the current metrics
+	 * @throws IllegalArgumentException if the service wasn't created by this
+	 *             SDK implementation
+	 */
+	public static BellaDatiMetrics of(BellaDatiService service) {
+		return clientOf(service).getMetrics();
+	}
+
+	/**
+	 * Returns the current metrics of the given connection. Except for request
+	 * coalescing and hedging, the metrics include all connections to the same
+	 * server sharing its connection pool.
+	 * 
+	 * @param connection a connection created by this SDK implementation
+	 * @return the current metrics
+	 * @throws IllegalArgumentException if the connection wasn't created by
+	 *             this SDK implementation
+	 */
+	public static BellaDatiMetrics of(BellaDatiConnection connection) {
+		return clientOf(connection).getMetrics();
+	}
+
+	/**
+	 * Registers a listener to be notified of the timings of each request made
+	 * through the connection the given service uses.
+	 * 
+	 * @param service a service created by this SDK implementation
+	 * @param listener the listener to register
+	 * @throws IllegalArgumentException if the service wasn't created by this
+	 *             SDK implementation
+	 */
+	public static void addRequestListener(BellaDatiService service, RequestListener listener) {
+		clientOf(service).addRequestListener(listener);
+	}
+
+	/**
+	 * Registers a listener to be notified of the timings of each request made
+	 * through the given connection.
+	 * 
+	 * @param connection a connection created by this SDK implementation
+	 * @param listener the listener to register
+	 * @throws IllegalArgumentException if the connection wasn't created by
+	 *             this SDK implementation
+	 */
+	public static void addRequestListener(BellaDatiConnection connection, RequestListener listener) {
+		clientOf(connection).addRequestListener(listener);
+	}
+
+	/**
+	 * Removes a previously registered request listener.
+	 * 
+	 * @param service a service created by this SDK implementation
+	 * @param listener the listener to remove
+	 * @throws IllegalArgumentException if the service wasn't created by this
+	 *             SDK implementation
+	 */
+	public static void removeRequestListener(BellaDatiService service, RequestListener listener) {
+		clientOf(service).removeRequestListener(listener);
+	}
+
+	/**
+	 * Removes a previously registered request listener.
+	 * 
+	 * @param connection a connection created by this SDK implementation
+	 * @param listener the listener to remove
+	 * @throws IllegalArgumentException if the connection wasn't created by
+	 *             this SDK implementation
+	 */
+	public static void removeRequestListener(BellaDatiConnection connection, RequestListener listener) {
+		clientOf(connection).removeRequestListener(listener);
+	}
+
+	private static BellaDatiClient clientOf(BellaDatiService service) {
+		if (service instanceof BellaDatiServiceImpl) {
+			return ((BellaDatiServiceImpl) service).client;
+		}
+		throw new IllegalArgumentException("Unsupported service: " + service);
+	}
+
+	private static BellaDatiClient clientOf(BellaDatiConnection connection) {
+		if (connection instanceof BellaDatiConnectionImpl) {
+			return ((BellaDatiConnectionImpl) connection).client;
+		}
+		throw new IllegalArgumentException("Unsupported connection: " + connection);
+	}
+
+	/**
+	 * Returns the number of pooled connections currently executing a request.
+	 * 
+	 * @return the number of leased connections
+	 */
+	public int getLeasedConnections() {
+		return leasedConnections;
+	}
+
+	/**
+	 * Returns the number of idle connections kept open in the pool.
+	 * 
+	 * @return the number of available connections
+	 */
+	public int getAvailableConnections() {
+		return availableConnections;
+	}
+
+	/**
+	 * Returns the number of requests currently waiting for a connection.
+	 * 
+	 * @return the number of pending connection requests
+	 */
+	public int getPendingConnections() {
+		return pendingConnections;
+	}
+
+	/**
+	 * Returns the maximum number of connections, configured through the
+	 * <tt>bdMaxConnections</tt> system property.
+	 * 
+	 * @return the maximum number of connections
+	 */
+	public int getMaxConnections() {
+		return maxConnections;
+	}
+
+	/**
+	 * Returns the number of times a connection was requested from the pool.
+	 * 
+	 * @return the number of connection requests
+	 */
+	public long getConnectionRequests() {
+		return connectionRequests;
+	}
+
+	/**
+	 * Returns the number of times no connection became available within the
+	 * <tt>bdConnectionRequestTimeout</tt>.
+	 * 
+	 * @return the number of connection request timeouts
+	 */
+	public long getConnectionTimeouts() {
+		return connectionTimeouts;
+	}
+
+	/**
+	 * Returns the total time spent waiting for a connection from the pool.
+	 * 
+	 * @param unit unit to return the time in
+	 * @return the total time spent waiting
+	 */
+	public long getConnectionWaitTime(TimeUnit unit) {
+		return unit.convert(connectionWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the longest time spent waiting for a connection from the pool.
+	 * 
+	 * @param unit unit to return the time in
+	 * @return the longest time spent waiting
+	 */
+	public long getMaxConnectionWaitTime(TimeUnit unit) {
+		return unit.convert(maxConnectionWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the current limit of requests in flight. In adaptive mode, the
+	 * limit is lowered while the server is overloaded.
+	 * 
+	 * @return the current limit, or 0 if requests in flight aren't limited
+	 */
+	public int getRequestLimit() {
+		return requestLimit;
+	}
+
+	/**
+	 * Returns the number of requests currently in flight, if requests are
+	 * limited.
+	 * 
+	 * @return the number of requests in flight
+	 */
+	public int getRequestsInFlight() {
+		return requestsInFlight;
+	}
+
+	/**
+	 * Returns the number of requests currently waiting for the request
+	 * limiter.
+	 * 
+	 * @return the number of waiting requests
+	 */
+	public int getWaitingRequests() {
+		return waitingRequests;
+	}
+
+	/**
+	 * Returns the number of requests that passed through the request limiter,
+	 * whether they had to wait or not.
+	 * 
+	 * @return the number of limited requests
+	 */
+	public long getLimitedRequests() {
+		return limitedRequests;
+	}
+
+	/**
+	 * Returns the number of requests that failed because the request limiter
+	 * didn't allow them in time.
+	 * 
+	 * @return the number of requests that timed out waiting
+	 */
+	public long getQueueTimeouts() {
+		return queueTimeouts;
+	}
+
+	/**
+	 * Returns the total time requests spent waiting for the request limiter.
+	 * 
+	 * @param unit unit to return the time in
+	 * @return the total time spent waiting
+	 */
+	public long getQueueWaitTime(TimeUnit unit) {
+		return unit.convert(queueWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the longest time a request spent waiting for the request
+	 * limiter.
+	 * 
+	 * @param unit unit to return the time in
+	 * @return the longest time spent waiting
+	 */
+	public long getMaxQueueWaitTime(TimeUnit unit) {
+		return unit.convert(maxQueueWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the number of requests made with the given priority, including
+	 * failed requests.
+	 * 
+	 * @param priority the priority
+	 * @return the number of requests
+	 */
+	public long getRequestCount(RequestPriority priority) {
+		return priorities.get(priority).requests;
+	}
+
+	/**
+	 * Returns the number of requests with the given priority currently
+	 * waiting for a connection to become free.
+	 * 
+	 * @param priority the priority
+	 * @return the number of waiting requests
+	 */
+	public int getWaitingRequests(RequestPriority priority) {
+		return priorities.get(priority).waiting;
+	}
+
+	/**
+	 * Returns the number of requests with the given priority that failed
+	 * because no connection became free in time.
+	 * 
+	 * @param priority the priority
+	 * @return the number of requests that timed out waiting
+	 */
+	public long getDispatchTimeouts(RequestPriority priority) {
+		return priorities.get(priority).timeouts;
+	}
+
+	/**
+	 * Returns the total time requests with the given priority spent waiting
+	 * behind other requests for a connection to become free.
+	 * 
+	 * @param priority the priority
+	 * @param unit unit to return the time in
+	 * @return the total time spent waiting
+	 */
+	public long getDispatchWaitTime(RequestPriority priority, TimeUnit unit) {
+		return unit.convert(priorities.get(priority).waitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the longest time a request with the given priority spent
+	 * waiting behind other requests for a connection to become free.
+	 * 
+	 * @param priority the priority
+	 * @param unit unit to return the time in
+	 * @return the longest time spent waiting
+	 */
+	public long getMaxDispatchWaitTime(RequestPriority priority, TimeUnit unit) {
+		return unit.convert(priorities.get(priority).maxWaitNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the total time of requests with the given priority, from the
+	 * call until the response was read. Divide by
+	 * {@link #getRequestCount(RequestPriority)} for the average latency.
+	 * 
+	 * @param priority the priority
+	 * @param unit unit to return the time in
+	 * @return the total time of all requests
+	 */
+	public long getTotalRequestTime(RequestPriority priority, TimeUnit unit) {
+		return unit.convert(priorities.get(priority).nanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the longest time a request with the given priority took, from
+	 * the call until the response was read.
+	 * 
+	 * @param priority the priority
+	 * @param unit unit to return the time in
+	 * @return the longest time of a request
+	 */
+	public long getMaxRequestTime(RequestPriority priority, TimeUnit unit) {
+		return unit.convert(priorities.get(priority).maxNanos, TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the number of responses by HTTP status code. Includes responses
+	 * served from the cache.
+	 * 
+	 * @return an unmodifiable map from status code to number of responses
+	 */
+	public Map<Integer, Long> getResponseCounts() {
+		return responseCounts;
+	}
+
+	/**
+	 * Returns the number of responses with the given HTTP status code.
+	 * 
+	 * @param statusCode the status code
+	 * @return the number of responses with the status code
+	 */
+	public long getResponseCount(int statusCode) {
+		Long count = responseCounts.get(statusCode);
+		return count == null ? 0 : count;
+	}
+
+	/**
+	 * Returns the number of requests that failed without a response, e.g.
+	 * because the server couldn't be reached.
+	 * 
+	 * @return the number of failed requests
+	 */
+	public long getFailedRequests() {
+		return failedRequests;
+	}
+
+	/**
+	 * Returns the number of bytes sent to the server, including headers. If
+	 * uploads are compressed, these are the compressed bytes.
+	 * 
+	 * @return the number of bytes sent
+	 */
+	public long getBytesSent() {
+		return bytesSent;
+	}
+
+	/**
+	 * Returns the number of bytes received from the server, including
+	 * headers. For compressed responses, these are the compressed bytes.
+	 * 
+	 * @return the number of bytes received
+	 */
+	public long getBytesReceived() {
+		return bytesReceived;
+	}
+
+	/**
+	 * Returns the number of request body bytes sent, before compression.
+	 * Comparing with {@link #getBytesSent()} shows the effect of compressing
+	 * uploads.
+	 * 
+	 * @return the number of uncompressed request body bytes
+	 */
+	public long getContentBytesSent() {
+		return contentBytesSent;
+	}
+
+	/**
+	 * Returns the number of response body bytes read, after decompression.
+	 * Comparing with {@link #getBytesReceived()} shows the effect of
+	 * compressed responses.
+	 * 
+	 * @return the number of uncompressed response body bytes
+	 */
+	public long getContentBytesReceived() {
+		return contentBytesReceived;
+	}
+
+	/**
+	 * Returns the number of responses served from the cache without
+	 * contacting the server.
+	 * 
+	 * @return the number of cache hits
+	 */
+	public long getCacheHits() {
+		return cacheHits;
+	}
+
+	/**
+	 * Returns the number of requests that weren't in the cache.
+	 * 
+	 * @return the number of cache misses
+	 */
+	public long getCacheMisses() {
+		return cacheMisses;
+	}
+
+	/**
+	 * Returns the number of cached responses that were used after the server
+	 * confirmed they were still valid.
+	 * 
+	 * @return the number of validated cache entries
+	 */
+	public long getCacheValidations() {
+		return cacheValidations;
+	}
+
+	/**
+	 * Returns the number of GET requests that joined an identical request
+	 * already in flight.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	public long getCoalescedRequests() {
+		return coalescedRequests;
+	}
+
+	/**
+	 * Returns the number of GET requests that were sent a second time because
+	 * the response took unusually long.
+	 * 
+	 * @return the number of hedged requests
+	 */
+	public long getHedgedRequests() {
+		return hedgedRequests;
+	}
+
+	/**
+	 * Returns the number of duplicate GET requests that completed before the
+	 * original request.
+	 * 
+	 * @return the number of hedged requests won by the duplicate
+	 */
+	public long getHedgesWon() {
+		return hedgesWon;
+	}
+
+	/**
+	 * Returns all metrics by name, to publish to an external metrics
+	 * registry. Times are in milliseconds; request times are listed as
+	 * <tt>priority.&lt;priority&gt;.*</tt>, responses as
+	 * <tt>responses.&lt;status code&gt;</tt>.
+	 * 
+	 * @return an ordered map of metric names to values
+	 */
+	public Map<String, Long> toMap() {
+		Map<String, Long> map = new LinkedHashMap<String, Long>();
+		map.put("pool.leased", (long) leasedConnections);
+		map.put("pool.available", (long) availableConnections);
+		map.put("pool.pending", (long) pendingConnections);
+		map.put("pool.max", (long) maxConnections);
+		map.put("pool.requests", connectionRequests);
+		map.put("pool.timeouts", connectionTimeouts);
+		map.put("pool.waitTime", getConnectionWaitTime(TimeUnit.MILLISECONDS));
+		map.put("pool.maxWaitTime", getMaxConnectionWaitTime(TimeUnit.MILLISECONDS));
+		map.put("limiter.limit", (long) requestLimit);
+		map.put("limiter.inFlight", (long) requestsInFlight);
+		map.put("limiter.waiting", (long) waitingRequests);
+		map.put("limiter.requests", limitedRequests);
+		map.put("limiter.timeouts", queueTimeouts);
+		map.put("limiter.waitTime", getQueueWaitTime(TimeUnit.MILLISECONDS));
+		map.put("limiter.maxWaitTime", getMaxQueueWaitTime(TimeUnit.MILLISECONDS));
+		for (RequestPriority priority : RequestPriority.values()) {
+			String prefix = "priority." + priority.name().toLowerCase(Locale.ENGLISH) + ".";
+			map.put(prefix + "requests", getRequestCount(priority));
+			map.put(prefix + "waiting", (long) getWaitingRequests(priority));
+			map.put(prefix + "timeouts", getDispatchTimeouts(priority));
+			map.put(prefix + "waitTime", getDispatchWaitTime(priority, TimeUnit.MILLISECONDS));
+			map.put(prefix + "maxWaitTime", getMaxDispatchWaitTime(priority, TimeUnit.MILLISECONDS));
+			map.put(prefix + "time", getTotalRequestTime(priority, TimeUnit.MILLISECONDS));
+			map.put(prefix + "maxTime", getMaxRequestTime(priority, TimeUnit.MILLISECONDS));
+		}
+		for (Map.Entry<Integer, Long> entry : responseCounts.entrySet()) {
+			map.put("responses." + entry.getKey(), entry.getValue());
+		}
+		map.put("requests.failed", failedRequests);
+		map.put("requests.coalesced", coalescedRequests);
+		map.put("requests.hedged", hedgedRequests);
+		map.put("requests.hedgesWon", hedgesWon);
+		map.put("bytes.sent", bytesSent);
+		map.put("bytes.received", bytesReceived);
+		map.put("bytes.contentSent", contentBytesSent);
+		map.put("bytes.contentReceived", contentBytesReceived);
+		map.put("cache.hits", cacheHits);
+		map.put("cache.misses", cacheMisses);
+		map.put("cache.validations", cacheValidations);
+		return map;
+	}
+
+	@Override
+	public String toString() {
+		return "Metrics" + toMap();
+	}
+
+	/** Request metrics of a single priority. */
+	static class PriorityMetrics {
+		private final long requests;
+		private final int waiting;
+		private final long timeouts;
+		private final long waitNanos;
+		private final long maxWaitNanos;
+		private final long nanos;
+		private final long maxNanos;
+
+		PriorityMetrics(long requests, int waiting, long timeouts, long waitNanos, long maxWaitNanos, long nanos,
+			long maxNanos) {
+			this.requests = requests;
+			this.waiting = waiting;
+			this.timeouts = timeouts;
+			this.waitNanos = waitNanos;
+			this.maxWaitNanos = maxWaitNanos;
+			this.nanos = nanos;
+			this.maxNanos = maxNanos;
+		}
+	}
+}
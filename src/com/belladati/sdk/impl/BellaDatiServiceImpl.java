@@ -11,6 +11,7 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.Iterator;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -30,8 +31,10 @@ import com.belladati.sdk.dashboard.DashboardInfo;
 import com.belladati.sdk.dataset.AttributeValue;
 import com.belladati.sdk.dataset.DataSet;
 import com.belladati.sdk.dataset.DataSetInfo;
+import com.belladati.sdk.dataset.data.DataColumn;
 import com.belladati.sdk.dataset.data.DataRow;
 import com.belladati.sdk.dataset.data.DataTable;
+import com.belladati.sdk.dataset.data.OverwritePolicy;
 import com.belladati.sdk.dataset.source.DataSource;
 import com.belladati.sdk.dataset.source.DataSourceImport;
 import com.belladati.sdk.dataset.source.DataSourcePendingImport;
@@ -83,6 +86,12 @@ class BellaDatiServiceImpl implements BellaDatiService {
 
 	private final transient Map<String, CachedListImpl<DataSourceImport>> dataSourceImportList = new HashMap<String, CachedListImpl<DataSourceImport>>();
 
+	private final transient DetailCache<Dashboard> dashboardDetails = new DashboardDetails();
+
+	private final transient DetailCache<Report> reportDetails = new ReportDetails();
+
+	private final transient DetailCache<DataSet> dataSetDetails = new DataSetDetails();
+
 	BellaDatiServiceImpl(BellaDatiClient client, TokenHolder tokenHolder) {
 		this.client = client;
 		this.tokenHolder = tokenHolder;
@@ -95,7 +104,20 @@ class BellaDatiServiceImpl implements BellaDatiService {
 
 	@Override
 	public Dashboard loadDashboard(String id) {
-		return new DashboardImpl(this, loadJson("api/dashboards/" + id));
+		return loadDashboard(id, null);
+	}
+
+	/**
+	 * Loads a dashboard, reusing the previously loaded dashboard if it hasn't
+	 * changed.
+	 * 
+	 * @param id ID of the dashboard
+	 * @param lastChange last change date known from the dashboard list, or
+	 *            <tt>null</tt> to ask the server
+	 * @return the dashboard
+	 */
+	Dashboard loadDashboard(String id, Date lastChange) {
+		return dashboardDetails.load(id, lastChange);
 	}
 
 	@Override
@@ -110,7 +132,20 @@ class BellaDatiServiceImpl implements BellaDatiService {
 
 	@Override
 	public Report loadReport(String id) {
-		return new ReportImpl(this, loadJson("api/reports/" + id));
+		return loadReport(id, null);
+	}
+
+	/**
+	 * Loads a report, reusing the previously loaded report if it hasn't
+	 * changed.
+	 * 
+	 * @param id ID of the report
+	 * @param lastChange last change date known from the report list, or
+	 *            <tt>null</tt> to ask the server
+	 * @return the report
+	 */
+	Report loadReport(String id, Date lastChange) {
+		return reportDetails.load(id, lastChange);
 	}
 
 	@Override
@@ -346,18 +381,71 @@ class BellaDatiServiceImpl implements BellaDatiService {
 
 	@Override
 	public DataSet loadDataSet(String id) throws NotFoundException {
-		return new DataSetImpl(this, loadJson("api/dataSets/" + id));
+		return loadDataSet(id, null);
+	}
+
+	/**
+	 * Loads a data set, reusing the previously loaded data set if it hasn't
+	 * changed.
+	 * 
+	 * @param id ID of the data set
+	 * @param lastChange last change date known from the data set list, or
+	 *            <tt>null</tt> to ask the server
+	 * @return the data set
+	 */
+	DataSet loadDataSet(String id, Date lastChange) {
+		return dataSetDetails.load(id, lastChange);
 	}
 
 	@Override
 	public void uploadData(String id, DataTable data) {
-		List<DataRow> rows = data.getRows();
-		if (rows.size() == 0) {
+		uploadData(id, data.getColumns(), data.getOverwritePolicy(), rowValues(data));
+	}
+
+	/**
+	 * Returns an iterator over the values of each row in the given table.
+	 * 
+	 * @param data the table to read
+	 * @return an iterator over the table's row values
+	 */
+	static Iterator<List<String>> rowValues(DataTable data) {
+		final Iterator<DataRow> rows = data.getRows().iterator();
+		return new Iterator<List<String>>() {
+			@Override
+			public boolean hasNext() {
+				return rows.hasNext();
+			}
+
+			@Override
+			public List<String> next() {
+				return rows.next().getAll();
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+
+	/**
+	 * Uploads data to a data set, streaming rows to the server as they're
+	 * read from the given iterator.
+	 * 
+	 * @param id ID of the data set
+	 * @param columns the columns to import
+	 * @param overwritePolicy policy for existing data, may be <tt>null</tt>
+	 *            to keep all existing data
+	 * @param rows provides the rows to import
+	 */
+	void uploadData(String id, List<DataColumn> columns, OverwritePolicy overwritePolicy,
+		Iterator<? extends List<String>> rows) {
+		if (!rows.hasNext()) {
 			// if we don't have data, do nothing
 			return;
 		}
 		try {
-			client.postUpload("api/import/" + id, tokenHolder, data.toJson().toString());
+			client.postUpload("api/import/" + id, tokenHolder, new DataUploadEntity(columns, overwritePolicy, rows));
 		} catch (UnexpectedResponseException e) {
 			if (e.getResponseCode() == 400) {
 				Pattern codePattern = Pattern.compile(".*?'(.*?)'.*");
@@ -401,6 +489,18 @@ class BellaDatiServiceImpl implements BellaDatiService {
 			Field dataSourceImportList = getClass().getDeclaredField("dataSourceImportList");
 			dataSourceImportList.setAccessible(true);
 			dataSourceImportList.set(this, new HashMap<String, CachedListImpl<DataSourceImport>>());
+
+			Field dashboardDetails = getClass().getDeclaredField("dashboardDetails");
+			dashboardDetails.setAccessible(true);
+			dashboardDetails.set(this, new DashboardDetails());
+
+			Field reportDetails = getClass().getDeclaredField("reportDetails");
+			reportDetails.setAccessible(true);
+			reportDetails.set(this, new ReportDetails());
+
+			Field dataSetDetails = getClass().getDeclaredField("dataSetDetails");
+			dataSetDetails.setAccessible(true);
+			dataSetDetails.set(this, new DataSetDetails());
 		} catch (NoSuchFieldException e) {
 			throw new InternalConfigurationException("Failed to set service fields", e);
 		} catch (IllegalAccessException e) {
@@ -422,6 +522,11 @@ class BellaDatiServiceImpl implements BellaDatiService {
 		protected DashboardInfo parse(BellaDatiServiceImpl service, JsonNode node) {
 			return new DashboardInfoImpl(service, node);
 		}
+
+		@Override
+		protected Date getLastChange(DashboardInfo item) {
+			return item.getLastChange();
+		}
 	}
 
 	/** Paginated list class for reports. */
@@ -434,6 +539,11 @@ class BellaDatiServiceImpl implements BellaDatiService {
 		protected ReportInfo parse(BellaDatiServiceImpl service, JsonNode node) {
 			return new ReportInfoImpl(service, node);
 		}
+
+		@Override
+		protected Date getLastChange(ReportInfo item) {
+			return item.getLastChange();
+		}
 	}
 
 	/** Paginated list class for data sets. */
@@ -446,6 +556,62 @@ class BellaDatiServiceImpl implements BellaDatiService {
 		protected DataSetInfo parse(BellaDatiServiceImpl service, JsonNode node) {
 			return new DataSetInfoImpl(service, node);
 		}
+
+		@Override
+		protected Date getLastChange(DataSetInfo item) {
+			return item.getLastChange();
+		}
+	}
+
+	/** Detail cache class for dashboards. */
+	private class DashboardDetails extends DetailCache<Dashboard> {
+		public DashboardDetails() {
+			super(BellaDatiServiceImpl.this, "api/dashboards/", BellaDatiClient.readFromProperty("bdDetailCacheSize", 100));
+		}
+
+		@Override
+		protected Dashboard parse(BellaDatiServiceImpl service, JsonNode node) {
+			return new DashboardImpl(service, node);
+		}
+
+		@Override
+		protected Date getLastChange(Dashboard item) {
+			return item.getLastChange();
+		}
+	}
+
+	/** Detail cache class for reports. */
+	private class ReportDetails extends DetailCache<Report> {
+		public ReportDetails() {
+			super(BellaDatiServiceImpl.this, "api/reports/", BellaDatiClient.readFromProperty("bdDetailCacheSize", 100));
+		}
+
+		@Override
+		protected Report parse(BellaDatiServiceImpl service, JsonNode node) {
+			return new ReportImpl(service, node);
+		}
+
+		@Override
+		protected Date getLastChange(Report item) {
+			return item.getLastChange();
+		}
+	}
+
+	/** Detail cache class for data sets. */
+	private class DataSetDetails extends DetailCache<DataSet> {
+		public DataSetDetails() {
+			super(BellaDatiServiceImpl.this, "api/dataSets/", BellaDatiClient.readFromProperty("bdDetailCacheSize", 100));
+		}
+
+		@Override
+		protected DataSet parse(BellaDatiServiceImpl service, JsonNode node) {
+			return new DataSetImpl(service, node);
+		}
+
+		@Override
+		protected Date getLastChange(DataSet item) {
+			return item.getLastChange();
+		}
 	}
 
 	@Override
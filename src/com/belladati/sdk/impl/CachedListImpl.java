@@ -3,6 +3,9 @@ package com.belladati.sdk.impl;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.belladati.sdk.util.CachedList;
 import com.fasterxml.jackson.databind.JsonNode;
@@ -10,23 +13,69 @@ import com.fasterxml.jackson.databind.node.ArrayNode;
 
 abstract class CachedListImpl<T> implements CachedList<T> {
 
-	private final List<T> data = new ArrayList<T>();
+	/**
+	 * The loaded elements. Loading replaces the list rather than changing it,
+	 * so that readers keep seeing the previous elements until loading is
+	 * complete.
+	 */
+	private volatile List<T> data = Collections.emptyList();
+	/** time the elements were loaded, from {@link System#nanoTime()} */
+	private volatile long loadedAt;
+	/** held while loading, so that only one thread loads the list at once */
+	private final Object loadLock = new Object();
+	/** <tt>true</tt> while a background refresh is pending */
+	private final AtomicBoolean refreshing = new AtomicBoolean();
 
 	private final BellaDatiServiceImpl service;
 	private final String uri;
 	private final String field;
 
-	private boolean isLoaded = false;
+	/** time after which the elements are refreshed, negative if never */
+	private volatile long ttlNanos;
+	/** time after the TTL during which stale elements are returned */
+	private volatile long maxStaleNanos;
+
+	private volatile boolean isLoaded = false;
 
 	public CachedListImpl(BellaDatiServiceImpl service, String uri, String field) {
 		this.service = service;
 		this.uri = uri;
 		this.field = field;
+		int ttlMillis = BellaDatiClient.readFromProperty("bdCachedListTtl", -1);
+		int maxStaleMillis = BellaDatiClient.readFromProperty("bdCachedListMaxStale", 0);
+		this.ttlNanos = ttlMillis < 0 ? -1 : TimeUnit.MILLISECONDS.toNanos(ttlMillis);
+		this.maxStaleNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, maxStaleMillis));
+	}
+
+	/**
+	 * Sets how long loaded elements remain fresh. Once older than the TTL,
+	 * the elements are still returned while they're loaded again in the
+	 * background, and replaced once loading has completed. If they're older
+	 * than the TTL and the maximum stale time, {@link #loadFirstTime()}
+	 * loads them again before returning.
+	 * 
+	 * @param ttl time after which to load the elements again, negative to
+	 *            keep them until loaded explicitly
+	 * @param maxStale time after the TTL during which
+	 *            {@link #loadFirstTime()} doesn't wait for loading
+	 * @param unit unit of both times
+	 * @throws IllegalArgumentException if maxStale is negative
+	 */
+	void setFreshness(long ttl, long maxStale, TimeUnit unit) throws IllegalArgumentException {
+		if (maxStale < 0) {
+			throw new IllegalArgumentException("Max stale time must be >= 0, was " + maxStale);
+		}
+		this.ttlNanos = ttl < 0 ? -1 : unit.toNanos(ttl);
+		this.maxStaleNanos = unit.toNanos(maxStale);
 	}
 
 	@Override
 	public List<T> get() {
-		return Collections.unmodifiableList(data);
+		List<T> current = data;
+		if (isStale()) {
+			refreshInBackground();
+		}
+		return current;
 	}
 
 	@Override
@@ -36,20 +85,9 @@ abstract class CachedListImpl<T> implements CachedList<T> {
 
 	@Override
 	public CachedList<T> load() {
-		data.clear();
-		JsonNode json = service.loadJson(uri);
-
-		if (json.get(field) instanceof ArrayNode) {
-			ArrayNode nodes = (ArrayNode) json.get(field);
-			for (JsonNode node : nodes) {
-				try {
-					data.add(parse(service, node));
-				} catch (ParseException e) {
-					// nothing to do, just ignore
-				}
-			}
+		synchronized (loadLock) {
+			doLoad();
 		}
-		isLoaded = true;
 		return this;
 	}
 
@@ -57,6 +95,20 @@ abstract class CachedListImpl<T> implements CachedList<T> {
 	public CachedList<T> loadFirstTime() {
 		if (!isLoaded()) {
 			load();
+		} else if (ttlNanos >= 0) {
+			long age = getAge();
+			if (age - ttlNanos > maxStaleNanos) {
+				// too old to use, wait for the current elements
+				long seenLoadedAt = loadedAt;
+				synchronized (loadLock) {
+					// unless a refresh loaded them while waiting
+					if (loadedAt == seenLoadedAt) {
+						doLoad();
+					}
+				}
+			} else if (age > ttlNanos) {
+				refreshInBackground();
+			}
 		}
 		return this;
 	}
@@ -66,6 +118,68 @@ abstract class CachedListImpl<T> implements CachedList<T> {
 		return isLoaded;
 	}
 
+	/**
+	 * Checks if the loaded elements are older than the TTL.
+	 * 
+	 * @return <tt>true</tt> if the elements are due to be refreshed
+	 */
+	boolean isStale() {
+		return ttlNanos >= 0 && getAge() > ttlNanos;
+	}
+
+	/** Returns the age of the loaded elements, -1 if not loaded. */
+	private long getAge() {
+		return isLoaded ? System.nanoTime() - loadedAt : -1;
+	}
+
+	/**
+	 * Loads the elements in the background unless already loading. The
+	 * current elements remain available until loading has completed, and
+	 * are kept if loading fails.
+	 */
+	private void refreshInBackground() {
+		if (!refreshing.compareAndSet(false, true)) {
+			return;
+		}
+		Refresh.EXECUTOR.execute(new PrioritizedTask(RequestPriority.BACKGROUND, new Runnable() {
+			@Override
+			public void run() {
+				try {
+					synchronized (loadLock) {
+						// loaded by someone else while waiting to run
+						if (isStale()) {
+							doLoad();
+						}
+					}
+				} catch (RuntimeException e) {
+					// keep the stale elements, the next access tries again
+				} finally {
+					refreshing.set(false);
+				}
+			}
+		}));
+	}
+
+	/** Loads the elements from the server. Must hold {@link #loadLock}. */
+	private void doLoad() {
+		JsonNode json = service.loadJson(uri);
+
+		List<T> loaded = new ArrayList<T>();
+		if (json.get(field) instanceof ArrayNode) {
+			ArrayNode nodes = (ArrayNode) json.get(field);
+			for (JsonNode node : nodes) {
+				try {
+					loaded.add(parse(service, node));
+				} catch (ParseException e) {
+					// nothing to do, just ignore
+				}
+			}
+		}
+		data = Collections.unmodifiableList(loaded);
+		loadedAt = System.nanoTime();
+		isLoaded = true;
+	}
+
 	@Override
 	public String toString() {
 		return data.toString();
@@ -85,4 +199,13 @@ abstract class CachedListImpl<T> implements CachedList<T> {
 			super("Failed to parse node " + node, cause);
 		}
 	}
+
+	/**
+	 * Runs background refreshes of cached lists, shared by all lists. The
+	 * number of threads is set through <tt>bdRefreshThreads</tt>.
+	 */
+	private static class Refresh {
+		private static final ExecutorService EXECUTOR = AsyncBellaDatiService.createExecutor(BellaDatiClient
+			.readFromProperty("bdRefreshThreads", 2));
+	}
 }
@@ -0,0 +1,72 @@
+package com.belladati.sdk.impl;
+
+import java.util.concurrent.TimeUnit;
+
+import com.belladati.sdk.util.CachedList;
+
+/**
+ * Configures how long {@link CachedList}s created by this SDK implementation
+ * keep their elements.
+ * <p>
+ * By default, cached lists keep their elements until
+ * {@link CachedList#load()} is called. The system properties
+ * <tt>bdCachedListTtl</tt> and <tt>bdCachedListMaxStale</tt> set a default
+ * TTL and maximum stale time in milliseconds for all lists created
+ * afterwards, see {@link #setFreshness(CachedList, long, long, TimeUnit)}.
+ * Lists are refreshed in the background on threads shared by all lists
+ * (<tt>bdRefreshThreads</tt>, 2 by default).
+ */
+public class CachedLists {
+
+	private CachedLists() {}
+
+	/**
+	 * Sets how long the given list's elements remain fresh. Once they're
+	 * older than the TTL, accessing them through {@link CachedList#get()} or
+	 * {@link CachedList#loadFirstTime()} loads them again in the background
+	 * with {@link RequestPriority#BACKGROUND} priority. Until loading has
+	 * completed, the previous elements are still returned, and they're
+	 * replaced all at once afterwards. If loading fails, the previous
+	 * elements are kept.
+	 * <p>
+	 * Elements older than the TTL and the maximum stale time are considered
+	 * too old to use: {@link CachedList#loadFirstTime()} then loads them
+	 * again before returning. {@link CachedList#get()} never waits for the
+	 * server.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param ttl time after which to load the elements again, negative to
+	 *            keep them until loaded explicitly
+	 * @param maxStale time after the TTL during which
+	 *            {@link CachedList#loadFirstTime()} returns without waiting
+	 *            for the server
+	 * @param unit unit of both times
+	 * @return the list, for chaining
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation or maxStale is negative
+	 */
+	public static <T> CachedList<T> setFreshness(CachedList<T> list, long ttl, long maxStale, TimeUnit unit) {
+		implOf(list).setFreshness(ttl, maxStale, unit);
+		return list;
+	}
+
+	/**
+	 * Checks if the given list's elements are older than its TTL, i.e. if
+	 * they're due to be loaded again.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @return <tt>true</tt> if the list's elements are stale
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation
+	 */
+	public static boolean isStale(CachedList<?> list) {
+		return implOf(list).isStale();
+	}
+
+	private static <T> CachedListImpl<T> implOf(CachedList<T> list) {
+		if (!(list instanceof CachedListImpl)) {
+			throw new IllegalArgumentException("Not a list created by this SDK: " + list);
+		}
+		return (CachedListImpl<T>) list;
+	}
+}
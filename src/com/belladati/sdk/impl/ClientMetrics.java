@@ -0,0 +1,347 @@
+package com.belladati.sdk.impl;
+
+import java.io.FilterInputStream;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.belladati.httpclientandroidlib.HttpEntity;
+import com.belladati.httpclientandroidlib.client.cache.CacheResponseStatus;
+import com.belladati.httpclientandroidlib.entity.HttpEntityWrapper;
+import com.belladati.httpclientandroidlib.pool.PoolStats;
+import com.belladati.sdk.impl.BellaDatiMetrics.PriorityMetrics;
+
+/**
+ * Collects transport metrics of a shared HTTP client: responses by status
+ * code, connection failures, bytes sent and received both on the wire and
+ * as content before compression, cache use, time spent waiting for a pooled
+ * connection or for the request limiter, and request times by priority.
+ * <p>
+ * One instance is created per shared client in {@link ClientRegistry}, so
+ * the metrics include all {@link BellaDatiClient}s connecting to the same
+ * server with the same configuration, not just a single client.
+ */
+class ClientMetrics {
+
+	private final ConcurrentMap<Integer, AtomicLong> responses = new ConcurrentHashMap<Integer, AtomicLong>();
+	private final AtomicLong failures = new AtomicLong();
+
+	private final AtomicLong bytesSent = new AtomicLong();
+	private final AtomicLong bytesReceived = new AtomicLong();
+	private final AtomicLong contentBytesSent = new AtomicLong();
+	private final AtomicLong contentBytesReceived = new AtomicLong();
+
+	private final AtomicLong cacheHits = new AtomicLong();
+	private final AtomicLong cacheMisses = new AtomicLong();
+	private final AtomicLong cacheValidations = new AtomicLong();
+
+	private final AtomicLong connectionRequests = new AtomicLong();
+	private final AtomicLong connectionTimeouts = new AtomicLong();
+	private final AtomicLong connectionWaitNanos = new AtomicLong();
+	private final AtomicLong maxConnectionWaitNanos = new AtomicLong();
+
+	private final AtomicLong queueRequests = new AtomicLong();
+	private final AtomicLong queueTimeouts = new AtomicLong();
+	private final AtomicLong queueWaitNanos = new AtomicLong();
+	private final AtomicLong maxQueueWaitNanos = new AtomicLong();
+
+	/** counters by priority, indexed by ordinal */
+	private final PriorityCounters[] priorities = new PriorityCounters[RequestPriority.values().length];
+
+	ClientMetrics() {
+		for (int i = 0; i < priorities.length; i++) {
+			priorities[i] = new PriorityCounters();
+		}
+	}
+
+	/** the pool to report statistics of, set once the client is built */
+	private volatile MeteredConnectionManager connectionManager;
+
+	/** the limiter to report statistics of, <tt>null</tt> if there is none */
+	private volatile RequestLimiter requestLimiter;
+
+	/** the dispatcher to report statistics of, set once the client is built */
+	private volatile RequestDispatcher requestDispatcher;
+
+	void setConnectionManager(MeteredConnectionManager connectionManager) {
+		this.connectionManager = connectionManager;
+	}
+
+	void setRequestLimiter(RequestLimiter requestLimiter) {
+		this.requestLimiter = requestLimiter;
+	}
+
+	void setRequestDispatcher(RequestDispatcher requestDispatcher) {
+		this.requestDispatcher = requestDispatcher;
+	}
+
+	/**
+	 * Records a response received from the server or the cache.
+	 * 
+	 * @param statusCode status code of the response
+	 * @param cacheStatus how the cache handled the request, <tt>null</tt> if
+	 *            the request didn't go through the cache
+	 */
+	void recordResponse(int statusCode, CacheResponseStatus cacheStatus) {
+		AtomicLong count = responses.get(statusCode);
+		if (count == null) {
+			AtomicLong newCount = new AtomicLong();
+			count = responses.putIfAbsent(statusCode, newCount);
+			if (count == null) {
+				count = newCount;
+			}
+		}
+		count.incrementAndGet();
+
+		if (cacheStatus == CacheResponseStatus.CACHE_HIT) {
+			cacheHits.incrementAndGet();
+		} else if (cacheStatus == CacheResponseStatus.CACHE_MISS) {
+			cacheMisses.incrementAndGet();
+		} else if (cacheStatus == CacheResponseStatus.VALIDATED) {
+			cacheValidations.incrementAndGet();
+		}
+	}
+
+	/** Records a request that failed without a response. */
+	void recordFailure() {
+		failures.incrementAndGet();
+	}
+
+	/**
+	 * Records bytes transferred over a connection.
+	 * 
+	 * @param sent bytes sent to the server
+	 * @param received bytes received from the server
+	 */
+	void recordTransfer(long sent, long received) {
+		bytesSent.addAndGet(sent);
+		bytesReceived.addAndGet(received);
+	}
+
+	/**
+	 * Wraps a connection's output stream to count the bytes sent, for
+	 * transports without a metered connection pool.
+	 * 
+	 * @param out the stream to wrap
+	 * @return the wrapped stream
+	 */
+	OutputStream countTransferred(OutputStream out) {
+		return new CountingOutputStream(out, bytesSent);
+	}
+
+	/**
+	 * Wraps a connection's input stream to count the bytes received, for
+	 * transports without a metered connection pool.
+	 * 
+	 * @param in the stream to wrap
+	 * @return the wrapped stream
+	 */
+	InputStream countTransferred(InputStream in) {
+		return new CountingInputStream(in, bytesReceived);
+	}
+
+	/**
+	 * Wraps the given request entity to count its content bytes as they're
+	 * sent, before any compression.
+	 * 
+	 * @param entity the entity to wrap
+	 * @return the wrapped entity
+	 */
+	HttpEntity countSent(HttpEntity entity) {
+		return new HttpEntityWrapper(entity) {
+			@Override
+			public void writeTo(OutputStream out) throws IOException {
+				super.writeTo(new CountingOutputStream(out, contentBytesSent));
+			}
+		};
+	}
+
+	/**
+	 * Wraps the given response entity to count its content bytes as they're
+	 * read, after any decompression.
+	 * 
+	 * @param entity the entity to wrap, may be <tt>null</tt>
+	 * @return the wrapped entity
+	 */
+	HttpEntity countReceived(HttpEntity entity) {
+		if (entity == null) {
+			return null;
+		}
+		return new HttpEntityWrapper(entity) {
+			@Override
+			public InputStream getContent() throws IOException {
+				InputStream in = super.getContent();
+				return in == null ? null : new CountingInputStream(in, contentBytesReceived);
+			}
+		};
+	}
+
+	/**
+	 * Records the time spent waiting to lease a connection from the pool.
+	 * 
+	 * @param nanos time spent waiting
+	 * @param timedOut <tt>true</tt> if no connection became available in time
+	 */
+	void recordConnectionWait(long nanos, boolean timedOut) {
+		connectionRequests.incrementAndGet();
+		if (timedOut) {
+			connectionTimeouts.incrementAndGet();
+		}
+		connectionWaitNanos.addAndGet(nanos);
+		updateMax(maxConnectionWaitNanos, nanos);
+	}
+
+	/**
+	 * Records the time a request waited for the request limiter.
+	 * 
+	 * @param nanos time spent waiting
+	 * @param timedOut <tt>true</tt> if the request wasn't allowed in time
+	 */
+	void recordQueueWait(long nanos, boolean timedOut) {
+		queueRequests.incrementAndGet();
+		if (timedOut) {
+			queueTimeouts.incrementAndGet();
+		}
+		queueWaitNanos.addAndGet(nanos);
+		updateMax(maxQueueWaitNanos, nanos);
+	}
+
+	/**
+	 * Records the time a request waited for the dispatcher to send it.
+	 * 
+	 * @param priority priority of the request
+	 * @param nanos time spent waiting
+	 * @param timedOut <tt>true</tt> if the request wasn't sent in time
+	 */
+	void recordDispatchWait(RequestPriority priority, long nanos, boolean timedOut) {
+		PriorityCounters counters = priorities[priority.ordinal()];
+		if (timedOut) {
+			counters.timeouts.incrementAndGet();
+		}
+		counters.waitNanos.addAndGet(nanos);
+		updateMax(counters.maxWaitNanos, nanos);
+	}
+
+	/**
+	 * Records the total time of a request, from the call until the response
+	 * was read or the request failed.
+	 * 
+	 * @param priority priority of the request
+	 * @param nanos time the request took
+	 */
+	void recordRequestTime(RequestPriority priority, long nanos) {
+		PriorityCounters counters = priorities[priority.ordinal()];
+		counters.requests.incrementAndGet();
+		counters.nanos.addAndGet(nanos);
+		updateMax(counters.maxNanos, nanos);
+	}
+
+	/** Raises the given maximum to the given value if it's lower. */
+	private static void updateMax(AtomicLong maximum, long value) {
+		long max;
+		while (value > (max = maximum.get()) && !maximum.compareAndSet(max, value)) {
+			// another thread changed the maximum, check again
+		}
+	}
+
+	/**
+	 * Takes a snapshot of the current values.
+	 * 
+	 * @param coalesced number of requests that joined an identical request
+	 * @param hedged number of requests that were sent twice
+	 * @param hedgesWon number of duplicate requests that completed first
+	 * @return the current metrics
+	 */
+	BellaDatiMetrics snapshot(long coalesced, long hedged, long hedgesWon) {
+		Map<Integer, Long> responseCounts = new TreeMap<Integer, Long>();
+		for (Map.Entry<Integer, AtomicLong> entry : responses.entrySet()) {
+			responseCounts.put(entry.getKey(), entry.getValue().get());
+		}
+		MeteredConnectionManager manager = connectionManager;
+		PoolStats pool = manager == null ? new PoolStats(0, 0, 0, 0) : manager.getTotalStats();
+		RequestLimiter limiter = requestLimiter;
+		RequestDispatcher dispatcher = requestDispatcher;
+		Map<RequestPriority, PriorityMetrics> priorityMetrics = new EnumMap<RequestPriority, PriorityMetrics>(
+			RequestPriority.class);
+		for (RequestPriority priority : RequestPriority.values()) {
+			PriorityCounters counters = priorities[priority.ordinal()];
+			int waiting = dispatcher == null ? 0 : dispatcher.getWaiting(priority);
+			priorityMetrics.put(priority, new PriorityMetrics(counters.requests.get(), waiting, counters.timeouts.get(),
+				counters.waitNanos.get(), counters.maxWaitNanos.get(), counters.nanos.get(), counters.maxNanos.get()));
+		}
+		return new BellaDatiMetrics(pool.getLeased(), pool.getAvailable(), pool.getPending(), pool.getMax(),
+			connectionRequests.get(), connectionTimeouts.get(), connectionWaitNanos.get(), maxConnectionWaitNanos.get(),
+			limiter == null ? 0 : limiter.getLimit(), limiter == null ? 0 : limiter.getInFlight(),
+			limiter == null ? 0 : limiter.getWaiting(), queueRequests.get(), queueTimeouts.get(), queueWaitNanos.get(),
+			maxQueueWaitNanos.get(), priorityMetrics, responseCounts, failures.get(), bytesSent.get(),
+			bytesReceived.get(), contentBytesSent.get(), contentBytesReceived.get(), cacheHits.get(), cacheMisses.get(),
+			cacheValidations.get(), coalesced, hedged, hedgesWon);
+	}
+
+	/** Counters of requests with the same priority. */
+	private static class PriorityCounters {
+		private final AtomicLong requests = new AtomicLong();
+		private final AtomicLong timeouts = new AtomicLong();
+		private final AtomicLong waitNanos = new AtomicLong();
+		private final AtomicLong maxWaitNanos = new AtomicLong();
+		private final AtomicLong nanos = new AtomicLong();
+		private final AtomicLong maxNanos = new AtomicLong();
+	}
+
+	/** Adds the number of bytes written to a counter. */
+	private static class CountingOutputStream extends FilterOutputStream {
+		private final AtomicLong count;
+
+		CountingOutputStream(OutputStream out, AtomicLong count) {
+			super(out);
+			this.count = count;
+		}
+
+		@Override
+		public void write(int b) throws IOException {
+			out.write(b);
+			count.incrementAndGet();
+		}
+
+		@Override
+		public void write(byte[] b, int off, int len) throws IOException {
+			out.write(b, off, len);
+			count.addAndGet(len);
+		}
+	}
+
+	/** Adds the number of bytes read to a counter. */
+	private static class CountingInputStream extends FilterInputStream {
+		private final AtomicLong count;
+
+		CountingInputStream(InputStream in, AtomicLong count) {
+			super(in);
+			this.count = count;
+		}
+
+		@Override
+		public int read() throws IOException {
+			int b = super.read();
+			if (b >= 0) {
+				count.incrementAndGet();
+			}
+			return b;
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			int read = super.read(b, off, len);
+			if (read > 0) {
+				count.addAndGet(read);
+			}
+			return read;
+		}
+	}
+}
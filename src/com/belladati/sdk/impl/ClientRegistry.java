@@ -0,0 +1,139 @@
+package com.belladati.sdk.impl;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Process-wide registry of HTTP transports, allowing all SDK clients
+ * connecting to the same server with the same configuration to share one
+ * connection pool, TLS session cache and response cache. This includes
+ * clients restored from serialized services and connections.
+ * <p>
+ * Shared clients are reference counted. A shared client is closed and removed
+ * once the last SDK client using it has released it.
+ */
+class ClientRegistry {
+
+	private static final Map<String, SharedClient> CLIENTS = new HashMap<String, SharedClient>();
+
+	private ClientRegistry() {}
+
+	/**
+	 * Returns the shared client registered for the given key, building and
+	 * registering a new one if there is none. Each call must be matched by a
+	 * call to {@link #release(SharedClient)}.
+	 * 
+	 * @param key identifies the server and configuration of the client, or
+	 *            <tt>null</tt> to build a client that isn't shared
+	 * @param factory builds the client if needed
+	 * @return the shared client
+	 */
+	static SharedClient acquire(String key, ClientFactory factory) {
+		if (key == null) {
+			return build(null, factory);
+		}
+		synchronized (CLIENTS) {
+			SharedClient shared = CLIENTS.get(key);
+			if (shared == null) {
+				shared = build(key, factory);
+				CLIENTS.put(key, shared);
+			} else {
+				shared.references++;
+			}
+			return shared;
+		}
+	}
+
+	/**
+	 * Releases a shared client acquired earlier, closing it if it's no longer
+	 * used.
+	 * 
+	 * @param shared the client to release
+	 */
+	static void release(SharedClient shared) {
+		synchronized (CLIENTS) {
+			if (shared.references <= 0) {
+				return;
+			}
+			shared.references--;
+			if (shared.references > 0) {
+				return;
+			}
+			if (shared.key != null && CLIENTS.get(shared.key) == shared) {
+				CLIENTS.remove(shared.key);
+			}
+		}
+		try {
+			shared.transport.close();
+		} catch (IOException e) {
+			// nobody is using the client anymore, nothing else to do
+		}
+	}
+
+	/**
+	 * Checks if a shared client is currently registered for the given key.
+	 * 
+	 * @param key identifies the server and configuration of the client
+	 * @return <tt>true</tt> if a client is registered for the key
+	 */
+	static boolean isRegistered(String key) {
+		synchronized (CLIENTS) {
+			return CLIENTS.containsKey(key);
+		}
+	}
+
+	private static SharedClient build(String key, ClientFactory factory) {
+		ClientMetrics metrics = new ClientMetrics();
+		return new SharedClient(key, factory.build(metrics), metrics, RequestDispatcher.fromProperties(metrics),
+			RequestLimiter.fromProperties(metrics));
+	}
+
+	/** Builds HTTP transports for the registry. */
+	interface ClientFactory {
+		/**
+		 * Builds a new HTTP transport.
+		 * 
+		 * @param metrics collects metrics of the transport
+		 * @return a new transport instance
+		 */
+		HttpTransport build(ClientMetrics metrics);
+	}
+
+	/**
+	 * An HTTP transport with its metrics, dispatcher and request limiter, used
+	 * by one or more SDK clients.
+	 */
+	static class SharedClient {
+		private final String key;
+		final HttpTransport transport;
+		final ClientMetrics metrics;
+		/** sends requests in order of priority, <tt>null</tt> if disabled */
+		final RequestDispatcher dispatcher;
+		/** limits requests to the server, <tt>null</tt> if unlimited */
+		final RequestLimiter limiter;
+
+		/** number of SDK clients using this client, guarded by the registry */
+		private int references = 1;
+
+		private SharedClient(String key, HttpTransport transport, ClientMetrics metrics, RequestDispatcher dispatcher,
+			RequestLimiter limiter) {
+			this.key = key;
+			this.transport = transport;
+			this.metrics = metrics;
+			this.dispatcher = dispatcher;
+			this.limiter = limiter;
+		}
+
+		/**
+		 * Returns the number of SDK clients currently using this client.
+		 * 
+		 * @return the number of references to this client
+		 */
+		int getReferences() {
+			synchronized (CLIENTS) {
+				return references;
+			}
+		}
+	}
+}
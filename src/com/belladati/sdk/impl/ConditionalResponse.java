@@ -0,0 +1,62 @@
+package com.belladati.sdk.impl;
+
+/**
+ * Result of a conditional GET request. Holds either the content sent by the
+ * server, or indicates that the content hasn't changed since it was last
+ * loaded. In both cases, holds the validators the server sent to check for
+ * changes next time.
+ * 
+ * @param <T> type of content
+ */
+class ConditionalResponse<T> {
+
+	private final T content;
+	private final boolean notModified;
+	private final String eTag;
+	private final String lastModified;
+
+	ConditionalResponse(T content, boolean notModified, String eTag, String lastModified) {
+		this.content = content;
+		this.notModified = notModified;
+		this.eTag = eTag;
+		this.lastModified = lastModified;
+	}
+
+	/**
+	 * Returns the content sent by the server.
+	 * 
+	 * @return the content sent by the server, or <tt>null</tt> if the content
+	 *         wasn't modified
+	 */
+	T getContent() {
+		return content;
+	}
+
+	/**
+	 * Returns whether the server reported the content as unchanged.
+	 * 
+	 * @return <tt>true</tt> if the content wasn't modified
+	 */
+	boolean isNotModified() {
+		return notModified;
+	}
+
+	/**
+	 * Returns the entity tag sent by the server.
+	 * 
+	 * @return the entity tag, or <tt>null</tt> if the server didn't send one
+	 */
+	String getETag() {
+		return eTag;
+	}
+
+	/**
+	 * Returns the last modification date sent by the server.
+	 * 
+	 * @return the last modification date, or <tt>null</tt> if the server
+	 *         didn't send one
+	 */
+	String getLastModified() {
+		return lastModified;
+	}
+}
@@ -54,7 +54,7 @@ class DashboardInfoImpl implements DashboardInfo {
 
 	@Override
 	public Dashboard loadDetails() {
-		return service.loadDashboard(id);
+		return service.loadDashboard(id, lastChange);
 	}
 
 	@Override
@@ -81,7 +81,7 @@ class DataSetInfoImpl implements DataSetInfo {
 
 	@Override
 	public DataSet loadDetails() {
-		return service.loadDataSet(id);
+		return service.loadDataSet(id, lastChange);
 	}
 
 	@Override
@@ -0,0 +1,49 @@
+package com.belladati.sdk.impl;
+
+import java.util.Iterator;
+import java.util.List;
+
+import com.belladati.sdk.BellaDatiService;
+import com.belladati.sdk.dataset.data.DataColumn;
+import com.belladati.sdk.dataset.data.OverwritePolicy;
+import com.belladati.sdk.exception.dataset.data.UnknownServerColumnException;
+
+/**
+ * Uploads data to a data set without building a
+ * {@link com.belladati.sdk.dataset.data.DataTable} first. Rows are read from
+ * an iterator while the request is sent and written directly to the
+ * connection, so only the current row needs to be held in memory.
+ */
+public class DataUpload {
+
+	private DataUpload() {}
+
+	/**
+	 * Uploads data to the data set with the given ID. Each row holds the
+	 * values for the given columns in the same order; missing values at the
+	 * end of a row are left empty.
+	 * <p>
+	 * The iterator is read only once, while the data is sent. Nothing is sent
+	 * if it has no rows.
+	 * 
+	 * @param service a service created by this SDK implementation
+	 * @param dataSetId ID of the data set to upload to
+	 * @param columns the columns to import
+	 * @param overwritePolicy policy for existing data, may be <tt>null</tt>
+	 *            to keep all existing data
+	 * @param rows provides the rows to import
+	 * @throws UnknownServerColumnException if a column doesn't exist in the
+	 *             data set
+	 * @throws com.belladati.sdk.exception.dataset.data.TooManyColumnsException
+	 *             if a row has more values than there are columns
+	 * @throws IllegalArgumentException if the service wasn't created by this
+	 *             SDK implementation
+	 */
+	public static void uploadData(BellaDatiService service, String dataSetId, List<DataColumn> columns,
+		OverwritePolicy overwritePolicy, Iterator<? extends List<String>> rows) {
+		if (!(service instanceof BellaDatiServiceImpl)) {
+			throw new IllegalArgumentException("Unsupported service: " + service);
+		}
+		((BellaDatiServiceImpl) service).uploadData(dataSetId, columns, overwritePolicy, rows);
+	}
+}
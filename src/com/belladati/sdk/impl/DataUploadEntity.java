@@ -0,0 +1,120 @@
+package com.belladati.sdk.impl;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Iterator;
+import java.util.List;
+
+import com.belladati.httpclientandroidlib.entity.AbstractHttpEntity;
+import com.belladati.sdk.dataset.data.DataColumn;
+import com.belladati.sdk.dataset.data.OverwritePolicy;
+import com.belladati.sdk.exception.dataset.data.TooManyColumnsException;
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Request entity writing data to import directly to the connection as it's
+ * read from a row source, using chunked transfer encoding. Produces the same
+ * JSON as {@link com.belladati.sdk.dataset.data.DataTable#toJson()}, without
+ * building the table, a JSON tree or a string in memory first.
+ * <p>
+ * Rows are read while the request is sent, so the entity can be written only
+ * once.
+ */
+class DataUploadEntity extends AbstractHttpEntity {
+
+	/** Shared factory; writes JSON trees for column and policy definitions. */
+	private static final JsonFactory JSON_FACTORY = new ObjectMapper().getFactory();
+
+	private final List<DataColumn> columns;
+	private final OverwritePolicy overwritePolicy;
+	private final Iterator<? extends List<String>> rows;
+	private boolean consumed;
+
+	/**
+	 * Creates a new entity.
+	 * 
+	 * @param columns the columns to import
+	 * @param overwritePolicy policy for existing data, may be <tt>null</tt>
+	 *            to keep all existing data
+	 * @param rows provides the rows to import, each containing values in the
+	 *            same order as the columns
+	 */
+	DataUploadEntity(List<DataColumn> columns, OverwritePolicy overwritePolicy, Iterator<? extends List<String>> rows) {
+		this.columns = columns;
+		this.overwritePolicy = overwritePolicy == null ? OverwritePolicy.deleteNone() : overwritePolicy;
+		this.rows = rows;
+		setContentType("application/octet-stream");
+		setChunked(true);
+	}
+
+	@Override
+	public boolean isRepeatable() {
+		return false;
+	}
+
+	@Override
+	public long getContentLength() {
+		return -1;
+	}
+
+	@Override
+	public boolean isStreaming() {
+		return !consumed;
+	}
+
+	/**
+	 * Returns the content as a stream. Not used when sending the request; the
+	 * content is buffered in memory.
+	 */
+	@Override
+	public InputStream getContent() throws IOException {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		writeTo(out);
+		return new ByteArrayInputStream(out.toByteArray());
+	}
+
+	@Override
+	public void writeTo(OutputStream out) throws IOException {
+		if (consumed) {
+			throw new IllegalStateException("Data has already been sent");
+		}
+		consumed = true;
+		JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8);
+		generator.writeStartObject();
+		generator.writeArrayFieldStart("columns");
+		for (DataColumn column : columns) {
+			generator.writeTree(column.toJson());
+		}
+		generator.writeEndArray();
+
+		generator.writeArrayFieldStart("data");
+		while (rows.hasNext()) {
+			List<String> row = rows.next();
+			if (row.size() > columns.size()) {
+				throw new TooManyColumnsException(columns.size(), row.size());
+			}
+			generator.writeStartArray();
+			for (String value : row) {
+				generator.writeString(value);
+			}
+			// missing values at the end of the row are empty
+			for (int i = row.size(); i < columns.size(); i++) {
+				generator.writeNull();
+			}
+			generator.writeEndArray();
+		}
+		generator.writeEndArray();
+
+		generator.writeFieldName("overwrite");
+		generator.writeTree(overwritePolicy.toJson());
+		generator.writeEndObject();
+		// flush without closing the connection's stream
+		generator.flush();
+	}
+}
@@ -0,0 +1,142 @@
+package com.belladati.sdk.impl;
+
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Keeps the most recently loaded details of reports, dashboards or data sets
+ * along with the validators the server sent for them. Loading an item again
+ * sends a conditional request, reusing the already parsed item if the server
+ * reports it as unchanged.
+ * <p>
+ * When the caller knows the item's last change date, e.g. from a list entry,
+ * and that date matches the cached item, no request is made at all.
+ * 
+ * @param <T> type of items in the cache
+ */
+abstract class DetailCache<T> {
+
+	private final BellaDatiServiceImpl service;
+	private final String uriPrefix;
+
+	/** cached items by ID, in least to most recently used order */
+	private final Map<String, CachedItem<T>> items;
+
+	/** number of loads answered without parsing a response */
+	private final AtomicLong hits = new AtomicLong();
+
+	/**
+	 * Creates a new cache.
+	 * 
+	 * @param service service to load items through
+	 * @param uriPrefix prefix to which item IDs are appended to load them
+	 * @param maxEntries maximum number of items to keep, 0 to disable caching
+	 */
+	DetailCache(BellaDatiServiceImpl service, String uriPrefix, final int maxEntries) {
+		this.service = service;
+		this.uriPrefix = uriPrefix;
+		this.items = new LinkedHashMap<String, CachedItem<T>>(16, 0.75f, true) {
+			/** The serialVersionUID */
+			private static final long serialVersionUID = 7613893516372148935L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<String, CachedItem<T>> eldest) {
+				return size() > maxEntries;
+			}
+		};
+	}
+
+	/**
+	 * Loads the item with the given ID.
+	 * 
+	 * @param id ID of the item
+	 * @param lastChange last change date known for the item, or <tt>null</tt>
+	 *            if unknown
+	 * @return the item
+	 */
+	T load(String id, Date lastChange) {
+		CachedItem<T> cached;
+		synchronized (items) {
+			cached = items.get(id);
+		}
+		if (cached != null && lastChange != null && lastChange.equals(cached.lastChange)) {
+			// the item hasn't changed since we loaded it, no need to ask
+			hits.incrementAndGet();
+			return cached.item;
+		}
+		ConditionalResponse<JsonNode> response = service.client.getJson(uriPrefix + id, service.tokenHolder,
+			cached == null ? null : cached.eTag, cached == null ? null : cached.lastModified);
+		if (response.isNotModified() && cached != null) {
+			// keep the item we have, but remember any updated validators
+			hits.incrementAndGet();
+			put(id, new CachedItem<T>(cached.item, cached.lastChange, response.getETag() != null ? response.getETag()
+				: cached.eTag, response.getLastModified() != null ? response.getLastModified() : cached.lastModified));
+			return cached.item;
+		}
+		T item = parse(service, response.getContent());
+		Date itemLastChange = getLastChange(item);
+		if (response.getETag() != null || response.getLastModified() != null || itemLastChange != null) {
+			put(id, new CachedItem<T>(item, itemLastChange, response.getETag(), response.getLastModified()));
+		} else {
+			remove(id);
+		}
+		return item;
+	}
+
+	/**
+	 * Returns the number of loads that reused a cached item.
+	 * 
+	 * @return the number of loads that reused a cached item
+	 */
+	long getHitCount() {
+		return hits.get();
+	}
+
+	private void put(String id, CachedItem<T> cachedItem) {
+		synchronized (items) {
+			items.put(id, cachedItem);
+		}
+	}
+
+	private void remove(String id) {
+		synchronized (items) {
+			items.remove(id);
+		}
+	}
+
+	/**
+	 * Parses the given JSON node into an item.
+	 * 
+	 * @param service service the item belongs to
+	 * @param node the node to parse
+	 * @return the parsed item
+	 */
+	protected abstract T parse(BellaDatiServiceImpl service, JsonNode node);
+
+	/**
+	 * Returns the last change date of the given item.
+	 * 
+	 * @param item the item
+	 * @return the last change date, or <tt>null</tt> if unknown
+	 */
+	protected abstract Date getLastChange(T item);
+
+	/** An item along with its validators. */
+	private static class CachedItem<T> {
+		private final T item;
+		private final Date lastChange;
+		private final String eTag;
+		private final String lastModified;
+
+		CachedItem(T item, Date lastChange, String eTag, String lastModified) {
+			this.item = item;
+			this.lastChange = lastChange;
+			this.eTag = eTag;
+			this.lastModified = lastModified;
+		}
+	}
+}
@@ -0,0 +1,462 @@
+package com.belladati.sdk.impl;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.OutputStreamWriter;
+import java.io.UnsupportedEncodingException;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.belladati.httpclientandroidlib.client.cache.HttpCacheEntry;
+import com.belladati.httpclientandroidlib.client.cache.HttpCacheStorage;
+import com.belladati.httpclientandroidlib.client.cache.HttpCacheUpdateCallback;
+import com.belladati.sdk.exception.InternalConfigurationException;
+
+/**
+ * HTTP cache storage keeping cache entries in files in a directory, so they
+ * survive process restarts. Storage is limited to a maximum number of bytes;
+ * the least recently used entries are evicted when it's exceeded.
+ * <p>
+ * Each entry is kept in its own file, written to a temporary file first and
+ * then renamed, so a crash never leaves a partially written entry in place.
+ * An append-only journal records which entries exist and in which order they
+ * were used. The journal is read when the storage is first accessed, without
+ * reading any of the cached entries themselves. Incomplete journal lines from
+ * a crash are ignored, and files not referenced in the journal are deleted.
+ */
+class FileCacheStorage implements HttpCacheStorage {
+
+	private static final String JOURNAL = "journal";
+	private static final String JOURNAL_TMP = "journal.tmp";
+	private static final String ENTRY_SUFFIX = ".entry";
+	private static final String TMP_SUFFIX = ".tmp";
+
+	private static final String PUT = "PUT";
+	private static final String READ = "READ";
+	private static final String DEL = "DEL";
+
+	/** version of the entry file format */
+	private static final int ENTRY_VERSION = 1;
+
+	/** journal is rewritten when it has this many more lines than entries */
+	private static final int COMPACT_THRESHOLD = 2000;
+
+	/** storages by directory, so each directory is managed only once */
+	private static final Map<File, FileCacheStorage> STORAGES = new HashMap<File, FileCacheStorage>();
+
+	private final File directory;
+	private final long maxBytes;
+
+	/** entry sizes by file name, in least to most recently used order */
+	private final LinkedHashMap<String, Long> index = new LinkedHashMap<String, Long>(16, 0.75f, true);
+
+	/** used to create unique temporary file names */
+	private final AtomicLong tmpCounter = new AtomicLong();
+
+	private Writer journal;
+	private int journalLines;
+	private long totalBytes;
+	private boolean initialized;
+
+	/**
+	 * Returns the storage for the given directory, creating it if needed.
+	 * Storage instances are shared within the process to make sure only one
+	 * instance writes to each directory, so all callers for a directory must
+	 * use the same maximum size.
+	 * 
+	 * @param directory directory to keep the cache in
+	 * @param maxBytes maximum number of bytes to keep in the cache
+	 * @return the storage for the directory
+	 * @throws IllegalArgumentException if the directory is already used with a
+	 *             different maximum size
+	 */
+	static FileCacheStorage forDirectory(File directory, long maxBytes) throws IllegalArgumentException {
+		File canonical;
+		try {
+			canonical = directory.getCanonicalFile();
+		} catch (IOException e) {
+			canonical = directory.getAbsoluteFile();
+		}
+		synchronized (STORAGES) {
+			FileCacheStorage storage = STORAGES.get(canonical);
+			if (storage == null) {
+				storage = new FileCacheStorage(canonical, maxBytes);
+				STORAGES.put(canonical, storage);
+			} else if (storage.maxBytes != maxBytes) {
+				throw new IllegalArgumentException("Cache directory " + canonical + " already has maximum size "
+					+ storage.maxBytes + ", not " + maxBytes);
+			}
+			return storage;
+		}
+	}
+
+	FileCacheStorage(File directory, long maxBytes) {
+		if (maxBytes <= 0) {
+			throw new IllegalArgumentException("Cache size must be > 0, was " + maxBytes);
+		}
+		this.directory = directory;
+		this.maxBytes = maxBytes;
+	}
+
+	@Override
+	public void putEntry(String key, HttpCacheEntry entry) throws IOException {
+		String name = fileName(key);
+		File tmp = new File(directory, name + "." + tmpCounter.incrementAndGet() + TMP_SUFFIX);
+		synchronized (this) {
+			initialize();
+		}
+		writeEntry(tmp, key, entry);
+		synchronized (this) {
+			File file = new File(directory, name + ENTRY_SUFFIX);
+			if (!tmp.renameTo(file)) {
+				// some platforms can't rename onto an existing file
+				file.delete();
+				if (!tmp.renameTo(file)) {
+					tmp.delete();
+					throw new IOException("Failed to write cache entry " + file);
+				}
+			}
+			long length = file.length();
+			Long previous = index.put(name, length);
+			if (previous != null) {
+				totalBytes -= previous;
+			}
+			totalBytes += length;
+			appendJournal(PUT, name, length);
+			evict();
+		}
+	}
+
+	@Override
+	public HttpCacheEntry getEntry(String key) throws IOException {
+		String name = fileName(key);
+		synchronized (this) {
+			initialize();
+			if (index.get(name) == null) {
+				return null;
+			}
+			appendJournal(READ, name, -1);
+		}
+		HttpCacheEntry entry = readEntry(new File(directory, name + ENTRY_SUFFIX), key);
+		if (entry == null) {
+			// file was lost or unreadable, forget about it
+			synchronized (this) {
+				remove(name);
+			}
+		}
+		return entry;
+	}
+
+	@Override
+	public synchronized void removeEntry(String key) throws IOException {
+		initialize();
+		remove(fileName(key));
+	}
+
+	@Override
+	public synchronized void updateEntry(String key, HttpCacheUpdateCallback callback) throws IOException {
+		HttpCacheEntry updated = callback.update(getEntry(key));
+		if (updated == null) {
+			removeEntry(key);
+		} else {
+			putEntry(key, updated);
+		}
+	}
+
+	/**
+	 * Returns the number of bytes currently stored in the cache.
+	 * 
+	 * @return the number of bytes currently stored in the cache
+	 */
+	synchronized long getSize() throws IOException {
+		initialize();
+		return totalBytes;
+	}
+
+	/**
+	 * Returns the number of entries currently stored in the cache.
+	 * 
+	 * @return the number of entries currently stored in the cache
+	 */
+	synchronized int getEntryCount() throws IOException {
+		initialize();
+		return index.size();
+	}
+
+	/** Closes the journal. The storage reopens it when used again. */
+	synchronized void close() {
+		closeJournal();
+		initialized = false;
+		index.clear();
+		totalBytes = 0;
+	}
+
+	/** Removes the entry with the given file name, if present. */
+	private void remove(String name) {
+		Long size = index.remove(name);
+		if (size != null) {
+			totalBytes -= size;
+			appendJournal(DEL, name, -1);
+		}
+		new File(directory, name + ENTRY_SUFFIX).delete();
+	}
+
+	/** Evicts least recently used entries until the size limit is met. */
+	private void evict() {
+		Iterator<Entry<String, Long>> iterator = index.entrySet().iterator();
+		while (totalBytes > maxBytes && iterator.hasNext()) {
+			Entry<String, Long> eldest = iterator.next();
+			iterator.remove();
+			totalBytes -= eldest.getValue();
+			appendJournal(DEL, eldest.getKey(), -1);
+			new File(directory, eldest.getKey() + ENTRY_SUFFIX).delete();
+		}
+	}
+
+	/**
+	 * Restores the index from the journal on first access. The cache entries
+	 * themselves aren't read, but their sizes are taken from the files, since
+	 * the journal may be truncated or refer to files that were lost.
+	 */
+	private void initialize() throws IOException {
+		if (initialized) {
+			return;
+		}
+		if (!directory.isDirectory() && !directory.mkdirs()) {
+			throw new IOException("Failed to create cache directory " + directory);
+		}
+		index.clear();
+		totalBytes = 0;
+		journalLines = 0;
+		readJournal(new File(directory, JOURNAL));
+		deleteUnreferencedFiles();
+		Iterator<Entry<String, Long>> iterator = index.entrySet().iterator();
+		while (iterator.hasNext()) {
+			Entry<String, Long> entry = iterator.next();
+			File file = new File(directory, entry.getKey() + ENTRY_SUFFIX);
+			if (file.isFile()) {
+				entry.setValue(file.length());
+				totalBytes += entry.getValue();
+			} else {
+				iterator.remove();
+			}
+		}
+		// start with a clean journal containing only the entries we know
+		rewriteJournal();
+		initialized = true;
+		evict();
+	}
+
+	/** Reads the journal into the index, ignoring malformed lines. */
+	private void readJournal(File file) {
+		if (!file.isFile()) {
+			return;
+		}
+		BufferedReader reader = null;
+		try {
+			reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), "UTF-8"));
+			String line;
+			while ((line = reader.readLine()) != null) {
+				String[] parts = line.split(" ");
+				try {
+					if (parts.length == 3 && PUT.equals(parts[0])) {
+						index.put(parts[1], Long.parseLong(parts[2]));
+					} else if (parts.length == 2 && READ.equals(parts[0])) {
+						index.get(parts[1]);
+					} else if (parts.length == 2 && DEL.equals(parts[0])) {
+						index.remove(parts[1]);
+					}
+				} catch (NumberFormatException e) {
+					// incomplete line written during a crash, ignore
+				}
+			}
+		} catch (IOException e) {
+			// use whatever we could read so far
+		} finally {
+			if (reader != null) {
+				try {
+					reader.close();
+				} catch (IOException e) {
+					// nothing to do
+				}
+			}
+		}
+	}
+
+	/** Deletes entry and temporary files that aren't in the index. */
+	private void deleteUnreferencedFiles() {
+		File[] files = directory.listFiles(new FilenameFilter() {
+			@Override
+			public boolean accept(File dir, String name) {
+				return name.endsWith(ENTRY_SUFFIX) || name.endsWith(TMP_SUFFIX);
+			}
+		});
+		if (files == null) {
+			return;
+		}
+		for (File file : files) {
+			String name = file.getName();
+			if (name.endsWith(TMP_SUFFIX)
+				|| !index.containsKey(name.substring(0, name.length() - ENTRY_SUFFIX.length()))) {
+				file.delete();
+			}
+		}
+	}
+
+	/** Appends a line to the journal, compacting it when it grows too large. */
+	private void appendJournal(String operation, String name, long size) {
+		if (journal == null) {
+			return;
+		}
+		try {
+			journal.write(operation + " " + name + (size >= 0 ? " " + size : "") + "\n");
+			journal.flush();
+			journalLines++;
+		} catch (IOException e) {
+			// the journal is broken, rewrite it from the index
+			rewriteJournal();
+			return;
+		}
+		if (journalLines > index.size() + COMPACT_THRESHOLD) {
+			rewriteJournal();
+		}
+	}
+
+	/**
+	 * Replaces the journal with one containing only the current entries. The
+	 * new journal is written to a temporary file and then renamed, so the old
+	 * journal stays intact if writing fails.
+	 */
+	private void rewriteJournal() {
+		closeJournal();
+		File tmp = new File(directory, JOURNAL_TMP);
+		File file = new File(directory, JOURNAL);
+		try {
+			Writer writer = new OutputStreamWriter(new FileOutputStream(tmp), "UTF-8");
+			try {
+				for (Entry<String, Long> entry : index.entrySet()) {
+					writer.write(PUT + " " + entry.getKey() + " " + entry.getValue() + "\n");
+				}
+			} finally {
+				writer.close();
+			}
+			if (!tmp.renameTo(file)) {
+				file.delete();
+				tmp.renameTo(file);
+			}
+			journal = new BufferedWriter(new OutputStreamWriter(new FileOutputStream(file, true), "UTF-8"));
+			journalLines = index.size();
+		} catch (IOException e) {
+			// keep working without a journal, entries are lost on restart
+			journal = null;
+		}
+	}
+
+	private void closeJournal() {
+		if (journal != null) {
+			try {
+				journal.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+			journal = null;
+		}
+	}
+
+	/** Writes the given entry to the given file. */
+	private static void writeEntry(File file, String key, HttpCacheEntry entry) throws IOException {
+		FileOutputStream fos = new FileOutputStream(file);
+		try {
+			DataOutputStream out = new DataOutputStream(new BufferedOutputStream(fos));
+			out.writeInt(ENTRY_VERSION);
+			out.writeUTF(key);
+			ObjectOutputStream oos = new ObjectOutputStream(out);
+			oos.writeObject(entry);
+			oos.flush();
+			fos.getFD().sync();
+		} catch (IOException e) {
+			fos.close();
+			file.delete();
+			throw e;
+		}
+		fos.close();
+	}
+
+	/**
+	 * Reads the entry for the given key from the given file.
+	 * 
+	 * @return the entry, or <tt>null</tt> if the file is missing, unreadable
+	 *         or belongs to a different key
+	 */
+	private static HttpCacheEntry readEntry(File file, String key) {
+		DataInputStream in;
+		try {
+			in = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+		} catch (FileNotFoundException e) {
+			return null;
+		}
+		try {
+			if (in.readInt() != ENTRY_VERSION || !key.equals(in.readUTF())) {
+				return null;
+			}
+			Object entry = new ObjectInputStream(in).readObject();
+			return entry instanceof HttpCacheEntry ? (HttpCacheEntry) entry : null;
+		} catch (IOException e) {
+			return null;
+		} catch (ClassNotFoundException e) {
+			return null;
+		} finally {
+			try {
+				in.close();
+			} catch (IOException e) {
+				// nothing to do
+			}
+		}
+	}
+
+	/**
+	 * Builds a file name for the given cache key.
+	 * 
+	 * @param key the cache key
+	 * @return a file name unique to the key
+	 */
+	static String fileName(String key) {
+		try {
+			byte[] hash = MessageDigest.getInstance("SHA-1").digest(key.getBytes("UTF-8"));
+			StringBuilder sb = new StringBuilder(hash.length * 2);
+			for (byte b : hash) {
+				sb.append(Character.forDigit((b >> 4) & 0xf, 16)).append(Character.forDigit(b & 0xf, 16));
+			}
+			return sb.toString();
+		} catch (NoSuchAlgorithmException e) {
+			throw new InternalConfigurationException("SHA-1 not supported", e);
+		} catch (UnsupportedEncodingException e) {
+			throw new InternalConfigurationException("UTF-8 not supported", e);
+		}
+	}
+
+	@Override
+	public String toString() {
+		return "File cache(" + directory + ")";
+	}
+}
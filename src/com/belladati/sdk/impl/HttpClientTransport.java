@@ -0,0 +1,111 @@
+package com.belladati.sdk.impl;
+
+import java.io.File;
+import java.io.IOException;
+import java.security.GeneralSecurityException;
+
+import javax.net.ssl.SSLContext;
+
+import com.belladati.httpclientandroidlib.client.config.RequestConfig;
+import com.belladati.httpclientandroidlib.client.methods.CloseableHttpResponse;
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
+import com.belladati.httpclientandroidlib.config.RegistryBuilder;
+import com.belladati.httpclientandroidlib.conn.socket.ConnectionSocketFactory;
+import com.belladati.httpclientandroidlib.conn.socket.PlainConnectionSocketFactory;
+import com.belladati.httpclientandroidlib.conn.ssl.SSLConnectionSocketFactory;
+import com.belladati.httpclientandroidlib.conn.ssl.SSLContexts;
+import com.belladati.httpclientandroidlib.conn.ssl.TrustSelfSignedStrategy;
+import com.belladati.httpclientandroidlib.impl.client.CloseableHttpClient;
+import com.belladati.httpclientandroidlib.impl.client.cache.CacheConfig;
+import com.belladati.httpclientandroidlib.impl.client.cache.CachingHttpClientBuilder;
+import com.belladati.httpclientandroidlib.impl.conn.PoolingHttpClientConnectionManager;
+import com.belladati.httpclientandroidlib.protocol.HttpContext;
+import com.belladati.sdk.exception.InternalConfigurationException;
+
+/**
+ * Transport using the bundled HTTP client, with a metered connection pool,
+ * an HTTP cache and transparent response decompression. This is the default
+ * transport.
+ */
+class HttpClientTransport implements HttpTransport {
+
+	private final CloseableHttpClient client;
+
+	/**
+	 * Creates a new transport.
+	 * 
+	 * @param baseUrl URL of the server, identifies the cache on disk
+	 * @param trustSelfSigned <tt>true</tt> if the client should accept
+	 *            self-signed certificates
+	 * @param metrics collects metrics of the client's connection pool
+	 */
+	HttpClientTransport(String baseUrl, boolean trustSelfSigned, ClientMetrics metrics) {
+		this.client = buildClient(baseUrl, trustSelfSigned, metrics);
+	}
+
+	@Override
+	public CloseableHttpResponse execute(HttpRequestBase request, HttpContext context) throws IOException {
+		return client.execute(request, context);
+	}
+
+	@Override
+	public void close() throws IOException {
+		client.close();
+	}
+
+	/**
+	 * Builds the HTTP client to connect to the server.
+	 * 
+	 * @param baseUrl URL of the server, identifies the cache on disk
+	 * @param trustSelfSigned <tt>true</tt> if the client should accept
+	 *            self-signed certificates
+	 * @param metrics collects metrics of the client's connection pool
+	 * @return a new client instance
+	 */
+	private static CloseableHttpClient buildClient(String baseUrl, boolean trustSelfSigned, ClientMetrics metrics) {
+		try {
+			// if required, define custom SSL context allowing self-signed certs
+			SSLContext sslContext = !trustSelfSigned ? SSLContexts.createSystemDefault() : SSLContexts.custom()
+				.loadTrustMaterial(null, new TrustSelfSignedStrategy()).build();
+
+			// set timeouts for the HTTP client
+			int globalTimeout = BellaDatiClient.readFromProperty("bdTimeout", 10000);
+			int connectTimeout = BellaDatiClient.readFromProperty("bdConnectTimeout", globalTimeout);
+			int connectionRequestTimeout = BellaDatiClient.readFromProperty("bdConnectionRequestTimeout", globalTimeout);
+			int socketTimeout = BellaDatiClient.readFromProperty("bdSocketTimeout", globalTimeout);
+			RequestConfig requestConfig = RequestConfig.copy(RequestConfig.DEFAULT).setConnectTimeout(connectTimeout)
+				.setSocketTimeout(socketTimeout).setConnectionRequestTimeout(connectionRequestTimeout).build();
+
+			// configure caching
+			CacheConfig cacheConfig = CacheConfig.copy(CacheConfig.DEFAULT).setSharedCache(false).setMaxCacheEntries(1000)
+				.setMaxObjectSize(2 * 1024 * 1024).build();
+
+			// configure connection pooling
+			PoolingHttpClientConnectionManager connManager = new MeteredConnectionManager(RegistryBuilder
+				.<ConnectionSocketFactory> create().register("http", PlainConnectionSocketFactory.getSocketFactory())
+				.register("https", new SSLConnectionSocketFactory(sslContext)).build(), metrics);
+			int connectionLimit = BellaDatiClient.readFromProperty("bdMaxConnections", 40);
+			// there's only one server to connect to, so max per route matters
+			connManager.setMaxTotal(connectionLimit);
+			connManager.setDefaultMaxPerRoute(connectionLimit);
+
+			// create the HTTP client
+			CachingHttpClientBuilder builder = CachingHttpClientBuilder.create().setCacheConfig(cacheConfig);
+
+			// if configured, keep cached responses on disk across restarts
+			String cacheDir = System.getProperty("bdCacheDir");
+			if (cacheDir != null && !cacheDir.trim().isEmpty()) {
+				File directory = new File(cacheDir.trim(), FileCacheStorage.fileName(baseUrl));
+				builder.setHttpCacheStorage(FileCacheStorage.forDirectory(directory,
+					BellaDatiClient.readFromProperty("bdCacheMaxSize", 50 * 1024 * 1024)));
+			}
+			// responses are compressed unless disabled, uploads only if enabled
+			if (!BellaDatiClient.readFromProperty("bdCompressResponses", true)) {
+				builder.disableContentCompression();
+			}
+			return builder.setDefaultRequestConfig(requestConfig).setConnectionManager(connManager).build();
+		} catch (GeneralSecurityException e) {
+			throw new InternalConfigurationException("Failed to set up SSL context", e);
+		}
+	}
+}
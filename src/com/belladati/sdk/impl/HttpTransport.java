@@ -0,0 +1,34 @@
+package com.belladati.sdk.impl;
+
+import java.io.Closeable;
+import java.io.IOException;
+
+import com.belladati.httpclientandroidlib.client.methods.CloseableHttpResponse;
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
+import com.belladati.httpclientandroidlib.protocol.HttpContext;
+
+/**
+ * Sends requests to the server. The {@link BellaDatiClient} builds, signs and
+ * prepares each request and maps the response status; the transport only
+ * transfers the request and response over the network.
+ * <p>
+ * Transports are configured through system properties and may be shared by
+ * several clients, so they must be safe to use concurrently.
+ */
+interface HttpTransport extends Closeable {
+
+	/**
+	 * Executes the given request. Request entities are written to the
+	 * connection as they're sent, response entities are read from the
+	 * connection as they're consumed.
+	 * <p>
+	 * If the request is aborted while it's executed, the connection is closed
+	 * and the call fails with an {@link IOException}.
+	 * 
+	 * @param request the signed request to execute
+	 * @param context context of the request, may receive the cache status
+	 * @return the response, to be closed by the caller
+	 * @throws IOException if the request failed
+	 */
+	CloseableHttpResponse execute(HttpRequestBase request, HttpContext context) throws IOException;
+}
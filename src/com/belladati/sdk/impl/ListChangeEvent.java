@@ -0,0 +1,68 @@
+package com.belladati.sdk.impl;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Describes the differences found when refreshing a list. Elements are
+ * matched by ID; an element is considered changed if its last change date
+ * differs from the previously loaded element, or if either has none.
+ * 
+ * @param <T> type of elements in the list
+ */
+public class ListChangeEvent<T> {
+
+	private final List<T> added;
+	private final List<T> removed;
+	private final List<T> changed;
+
+	ListChangeEvent(List<T> added, List<T> removed, List<T> changed) {
+		this.added = Collections.unmodifiableList(added);
+		this.removed = Collections.unmodifiableList(removed);
+		this.changed = Collections.unmodifiableList(changed);
+	}
+
+	/**
+	 * Returns the elements that weren't in the list before, in list order.
+	 * 
+	 * @return the added elements
+	 */
+	public List<T> getAdded() {
+		return added;
+	}
+
+	/**
+	 * Returns the previously loaded elements that are no longer in the list,
+	 * in their previous order.
+	 * 
+	 * @return the removed elements
+	 */
+	public List<T> getRemoved() {
+		return removed;
+	}
+
+	/**
+	 * Returns the elements that have changed, in list order. These are new
+	 * instances replacing the previously loaded elements with the same IDs.
+	 * 
+	 * @return the changed elements
+	 */
+	public List<T> getChanged() {
+		return changed;
+	}
+
+	/**
+	 * Checks if any elements were added, removed or changed.
+	 * 
+	 * @return <tt>true</tt> if the list has changed
+	 */
+	public boolean hasChanges() {
+		return !added.isEmpty() || !removed.isEmpty() || !changed.isEmpty();
+	}
+
+	@Override
+	public String toString() {
+		return "ListChangeEvent(added: " + added.size() + ", removed: " + removed.size() + ", changed: "
+			+ changed.size() + ")";
+	}
+}
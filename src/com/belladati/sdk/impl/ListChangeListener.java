@@ -0,0 +1,23 @@
+package com.belladati.sdk.impl;
+
+import com.belladati.sdk.util.PaginatedIdList;
+
+/**
+ * Receives the changes found when refreshing a list. Register listeners with
+ * {@link PaginatedLists#addChangeListener(PaginatedIdList, ListChangeListener)}.
+ * <p>
+ * Listeners are called on the thread that refreshed the list, after the
+ * list has been updated, so they should return quickly. Exceptions thrown by
+ * listeners are ignored.
+ * 
+ * @param <T> type of elements in the list
+ */
+public interface ListChangeListener<T> {
+
+	/**
+	 * Called when refreshing a list found added, removed or changed elements.
+	 * 
+	 * @param event describes the changes
+	 */
+	void listChanged(ListChangeEvent<T> event);
+}
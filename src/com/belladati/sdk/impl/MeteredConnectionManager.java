@@ -0,0 +1,105 @@
+package com.belladati.sdk.impl;
+
+import java.io.IOException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.belladati.httpclientandroidlib.HttpClientConnection;
+import com.belladati.httpclientandroidlib.HttpConnectionMetrics;
+import com.belladati.httpclientandroidlib.config.Registry;
+import com.belladati.httpclientandroidlib.conn.ConnectionPoolTimeoutException;
+import com.belladati.httpclientandroidlib.conn.ConnectionRequest;
+import com.belladati.httpclientandroidlib.conn.routing.HttpRoute;
+import com.belladati.httpclientandroidlib.conn.socket.ConnectionSocketFactory;
+import com.belladati.httpclientandroidlib.impl.conn.PoolingHttpClientConnectionManager;
+import com.belladati.httpclientandroidlib.protocol.HttpContext;
+import com.belladati.sdk.impl.RequestEvent.Phase;
+
+/**
+ * Connection pool reporting the time spent waiting for connections and the
+ * bytes transferred over each connection to a {@link ClientMetrics}. Time
+ * spent waiting and connecting is also added to the current request's
+ * {@link RequestTimer}, if any.
+ */
+class MeteredConnectionManager extends PoolingHttpClientConnectionManager {
+
+	private final ClientMetrics metrics;
+
+	MeteredConnectionManager(Registry<ConnectionSocketFactory> socketFactoryRegistry, ClientMetrics metrics) {
+		super(socketFactoryRegistry);
+		this.metrics = metrics;
+		metrics.setConnectionManager(this);
+	}
+
+	@Override
+	public ConnectionRequest requestConnection(HttpRoute route, Object state) {
+		final ConnectionRequest request = super.requestConnection(route, state);
+		return new ConnectionRequest() {
+			@Override
+			public HttpClientConnection get(long timeout, TimeUnit tunit) throws InterruptedException,
+				ExecutionException, ConnectionPoolTimeoutException {
+				long start = System.nanoTime();
+				boolean timedOut = false;
+				try {
+					return request.get(timeout, tunit);
+				} catch (ConnectionPoolTimeoutException e) {
+					timedOut = true;
+					throw e;
+				} finally {
+					long nanos = System.nanoTime() - start;
+					metrics.recordConnectionWait(nanos, timedOut);
+					RequestTimer timer = RequestTimer.current();
+					if (timer != null) {
+						timer.add(Phase.CONNECTION_WAIT, nanos);
+					}
+				}
+			}
+
+			@Override
+			public boolean cancel() {
+				return request.cancel();
+			}
+		};
+	}
+
+	@Override
+	public void connect(HttpClientConnection managedConn, HttpRoute route, int connectTimeout, HttpContext context)
+		throws IOException {
+		RequestTimer timer = RequestTimer.current();
+		long start = System.nanoTime();
+		try {
+			super.connect(managedConn, route, connectTimeout, context);
+		} finally {
+			if (timer != null) {
+				timer.add(Phase.CONNECT, System.nanoTime() - start);
+			}
+		}
+	}
+
+	@Override
+	public void upgrade(HttpClientConnection managedConn, HttpRoute route, HttpContext context) throws IOException {
+		// TLS handshake through a proxy tunnel
+		RequestTimer timer = RequestTimer.current();
+		long start = System.nanoTime();
+		try {
+			super.upgrade(managedConn, route, context);
+		} finally {
+			if (timer != null) {
+				timer.add(Phase.CONNECT, System.nanoTime() - start);
+			}
+		}
+	}
+
+	@Override
+	public void releaseConnection(HttpClientConnection managedConn, Object state, long keepalive, TimeUnit tunit) {
+		try {
+			// count what was transferred since the connection was last leased
+			HttpConnectionMetrics connMetrics = managedConn.getMetrics();
+			metrics.recordTransfer(connMetrics.getSentBytesCount(), connMetrics.getReceivedBytesCount());
+			connMetrics.reset();
+		} catch (IllegalStateException e) {
+			// connection was already shut down, nothing to count
+		}
+		super.releaseConnection(managedConn, state, keepalive, tunit);
+	}
+}
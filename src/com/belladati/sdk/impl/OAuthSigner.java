@@ -0,0 +1,356 @@
+package com.belladati.sdk.impl;
+
+import java.io.IOException;
+import java.io.UnsupportedEncodingException;
+import java.net.URI;
+import java.net.URLDecoder;
+import java.security.GeneralSecurityException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import javax.crypto.Mac;
+import javax.crypto.spec.SecretKeySpec;
+
+import com.belladati.httpclientandroidlib.Header;
+import com.belladati.httpclientandroidlib.HttpEntity;
+import com.belladati.httpclientandroidlib.HttpEntityEnclosingRequest;
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
+import com.belladati.httpclientandroidlib.util.EntityUtils;
+import com.belladati.sdk.exception.InternalConfigurationException;
+
+/**
+ * Signs requests with an OAuth 1.0 <tt>HMAC-SHA1</tt> authorization header,
+ * producing the same header as signpost's consumer without its per-request
+ * overhead. Each signer belongs to one consumer and token: the signing key is
+ * derived once, and every thread keeps its own initialized {@link Mac}.
+ * <p>
+ * Only requests signpost would sign from their URL, form body and the
+ * standard OAuth parameters are supported. Requests that already carry an
+ * authorization header or OAuth parameters of their own are left to
+ * signpost.
+ */
+class OAuthSigner {
+
+	private static final String MAC_NAME = "HmacSHA1";
+	private static final String FORM_ENCODED = "application/x-www-form-urlencoded";
+
+	private static final char[] HEX = "0123456789ABCDEF".toCharArray();
+	private static final char[] BASE64 = "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/".toCharArray();
+
+	/** one random generator per thread, so threads don't contend for it */
+	private static final ThreadLocal<Random> RANDOM = new ThreadLocal<Random>() {
+		@Override
+		protected Random initialValue() {
+			return new Random();
+		}
+	};
+
+	/** sorts parameters by name, then by value */
+	private static final Comparator<String[]> PARAMETER_ORDER = new Comparator<String[]>() {
+		@Override
+		public int compare(String[] p1, String[] p2) {
+			int result = p1[0].compareTo(p2[0]);
+			return result != 0 ? result : p1[1].compareTo(p2[1]);
+		}
+	};
+
+	private final SecretKeySpec key;
+
+	/** percent-encoded consumer key and token; token is null if not set */
+	private final String encodedConsumerKey;
+	private final String encodedToken;
+
+	private final ThreadLocal<Mac> macs = new ThreadLocal<Mac>() {
+		@Override
+		protected Mac initialValue() {
+			try {
+				Mac mac = Mac.getInstance(MAC_NAME);
+				mac.init(key);
+				return mac;
+			} catch (GeneralSecurityException e) {
+				throw new InternalConfigurationException("Failed to initialize " + MAC_NAME, e);
+			}
+		}
+	};
+
+	OAuthSigner(String consumerKey, String consumerSecret, String token, String tokenSecret) {
+		try {
+			this.key = new SecretKeySpec((percentEncode(consumerSecret) + '&' + percentEncode(tokenSecret)).getBytes("UTF-8"),
+				MAC_NAME);
+		} catch (UnsupportedEncodingException e) {
+			throw new InternalConfigurationException("UTF-8 not supported", e);
+		}
+		this.encodedConsumerKey = percentEncode(consumerKey);
+		this.encodedToken = token == null || token.isEmpty() ? null : percentEncode(token);
+	}
+
+	/**
+	 * Generates a nonce for a request.
+	 * 
+	 * @return a new nonce
+	 */
+	static String generateNonce() {
+		return Long.toString(RANDOM.get().nextLong());
+	}
+
+	/**
+	 * Signs the given request by setting its authorization header.
+	 * 
+	 * @param request the request to sign
+	 * @return <tt>true</tt> if the request was signed, <tt>false</tt> if it
+	 *         must be signed by signpost instead
+	 * @throws IOException if the request's form body couldn't be read
+	 */
+	boolean sign(HttpRequestBase request) throws IOException {
+		String header = buildHeader(request, generateNonce(), Long.toString(System.currentTimeMillis() / 1000L));
+		if (header == null) {
+			return false;
+		}
+		request.setHeader("Authorization", header);
+		return true;
+	}
+
+	/**
+	 * Builds the authorization header for the given request.
+	 * 
+	 * @param request the request to sign
+	 * @param nonce the nonce to use
+	 * @param timestamp the timestamp to use
+	 * @return the authorization header, or <tt>null</tt> if the request must
+	 *         be signed by signpost instead
+	 * @throws IOException if the request's form body couldn't be read
+	 */
+	String buildHeader(HttpRequestBase request, String nonce, String timestamp) throws IOException {
+		if (request.containsHeader("Authorization")) {
+			return null;
+		}
+		URI uri = request.getURI();
+		List<String[]> parameters = null;
+
+		// parameters from the query string
+		String url = uri.toString();
+		int query = url.indexOf('?');
+		if (query >= 0) {
+			parameters = decodeForm(url.substring(query + 1), parameters);
+			if (parameters == null) {
+				return null;
+			}
+		}
+
+		// parameters from a form body
+		if (request instanceof HttpEntityEnclosingRequest) {
+			HttpEntity entity = ((HttpEntityEnclosingRequest) request).getEntity();
+			Header contentType = entity == null ? null : entity.getContentType();
+			if (contentType != null && contentType.getValue() != null && contentType.getValue().startsWith(FORM_ENCODED)) {
+				if (!entity.isRepeatable()) {
+					return null;
+				}
+				parameters = decodeForm(EntityUtils.toString(entity, "UTF-8").replace("\r", "").replace("\n", ""),
+					parameters);
+				if (parameters == null) {
+					return null;
+				}
+			}
+		}
+
+		String encodedNonce = percentEncode(nonce);
+		String encodedTimestamp = percentEncode(timestamp);
+
+		StringBuilder base = new StringBuilder(256);
+		base.append(request.getMethod()).append('&');
+		appendEncoded(base, normalizeUrl(uri));
+		base.append('&');
+		if (parameters == null) {
+			// only OAuth parameters, which we already know the order of
+			appendParameter(base, "oauth_consumer_key", encodedConsumerKey, false);
+			appendParameter(base, "oauth_nonce", encodedNonce, true);
+			appendParameter(base, "oauth_signature_method", "HMAC-SHA1", true);
+			appendParameter(base, "oauth_timestamp", encodedTimestamp, true);
+			if (encodedToken != null) {
+				appendParameter(base, "oauth_token", encodedToken, true);
+			}
+			appendParameter(base, "oauth_version", "1.0", true);
+		} else {
+			parameters.add(new String[] { "oauth_consumer_key", encodedConsumerKey });
+			parameters.add(new String[] { "oauth_nonce", encodedNonce });
+			parameters.add(new String[] { "oauth_signature_method", "HMAC-SHA1" });
+			parameters.add(new String[] { "oauth_timestamp", encodedTimestamp });
+			if (encodedToken != null) {
+				parameters.add(new String[] { "oauth_token", encodedToken });
+			}
+			parameters.add(new String[] { "oauth_version", "1.0" });
+			Collections.sort(parameters, PARAMETER_ORDER);
+			String[] previous = null;
+			for (String[] parameter : parameters) {
+				// identical parameters are only used once
+				if (previous == null || PARAMETER_ORDER.compare(previous, parameter) != 0) {
+					appendParameter(base, parameter[0], parameter[1], previous != null);
+				}
+				previous = parameter;
+			}
+		}
+
+		String signature = percentEncode(base64(macs.get().doFinal(base.toString().getBytes("UTF-8"))));
+
+		StringBuilder header = new StringBuilder(256);
+		header.append("OAuth oauth_consumer_key=\"").append(encodedConsumerKey);
+		header.append("\", oauth_nonce=\"").append(encodedNonce);
+		header.append("\", oauth_signature=\"").append(signature);
+		header.append("\", oauth_signature_method=\"HMAC-SHA1");
+		header.append("\", oauth_timestamp=\"").append(encodedTimestamp);
+		if (encodedToken != null) {
+			header.append("\", oauth_token=\"").append(encodedToken);
+		}
+		header.append("\", oauth_version=\"1.0\"");
+		return header.toString();
+	}
+
+	/**
+	 * Appends an encoded <tt>name=value</tt> pair to the signature base
+	 * string, percent-encoding it once more as the base string requires.
+	 */
+	private static void appendParameter(StringBuilder base, String name, String value, boolean separator) {
+		if (separator) {
+			base.append("%26");
+		}
+		appendEncoded(base, name);
+		base.append("%3D");
+		appendEncoded(base, value);
+	}
+
+	/**
+	 * Decodes form-encoded parameters and adds them to the list, encoded the
+	 * way OAuth requires.
+	 * 
+	 * @return the list with the added parameters, or <tt>null</tt> if the
+	 *         parameters must be handled by signpost
+	 */
+	private static List<String[]> decodeForm(String form, List<String[]> parameters) {
+		if (form.isEmpty()) {
+			return parameters == null ? new ArrayList<String[]>() : parameters;
+		}
+		if (parameters == null) {
+			parameters = new ArrayList<String[]>();
+		}
+		for (String pair : form.split("\\&")) {
+			int equals = pair.indexOf('=');
+			if (equals < 0) {
+				// parameters without value are treated specially
+				return null;
+			}
+			String name = percentEncode(percentDecode(pair.substring(0, equals)));
+			if (name.startsWith("oauth_") || name.startsWith("x_oauth_") || name.equals("realm")) {
+				return null;
+			}
+			parameters.add(new String[] { name, percentEncode(percentDecode(pair.substring(equals + 1))) });
+		}
+		return parameters;
+	}
+
+	/** Builds the normalized request URL for the signature base string. */
+	private static String normalizeUrl(URI uri) {
+		String scheme = uri.getScheme().toLowerCase();
+		String authority = uri.getAuthority().toLowerCase();
+		boolean dropPort = (scheme.equals("http") && uri.getPort() == 80) || (scheme.equals("https") && uri.getPort() == 443);
+		if (dropPort) {
+			int index = authority.lastIndexOf(":");
+			if (index >= 0) {
+				authority = authority.substring(0, index);
+			}
+		}
+		String path = uri.getRawPath();
+		if (path == null || path.length() <= 0) {
+			path = "/";
+		}
+		return scheme + "://" + authority + path;
+	}
+
+	private static String percentDecode(String s) {
+		try {
+			return URLDecoder.decode(s, "UTF-8");
+		} catch (UnsupportedEncodingException e) {
+			throw new InternalConfigurationException("UTF-8 not supported", e);
+		}
+	}
+
+	/**
+	 * Percent-encodes the given string as required by OAuth: all characters
+	 * except unreserved ones are encoded as UTF-8 bytes.
+	 * 
+	 * @param s the string to encode, may be <tt>null</tt>
+	 * @return the encoded string, empty if the string was <tt>null</tt>
+	 */
+	static String percentEncode(String s) {
+		if (s == null) {
+			return "";
+		}
+		for (int i = 0; i < s.length(); i++) {
+			if (!isUnreserved(s.charAt(i))) {
+				StringBuilder sb = new StringBuilder(s.length() + 16);
+				appendEncoded(sb, s);
+				return sb.toString();
+			}
+		}
+		return s;
+	}
+
+	/** Appends the percent-encoded form of the given string. */
+	private static void appendEncoded(StringBuilder sb, String s) {
+		for (int i = 0; i < s.length(); i++) {
+			char c = s.charAt(i);
+			if (isUnreserved(c)) {
+				sb.append(c);
+			} else if (c < 0x80) {
+				appendByte(sb, c);
+			} else if (c < 0x800) {
+				appendByte(sb, 0xC0 | (c >> 6));
+				appendByte(sb, 0x80 | (c & 0x3F));
+			} else if (Character.isHighSurrogate(c) && i + 1 < s.length() && Character.isLowSurrogate(s.charAt(i + 1))) {
+				int codePoint = Character.toCodePoint(c, s.charAt(++i));
+				appendByte(sb, 0xF0 | (codePoint >> 18));
+				appendByte(sb, 0x80 | ((codePoint >> 12) & 0x3F));
+				appendByte(sb, 0x80 | ((codePoint >> 6) & 0x3F));
+				appendByte(sb, 0x80 | (codePoint & 0x3F));
+			} else if (c >= Character.MIN_SURROGATE && c <= Character.MAX_SURROGATE) {
+				// unpaired surrogate, encoded as '?' like URLEncoder does
+				appendByte(sb, '?');
+			} else {
+				appendByte(sb, 0xE0 | (c >> 12));
+				appendByte(sb, 0x80 | ((c >> 6) & 0x3F));
+				appendByte(sb, 0x80 | (c & 0x3F));
+			}
+		}
+	}
+
+	private static void appendByte(StringBuilder sb, int b) {
+		sb.append('%').append(HEX[(b >> 4) & 0xF]).append(HEX[b & 0xF]);
+	}
+
+	private static boolean isUnreserved(char c) {
+		return (c >= 'a' && c <= 'z') || (c >= 'A' && c <= 'Z') || (c >= '0' && c <= '9') || c == '-' || c == '.' || c == '_'
+			|| c == '~';
+	}
+
+	/** Encodes the given bytes as Base64, without line breaks. */
+	private static String base64(byte[] bytes) {
+		char[] out = new char[(bytes.length + 2) / 3 * 4];
+		int o = 0;
+		for (int i = 0; i < bytes.length; i += 3) {
+			int b = (bytes[i] & 0xFF) << 16;
+			if (i + 1 < bytes.length) {
+				b |= (bytes[i + 1] & 0xFF) << 8;
+			}
+			if (i + 2 < bytes.length) {
+				b |= bytes[i + 2] & 0xFF;
+			}
+			out[o++] = BASE64[(b >> 18) & 0x3F];
+			out[o++] = BASE64[(b >> 12) & 0x3F];
+			out[o++] = i + 1 < bytes.length ? BASE64[(b >> 6) & 0x3F] : '=';
+			out[o++] = i + 2 < bytes.length ? BASE64[b & 0x3F] : '=';
+		}
+		return new String(out);
+	}
+}
@@ -0,0 +1,118 @@
+package com.belladati.sdk.impl;
+
+/**
+ * Chooses the number of elements to request per page from the time taken by
+ * previous pages. The first page has the minimum size, to show the first
+ * elements as soon as possible. Later pages grow toward the size at which
+ * the fixed cost of a request, i.e. the round trip to the server, is a small
+ * share of the time taken to load a page, but never beyond the maximum.
+ * <p>
+ * Page times are modelled as a fixed cost per page plus a cost per element,
+ * estimated from recent pages with more recent pages weighing more. Sizes at
+ * most double from one page to the next, so that a single slow page doesn't
+ * cause a large jump.
+ */
+class PageSizer {
+
+	/** share of a page's time the fixed cost per page should make up */
+	private static final double OVERHEAD_SHARE = 0.1;
+	/** weight of earlier pages relative to the page after them */
+	private static final double DECAY = 0.75;
+
+	private int min;
+	private int max;
+	/** the size most recently returned, 0 before the first page */
+	private int last;
+
+	// decayed sums of the recorded elements per page n and times t
+	private double weight;
+	private double sumN;
+	private double sumT;
+	private double sumNN;
+	private double sumNT;
+
+	/**
+	 * Creates a new sizer.
+	 * 
+	 * @param min size of the first page and smallest size to request
+	 * @param max largest size to request
+	 * @throws IllegalArgumentException if min isn't positive or max is less
+	 *             than min
+	 */
+	PageSizer(int min, int max) throws IllegalArgumentException {
+		if (min <= 0) {
+			throw new IllegalArgumentException("Minimum size must be > 0, was " + min);
+		}
+		if (max < min) {
+			throw new IllegalArgumentException("Maximum size must be >= " + min + ", was " + max);
+		}
+		this.min = min;
+		this.max = max;
+	}
+
+	/**
+	 * Returns the size of the next page to request.
+	 * 
+	 * @return the next page size
+	 */
+	synchronized int next() {
+		if (last == 0) {
+			last = min;
+			return last;
+		}
+		long size = Math.min(2L * last, getTargetSize());
+		last = (int) Math.max(min, Math.min(max, size));
+		return last;
+	}
+
+	/**
+	 * Records the time taken to load and parse a page.
+	 * 
+	 * @param elements number of elements on the page
+	 * @param nanos time taken in nanoseconds
+	 */
+	synchronized void record(int elements, long nanos) {
+		weight = weight * DECAY + 1;
+		sumN = sumN * DECAY + elements;
+		sumT = sumT * DECAY + nanos;
+		sumNN = sumNN * DECAY + (double) elements * elements;
+		sumNT = sumNT * DECAY + (double) elements * nanos;
+	}
+
+	/**
+	 * Uses the given size for all further pages, e.g. because the server
+	 * doesn't use the requested size.
+	 * 
+	 * @param size the page size to use
+	 */
+	synchronized void fix(int size) {
+		min = size;
+		max = size;
+		last = size;
+	}
+
+	/**
+	 * Returns the size at which the fixed cost per page makes up the target
+	 * share of the page's time according to the recorded pages.
+	 * 
+	 * @return the target size, {@link Long#MAX_VALUE} while unknown
+	 */
+	private long getTargetSize() {
+		double variance = weight * sumNN - sumN * sumN;
+		if (weight == 0 || variance <= 1e-9 * weight * sumNN) {
+			// pages of a single size don't tell the costs apart
+			return Long.MAX_VALUE;
+		}
+		double perElement = (weight * sumNT - sumN * sumT) / variance;
+		double perPage = (sumT - perElement * sumN) / weight;
+		if (perElement <= 0) {
+			// elements are cheap compared to the request, keep growing
+			return Long.MAX_VALUE;
+		}
+		if (perPage <= 0) {
+			// requests are cheap compared to the elements, stay small
+			return min;
+		}
+		return (long) Math.min(Long.MAX_VALUE / 2, perPage * (1 - OVERHEAD_SHARE) / OVERHEAD_SHARE / perElement);
+	}
+}
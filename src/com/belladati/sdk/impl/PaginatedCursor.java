@@ -0,0 +1,183 @@
+package com.belladati.sdk.impl;
+
+import java.util.Iterator;
+import java.util.LinkedList;
+import java.util.NoSuchElementException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import com.belladati.sdk.exception.ConnectionException;
+import com.belladati.sdk.impl.PaginatedListImpl.Page;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Iterates over all elements of a {@link PaginatedList} on the server,
+ * loading pages as needed. Unlike the list itself, the cursor only keeps the
+ * current page and the pages loaded ahead in memory, making it suitable for
+ * scanning lists too large to load completely.
+ * <p>
+ * Pages are loaded ahead in the background with the priority of the thread
+ * that created the cursor. If a cursor isn't iterated to the end,
+ * {@link #close()} cancels loading pages ahead. Cursors are meant to be used
+ * by a single thread.
+ * <p>
+ * Pages either have a fixed size, or grow from a small first page depending
+ * on how long pages take to load.
+ * 
+ * @see PaginatedLists#cursor(PaginatedList, int, int)
+ * @see PaginatedLists#adaptiveCursor(PaginatedList, int, int, int)
+ */
+public final class PaginatedCursor<T> implements Iterator<T> {
+
+	private final PaginatedListImpl<T> list;
+	private final PageSizer sizer;
+	private final int aheadPages;
+	private final RequestPriority priority = RequestPriority.current();
+	/** pages being loaded ahead, in order */
+	private final LinkedList<Request<T>> pending = new LinkedList<Request<T>>();
+
+	/** offset of the next page to iterate over */
+	private int nextOffset;
+	/** offset of the next page to load ahead */
+	private int requestOffset;
+	private Iterator<T> current;
+	/** <tt>true</tt> once the last page was loaded or the cursor was closed */
+	private boolean done;
+
+	/**
+	 * Creates a new cursor.
+	 * 
+	 * @param list list whose elements to iterate over
+	 * @param sizer chooses the number of elements to load per page
+	 * @param aheadPages number of pages to load ahead, 0 to load pages only
+	 *            when needed
+	 */
+	PaginatedCursor(PaginatedListImpl<T> list, PageSizer sizer, int aheadPages) {
+		if (aheadPages < 0) {
+			throw new IllegalArgumentException("Pages must be >= 0, was " + aheadPages);
+		}
+		this.list = list;
+		this.sizer = sizer;
+		this.aheadPages = aheadPages;
+	}
+
+	@Override
+	public boolean hasNext() {
+		while (current == null || !current.hasNext()) {
+			if (done) {
+				current = null;
+				return false;
+			}
+			Page<T> page = takePage();
+			current = page.items.iterator();
+			if (page.isLast()) {
+				close();
+			} else {
+				loadAhead();
+			}
+		}
+		return true;
+	}
+
+	@Override
+	public T next() {
+		if (!hasNext()) {
+			throw new NoSuchElementException();
+		}
+		return current.next();
+	}
+
+	/**
+	 * Not supported, elements can't be removed from the server.
+	 * 
+	 * @throws UnsupportedOperationException always
+	 */
+	@Override
+	public void remove() {
+		throw new UnsupportedOperationException("Cursors are read-only");
+	}
+
+	/**
+	 * Stops iterating, canceling pages being loaded ahead. Elements of the
+	 * current page may still be iterated over.
+	 */
+	public void close() {
+		done = true;
+		cancelPending();
+	}
+
+	/** Returns the next page, waiting for it if necessary. */
+	private Page<T> takePage() {
+		int offset = nextOffset;
+		Request<T> request = pending.poll();
+		int size = request == null ? sizer.next() : request.size;
+		Page<T> page = null;
+		if (request != null) {
+			try {
+				page = request.future.get();
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new ConnectionException("Interrupted while waiting for page", e);
+			} catch (ExecutionException e) {
+				// try again, loading the page directly reports any failure
+			} catch (CancellationException e) {}
+		}
+		if (page == null) {
+			page = load(offset, size);
+		}
+		nextOffset = offset + page.size;
+		if (page.size != size) {
+			// the server uses a different page size than requested, pages
+			// loaded ahead start at the wrong offsets
+			sizer.fix(page.size);
+			cancelPending();
+		}
+		requestOffset = Math.max(requestOffset, nextOffset);
+		return page;
+	}
+
+	/** Starts loading pages ahead, up to the configured number. */
+	private void loadAhead() {
+		while (pending.size() < aheadPages) {
+			final int offset = requestOffset;
+			final int size = sizer.next();
+			requestOffset += size;
+			pending.add(new Request<T>(size, list.fetchInBackground(new Callable<Page<T>>() {
+				@Override
+				public Page<T> call() {
+					return load(offset, size);
+				}
+			}, priority)));
+		}
+	}
+
+	/** Loads a page, recording the time taken. */
+	private Page<T> load(int offset, int size) {
+		long start = System.nanoTime();
+		Page<T> page = list.fetchAt(offset, size);
+		sizer.record(page.items.size(), System.nanoTime() - start);
+		return page;
+	}
+
+	private void cancelPending() {
+		for (Request<T> request : pending) {
+			request.future.cancel(false);
+		}
+		pending.clear();
+		requestOffset = nextOffset;
+	}
+
+	/** A page being loaded ahead. */
+	private static class Request<T> {
+		/** number of elements requested */
+		private final int size;
+		private final Future<Page<T>> future;
+
+		Request(int size, Future<Page<T>> future) {
+			this.size = size;
+			this.future = future;
+		}
+	}
+}
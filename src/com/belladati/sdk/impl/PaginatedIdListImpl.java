@@ -11,22 +11,21 @@ abstract class PaginatedIdListImpl<T extends IdElement> extends PaginatedListImp
 
 	@Override
 	public boolean contains(String id) {
-		for (T item : currentData) {
-			if (id.equals(item.getId())) {
-				return true;
-			}
-		}
-		return false;
+		return currentData.indexOfId(id) >= 0;
 	}
 
 	@Override
 	public int indexOf(String id) {
-		for (int dataIndex = 0; dataIndex < currentData.size(); dataIndex++) {
-			T item = currentData.get(dataIndex);
-			if (id.equals(item.getId())) {
-				return getFirstLoadedIndex() + dataIndex;
-			}
+		Snapshot<T> data = currentData;
+		int dataIndex = data.indexOfId(id);
+		if (dataIndex < 0) {
+			return -1;
 		}
-		return -1;
+		return data.getFirstIndex() + dataIndex;
+	}
+
+	@Override
+	protected boolean indexesIds() {
+		return true;
 	}
 }
@@ -2,30 +2,56 @@ package com.belladati.sdk.impl;
 
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.util.AbstractList;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Date;
 import java.util.Iterator;
+import java.util.LinkedList;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.RandomAccess;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 import com.belladati.httpclientandroidlib.client.utils.URIBuilder;
+import com.belladati.sdk.exception.ConnectionException;
 import com.belladati.sdk.exception.InternalConfigurationException;
+import com.belladati.sdk.util.IdElement;
 import com.belladati.sdk.util.PaginatedList;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.node.ArrayNode;
 
 abstract class PaginatedListImpl<T> implements PaginatedList<T> {
 
-	protected final List<T> currentData = new ArrayList<T>();
+	/**
+	 * The loaded elements. Loading replaces the snapshot rather than changing
+	 * it, so that readers don't need to synchronize.
+	 */
+	protected volatile Snapshot<T> currentData = Snapshot.empty();
+	/** held while loading, so that only one thread changes the list at once */
+	private final Object loadLock = new Object();
 	private final BellaDatiServiceImpl service;
 	private final String relativeUrl;
 	private final String field;
 
-	/** The first page loaded during the most recent call to a load() method */
-	private int firstPage = -1;
-	/** The most recent page loaded */
-	private int page = -1;
-	/** The page size currently used by this instance */
-	private int size = -1;
+	/** start reading ahead when this close to the last loaded index */
+	private volatile int readAheadDistance;
+	/** number of pages to read ahead, 0 if disabled */
+	private volatile int readAheadPages;
+	/** pages being read ahead, following the most recent page in order */
+	private final LinkedList<ReadAheadPage> prefetched = new LinkedList<ReadAheadPage>();
+	/** number of the last page queued to read ahead, -1 if none */
+	private int lastQueued = -1;
+
+	/** notified of changes found when refreshing */
+	private final List<ListChangeListener<T>> listeners = new CopyOnWriteArrayList<ListChangeListener<T>>();
 
 	PaginatedListImpl(BellaDatiServiceImpl service, String relativeUrl, String field) {
 		this.service = service;
@@ -33,14 +59,67 @@ abstract class PaginatedListImpl<T> implements PaginatedList<T> {
 		this.field = field;
 	}
 
+	/**
+	 * Enables reading ahead: once an element within the given distance of
+	 * the last loaded index is accessed, the given number of pages following
+	 * the loaded ones are fetched in the background. {@link #loadNext()}
+	 * appends the next of these pages without waiting for the server.
+	 * 
+	 * @param distance distance from the last loaded index at which to start
+	 *            reading ahead
+	 * @param pages number of pages to read ahead, 0 to disable
+	 */
+	void setReadAhead(int distance, int pages) {
+		if (distance < 0) {
+			throw new IllegalArgumentException("Distance must be >= 0, was " + distance);
+		}
+		if (pages < 0) {
+			throw new IllegalArgumentException("Pages must be >= 0, was " + pages);
+		}
+		synchronized (prefetched) {
+			this.readAheadDistance = distance;
+			this.readAheadPages = pages;
+			if (pages == 0) {
+				cancelReadAhead();
+			}
+		}
+	}
+
 	@Override
 	public Iterator<T> iterator() {
-		return currentData.iterator();
+		Snapshot<T> data = currentData;
+		final Iterator<T> iterator = data.iterator();
+		if (readAheadPages == 0) {
+			return iterator;
+		}
+		final int firstIndex = data.getFirstIndex();
+		return new Iterator<T>() {
+			private int index = firstIndex;
+
+			@Override
+			public boolean hasNext() {
+				return iterator.hasNext();
+			}
+
+			@Override
+			public T next() {
+				T next = iterator.next();
+				accessed(index++);
+				return next;
+			}
+
+			@Override
+			public void remove() {
+				iterator.remove();
+			}
+		};
 	}
 
 	@Override
 	public PaginatedList<T> load() {
-		return loadFrom(relativeUrl);
+		synchronized (loadLock) {
+			return loadFrom(relativeUrl);
+		}
 	}
 
 	@Override
@@ -59,99 +138,414 @@ abstract class PaginatedListImpl<T> implements PaginatedList<T> {
 		}
 
 		// query parameterized URL
-		return loadFrom(buildUri(page, size).toString());
+		synchronized (loadLock) {
+			return loadFrom(buildUri(page, size).toString());
+		}
+	}
+
+	/**
+	 * Loads all elements of the list, replacing the currently loaded ones.
+	 * After the first page, up to the given number of following pages are
+	 * requested at the same time until a page isn't full. Pages are added in
+	 * order once all have been loaded.
+	 * 
+	 * @param size number of elements per page
+	 * @param parallelism maximum number of pages to request at the same time
+	 * @return this list, for chaining
+	 * @throws IllegalArgumentException if size or parallelism aren't positive
+	 */
+	PaginatedList<T> loadAll(int size, int parallelism) throws IllegalArgumentException {
+		if (size <= 0) {
+			throw new IllegalArgumentException("Size must be > 0, was " + size);
+		}
+		if (parallelism <= 0) {
+			throw new IllegalArgumentException("Parallelism must be > 0, was " + parallelism);
+		}
+		synchronized (loadLock) {
+			return doLoadAll(size, parallelism);
+		}
+	}
+
+	private PaginatedList<T> doLoadAll(int size, int parallelism) {
+		synchronized (prefetched) {
+			cancelReadAhead();
+		}
+		Page<T> last = fetch(0, size);
+		Snapshot<T> loaded = Snapshot.<T> empty().append(last, true, indexesIds());
+
+		// the total isn't known, keep requesting pages until one isn't full
+		RequestPriority priority = RequestPriority.current();
+		LinkedList<Future<Page<T>>> pending = new LinkedList<Future<Page<T>>>();
+		int nextPage = last.page + 1;
+		try {
+			while (!last.isLast()) {
+				while (pending.size() < parallelism) {
+					pending.add(fetchInBackground(nextPage++, last.size, priority));
+				}
+				last = pending.poll().get();
+				loaded = loaded.append(last, false, indexesIds());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting for page", e);
+		} catch (ExecutionException e) {
+			if (e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			}
+			throw new ConnectionException("Failed to load page", e.getCause());
+		} finally {
+			// pages requested after the last one aren't needed
+			for (Future<Page<T>> future : pending) {
+				future.cancel(false);
+			}
+		}
+
+		replaceData(loaded);
+		return this;
+	}
+
+	/**
+	 * Loads the currently loaded pages again, keeping the previously loaded
+	 * instances of elements whose last change date hasn't changed. Elements
+	 * are matched by ID, so the list must index its elements by ID. If the
+	 * list hasn't been loaded yet, its first page is loaded.
+	 * <p>
+	 * Registered listeners are notified if any elements were added, removed
+	 * or changed.
+	 * 
+	 * @return the changes found
+	 */
+	ListChangeEvent<T> refresh() {
+		List<T> added = new ArrayList<T>();
+		List<T> removed = new ArrayList<T>();
+		List<T> changed = new ArrayList<T>();
+		synchronized (loadLock) {
+			synchronized (prefetched) {
+				cancelReadAhead();
+			}
+			Snapshot<T> previous = currentData;
+			if (!previous.isLoaded()) {
+				loadFrom(relativeUrl);
+				added.addAll(currentData);
+			} else {
+				Snapshot<T> refreshed = null;
+				int size = previous.size;
+				for (int number = previous.firstPage; number <= previous.page; number++) {
+					Page<T> loaded = fetch(number, size);
+					size = loaded.size;
+					List<T> items = new ArrayList<T>(loaded.items.size());
+					for (T item : loaded.items) {
+						items.add(reconcile(previous, item, added, changed));
+					}
+					Page<T> page = new Page<T>(loaded.page, loaded.size, items);
+					if (refreshed == null) {
+						refreshed = Snapshot.<T> empty().append(page, true, true);
+					} else {
+						refreshed = refreshed.append(page, false, true);
+					}
+					if (page.isLast()) {
+						break;
+					}
+				}
+				for (T item : previous) {
+					if (refreshed.indexOfId(((IdElement) item).getId()) < 0) {
+						removed.add(item);
+					}
+				}
+				replaceData(refreshed);
+			}
+		}
+		ListChangeEvent<T> event = new ListChangeEvent<T>(added, removed, changed);
+		if (event.hasChanges()) {
+			for (ListChangeListener<T> listener : listeners) {
+				try {
+					listener.listChanged(event);
+				} catch (RuntimeException e) {
+					// a broken listener shouldn't break refreshing
+				}
+			}
+		}
+		return event;
+	}
+
+	/**
+	 * Returns the previously loaded instance of the given element if it
+	 * hasn't changed, otherwise the element itself, noting it as added or
+	 * changed.
+	 */
+	private T reconcile(Snapshot<T> previous, T item, List<T> added, List<T> changed) {
+		int index = previous.indexOfId(((IdElement) item).getId());
+		if (index < 0) {
+			added.add(item);
+			return item;
+		}
+		T existing = previous.get(index);
+		Date lastChange = getLastChange(existing);
+		if (lastChange != null && lastChange.equals(getLastChange(item))) {
+			return existing;
+		}
+		changed.add(item);
+		return item;
+	}
+
+	/**
+	 * Registers a listener to be notified of changes found when refreshing.
+	 * 
+	 * @param listener the listener to register
+	 */
+	void addChangeListener(ListChangeListener<T> listener) {
+		listeners.add(listener);
+	}
+
+	/**
+	 * Removes a previously registered change listener.
+	 * 
+	 * @param listener the listener to remove
+	 */
+	void removeChangeListener(ListChangeListener<T> listener) {
+		listeners.remove(listener);
 	}
 
 	private URI buildUri(int page, int size) {
+		return buildOffsetUri(page * size, size);
+	}
+
+	private URI buildOffsetUri(int offset, int size) {
 		try {
-			return new URIBuilder(relativeUrl).addParameter("offset", "" + page * size).addParameter("size", "" + size).build();
+			return new URIBuilder(relativeUrl).addParameter("offset", "" + offset).addParameter("size", "" + size).build();
 		} catch (URISyntaxException e) {
 			throw new InternalConfigurationException("Invalid URI", e);
 		}
 	}
 
 	private PaginatedList<T> loadFrom(String parameterizedUri) {
-		currentData.clear();
-		addFrom(parameterizedUri);
-		firstPage = page;
+		synchronized (prefetched) {
+			cancelReadAhead();
+		}
+		replaceData(Snapshot.<T> empty().append(fetch(parameterizedUri), true, indexesIds()));
 		return this;
 	}
 
+	/**
+	 * Replaces the loaded elements, canceling pages read ahead for the
+	 * previous elements while they were loaded.
+	 */
+	private void replaceData(Snapshot<T> data) {
+		synchronized (prefetched) {
+			currentData = data;
+			cancelReadAhead();
+		}
+	}
+
 	private PaginatedList<T> addFrom(String parameterizedUri) {
-		JsonNode json = service.loadJson(parameterizedUri);
+		return append(fetch(parameterizedUri));
+	}
+
+	/**
+	 * Loads and parses the given page without adding it to the list.
+	 * 
+	 * @param page number of the page
+	 * @param size number of elements per page
+	 * @return the loaded page
+	 */
+	Page<T> fetch(int page, int size) {
+		return fetch(buildUri(page, size).toString());
+	}
+
+	/**
+	 * Loads and parses the given page in the background, without adding it
+	 * to the list.
+	 * 
+	 * @param page number of the page
+	 * @param size number of elements per page
+	 * @param priority priority of the request
+	 * @return the future page
+	 */
+	Future<Page<T>> fetchInBackground(final int page, final int size, RequestPriority priority) {
+		return fetchInBackground(new Callable<Page<T>>() {
+			@Override
+			public Page<T> call() {
+				return fetch(page, size);
+			}
+		}, priority);
+	}
 
-		size = json.get("size").asInt();
-		page = json.get("offset").asInt() / size;
+	/**
+	 * Makes the given call to load a page on the threads loading pages in
+	 * the background.
+	 * 
+	 * @param fetch loads the page
+	 * @param priority priority of the request
+	 * @return the future page
+	 */
+	Future<Page<T>> fetchInBackground(Callable<Page<T>> fetch, RequestPriority priority) {
+		BellaDatiFuture<Page<T>> future = new BellaDatiFuture<Page<T>>(fetch, ReadAhead.EXECUTOR, priority);
+		ReadAhead.EXECUTOR.execute(new PrioritizedTask(priority, future));
+		return future;
+	}
+
+	/**
+	 * Loads and parses the page starting at the given offset without adding
+	 * it to the list. The offset doesn't need to be a multiple of the size.
+	 * 
+	 * @param offset index of the first element to load
+	 * @param size number of elements to load
+	 * @return the loaded page
+	 */
+	Page<T> fetchAt(int offset, int size) {
+		return fetch(buildOffsetUri(offset, size).toString());
+	}
+
+	/** Loads and parses a page from the given URI. */
+	private Page<T> fetch(String parameterizedUri) {
+		JsonNode json = service.loadJson(parameterizedUri);
 
+		int size = json.get("size").asInt();
 		ArrayNode nodes = (ArrayNode) json.get(field);
+		List<T> items = new ArrayList<T>(nodes.size());
 		for (JsonNode node : nodes) {
-			currentData.add(parse(service, node));
+			items.add(parse(service, node));
 		}
+		return new Page<T>(json.get("offset").asInt() / size, size, items);
+	}
+
+	/** Adds the given page's items after the currently loaded ones. */
+	private PaginatedList<T> append(Page<T> loaded) {
+		currentData = currentData.append(loaded, false, indexesIds());
 		return this;
 	}
 
 	@Override
 	public PaginatedList<T> loadNext() {
-		if (!isLoaded()) {
-			// if we haven't loaded this list yet, load the first page
-			return load();
+		synchronized (loadLock) {
+			Snapshot<T> data = currentData;
+			if (!data.isLoaded()) {
+				// if we haven't loaded this list yet, load the first page
+				return loadFrom(relativeUrl);
+			}
+			if (!data.hasNextPage()) {
+				// there are no more pages to load
+				return this;
+			}
+			Page<T> next = takeReadAhead(data.page + 1, data.size);
+			if (next != null) {
+				return append(next);
+			}
+			return addFrom(buildUri(data.page + 1, data.size).toString());
+		}
+	}
+
+	/**
+	 * Notes that the element at the given index was accessed, starting to
+	 * read ahead if it's close enough to the end of the loaded elements.
+	 * 
+	 * @param index index of the element
+	 */
+	private void accessed(int index) {
+		synchronized (prefetched) {
+			Snapshot<T> data = currentData;
+			if (readAheadPages == 0 || !data.hasNextPage() || index < data.getLastIndex() - readAheadDistance) {
+				return;
+			}
+			// a page taken by loadNext() may not have been added yet
+			int next = Math.max(data.page, lastQueued) + 1;
+			while (prefetched.size() < readAheadPages) {
+				ReadAheadPage page = new ReadAheadPage(next, data.size);
+				page.future = fetchInBackground(page, RequestPriority.BACKGROUND);
+				prefetched.add(page);
+				lastQueued = next++;
+			}
+		}
+	}
+
+	/**
+	 * Takes the next page read ahead, waiting for it if its request was
+	 * already started. Unless the caller has background priority, a page that
+	 * is still queued is claimed for the caller to load with its own priority,
+	 * rather than waiting behind other background requests.
+	 * 
+	 * @param number number of the next page
+	 * @param size current page size
+	 * @return the next page, or <tt>null</tt> if it wasn't read ahead with
+	 *         the current page size, failed to load or was claimed
+	 */
+	private Page<T> takeReadAhead(int number, int size) {
+		ReadAheadPage readAhead;
+		synchronized (prefetched) {
+			readAhead = prefetched.poll();
+		}
+		if (readAhead == null) {
+			return null;
+		}
+		if (RequestPriority.current() != RequestPriority.BACKGROUND && readAhead.claim()) {
+			return null;
+		}
+		Page<T> next;
+		try {
+			next = readAhead.future.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting for page", e);
+		} catch (ExecutionException e) {
+			// try again, loading the page directly reports any failure
+			next = null;
+		} catch (CancellationException e) {
+			next = null;
+		}
+		boolean expected = next != null && next.page == number && next.size == size;
+		if (!expected || next.isLast()) {
+			// pages read ahead after a partial or unexpected page aren't needed
+			synchronized (prefetched) {
+				cancelReadAhead();
+			}
 		}
-		if (!hasNextPage()) {
-			// there are no more pages to load
-			return this;
+		return expected ? next : null;
+	}
+
+	/** Cancels reading ahead. Must hold the lock on the pages read ahead. */
+	private void cancelReadAhead() {
+		for (ReadAheadPage page : prefetched) {
+			page.future.cancel(false);
 		}
-		return addFrom(buildUri(page + 1, size).toString());
+		prefetched.clear();
+		lastQueued = -1;
 	}
 
 	@Override
 	public boolean isLoaded() {
-		return size > 0 && page >= 0;
+		return currentData.isLoaded();
 	}
 
 	@Override
 	public boolean hasNextPage() {
-		if (!isLoaded()) {
-			return true;
-		}
-		// if all pages until now were full, we have more items
-		return size * (page - firstPage + 1) == currentData.size();
+		return currentData.hasNextPage();
 	}
 
 	@Override
 	public int getFirstLoadedPage() {
-		if (!isLoaded()) {
-			return -1;
-		}
-		return firstPage;
+		Snapshot<T> data = currentData;
+		return data.isLoaded() ? data.firstPage : -1;
 	}
 
 	@Override
 	public int getLastLoadedPage() {
-		if (!isLoaded()) {
-			return -1;
-		}
-		return page;
+		Snapshot<T> data = currentData;
+		return data.isLoaded() ? data.page : -1;
 	}
 
 	@Override
 	public int getFirstLoadedIndex() {
-		if (!isLoaded() || currentData.isEmpty()) {
-			return -1;
-		}
-		return firstPage * size;
+		return currentData.getFirstIndex();
 	}
 
 	@Override
 	public int getLastLoadedIndex() {
-		if (!isLoaded() || currentData.isEmpty()) {
-			return -1;
-		}
-		return getFirstLoadedIndex() + currentData.size() - 1;
+		return currentData.getLastIndex();
 	}
 
 	@Override
 	public int getPageSize() {
-		return size;
+		return currentData.size;
 	}
 
 	@Override
@@ -161,16 +555,22 @@ abstract class PaginatedListImpl<T> implements PaginatedList<T> {
 
 	@Override
 	public T get(int index) throws IndexOutOfBoundsException {
-		return currentData.get(index - getFirstLoadedIndex());
+		Snapshot<T> data = currentData;
+		T element = data.get(index - data.getFirstIndex());
+		if (readAheadPages > 0) {
+			accessed(index);
+		}
+		return element;
 	}
 
 	@Override
 	public int indexOf(T element) {
-		int dataIndex = currentData.indexOf(element);
+		Snapshot<T> data = currentData;
+		int dataIndex = data.indexOf(element);
 		if (dataIndex < 0) {
 			return -1;
 		}
-		return getFirstLoadedIndex() + dataIndex;
+		return data.getFirstIndex() + dataIndex;
 	}
 
 	@Override
@@ -185,7 +585,7 @@ abstract class PaginatedListImpl<T> implements PaginatedList<T> {
 
 	@Override
 	public List<T> toList() {
-		return Collections.unmodifiableList(currentData);
+		return currentData;
 	}
 
 	@Override
@@ -194,4 +594,289 @@ abstract class PaginatedListImpl<T> implements PaginatedList<T> {
 	}
 
 	protected abstract T parse(BellaDatiServiceImpl service, JsonNode node);
+
+	/**
+	 * Returns the date the given element was last changed, used to find
+	 * unchanged elements when refreshing.
+	 * 
+	 * @param item an element of this list
+	 * @return the last change date, or <tt>null</tt> if unknown
+	 */
+	protected Date getLastChange(T item) {
+		return null;
+	}
+
+	/**
+	 * Indicates whether the elements of this list are {@link IdElement}s to
+	 * be indexed by ID as pages are loaded.
+	 * 
+	 * @return <tt>true</tt> to index elements by ID
+	 */
+	protected boolean indexesIds() {
+		return false;
+	}
+
+	/** A page of parsed elements. */
+	static class Page<T> {
+		final int page;
+		final int size;
+		final List<T> items;
+
+		Page(int page, int size, List<T> items) {
+			this.page = page;
+			this.size = size;
+			this.items = items;
+		}
+
+		/**
+		 * Checks if this is the last page, i.e. if it isn't full.
+		 * 
+		 * @return <tt>true</tt> if there are no more elements after this page
+		 */
+		boolean isLast() {
+			return items.size() < size;
+		}
+	}
+
+	/**
+	 * Immutable list of the elements loaded into a list, made up of the
+	 * loaded pages. Adding a page creates a new snapshot sharing the pages
+	 * of the previous one, without copying their elements.
+	 */
+	static final class Snapshot<T> extends AbstractList<T> implements RandomAccess {
+
+		private static final Snapshot<Object> EMPTY = new Snapshot<Object>(-1, -1, -1, new Object[0][], new int[0],
+			null);
+
+		@SuppressWarnings("unchecked")
+		static <T> Snapshot<T> empty() {
+			return (Snapshot<T>) EMPTY;
+		}
+
+		/** the first page loaded during the most recent call to a load() method */
+		final int firstPage;
+		/** the most recent page loaded */
+		final int page;
+		/** the page size currently used */
+		final int size;
+		/** elements of each loaded page */
+		private final Object[][] pages;
+		/** number of elements up to and including each page */
+		private final int[] ends;
+		/**
+		 * index of the first element with each ID, or <tt>null</tt> if not
+		 * indexed; shared with the snapshots this one was appended to, which
+		 * ignore indexes beyond their size
+		 */
+		private final ConcurrentMap<String, Integer> ids;
+
+		private Snapshot(int firstPage, int page, int size, Object[][] pages, int[] ends,
+			ConcurrentMap<String, Integer> ids) {
+			this.firstPage = firstPage;
+			this.page = page;
+			this.size = size;
+			this.pages = pages;
+			this.ends = ends;
+			this.ids = ids;
+		}
+
+		/**
+		 * Returns a snapshot with the given page added.
+		 * 
+		 * @param loaded the page to add
+		 * @param first <tt>true</tt> to start a new list with the page
+		 * @param indexed <tt>true</tt> to index the page's elements by ID,
+		 *            they must be {@link IdElement}s
+		 * @return the new snapshot
+		 */
+		Snapshot<T> append(Page<T> loaded, boolean first, boolean indexed) {
+			int count = first ? 0 : pages.length;
+			Object[][] newPages = new Object[count + 1][];
+			int[] newEnds = new int[count + 1];
+			System.arraycopy(pages, 0, newPages, 0, count);
+			System.arraycopy(ends, 0, newEnds, 0, count);
+			newPages[count] = loaded.items.toArray();
+			int start = count == 0 ? 0 : newEnds[count - 1];
+			newEnds[count] = start + newPages[count].length;
+
+			ConcurrentMap<String, Integer> newIds = null;
+			if (indexed) {
+				// the same snapshot is never appended to twice, so entries
+				// added here are beyond the size of all earlier snapshots
+				newIds = first || ids == null ? new ConcurrentHashMap<String, Integer>() : ids;
+				for (int i = 0; i < newPages[count].length; i++) {
+					String id = ((IdElement) newPages[count][i]).getId();
+					if (id != null) {
+						newIds.putIfAbsent(id, start + i);
+					}
+				}
+			}
+			return new Snapshot<T>(first ? loaded.page : firstPage, loaded.page, loaded.size, newPages, newEnds,
+				newIds);
+		}
+
+		/**
+		 * Returns the index of the first element with the given ID.
+		 * 
+		 * @param id ID of the element
+		 * @return the element's index in this snapshot, or -1 if not found
+		 */
+		int indexOfId(String id) {
+			if (ids != null) {
+				Integer index = ids.get(id);
+				return index != null && index < size() ? index : -1;
+			}
+			int index = 0;
+			for (T item : this) {
+				if (id.equals(((IdElement) item).getId())) {
+					return index;
+				}
+				index++;
+			}
+			return -1;
+		}
+
+		boolean isLoaded() {
+			return size > 0 && page >= 0;
+		}
+
+		boolean hasNextPage() {
+			if (!isLoaded()) {
+				return true;
+			}
+			// if all pages until now were full, we have more items
+			return size * (page - firstPage + 1) == size();
+		}
+
+		int getFirstIndex() {
+			if (!isLoaded() || isEmpty()) {
+				return -1;
+			}
+			return firstPage * size;
+		}
+
+		int getLastIndex() {
+			if (!isLoaded() || isEmpty()) {
+				return -1;
+			}
+			return getFirstIndex() + size() - 1;
+		}
+
+		@Override
+		@SuppressWarnings("unchecked")
+		public T get(int index) {
+			if (index < 0 || index >= size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+			}
+			// find the first page ending after the index
+			int low = 0;
+			int high = ends.length - 1;
+			while (low < high) {
+				int middle = (low + high) >>> 1;
+				if (ends[middle] > index) {
+					high = middle;
+				} else {
+					low = middle + 1;
+				}
+			}
+			return (T) pages[low][index - (low == 0 ? 0 : ends[low - 1])];
+		}
+
+		@Override
+		public int size() {
+			return ends.length == 0 ? 0 : ends[ends.length - 1];
+		}
+
+		@Override
+		public Iterator<T> iterator() {
+			return new Iterator<T>() {
+				private int pageIndex;
+				private int itemIndex;
+
+				@Override
+				public boolean hasNext() {
+					while (pageIndex < pages.length && itemIndex >= pages[pageIndex].length) {
+						pageIndex++;
+						itemIndex = 0;
+					}
+					return pageIndex < pages.length;
+				}
+
+				@Override
+				@SuppressWarnings("unchecked")
+				public T next() {
+					if (!hasNext()) {
+						throw new NoSuchElementException();
+					}
+					return (T) pages[pageIndex][itemIndex++];
+				}
+
+				@Override
+				public void remove() {
+					throw new UnsupportedOperationException();
+				}
+			};
+		}
+
+		@Override
+		public int indexOf(Object element) {
+			int index = 0;
+			for (T item : this) {
+				if (element == null ? item == null : element.equals(item)) {
+					return index;
+				}
+				index++;
+			}
+			return -1;
+		}
+	}
+
+	/**
+	 * A page being read ahead. Until its request starts, a reader can claim
+	 * the page to load it directly instead.
+	 */
+	private class ReadAheadPage implements Callable<Page<T>> {
+		private final int number;
+		private final int size;
+		/** set once the request started or the page was claimed */
+		private final AtomicBoolean started = new AtomicBoolean();
+		/** the page loaded in the background, set when queued */
+		private Future<Page<T>> future;
+
+		private ReadAheadPage(int number, int size) {
+			this.number = number;
+			this.size = size;
+		}
+
+		@Override
+		public Page<T> call() {
+			if (!started.compareAndSet(false, true)) {
+				throw new CancellationException("Page " + number + " was claimed by a reader");
+			}
+			return fetch(number, size);
+		}
+
+		/**
+		 * Claims the page unless its request has started, cancelling it.
+		 * 
+		 * @return <tt>true</tt> if the page was claimed and must be loaded by
+		 *         the caller
+		 */
+		boolean claim() {
+			if (!started.compareAndSet(false, true)) {
+				return false;
+			}
+			future.cancel(false);
+			return true;
+		}
+	}
+
+	/**
+	 * Runs requests loading pages in the background, shared by all lists.
+	 * The number of threads is set through <tt>bdReadAheadThreads</tt>.
+	 */
+	private static class ReadAhead {
+		private static final ExecutorService EXECUTOR = AsyncBellaDatiService.createExecutor(BellaDatiClient
+			.readFromProperty("bdReadAheadThreads", 4));
+	}
 }
@@ -0,0 +1,203 @@
+package com.belladati.sdk.impl;
+
+import com.belladati.sdk.util.IdElement;
+import com.belladati.sdk.util.PaginatedIdList;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Configures how {@link PaginatedList}s created by this SDK implementation
+ * load their pages.
+ */
+public class PaginatedLists {
+
+	private PaginatedLists() {}
+
+	/**
+	 * Enables reading ahead for the given list: once an element within the
+	 * given distance of {@link PaginatedList#getLastLoadedIndex()} is accessed
+	 * through {@link PaginatedList#get(int)} or the list's iterator, the given
+	 * number of following pages are loaded in the background with
+	 * {@link RequestPriority#BACKGROUND} priority. They're added to the list
+	 * by {@link PaginatedList#loadNext()}, which then doesn't have to wait for
+	 * the server.
+	 * <p>
+	 * Calling one of the <tt>load()</tt> methods cancels pages being read
+	 * ahead. Reading ahead is disabled by default.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param distance distance from the last loaded index at which to start
+	 *            reading ahead
+	 * @param pages number of pages to read ahead, 0 to disable
+	 * @return the list, for chaining
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation, or if distance or pages are negative
+	 */
+	public static <T> PaginatedList<T> readAhead(PaginatedList<T> list, int distance, int pages) {
+		implOf(list).setReadAhead(distance, pages);
+		return list;
+	}
+
+	/**
+	 * Loads all elements of the given list, replacing the currently loaded
+	 * ones. Since the number of elements isn't known in advance, after the
+	 * first page up to <tt>parallelism</tt> following pages are requested at
+	 * the same time until a page isn't full, and any pages requested after
+	 * that are discarded. Pages are loaded on the threads shared by all lists
+	 * (<tt>bdReadAheadThreads</tt>, 4 by default), which also limits the
+	 * number of requests sent at once.
+	 * <p>
+	 * The list remains unchanged until all pages have been loaded, and isn't
+	 * changed if loading fails.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param pageSize number of elements to load per page
+	 * @param parallelism maximum number of pages to request at the same time
+	 * @return the list, for chaining
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation, or if pageSize or parallelism aren't
+	 *             positive
+	 */
+	public static <T> PaginatedList<T> loadAll(PaginatedList<T> list, int pageSize, int parallelism) {
+		return implOf(list).loadAll(pageSize, parallelism);
+	}
+
+	/**
+	 * Returns a cursor over all elements of the given list on the server,
+	 * independent of the elements currently loaded in the list. The cursor
+	 * loads pages of the given size as needed, keeping no more than the
+	 * current page and the pages loaded ahead in memory. Loading pages ahead
+	 * overlaps requests with processing the current page.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param pageSize number of elements to load per page
+	 * @param aheadPages number of pages to load ahead, 0 to load pages only
+	 *            when needed
+	 * @return a cursor starting at the first element
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation, if pageSize isn't positive or aheadPages is
+	 *             negative
+	 */
+	public static <T> PaginatedCursor<T> cursor(PaginatedList<T> list, int pageSize, int aheadPages) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Size must be > 0, was " + pageSize);
+		}
+		return new PaginatedCursor<T>(implOf(list), new PageSizer(pageSize, pageSize), aheadPages);
+	}
+
+	/**
+	 * Returns a cursor over all elements of the given list on the server,
+	 * choosing page sizes by how long pages take to load. The first page has
+	 * the minimum size so that the first elements are available quickly.
+	 * Further pages grow up to the maximum size for as long as the time taken
+	 * by each request, rather than by its elements, makes up a significant
+	 * part of the time taken to load a page: on fast connections, pages
+	 * quickly grow large to save round trips, while on slow connections they
+	 * stay smaller.
+	 * <p>
+	 * If the server doesn't use the requested page sizes, the cursor uses the
+	 * server's page size instead.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param minPageSize number of elements to load on the first page
+	 * @param maxPageSize maximum number of elements to load per page
+	 * @param aheadPages number of pages to load ahead, 0 to load pages only
+	 *            when needed
+	 * @return a cursor starting at the first element
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation, if minPageSize isn't positive, maxPageSize
+	 *             is less than minPageSize or aheadPages is negative
+	 * @see #cursor(PaginatedList, int, int)
+	 */
+	public static <T> PaginatedCursor<T> adaptiveCursor(PaginatedList<T> list, int minPageSize, int maxPageSize,
+		int aheadPages) {
+		return new PaginatedCursor<T>(implOf(list), new PageSizer(minPageSize, maxPageSize), aheadPages);
+	}
+
+	/**
+	 * Returns a sparse view of the given list on the server, giving random
+	 * access to its elements. The page containing an element is loaded when
+	 * the element is first accessed, and the given number of neighbouring
+	 * pages on each side are loaded ahead in the background. No more than the
+	 * given number of pages are kept, discarding the least recently used.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param pageSize number of elements to load per page
+	 * @param maxPages maximum number of pages to keep, at least
+	 *            <tt>1 + 2 * neighbours</tt>
+	 * @param neighbours number of pages on each side of an accessed page to
+	 *            load ahead
+	 * @return a sparse view of the list
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation, if pageSize isn't positive, neighbours is
+	 *             negative or maxPages is too small
+	 */
+	public static <T> SparsePaginatedList<T> sparse(PaginatedList<T> list, int pageSize, int maxPages, int neighbours) {
+		return new SparsePaginatedList<T>(implOf(list), pageSize, maxPages, neighbours);
+	}
+
+	/**
+	 * Loads the currently loaded pages of the given list again, updating it
+	 * with the differences to the previously loaded elements. Elements are
+	 * matched by ID, and the previously loaded instances of elements whose
+	 * last change date is unchanged are kept, along with anything they have
+	 * loaded and cached. Elements without a last change date are always
+	 * considered changed.
+	 * <p>
+	 * Elements are only compared within the loaded pages: elements moved
+	 * onto or off these pages on the server are reported as added or
+	 * removed. If the list hasn't been loaded yet, its first page is loaded.
+	 * Listeners registered through
+	 * {@link #addChangeListener(PaginatedIdList, ListChangeListener)} are
+	 * notified if anything changed.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @return the differences found
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation
+	 */
+	public static <T extends IdElement> ListChangeEvent<T> refresh(PaginatedIdList<T> list) {
+		return idImplOf(list).refresh();
+	}
+
+	/**
+	 * Registers a listener to be notified of the differences found when
+	 * refreshing the given list.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param listener the listener to register
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation
+	 * @see #refresh(PaginatedIdList)
+	 */
+	public static <T extends IdElement> void addChangeListener(PaginatedIdList<T> list,
+		ListChangeListener<T> listener) {
+		idImplOf(list).addChangeListener(listener);
+	}
+
+	/**
+	 * Removes a previously registered change listener.
+	 * 
+	 * @param list a list created by this SDK implementation
+	 * @param listener the listener to remove
+	 * @throws IllegalArgumentException if the list wasn't created by this SDK
+	 *             implementation
+	 */
+	public static <T extends IdElement> void removeChangeListener(PaginatedIdList<T> list,
+		ListChangeListener<T> listener) {
+		idImplOf(list).removeChangeListener(listener);
+	}
+
+	private static <T extends IdElement> PaginatedIdListImpl<T> idImplOf(PaginatedIdList<T> list) {
+		if (!(list instanceof PaginatedIdListImpl)) {
+			throw new IllegalArgumentException("Not a list created by this SDK: " + list);
+		}
+		return (PaginatedIdListImpl<T>) list;
+	}
+
+	private static <T> PaginatedListImpl<T> implOf(PaginatedList<T> list) {
+		if (!(list instanceof PaginatedListImpl)) {
+			throw new IllegalArgumentException("Not a list created by this SDK: " + list);
+		}
+		return (PaginatedListImpl<T>) list;
+	}
+}
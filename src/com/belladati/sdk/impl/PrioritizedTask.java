@@ -0,0 +1,47 @@
+package com.belladati.sdk.impl;
+
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Runs a task with a {@link RequestPriority}. In executors created by
+ * {@link AsyncBellaDatiService#createExecutor(int)}, queued tasks are run in
+ * order of priority, and in the order they were submitted within the same
+ * priority.
+ */
+class PrioritizedTask implements Runnable, Comparable<PrioritizedTask> {
+
+	private static final AtomicLong SEQUENCE = new AtomicLong();
+
+	private final RequestPriority priority;
+	private final long sequence = SEQUENCE.getAndIncrement();
+	private final Runnable task;
+
+	/**
+	 * Creates a new task.
+	 * 
+	 * @param priority priority of requests made by the task
+	 * @param task the task to run
+	 */
+	PrioritizedTask(RequestPriority priority, Runnable task) {
+		this.priority = priority;
+		this.task = task;
+	}
+
+	@Override
+	public void run() {
+		RequestPriority previous = priority.enter();
+		try {
+			task.run();
+		} finally {
+			RequestPriority.restore(previous);
+		}
+	}
+
+	@Override
+	public int compareTo(PrioritizedTask other) {
+		if (priority != other.priority) {
+			return priority.compareTo(other.priority);
+		}
+		return sequence < other.sequence ? -1 : (sequence == other.sequence ? 0 : 1);
+	}
+}
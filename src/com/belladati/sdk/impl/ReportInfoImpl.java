@@ -88,7 +88,7 @@ class ReportInfoImpl implements ReportInfo {
 
 	@Override
 	public Report loadDetails() {
-		return service.loadReport(id);
+		return service.loadReport(id, lastChange);
 	}
 
 	@Override
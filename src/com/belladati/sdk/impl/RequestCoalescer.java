@@ -0,0 +1,103 @@
+package com.belladati.sdk.impl;
+
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.belladati.sdk.exception.ConnectionException;
+
+/**
+ * Lets concurrent callers share a single execution of identical requests.
+ * The first caller for a key executes the request; callers arriving with the
+ * same key while it's still in flight wait for and receive the same result
+ * instead of executing the request again.
+ */
+class RequestCoalescer {
+
+	private final ConcurrentMap<String, FutureTask<?>> inFlight = new ConcurrentHashMap<String, FutureTask<?>>();
+
+	/** number of requests that were executed */
+	private final AtomicLong executed = new AtomicLong();
+
+	/** number of requests that joined an execution already in flight */
+	private final AtomicLong coalesced = new AtomicLong();
+
+	/**
+	 * Executes the given call, or waits for the result of an identical call
+	 * that's already in flight.
+	 * 
+	 * @param key identifies identical calls
+	 * @param call the call to execute
+	 * @param copier creates a copy of the result for callers that joined the
+	 *            call in flight, or <tt>null</tt> to share the same result
+	 *            instance with all callers
+	 * @return the result of the call
+	 */
+	@SuppressWarnings("unchecked")
+	<T> T execute(String key, Callable<T> call, Copier<T> copier) {
+		FutureTask<T> task = new FutureTask<T>(call);
+		FutureTask<T> existing = (FutureTask<T>) inFlight.putIfAbsent(key, task);
+		if (existing == null) {
+			executed.incrementAndGet();
+			try {
+				task.run();
+			} finally {
+				inFlight.remove(key, task);
+			}
+			return getResult(task);
+		}
+		coalesced.incrementAndGet();
+		T result = getResult(existing);
+		return copier == null ? result : copier.copy(result);
+	}
+
+	/** Returns the result of the given task, rethrowing its exceptions. */
+	private <T> T getResult(FutureTask<T> task) {
+		try {
+			return task.get();
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting for response", e);
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new ConnectionException("Failed to connect to BellaDati", cause);
+		}
+	}
+
+	/**
+	 * Returns the number of requests that were actually executed.
+	 * 
+	 * @return the number of requests that were executed
+	 */
+	long getExecutedCount() {
+		return executed.get();
+	}
+
+	/**
+	 * Returns the number of requests that were served by joining an identical
+	 * request already in flight.
+	 * 
+	 * @return the number of coalesced requests
+	 */
+	long getCoalescedCount() {
+		return coalesced.get();
+	}
+
+	/**
+	 * Copies results for callers that must not share the same instance.
+	 * 
+	 * @param <T> type of result
+	 */
+	interface Copier<T> {
+		T copy(T result);
+	}
+}
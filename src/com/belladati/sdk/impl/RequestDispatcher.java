@@ -0,0 +1,169 @@
+package com.belladati.sdk.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.belladati.sdk.exception.ConnectionException;
+
+/**
+ * Sends requests to a server in order of their {@link RequestPriority},
+ * shared by all clients of that server. As long as connections are free,
+ * requests are sent immediately. Once all are in use, waiting requests are
+ * sent highest priority first as connections become free.
+ * <p>
+ * Background requests are deferred while other requests are waiting, and use
+ * no more than part of the connections, so that interactive requests can be
+ * sent without waiting for background requests to complete.
+ */
+class RequestDispatcher {
+
+	/**
+	 * Builds a dispatcher as configured through system properties: as many
+	 * requests as the client has connections (<tt>bdMaxConnections</tt>) are
+	 * sent at once. <tt>bdMaxBackgroundRequests</tt> limits background
+	 * requests, by default to half of that. Requests wait at most
+	 * <tt>bdConnectionRequestTimeout</tt> milliseconds. Setting
+	 * <tt>bdPrioritizeRequests</tt> to <tt>false</tt> disables the dispatcher.
+	 * 
+	 * @param metrics records the time spent waiting
+	 * @return the configured dispatcher, or <tt>null</tt> if disabled
+	 */
+	static RequestDispatcher fromProperties(ClientMetrics metrics) {
+		if (!BellaDatiClient.readFromProperty("bdPrioritizeRequests", true)) {
+			return null;
+		}
+		int maxRequests = BellaDatiClient.readFromProperty("bdMaxConnections", 40);
+		int maxBackground = BellaDatiClient.readFromProperty("bdMaxBackgroundRequests", Math.max(1, maxRequests / 2));
+		int timeout = BellaDatiClient.readFromProperty("bdConnectionRequestTimeout",
+			BellaDatiClient.readFromProperty("bdTimeout", 10000));
+		return new RequestDispatcher(maxRequests, maxBackground, timeout, metrics);
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+
+	private final int maxRequests;
+	private final int maxBackground;
+	private final long timeoutNanos;
+	private final ClientMetrics metrics;
+
+	private int inFlight;
+	private int backgroundInFlight;
+	/** number of waiting requests by priority */
+	private final int[] waiting = new int[RequestPriority.values().length];
+
+	/**
+	 * Creates a new dispatcher.
+	 * 
+	 * @param maxRequests maximum requests in flight
+	 * @param maxBackground maximum background requests in flight
+	 * @param timeoutMillis maximum time to wait for a request
+	 * @param metrics records the time spent waiting
+	 */
+	RequestDispatcher(int maxRequests, int maxBackground, int timeoutMillis, ClientMetrics metrics) {
+		this.maxRequests = Math.max(1, maxRequests);
+		this.maxBackground = Math.max(1, Math.min(maxBackground, this.maxRequests));
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.metrics = metrics;
+		metrics.setRequestDispatcher(this);
+	}
+
+	/**
+	 * Waits until a request with the given priority may be sent. Each
+	 * successful call must be followed by a call to
+	 * {@link #release(RequestPriority)}.
+	 * 
+	 * @param priority priority of the request
+	 * @throws ConnectionException if the request couldn't be sent in time or
+	 *             the thread was interrupted
+	 */
+	void acquire(RequestPriority priority) {
+		long start = System.nanoTime();
+		lock.lock();
+		try {
+			if (!canSend(priority)) {
+				waiting[priority.ordinal()]++;
+				try {
+					long remaining = timeoutNanos;
+					do {
+						if (remaining <= 0) {
+							metrics.recordDispatchWait(priority, System.nanoTime() - start, true);
+							throw new ConnectionException("Timed out waiting to send " + priority + " request, " + inFlight
+								+ " requests in flight");
+						}
+						remaining = released.awaitNanos(remaining);
+					} while (!canSend(priority));
+				} finally {
+					waiting[priority.ordinal()]--;
+				}
+			}
+			inFlight++;
+			if (priority == RequestPriority.BACKGROUND) {
+				backgroundInFlight++;
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting to send request", e);
+		} finally {
+			lock.unlock();
+		}
+		long nanos = System.nanoTime() - start;
+		metrics.recordDispatchWait(priority, nanos, false);
+		RequestTimer timer = RequestTimer.current();
+		if (timer != null) {
+			timer.add(RequestEvent.Phase.QUEUE_WAIT, nanos);
+		}
+	}
+
+	/**
+	 * Marks a request as complete, allowing the next one to be sent.
+	 * 
+	 * @param priority priority of the request
+	 */
+	void release(RequestPriority priority) {
+		lock.lock();
+		try {
+			inFlight--;
+			if (priority == RequestPriority.BACKGROUND) {
+				backgroundInFlight--;
+			}
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Checks if a request may be sent now. Must hold the lock. */
+	private boolean canSend(RequestPriority priority) {
+		if (inFlight >= maxRequests) {
+			return false;
+		}
+		if (priority == RequestPriority.BACKGROUND && backgroundInFlight >= maxBackground) {
+			return false;
+		}
+		// requests with higher priority go first
+		for (int i = 0; i < priority.ordinal(); i++) {
+			if (waiting[i] > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the number of requests with the given priority currently
+	 * waiting to be sent.
+	 * 
+	 * @param priority the priority
+	 * @return the number of waiting requests
+	 */
+	int getWaiting(RequestPriority priority) {
+		lock.lock();
+		try {
+			return waiting[priority.ordinal()];
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,140 @@
+package com.belladati.sdk.impl;
+
+import java.util.Locale;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Describes a completed request and the time spent in each of its phases.
+ * Phases that didn't occur, e.g. connecting when a pooled connection was
+ * reused, report a time of 0.
+ */
+public class RequestEvent {
+
+	/** Phases of a request. */
+	public enum Phase {
+		/** waiting for higher priority requests or the request limiter */
+		QUEUE_WAIT,
+		/** waiting to lease a connection from the pool */
+		CONNECTION_WAIT,
+		/** opening a new connection, including the TLS handshake */
+		CONNECT,
+		/** creating the request's OAuth signature */
+		SIGNING,
+		/** sending the request until the response headers arrived */
+		TIME_TO_FIRST_BYTE,
+		/** reading the response body from the connection */
+		BODY_READ,
+		/** processing the response body, e.g. parsing JSON */
+		PARSE
+	}
+
+	private final String method;
+	private final String uri;
+	private final String uriTemplate;
+	private final RequestPriority priority;
+	private final int statusCode;
+	private final Throwable failure;
+	private final long[] phaseNanos;
+	private final long totalNanos;
+
+	RequestEvent(String method, String uri, String uriTemplate, RequestPriority priority, int statusCode,
+		Throwable failure, long[] phaseNanos, long totalNanos) {
+		this.method = method;
+		this.uri = uri;
+		this.uriTemplate = uriTemplate;
+		this.priority = priority;
+		this.statusCode = statusCode;
+		this.failure = failure;
+		this.phaseNanos = phaseNanos;
+		this.totalNanos = totalNanos;
+	}
+
+	/**
+	 * Returns the HTTP method of the request.
+	 * 
+	 * @return the HTTP method, e.g. <tt>GET</tt>
+	 */
+	public String getMethod() {
+		return method;
+	}
+
+	/**
+	 * Returns the full URI of the request.
+	 * 
+	 * @return the full URI of the request
+	 */
+	public String getUri() {
+		return uri;
+	}
+
+	/**
+	 * Returns the request's path relative to the server URL, with IDs
+	 * replaced by placeholders, e.g. <tt>api/reports/views/{id}/chart</tt>.
+	 * Use this to group requests to the same endpoint.
+	 * 
+	 * @return the request's URI template
+	 */
+	public String getUriTemplate() {
+		return uriTemplate;
+	}
+
+	/**
+	 * Returns the priority the request was made with.
+	 * 
+	 * @return the request's priority
+	 */
+	public RequestPriority getPriority() {
+		return priority;
+	}
+
+	/**
+	 * Returns the status code of the response.
+	 * 
+	 * @return the status code, or -1 if there was no response
+	 */
+	public int getStatusCode() {
+		return statusCode;
+	}
+
+	/**
+	 * Returns the exception the request failed with.
+	 * 
+	 * @return the exception the request failed with, or <tt>null</tt> if it
+	 *         was successful
+	 */
+	public Throwable getFailure() {
+		return failure;
+	}
+
+	/**
+	 * Returns the time spent in the given phase.
+	 * 
+	 * @param phase the phase
+	 * @param unit unit to return the time in
+	 * @return the time spent in the phase
+	 */
+	public long getTime(Phase phase, TimeUnit unit) {
+		return unit.convert(phaseNanos[phase.ordinal()], TimeUnit.NANOSECONDS);
+	}
+
+	/**
+	 * Returns the total time the request took.
+	 * 
+	 * @param unit unit to return the time in
+	 * @return the total time of the request
+	 */
+	public long getTotalTime(TimeUnit unit) {
+		return unit.convert(totalNanos, TimeUnit.NANOSECONDS);
+	}
+
+	@Override
+	public String toString() {
+		StringBuilder sb = new StringBuilder("Request(").append(method).append(' ').append(uriTemplate).append(": ")
+			.append(statusCode);
+		for (Phase phase : Phase.values()) {
+			sb.append(", ").append(phase.name().toLowerCase(Locale.ENGLISH)).append(' ')
+				.append(getTime(phase, TimeUnit.MICROSECONDS)).append("us");
+		}
+		return sb.append(", total ").append(getTotalTime(TimeUnit.MICROSECONDS)).append("us)").toString();
+	}
+}
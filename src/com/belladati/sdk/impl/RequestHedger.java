@@ -0,0 +1,260 @@
+package com.belladati.sdk.impl;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
+import com.belladati.sdk.exception.ConnectionException;
+
+/**
+ * Sends a duplicate of a request if no response arrives within a delay, and
+ * uses whichever response arrives first. The other request is aborted.
+ * <p>
+ * The delay is based on a percentile of recently observed response times, so
+ * only unusually slow requests are duplicated. To limit the extra load on the
+ * server, only a given percentage of requests may be duplicated.
+ * <p>
+ * Requests are sent on a limited number of threads. While all of them are
+ * busy, requests are sent on the calling thread without being duplicated.
+ */
+class RequestHedger {
+
+	/** number of response times to base the delay on */
+	private static final int SAMPLES = 128;
+
+	/** number of response times needed before requests are duplicated */
+	private static final int MIN_SAMPLES = 20;
+
+	private final ExecutorService executor;
+	private final int percentile;
+	private final long minDelayMillis;
+	private final int maxHedgePercent;
+
+	/** recent response times in nanoseconds, used as a ring buffer */
+	private final long[] latencies = new long[SAMPLES];
+	private int sampleCount;
+	private int nextSample;
+
+	private final AtomicLong requests = new AtomicLong();
+	private final AtomicLong hedges = new AtomicLong();
+	private final AtomicLong hedgesWon = new AtomicLong();
+
+	/**
+	 * Creates a new hedger.
+	 * 
+	 * @param percentile percentile of recent response times to wait before
+	 *            sending a duplicate request, between 1 and 100
+	 * @param minDelayMillis minimum time to wait before sending a duplicate
+	 * @param maxHedgePercent maximum percentage of requests to duplicate
+	 * @param maxThreads maximum number of threads sending requests
+	 */
+	RequestHedger(int percentile, long minDelayMillis, int maxHedgePercent, int maxThreads) {
+		if (percentile < 1 || percentile > 100) {
+			throw new IllegalArgumentException("Percentile must be between 1 and 100, was " + percentile);
+		}
+		this.percentile = percentile;
+		this.minDelayMillis = Math.max(0, minDelayMillis);
+		this.maxHedgePercent = Math.max(0, maxHedgePercent);
+		this.executor = new ThreadPoolExecutor(0, Math.max(1, maxThreads), 60, TimeUnit.SECONDS,
+			new SynchronousQueue<Runnable>(), new AsyncBellaDatiService.DaemonThreadFactory("BellaDati-hedge"));
+	}
+
+	/**
+	 * Executes the given attempt, duplicating it if it takes too long.
+	 * 
+	 * @param attempt creates and executes the request
+	 * @return the result of the first request to complete
+	 */
+	<T> T execute(final Attempt<T> attempt) {
+		requests.incrementAndGet();
+		long delay = getDelayNanos();
+		if (delay < 0) {
+			// we don't know enough about response times yet
+			return timed(attempt, attempt.createRequest());
+		}
+
+		CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+		final HttpRequestBase primary = attempt.createRequest();
+		Future<T> primaryFuture;
+		try {
+			primaryFuture = completion.submit(new Callable<T>() {
+				@Override
+				public T call() {
+					return timed(attempt, primary);
+				}
+			});
+		} catch (RejectedExecutionException e) {
+			// all threads are busy, send the request without hedging
+			return timed(attempt, primary);
+		}
+		HttpRequestBase hedge = null;
+		Future<T> hedgeFuture = null;
+		try {
+			Future<T> done = completion.poll(delay, TimeUnit.NANOSECONDS);
+			if (done == null && reserveHedge()) {
+				final HttpRequestBase hedgeRequest = attempt.createRequest();
+				try {
+					hedgeFuture = completion.submit(new Callable<T>() {
+						@Override
+						public T call() {
+							return timed(attempt, hedgeRequest);
+						}
+					});
+					hedge = hedgeRequest;
+				} catch (RejectedExecutionException e) {
+					// all threads are busy, keep waiting for the original request
+					hedges.decrementAndGet();
+				}
+			}
+			if (done == null) {
+				done = completion.take();
+			}
+			if (hedgeFuture != null && isConnectionFailure(done)) {
+				// one request failed to connect, the other one may still succeed
+				done = completion.take();
+			}
+			T result = getResult(done);
+			if (done == hedgeFuture) {
+				hedgesWon.incrementAndGet();
+			}
+			return result;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting for response", e);
+		} finally {
+			// abort whichever request is still running
+			if (!primaryFuture.isDone()) {
+				primary.abort();
+			}
+			if (hedgeFuture != null && !hedgeFuture.isDone()) {
+				hedge.abort();
+			}
+		}
+	}
+
+	/** Executes the request, recording its response time if successful. */
+	private <T> T timed(Attempt<T> attempt, HttpRequestBase request) {
+		long start = System.nanoTime();
+		T result = attempt.execute(request);
+		record(System.nanoTime() - start);
+		return result;
+	}
+
+	/**
+	 * Counts a hedge if it's allowed without exceeding the limit. Checking
+	 * and counting happen at once, so that concurrent slow requests can't
+	 * exceed the limit together.
+	 */
+	private boolean reserveHedge() {
+		while (true) {
+			long current = hedges.get();
+			if ((current + 1) * 100 > maxHedgePercent * requests.get()) {
+				return false;
+			}
+			if (hedges.compareAndSet(current, current + 1)) {
+				return true;
+			}
+		}
+	}
+
+	private synchronized void record(long nanos) {
+		latencies[nextSample] = nanos;
+		nextSample = (nextSample + 1) % SAMPLES;
+		sampleCount = Math.min(sampleCount + 1, SAMPLES);
+	}
+
+	/**
+	 * Returns the time to wait before duplicating a request.
+	 * 
+	 * @return the delay in nanoseconds, or -1 if not enough response times
+	 *         are known yet
+	 */
+	long getDelayNanos() {
+		long[] sorted;
+		synchronized (this) {
+			if (sampleCount < MIN_SAMPLES) {
+				return -1;
+			}
+			sorted = Arrays.copyOf(latencies, sampleCount);
+		}
+		Arrays.sort(sorted);
+		int index = (int) Math.ceil(percentile / 100.0 * sorted.length) - 1;
+		return Math.max(TimeUnit.MILLISECONDS.toNanos(minDelayMillis), sorted[Math.max(0, index)]);
+	}
+
+	/**
+	 * Returns the number of requests that were duplicated.
+	 * 
+	 * @return the number of requests that were duplicated
+	 */
+	long getHedgeCount() {
+		return hedges.get();
+	}
+
+	/**
+	 * Returns the number of duplicate requests that completed before the
+	 * original request.
+	 * 
+	 * @return the number of duplicate requests that completed first
+	 */
+	long getHedgeWonCount() {
+		return hedgesWon.get();
+	}
+
+	private static boolean isConnectionFailure(Future<?> future) throws InterruptedException {
+		try {
+			future.get();
+			return false;
+		} catch (ExecutionException e) {
+			return e.getCause() instanceof ConnectionException;
+		}
+	}
+
+	/** Returns the result of the given future, rethrowing its exceptions. */
+	private static <T> T getResult(Future<T> future) throws InterruptedException {
+		try {
+			return future.get();
+		} catch (ExecutionException e) {
+			Throwable cause = e.getCause();
+			if (cause instanceof RuntimeException) {
+				throw (RuntimeException) cause;
+			}
+			if (cause instanceof Error) {
+				throw (Error) cause;
+			}
+			throw new ConnectionException("Failed to connect to BellaDati", cause);
+		}
+	}
+
+	/**
+	 * A request that can be sent more than once.
+	 * 
+	 * @param <T> type of result
+	 */
+	interface Attempt<T> {
+		/**
+		 * Creates a new request. Each attempt uses its own request instance.
+		 * 
+		 * @return a new request
+		 */
+		HttpRequestBase createRequest();
+
+		/**
+		 * Executes the given request.
+		 * 
+		 * @param request the request to execute
+		 * @return the result of the request
+		 */
+		T execute(HttpRequestBase request);
+	}
+}
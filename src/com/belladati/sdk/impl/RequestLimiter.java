@@ -0,0 +1,264 @@
+package com.belladati.sdk.impl;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.belladati.sdk.exception.ConnectionException;
+
+/**
+ * Limits the requests sent to a server, shared by all clients of that server.
+ * Requests wait until they're allowed by both of:
+ * <ul>
+ * <li>a limit on the number of requests in flight, from sending the request
+ * until the response has been read</li>
+ * <li>a token bucket limiting the requests per second, allowing short bursts
+ * </li>
+ * </ul>
+ * In adaptive mode, the in-flight limit is adjusted to the server's load:
+ * halved when a request fails with a server error or times out, and raised
+ * by one after a full limit's worth of successful requests, up to the
+ * configured maximum.
+ */
+class RequestLimiter {
+
+	/**
+	 * Builds a limiter as configured through system properties:
+	 * <tt>bdMaxConcurrentRequests</tt> limits the requests in flight,
+	 * <tt>bdMaxRequestsPerSecond</tt> the rate of requests, allowing bursts of
+	 * <tt>bdRequestBurst</tt> requests (default one second's worth). Both are
+	 * unlimited by default. <tt>bdAdaptiveLimit</tt> enables adaptive mode,
+	 * starting at the configured maximum or <tt>bdMaxConnections</tt>.
+	 * Requests wait at most <tt>bdConnectionRequestTimeout</tt> milliseconds.
+	 * 
+	 * @param metrics records the time spent waiting
+	 * @return the configured limiter, or <tt>null</tt> if requests aren't
+	 *         limited
+	 */
+	static RequestLimiter fromProperties(ClientMetrics metrics) {
+		int maxConcurrent = BellaDatiClient.readFromProperty("bdMaxConcurrentRequests", 0);
+		int perSecond = BellaDatiClient.readFromProperty("bdMaxRequestsPerSecond", 0);
+		boolean adaptive = BellaDatiClient.readFromProperty("bdAdaptiveLimit", false);
+		if (maxConcurrent <= 0 && perSecond <= 0 && !adaptive) {
+			return null;
+		}
+		if (adaptive && maxConcurrent <= 0) {
+			maxConcurrent = BellaDatiClient.readFromProperty("bdMaxConnections", 40);
+		}
+		int timeout = BellaDatiClient.readFromProperty("bdConnectionRequestTimeout",
+			BellaDatiClient.readFromProperty("bdTimeout", 10000));
+		return new RequestLimiter(maxConcurrent, perSecond, BellaDatiClient.readFromProperty("bdRequestBurst", perSecond),
+			adaptive, timeout, metrics);
+	}
+
+	private final ReentrantLock lock = new ReentrantLock();
+	private final Condition released = lock.newCondition();
+
+	/** maximum requests in flight, 0 if unlimited */
+	private final int maxConcurrent;
+	/** token refill rate per nanosecond, 0 if unlimited */
+	private final double tokensPerNano;
+	private final double burst;
+	private final boolean adaptive;
+	private final long timeoutNanos;
+	private final ClientMetrics metrics;
+
+	/** current in-flight limit, below the maximum when adapting */
+	private double limit;
+	private int inFlight;
+	private int waiting;
+	/** number of requests waiting for a slot by priority */
+	private final int[] waitingForSlot = new int[RequestPriority.values().length];
+	/** available tokens, negative if reserved by waiting requests */
+	private double tokens;
+	private long lastRefill = System.nanoTime();
+	/** when the limit was last decreased */
+	private long lastDecrease = lastRefill;
+
+	/**
+	 * Creates a new limiter.
+	 * 
+	 * @param maxConcurrent maximum requests in flight, 0 if unlimited
+	 * @param perSecond maximum requests per second, 0 if unlimited
+	 * @param burst maximum requests sent at once when under the rate limit
+	 * @param adaptive <tt>true</tt> to adjust the in-flight limit to the load
+	 * @param timeoutMillis maximum time to wait for a request
+	 * @param metrics records the time spent waiting
+	 */
+	RequestLimiter(int maxConcurrent, int perSecond, int burst, boolean adaptive, int timeoutMillis,
+		ClientMetrics metrics) {
+		this.maxConcurrent = Math.max(0, maxConcurrent);
+		this.tokensPerNano = Math.max(0, perSecond) / 1e9;
+		this.burst = Math.max(1, burst);
+		this.adaptive = adaptive && this.maxConcurrent > 0;
+		this.timeoutNanos = TimeUnit.MILLISECONDS.toNanos(timeoutMillis);
+		this.metrics = metrics;
+		this.limit = this.maxConcurrent;
+		this.tokens = this.burst;
+		metrics.setRequestLimiter(this);
+	}
+
+	/**
+	 * Waits until a request may be sent. Requests waiting for a free slot are
+	 * allowed highest priority first. Each successful call must be followed
+	 * by a call to {@link #release(long, boolean)}.
+	 * 
+	 * @param priority priority of the request
+	 * @return the time the request was allowed, to pass to
+	 *         {@link #release(long, boolean)}
+	 * @throws ConnectionException if the request wasn't allowed in time or
+	 *             the thread was interrupted
+	 */
+	long acquire(RequestPriority priority) {
+		long start = System.nanoTime();
+		long deadline = start + timeoutNanos;
+		lock.lock();
+		try {
+			waiting++;
+			long tokenWait = reserveToken(start);
+			if (tokenWait > timeoutNanos) {
+				tokens++;
+				throw timedOut(start);
+			}
+			// sleep until our token is available, then wait for a free slot
+			while (tokenWait > 0) {
+				tokenWait = released.awaitNanos(tokenWait);
+			}
+			if (!hasSlot(priority)) {
+				waitingForSlot[priority.ordinal()]++;
+				try {
+					do {
+						long remaining = deadline - System.nanoTime();
+						if (remaining <= 0) {
+							throw timedOut(start);
+						}
+						released.awaitNanos(remaining);
+					} while (!hasSlot(priority));
+				} finally {
+					waitingForSlot[priority.ordinal()]--;
+				}
+			}
+			inFlight++;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting to send request", e);
+		} finally {
+			waiting--;
+			lock.unlock();
+		}
+		long now = System.nanoTime();
+		metrics.recordQueueWait(now - start, false);
+		RequestTimer timer = RequestTimer.current();
+		if (timer != null) {
+			timer.add(RequestEvent.Phase.QUEUE_WAIT, now - start);
+		}
+		return now;
+	}
+
+	/**
+	 * Marks a request as complete, allowing the next one to be sent.
+	 * 
+	 * @param acquiredAt the time the request was allowed
+	 * @param overloaded <tt>true</tt> if the request failed in a way that
+	 *            indicates the server is overloaded
+	 */
+	void release(long acquiredAt, boolean overloaded) {
+		lock.lock();
+		try {
+			inFlight--;
+			if (adaptive) {
+				if (overloaded) {
+					// requests sent before the last decrease saw the old limit
+					if (acquiredAt - lastDecrease >= 0) {
+						limit = Math.max(1, limit / 2);
+						lastDecrease = System.nanoTime();
+					}
+				} else {
+					limit = Math.min(maxConcurrent, limit + 1 / limit);
+				}
+			}
+			released.signalAll();
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/** Checks if a slot is free for a request. Must hold the lock. */
+	private boolean hasSlot(RequestPriority priority) {
+		if (maxConcurrent <= 0) {
+			return true;
+		}
+		if (inFlight >= (int) limit) {
+			return false;
+		}
+		// requests with higher priority go first
+		for (int i = 0; i < priority.ordinal(); i++) {
+			if (waitingForSlot[i] > 0) {
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Takes a token from the bucket, reserving it if none is available.
+	 * 
+	 * @return the time to wait until the token is available, 0 if it is
+	 */
+	private long reserveToken(long now) {
+		if (tokensPerNano <= 0) {
+			return 0;
+		}
+		tokens = Math.min(burst, tokens + (now - lastRefill) * tokensPerNano);
+		lastRefill = now;
+		tokens--;
+		return tokens >= 0 ? 0 : (long) Math.ceil(-tokens / tokensPerNano);
+	}
+
+	private ConnectionException timedOut(long start) {
+		metrics.recordQueueWait(System.nanoTime() - start, true);
+		return new ConnectionException("Timed out waiting to send request, " + inFlight + " requests in flight");
+	}
+
+	/**
+	 * Returns the current limit of requests in flight.
+	 * 
+	 * @return the current limit, or 0 if unlimited
+	 */
+	int getLimit() {
+		lock.lock();
+		try {
+			return (int) limit;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of requests currently in flight.
+	 * 
+	 * @return the number of requests in flight
+	 */
+	int getInFlight() {
+		lock.lock();
+		try {
+			return inFlight;
+		} finally {
+			lock.unlock();
+		}
+	}
+
+	/**
+	 * Returns the number of requests currently waiting to be sent.
+	 * 
+	 * @return the number of waiting requests
+	 */
+	int getWaiting() {
+		lock.lock();
+		try {
+			return waiting;
+		} finally {
+			lock.unlock();
+		}
+	}
+}
@@ -0,0 +1,20 @@
+package com.belladati.sdk.impl;
+
+/**
+ * Receives the timings of each request made to the BellaDati server.
+ * Register listeners with
+ * {@link BellaDatiMetrics#addRequestListener(com.belladati.sdk.BellaDatiService, RequestListener)}.
+ * <p>
+ * Listeners are called on the thread that made the request, after the
+ * request completed and before its result is returned, so they should
+ * return quickly. Exceptions thrown by listeners are ignored.
+ */
+public interface RequestListener {
+
+	/**
+	 * Called when a request has completed, successfully or not.
+	 * 
+	 * @param event describes the request and the time spent in each phase
+	 */
+	void requestCompleted(RequestEvent event);
+}
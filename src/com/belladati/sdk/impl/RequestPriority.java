@@ -0,0 +1,79 @@
+package com.belladati.sdk.impl;
+
+import java.util.concurrent.Callable;
+
+/**
+ * Priority of requests sent to BellaDati. When all connections to a server
+ * are in use, waiting requests are sent in order of priority, and background
+ * requests are limited to part of the connections so that interactive
+ * requests don't have to wait for them.
+ * <p>
+ * The priority applies to all requests made on the calling thread while it's
+ * set through {@link #call(Callable)}, including requests made by lists and
+ * other objects loaded by the SDK. Calls made through an
+ * {@link AsyncBellaDatiService} use the priority of the facade, see
+ * {@link AsyncBellaDatiService#withPriority(RequestPriority)}. Requests are
+ * made with {@link #NORMAL} priority by default.
+ */
+public enum RequestPriority {
+	/** requests a user is waiting for, e.g. loading the view on screen */
+	INTERACTIVE,
+	/** regular requests */
+	NORMAL,
+	/** requests no one is waiting for, e.g. prefetching or synchronization */
+	BACKGROUND;
+
+	private static final ThreadLocal<RequestPriority> CURRENT = new ThreadLocal<RequestPriority>();
+
+	/**
+	 * Returns the priority of requests made on the current thread.
+	 * 
+	 * @return the current priority
+	 */
+	public static RequestPriority current() {
+		RequestPriority priority = CURRENT.get();
+		return priority == null ? NORMAL : priority;
+	}
+
+	/**
+	 * Makes the given call on the current thread, sending its requests with
+	 * this priority.
+	 * 
+	 * @param callable the call to make
+	 * @return the result of the call
+	 * @throws Exception if the call failed
+	 */
+	public <T> T call(Callable<T> callable) throws Exception {
+		RequestPriority previous = enter();
+		try {
+			return callable.call();
+		} finally {
+			restore(previous);
+		}
+	}
+
+	/**
+	 * Sets this priority for the current thread until restored.
+	 * 
+	 * @return the previous priority, to pass to
+	 *         {@link #restore(RequestPriority)}
+	 */
+	RequestPriority enter() {
+		RequestPriority previous = CURRENT.get();
+		CURRENT.set(this);
+		return previous;
+	}
+
+	/**
+	 * Restores the priority of the current thread.
+	 * 
+	 * @param previous the priority returned by {@link #enter()}
+	 */
+	static void restore(RequestPriority previous) {
+		if (previous == null) {
+			CURRENT.remove();
+		} else {
+			CURRENT.set(previous);
+		}
+	}
+}
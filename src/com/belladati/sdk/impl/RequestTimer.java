@@ -0,0 +1,143 @@
+package com.belladati.sdk.impl;
+
+import java.io.FilterInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
+import com.belladati.httpclientandroidlib.HttpEntity;
+import com.belladati.httpclientandroidlib.entity.HttpEntityWrapper;
+import com.belladati.sdk.impl.RequestEvent.Phase;
+
+/**
+ * Measures the phases of a single request. While a request is executed, its
+ * timer is available to the connection pool through {@link #current()}.
+ */
+class RequestTimer {
+
+	private static final ThreadLocal<RequestTimer> CURRENT = new ThreadLocal<RequestTimer>();
+
+	private final long start = System.nanoTime();
+	private final long[] phaseNanos = new long[Phase.values().length];
+	private int statusCode = -1;
+
+	/**
+	 * Returns the timer of the request executing on the current thread.
+	 * 
+	 * @return the current timer, or <tt>null</tt> if requests aren't timed
+	 */
+	static RequestTimer current() {
+		return CURRENT.get();
+	}
+
+	/** Makes this the timer of the request executing on the current thread. */
+	void attach() {
+		CURRENT.set(this);
+	}
+
+	/** Removes this timer from the current thread. */
+	void detach() {
+		CURRENT.remove();
+	}
+
+	/**
+	 * Adds time spent in the given phase.
+	 * 
+	 * @param phase the phase
+	 * @param nanos time spent in nanoseconds
+	 */
+	void add(Phase phase, long nanos) {
+		phaseNanos[phase.ordinal()] += nanos;
+	}
+
+	/**
+	 * Returns the time spent in the given phase so far.
+	 * 
+	 * @param phase the phase
+	 * @return time spent in nanoseconds
+	 */
+	long get(Phase phase) {
+		return phaseNanos[phase.ordinal()];
+	}
+
+	/**
+	 * Sets the status code of the response.
+	 * 
+	 * @param statusCode the status code
+	 */
+	void setStatusCode(int statusCode) {
+		this.statusCode = statusCode;
+	}
+
+	/**
+	 * Wraps the given entity to add the time spent reading its content to
+	 * {@link Phase#BODY_READ}.
+	 * 
+	 * @param entity the entity to wrap, may be <tt>null</tt>
+	 * @return the wrapped entity
+	 */
+	HttpEntity timeReads(HttpEntity entity) {
+		if (entity == null) {
+			return null;
+		}
+		return new HttpEntityWrapper(entity) {
+			@Override
+			public InputStream getContent() throws IOException {
+				InputStream in = super.getContent();
+				return in == null ? null : new TimedInputStream(in);
+			}
+		};
+	}
+
+	/**
+	 * Finishes timing and creates the event describing the request.
+	 * 
+	 * @param method the request method
+	 * @param uri the full request URI
+	 * @param uriTemplate the request URI template
+	 * @param priority the request priority
+	 * @param failure the exception the request failed with, may be
+	 *            <tt>null</tt>
+	 * @return the event to send to listeners
+	 */
+	RequestEvent finish(String method, String uri, String uriTemplate, RequestPriority priority, Throwable failure) {
+		return new RequestEvent(method, uri, uriTemplate, priority, statusCode, failure, phaseNanos.clone(),
+			System.nanoTime() - start);
+	}
+
+	/** Adds the time spent in read calls to the body read phase. */
+	private class TimedInputStream extends FilterInputStream {
+		TimedInputStream(InputStream in) {
+			super(in);
+		}
+
+		@Override
+		public int read() throws IOException {
+			long readStart = System.nanoTime();
+			try {
+				return super.read();
+			} finally {
+				add(Phase.BODY_READ, System.nanoTime() - readStart);
+			}
+		}
+
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException {
+			long readStart = System.nanoTime();
+			try {
+				return super.read(b, off, len);
+			} finally {
+				add(Phase.BODY_READ, System.nanoTime() - readStart);
+			}
+		}
+
+		@Override
+		public long skip(long n) throws IOException {
+			long readStart = System.nanoTime();
+			try {
+				return super.skip(n);
+			} finally {
+				add(Phase.BODY_READ, System.nanoTime() - readStart);
+			}
+		}
+	}
+}
@@ -0,0 +1,277 @@
+package com.belladati.sdk.impl;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import com.belladati.sdk.exception.ConnectionException;
+import com.belladati.sdk.impl.PaginatedListImpl.Page;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Gives random access to the elements of a {@link PaginatedList} on the
+ * server, loading the page containing an element when it's first accessed.
+ * Only the most recently used pages are kept, so that large lists can be
+ * displayed e.g. in a scrolling view with constant memory.
+ * <p>
+ * Pages next to an accessed page are loaded ahead in the background with
+ * {@link RequestPriority#BACKGROUND} priority. Sparse lists may be used by
+ * multiple threads.
+ * 
+ * @see PaginatedLists#sparse(PaginatedList, int, int, int)
+ */
+public final class SparsePaginatedList<T> {
+
+	private final PaginatedListImpl<T> list;
+	private final int neighbours;
+
+	/** loaded or loading pages by number, in least to most recently used order */
+	private final Map<Integer, Future<Page<T>>> pages;
+
+	private volatile int pageSize;
+	/** number of elements in the list, -1 until the last page was loaded */
+	private volatile int size = -1;
+
+	/**
+	 * Creates a new sparse list.
+	 * 
+	 * @param list list whose elements to access
+	 * @param pageSize number of elements to load per page
+	 * @param maxPages maximum number of pages to keep
+	 * @param neighbours number of pages on each side of an accessed page to
+	 *            load ahead
+	 */
+	SparsePaginatedList(PaginatedListImpl<T> list, int pageSize, final int maxPages, int neighbours) {
+		if (pageSize <= 0) {
+			throw new IllegalArgumentException("Size must be > 0, was " + pageSize);
+		}
+		if (neighbours < 0) {
+			throw new IllegalArgumentException("Neighbours must be >= 0, was " + neighbours);
+		}
+		if (maxPages < 1 + 2 * neighbours) {
+			throw new IllegalArgumentException("Max pages must be >= " + (1 + 2 * neighbours) + " to keep "
+				+ neighbours + " neighbours, was " + maxPages);
+		}
+		this.list = list;
+		this.pageSize = pageSize;
+		this.neighbours = neighbours;
+		this.pages = new LinkedHashMap<Integer, Future<Page<T>>>(16, 0.75f, true) {
+			/** The serialVersionUID */
+			private static final long serialVersionUID = -2464470931860235376L;
+
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Integer, Future<Page<T>>> eldest) {
+				if (size() > maxPages) {
+					// no need to finish loading a page no one is waiting for
+					eldest.getValue().cancel(false);
+					return true;
+				}
+				return false;
+			}
+		};
+	}
+
+	/**
+	 * Returns the element at the given index, loading its page if necessary.
+	 * 
+	 * @param index index of the element
+	 * @return the element at the given index
+	 * @throws IndexOutOfBoundsException if the index is negative or after the
+	 *             last element of the list
+	 */
+	public T get(int index) throws IndexOutOfBoundsException {
+		if (index < 0 || (size >= 0 && index >= size)) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+		}
+		while (true) {
+			int currentSize = pageSize;
+			int number = index / currentSize;
+			Page<T> page = loadPage(number);
+			if (page.size != currentSize) {
+				// the server uses a different page size, start over with that
+				resize(currentSize, page.size);
+				continue;
+			}
+			loadNeighbours(number);
+			int offset = index - number * currentSize;
+			if (offset >= page.items.size()) {
+				throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size);
+			}
+			return page.items.get(offset);
+		}
+	}
+
+	/**
+	 * Checks if the element at the given index is available without waiting
+	 * for the server.
+	 * 
+	 * @param index index of the element
+	 * @return <tt>true</tt> if the element's page has been loaded
+	 */
+	public boolean isLoaded(int index) {
+		if (index < 0) {
+			return false;
+		}
+		Future<Page<T>> future;
+		synchronized (pages) {
+			future = pages.get(index / pageSize);
+		}
+		if (future == null || !future.isDone() || future.isCancelled()) {
+			return false;
+		}
+		try {
+			future.get();
+			return true;
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			return false;
+		} catch (ExecutionException e) {
+			return false;
+		}
+	}
+
+	/**
+	 * Returns the number of elements in the list. The size is known once the
+	 * page containing the last element has been loaded.
+	 * 
+	 * @return the number of elements, or -1 if not known yet
+	 */
+	public int size() {
+		return size;
+	}
+
+	/**
+	 * Returns the number of elements per page. This is the size given when
+	 * creating the list, unless the server uses a different size.
+	 * 
+	 * @return the number of elements per page
+	 */
+	public int getPageSize() {
+		return pageSize;
+	}
+
+	/**
+	 * Returns the number of pages currently kept, including pages still being
+	 * loaded.
+	 * 
+	 * @return the number of pages kept
+	 */
+	public int getCachedPages() {
+		synchronized (pages) {
+			return pages.size();
+		}
+	}
+
+	/**
+	 * Discards all pages, causing them to be loaded again when accessed.
+	 */
+	public void clear() {
+		synchronized (pages) {
+			cancelAll();
+			size = -1;
+		}
+	}
+
+	/** Returns the given page, loading it on the calling thread if needed. */
+	private Page<T> loadPage(final int number) {
+		Future<Page<T>> future;
+		FutureTask<Page<T>> task = null;
+		synchronized (pages) {
+			future = pages.get(number);
+			if (future == null) {
+				task = new FutureTask<Page<T>>(new Callable<Page<T>>() {
+					@Override
+					public Page<T> call() {
+						return list.fetch(number, pageSize);
+					}
+				});
+				pages.put(number, task);
+				future = task;
+			}
+		}
+		if (task != null) {
+			task.run();
+		}
+		try {
+			return loaded(number, future.get());
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new ConnectionException("Interrupted while waiting for page", e);
+		} catch (ExecutionException e) {
+			forget(number, future);
+			if (task != null && e.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) e.getCause();
+			} else if (task != null) {
+				throw new ConnectionException("Failed to load page " + number, e.getCause());
+			}
+		} catch (CancellationException e) {
+			forget(number, future);
+		}
+		// loading in the background failed, try again to report any failure
+		return loadPage(number);
+	}
+
+	/** Starts loading the pages next to the given one in the background. */
+	private void loadNeighbours(int number) {
+		if (neighbours == 0) {
+			return;
+		}
+		synchronized (pages) {
+			int currentSize = pageSize;
+			for (int distance = 1; distance <= neighbours; distance++) {
+				loadInBackground(number + distance, currentSize);
+				loadInBackground(number - distance, currentSize);
+			}
+			// keep the accessed page the most recently used
+			pages.get(number);
+		}
+	}
+
+	/** Starts loading the given page if needed. Must hold the lock. */
+	private void loadInBackground(int number, int currentSize) {
+		if (number < 0 || (size >= 0 && number * currentSize >= size) || pages.containsKey(number)) {
+			return;
+		}
+		pages.put(number, list.fetchInBackground(number, currentSize, RequestPriority.BACKGROUND));
+	}
+
+	/** Notes the list size if the given page is the last one. */
+	private Page<T> loaded(int number, Page<T> page) {
+		if (page.isLast() && page.size == pageSize) {
+			size = number * page.size + page.items.size();
+		}
+		return page;
+	}
+
+	/** Switches to the page size used by the server, discarding all pages. */
+	private void resize(int oldSize, int newSize) {
+		synchronized (pages) {
+			if (pageSize == oldSize) {
+				cancelAll();
+				pageSize = newSize;
+			}
+		}
+	}
+
+	/** Removes the given failed page, unless it's already been replaced. */
+	private void forget(int number, Future<Page<T>> future) {
+		synchronized (pages) {
+			if (pages.get(number) == future) {
+				pages.remove(number);
+			}
+		}
+	}
+
+	/** Cancels loading and discards all pages. Must hold the lock. */
+	private void cancelAll() {
+		for (Iterator<Future<Page<T>>> iterator = pages.values().iterator(); iterator.hasNext();) {
+			iterator.next().cancel(false);
+			iterator.remove();
+		}
+	}
+}
@@ -1,10 +1,15 @@
 package com.belladati.sdk.impl;
 
+import java.io.IOException;
+import java.io.ObjectOutputStream;
 import java.io.Serializable;
-import java.util.Random;
 
 import oauth.signpost.OAuthConsumer;
+import oauth.signpost.exception.OAuthCommunicationException;
+import oauth.signpost.exception.OAuthException;
+import oauth.signpost.http.HttpParameters;
 
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
 import com.belladati.sdk.impl.oauth.BellaDatiOAuthConsumer;
 
 class TokenHolder implements Serializable {
@@ -12,14 +17,19 @@ class TokenHolder implements Serializable {
 	/** The serialVersionUID */
 	private static final long serialVersionUID = 8122702080702303615L;
 
-	private static final Random RANDOM = new Random();
-
 	private final String consumerKey;
 	private final String consumerSecret;
 
+	// guarded by this
 	private String token;
 	private String tokenSecret;
 
+	/**
+	 * signs requests with the current token, replaced along with the token
+	 * and created when first needed after deserialization
+	 */
+	private transient volatile OAuthSigner signer;
+
 	TokenHolder(String consumerKey, String consumerSecret) {
 		this.consumerKey = consumerKey;
 		this.consumerSecret = consumerSecret;
@@ -33,27 +43,69 @@ class TokenHolder implements Serializable {
 			protected String generateNonce() {
 				// thread-safe nonce generation
 				// http://code.google.com/p/oauth-signpost/issues/detail?id=41
-				return Long.toString(RANDOM.nextLong());
+				return OAuthSigner.generateNonce();
 			}
 		};
-		consumer.setTokenWithSecret(token, tokenSecret);
+		synchronized (this) {
+			consumer.setTokenWithSecret(token, tokenSecret);
+		}
 		return consumer;
 	}
 
+	/**
+	 * Signs the given request with the current token. Common requests are
+	 * signed directly, others through a signpost consumer.
+	 * 
+	 * @param request the request to sign
+	 * @param oauthParams additional OAuth parameters, may be <tt>null</tt>
+	 * @throws OAuthException if signing failed
+	 */
+	public void sign(HttpRequestBase request, HttpParameters oauthParams) throws OAuthException {
+		try {
+			if ((oauthParams == null || oauthParams.isEmpty()) && getSigner().sign(request)) {
+				return;
+			}
+		} catch (IOException e) {
+			throw new OAuthCommunicationException(e);
+		}
+		OAuthConsumer consumer = createConsumer();
+		consumer.setAdditionalParameters(oauthParams);
+		consumer.sign(request);
+	}
+
+	private OAuthSigner getSigner() {
+		OAuthSigner current = signer;
+		if (current == null) {
+			// created under the lock so it can't replace a newer token's signer
+			synchronized (this) {
+				if (signer == null) {
+					signer = new OAuthSigner(consumerKey, consumerSecret, token, tokenSecret);
+				}
+				current = signer;
+			}
+		}
+		return current;
+	}
+
 	public String getConsumerKey() {
 		return consumerKey;
 	}
 
-	public boolean hasToken() {
+	public synchronized boolean hasToken() {
 		return token != null;
 	}
 
-	public String getToken() {
+	public synchronized String getToken() {
 		return token;
 	}
 
-	public void setToken(String token, String tokenSecret) {
+	public synchronized void setToken(String token, String tokenSecret) {
 		this.token = token;
 		this.tokenSecret = tokenSecret;
+		this.signer = new OAuthSigner(consumerKey, consumerSecret, token, tokenSecret);
+	}
+
+	private synchronized void writeObject(ObjectOutputStream out) throws IOException {
+		out.defaultWriteObject();
 	}
 }
@@ -0,0 +1,70 @@
+package com.belladati.sdk.impl;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+/**
+ * Derives URI templates from request paths by replacing IDs with
+ * placeholders, so that requests to the same endpoint can be grouped.
+ */
+class UriTemplates {
+
+	/** path segments that are part of the API rather than IDs */
+	private static final Set<String> KEYWORDS = new HashSet<String>(Arrays.asList("api", "oauth", "accessToken",
+		"requestToken", "reports", "dashboards", "dataSets", "dataSources", "views", "users", "import", "attributes",
+		"values", "comments", "thumbnail", "image", "executions", "schedule", "table", "data", "leftHeader", "topHeader",
+		"chart", "kpi", "text"));
+
+	/** path segments that are followed by an ID */
+	private static final Set<String> COLLECTIONS = new HashSet<String>(Arrays.asList("reports", "dashboards", "dataSets",
+		"dataSources", "views", "users", "import", "attributes"));
+
+	private UriTemplates() {}
+
+	/**
+	 * Returns the template for the given path.
+	 * 
+	 * @param path the request path relative to the server URL, may include a
+	 *            query string
+	 * @return the path without query and with IDs replaced by <tt>{id}</tt>,
+	 *         or by <tt>{code}</tt> for attribute codes
+	 */
+	static String of(String path) {
+		int query = path.indexOf('?');
+		if (query >= 0) {
+			path = path.substring(0, query);
+		}
+		String[] segments = path.split("/", -1);
+		StringBuilder sb = new StringBuilder(path.length());
+		String previous = null;
+		for (String segment : segments) {
+			if (previous != null) {
+				sb.append('/');
+			}
+			if (isVariable(previous, segment)) {
+				sb.append("attributes".equals(previous) ? "{code}" : "{id}");
+			} else {
+				sb.append(segment);
+			}
+			previous = segment;
+		}
+		return sb.toString();
+	}
+
+	private static boolean isVariable(String previous, String segment) {
+		if (segment.isEmpty() || KEYWORDS.contains(segment)) {
+			return false;
+		}
+		if (previous != null && COLLECTIONS.contains(previous)) {
+			return true;
+		}
+		// outside known endpoints, anything containing a digit looks like an ID
+		for (int i = 0; i < segment.length(); i++) {
+			if (Character.isDigit(segment.charAt(i))) {
+				return true;
+			}
+		}
+		return false;
+	}
+}
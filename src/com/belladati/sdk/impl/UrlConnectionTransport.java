@@ -0,0 +1,301 @@
+package com.belladati.sdk.impl;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpRetryException;
+import java.net.HttpURLConnection;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.security.GeneralSecurityException;
+import java.util.List;
+import java.util.Map;
+
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import com.belladati.httpclientandroidlib.Header;
+import com.belladati.httpclientandroidlib.HttpEntity;
+import com.belladati.httpclientandroidlib.HttpEntityEnclosingRequest;
+import com.belladati.httpclientandroidlib.HttpHeaders;
+import com.belladati.httpclientandroidlib.HttpVersion;
+import com.belladati.httpclientandroidlib.client.ClientProtocolException;
+import com.belladati.httpclientandroidlib.client.entity.GzipDecompressingEntity;
+import com.belladati.httpclientandroidlib.client.methods.CloseableHttpResponse;
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
+import com.belladati.httpclientandroidlib.client.utils.URIUtils;
+import com.belladati.httpclientandroidlib.concurrent.Cancellable;
+import com.belladati.httpclientandroidlib.conn.ssl.SSLContexts;
+import com.belladati.httpclientandroidlib.conn.ssl.TrustSelfSignedStrategy;
+import com.belladati.httpclientandroidlib.entity.BasicHttpEntity;
+import com.belladati.httpclientandroidlib.message.BasicHttpResponse;
+import com.belladati.httpclientandroidlib.protocol.HttpContext;
+import com.belladati.sdk.exception.InternalConfigurationException;
+import com.belladati.sdk.impl.RequestEvent.Phase;
+
+/**
+ * Lightweight transport using the platform's {@link HttpURLConnection}. It
+ * uses the platform's connection pool and TLS stack and doesn't load the
+ * bundled client's connection management, caching and execution classes,
+ * which makes the first request of a process considerably faster.
+ * <p>
+ * Compared to the default transport, there is no HTTP cache and no limit on
+ * concurrent connections, and pool metrics aren't available. Bytes
+ * transferred are counted without headers.
+ */
+class UrlConnectionTransport implements HttpTransport {
+
+	/** larger request bodies are streamed instead of being buffered */
+	private static final int MAX_BUFFERED_SIZE = 64 * 1024;
+
+	/** custom socket factory, <tt>null</tt> to use the platform default */
+	private final SSLSocketFactory sslSocketFactory;
+	private final int connectTimeout;
+	private final int socketTimeout;
+	private final boolean compressResponses;
+	private final ClientMetrics metrics;
+
+	/**
+	 * Creates a new transport.
+	 * 
+	 * @param trustSelfSigned <tt>true</tt> if the client should accept
+	 *            self-signed certificates
+	 * @param metrics collects the bytes transferred
+	 */
+	UrlConnectionTransport(boolean trustSelfSigned, ClientMetrics metrics) {
+		try {
+			this.sslSocketFactory = !trustSelfSigned ? null : SSLContexts.custom()
+				.loadTrustMaterial(null, new TrustSelfSignedStrategy()).build().getSocketFactory();
+		} catch (GeneralSecurityException e) {
+			throw new InternalConfigurationException("Failed to set up SSL context", e);
+		}
+		int globalTimeout = BellaDatiClient.readFromProperty("bdTimeout", 10000);
+		this.connectTimeout = BellaDatiClient.readFromProperty("bdConnectTimeout", globalTimeout);
+		this.socketTimeout = BellaDatiClient.readFromProperty("bdSocketTimeout", globalTimeout);
+		this.compressResponses = BellaDatiClient.readFromProperty("bdCompressResponses", true);
+		this.metrics = metrics;
+	}
+
+	@Override
+	public CloseableHttpResponse execute(HttpRequestBase request, HttpContext context) throws IOException {
+		HttpURLConnection connection = (HttpURLConnection) rewriteURI(request.getURI()).toURL().openConnection();
+		Exchange exchange = new Exchange(connection);
+		request.setCancellable(exchange);
+		if (request.isAborted()) {
+			throw new InterruptedIOException("Request aborted");
+		}
+		try {
+			prepare(connection, request);
+			HttpEntity entity = request instanceof HttpEntityEnclosingRequest ? ((HttpEntityEnclosingRequest) request)
+				.getEntity() : null;
+			if (entity != null) {
+				prepareEntity(connection, entity);
+			}
+
+			RequestTimer timer = RequestTimer.current();
+			long start = System.nanoTime();
+			connection.connect();
+			if (timer != null) {
+				timer.add(Phase.CONNECT, System.nanoTime() - start);
+			}
+			if (entity != null) {
+				OutputStream out = metrics.countTransferred(connection.getOutputStream());
+				try {
+					entity.writeTo(out);
+				} finally {
+					out.close();
+				}
+			}
+			boolean decompress = compressResponses && !request.containsHeader(HttpHeaders.ACCEPT_ENCODING);
+			return readResponse(connection, decompress, exchange);
+		} catch (IOException e) {
+			connection.disconnect();
+			if (request.isAborted()) {
+				throw aborted(e);
+			}
+			throw e;
+		} catch (RuntimeException e) {
+			// writing the entity may fail unchecked, don't return the half
+			// written connection to the pool; disconnecting while the
+			// response is parsed may fail unchecked, too
+			connection.disconnect();
+			if (request.isAborted()) {
+				throw aborted(e);
+			}
+			throw e;
+		}
+	}
+
+	/** Creates the exception thrown when a request was aborted. */
+	private static InterruptedIOException aborted(Exception cause) {
+		InterruptedIOException aborted = new InterruptedIOException("Request aborted");
+		aborted.initCause(cause);
+		return aborted;
+	}
+
+	/** Normalizes the URI the same way as the bundled client. */
+	private static URI rewriteURI(URI uri) throws IOException {
+		try {
+			return URIUtils.rewriteURI(uri);
+		} catch (URISyntaxException e) {
+			throw new ClientProtocolException("Invalid URI: " + uri, e);
+		}
+	}
+
+	/** Sets up the connection for the given request. */
+	private void prepare(HttpURLConnection connection, HttpRequestBase request) throws IOException {
+		if (sslSocketFactory != null && connection instanceof HttpsURLConnection) {
+			((HttpsURLConnection) connection).setSSLSocketFactory(sslSocketFactory);
+		}
+		connection.setRequestMethod(request.getMethod());
+		connection.setConnectTimeout(connectTimeout);
+		connection.setReadTimeout(socketTimeout);
+		connection.setUseCaches(false);
+		for (Header header : request.getAllHeaders()) {
+			connection.addRequestProperty(header.getName(), header.getValue());
+		}
+		if (compressResponses && !request.containsHeader(HttpHeaders.ACCEPT_ENCODING)) {
+			// decompressed by us, not every platform does it transparently
+			connection.setRequestProperty(HttpHeaders.ACCEPT_ENCODING, "gzip");
+		}
+	}
+
+	/** Sets up the connection to send the given entity. */
+	private void prepareEntity(HttpURLConnection connection, HttpEntity entity) {
+		connection.setDoOutput(true);
+		long length = entity.getContentLength();
+		if (length >= 0 && length <= MAX_BUFFERED_SIZE && entity.isRepeatable()) {
+			// buffered by the connection, can be resent if needed
+		} else if (length >= 0 && length <= Integer.MAX_VALUE) {
+			connection.setFixedLengthStreamingMode((int) length);
+		} else {
+			connection.setChunkedStreamingMode(0);
+		}
+		if (entity.getContentType() != null) {
+			connection.setRequestProperty(HttpHeaders.CONTENT_TYPE, entity.getContentType().getValue());
+		}
+		if (entity.getContentEncoding() != null) {
+			connection.setRequestProperty(HttpHeaders.CONTENT_ENCODING, entity.getContentEncoding().getValue());
+		}
+	}
+
+	/**
+	 * Reads the response status and headers and sets up the response entity
+	 * to be read from the connection.
+	 */
+	private CloseableHttpResponse readResponse(HttpURLConnection connection, boolean decompress, Exchange exchange)
+		throws IOException {
+		int statusCode;
+		String reason;
+		try {
+			statusCode = connection.getResponseCode();
+			reason = connection.getResponseMessage();
+		} catch (HttpRetryException e) {
+			// authentication challenge to a streamed request, there's no body
+			statusCode = e.responseCode();
+			reason = e.getReason();
+		}
+		if (statusCode < 0) {
+			throw new IOException("Invalid HTTP response");
+		}
+		Response response = new Response(statusCode, reason == null ? "" : reason, exchange);
+		for (Map.Entry<String, List<String>> header : connection.getHeaderFields().entrySet()) {
+			// the status line is included without a name
+			if (header.getKey() != null) {
+				for (String value : header.getValue()) {
+					response.addHeader(header.getKey(), value);
+				}
+			}
+		}
+
+		InputStream in;
+		try {
+			in = statusCode >= 400 ? connection.getErrorStream() : connection.getInputStream();
+		} catch (IOException e) {
+			in = null;
+		}
+		if (in == null) {
+			return response;
+		}
+		BasicHttpEntity entity = new BasicHttpEntity();
+		entity.setContent(metrics.countTransferred(in));
+		entity.setContentLength(contentLength(response));
+		entity.setContentType(response.getFirstHeader(HttpHeaders.CONTENT_TYPE));
+		Header encoding = response.getFirstHeader(HttpHeaders.CONTENT_ENCODING);
+		if (decompress && encoding != null && "gzip".equalsIgnoreCase(encoding.getValue().trim())) {
+			// we asked for compression, so we decompress
+			response.removeHeaders(HttpHeaders.CONTENT_ENCODING);
+			response.removeHeaders(HttpHeaders.CONTENT_LENGTH);
+			response.setEntity(new GzipDecompressingEntity(entity));
+		} else {
+			entity.setContentEncoding(encoding);
+			response.setEntity(entity);
+		}
+		exchange.in = in;
+		return response;
+	}
+
+	/** Returns the response's content length, or -1 if unknown. */
+	private static long contentLength(BasicHttpResponse response) {
+		Header header = response.getFirstHeader(HttpHeaders.CONTENT_LENGTH);
+		if (header != null) {
+			try {
+				return Long.parseLong(header.getValue().trim());
+			} catch (NumberFormatException e) {}
+		}
+		return -1;
+	}
+
+	@Override
+	public void close() {
+		// connections are pooled by the platform
+	}
+
+	/**
+	 * A request in progress. If aborted before the response is closed, the
+	 * connection is closed.
+	 */
+	private static class Exchange implements Cancellable {
+		private final HttpURLConnection connection;
+		private volatile InputStream in;
+		private volatile boolean closed;
+
+		Exchange(HttpURLConnection connection) {
+			this.connection = connection;
+		}
+
+		@Override
+		public boolean cancel() {
+			if (closed) {
+				// released after completion, the connection can be reused
+				return false;
+			}
+			connection.disconnect();
+			return true;
+		}
+
+		/** Closes the response, leaving the connection to the platform's pool. */
+		void close() throws IOException {
+			closed = true;
+			if (in != null) {
+				in.close();
+			}
+		}
+	}
+
+	/** Response read from a connection, releases it when closed. */
+	private static class Response extends BasicHttpResponse implements CloseableHttpResponse {
+		private final Exchange exchange;
+
+		Response(int statusCode, String reason, Exchange exchange) {
+			super(HttpVersion.HTTP_1_1, statusCode, reason);
+			this.exchange = exchange;
+		}
+
+		@Override
+		public void close() throws IOException {
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,293 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.dashboard.Dashboard;
+import com.belladati.sdk.dashboard.Dashlet;
+import com.belladati.sdk.exception.server.NotFoundException;
+import com.belladati.sdk.report.Report;
+import com.belladati.sdk.test.TestRequestHandler;
+import com.belladati.sdk.view.View;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Tests the asynchronous service facade.
+ */
+@Test
+public class AsyncServiceTest extends SDKTest {
+
+	private final String id = "123";
+
+	private AsyncBellaDatiService async;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupAsync() {
+		async = new AsyncBellaDatiService(service, AsyncBellaDatiService.createExecutor(4));
+	}
+
+	@AfterMethod(alwaysRun = true)
+	protected void shutdownAsync() {
+		async.shutdown();
+	}
+
+	/** a report is loaded asynchronously */
+	public void loadReport() throws Exception {
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null).toString());
+
+		Report report = async.loadReport(id).get(5, TimeUnit.SECONDS);
+
+		assertEquals(report.getId(), id);
+		server.assertRequestUris("/api/reports/" + id);
+	}
+
+	/** callbacks are notified of success */
+	public void callbackSuccess() throws Exception {
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null).toString());
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Report> result = new AtomicReference<Report>();
+
+		async.loadReport(id).addCallback(new BellaDatiCallback<Report>() {
+			@Override
+			public void onSuccess(Report report) {
+				result.set(report);
+				latch.countDown();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertEquals(result.get().getId(), id);
+	}
+
+	/** callbacks are notified of failures */
+	public void callbackFailure() throws Exception {
+		server.registerError("/api/reports/" + id, 404, "");
+		final CountDownLatch latch = new CountDownLatch(1);
+		final AtomicReference<Throwable> result = new AtomicReference<Throwable>();
+
+		async.loadReport(id).addCallback(new BellaDatiCallback<Report>() {
+			@Override
+			public void onSuccess(Report report) {
+				latch.countDown();
+			}
+
+			@Override
+			public void onFailure(Throwable t) {
+				result.set(t);
+				latch.countDown();
+			}
+		});
+
+		assertTrue(latch.await(5, TimeUnit.SECONDS));
+		assertTrue(result.get() instanceof NotFoundException, "Unexpected failure " + result.get());
+	}
+
+	/** callbacks added after completion are notified immediately */
+	public void callbackAfterCompletion() throws Exception {
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null).toString());
+		BellaDatiFuture<Report> future = async.loadReport(id);
+		future.get(5, TimeUnit.SECONDS);
+
+		final List<Report> result = new ArrayList<Report>();
+		future.addCallback(new BellaDatiCallback<Report>() {
+			@Override
+			public void onSuccess(Report report) {
+				result.add(report);
+			}
+
+			@Override
+			public void onFailure(Throwable t) {}
+		});
+
+		assertEquals(result.size(), 1);
+	}
+
+	/** a dashboard can fan out to load all its views */
+	public void fanOutToViews() throws Exception {
+		ObjectNode dashboard = builder.buildDashboardNode(id, "name", null);
+		ArrayNode dashlets = dashboard.putArray("dashlets");
+		for (int i = 0; i < 3; i++) {
+			ObjectNode dashlet = dashlets.addObject();
+			dashlet.put("type", "viewReport");
+			dashlet.put("canAccessViewReport", true);
+			dashlet.put("viewReport", builder.buildViewNode("view" + i, "view", "chart"));
+			server.register("/api/reports/views/view" + i + "/chart", "{\"view\":" + i + "}");
+		}
+		server.register("/api/dashboards/" + id, dashboard.toString());
+
+		List<Object> contents = async.loadDashboard(id)
+			.thenCompose(new BellaDatiFuture.Continuation<Dashboard, BellaDatiFuture<List<Object>>>() {
+				@Override
+				public BellaDatiFuture<List<Object>> apply(Dashboard input) {
+					List<BellaDatiFuture<Object>> views = new ArrayList<BellaDatiFuture<Object>>();
+					for (Dashlet dashlet : input.getDashlets()) {
+						View view = (View) dashlet.getContent();
+						views.add(async.loadViewContent(view.getId(), view.getType()));
+					}
+					return BellaDatiFuture.allOf(views);
+				}
+			}).get(5, TimeUnit.SECONDS);
+
+		assertEquals(contents.size(), 3);
+		for (int i = 0; i < 3; i++) {
+			assertEquals(((JsonNode) contents.get(i)).get("view").asInt(), i);
+		}
+	}
+
+	/** failures propagate through chained futures */
+	public void chainedFailure() throws Exception {
+		server.registerError("/api/reports/" + id, 404, "");
+
+		BellaDatiFuture<String> chained = async.loadReport(id).then(new BellaDatiFuture.Continuation<Report, String>() {
+			@Override
+			public String apply(Report input) {
+				return input.getName();
+			}
+		});
+		try {
+			chained.get(5, TimeUnit.SECONDS);
+			fail("No exception thrown");
+		} catch (ExecutionException e) {
+			assertTrue(e.getCause() instanceof NotFoundException, "Unexpected cause " + e.getCause());
+		}
+	}
+
+	/** queued calls can be cancelled before they are sent */
+	public void cancelQueued() throws Exception {
+		final CountDownLatch block = registerBlocking();
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null).toString());
+		AsyncBellaDatiService single = new AsyncBellaDatiService(service, AsyncBellaDatiService.createExecutor(1));
+		try {
+			BellaDatiFuture<Report> blocking = single.loadReport("blocking");
+			BellaDatiFuture<Report> queued = single.loadReport(id);
+
+			assertTrue(queued.cancel(false));
+			block.countDown();
+			blocking.get(5, TimeUnit.SECONDS);
+
+			try {
+				queued.get();
+				fail("No exception thrown");
+			} catch (CancellationException e) {
+				// expected
+			}
+			server.assertRequestUris("/api/reports/blocking");
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	/** cancelling a chained future cancels the call it depends on */
+	public void cancelChained() throws Exception {
+		final CountDownLatch block = registerBlocking();
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null).toString());
+		AsyncBellaDatiService single = new AsyncBellaDatiService(service, AsyncBellaDatiService.createExecutor(1));
+		try {
+			BellaDatiFuture<Report> blocking = single.loadReport("blocking");
+			BellaDatiFuture<Report> queued = single.loadReport(id);
+			BellaDatiFuture<String> chained = queued.then(new BellaDatiFuture.Continuation<Report, String>() {
+				@Override
+				public String apply(Report input) {
+					return input.getName();
+				}
+			});
+
+			assertTrue(chained.cancel(false));
+			assertTrue(queued.isCancelled());
+			block.countDown();
+			blocking.get(5, TimeUnit.SECONDS);
+
+			server.assertRequestUris("/api/reports/blocking");
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	/** cancelling a composed future cancels the future of the continuation */
+	public void cancelComposed() throws Exception {
+		final CountDownLatch block = registerBlocking();
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null).toString());
+		final AsyncBellaDatiService single = new AsyncBellaDatiService(service,
+			AsyncBellaDatiService.createExecutor(1));
+		final AtomicReference<BellaDatiFuture<Report>> next = new AtomicReference<BellaDatiFuture<Report>>();
+		final CountDownLatch applied = new CountDownLatch(1);
+		try {
+			BellaDatiFuture<Report> blocking = single.loadReport("blocking");
+			BellaDatiFuture<Report> composed = async.loadReport(id).thenCompose(
+				new BellaDatiFuture.Continuation<Report, BellaDatiFuture<Report>>() {
+					@Override
+					public BellaDatiFuture<Report> apply(Report input) {
+						next.set(single.loadReport("next"));
+						applied.countDown();
+						return next.get();
+					}
+				});
+			assertTrue(applied.await(5, TimeUnit.SECONDS));
+
+			assertTrue(composed.cancel(false));
+			// the continuation may not have returned yet, cancelling its future once it does
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (!next.get().isCancelled()) {
+				assertTrue(System.nanoTime() < deadline, "Future of the continuation not cancelled");
+				Thread.sleep(5);
+			}
+			block.countDown();
+			blocking.get(5, TimeUnit.SECONDS);
+
+			assertFalse(server.getRequestUris().contains("/api/reports/next"), "Requested " + server.getRequestUris());
+		} finally {
+			single.shutdown();
+		}
+	}
+
+	/** combining no futures completes immediately */
+	public void allOfEmpty() throws Exception {
+		assertEquals(BellaDatiFuture.allOf(new ArrayList<BellaDatiFuture<Object>>()).get(), new ArrayList<Object>());
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void executorWithoutThreads() {
+		AsyncBellaDatiService.createExecutor(0);
+	}
+
+	/** Registers a report that isn't returned until the returned latch is released. */
+	private CountDownLatch registerBlocking() {
+		final CountDownLatch block = new CountDownLatch(1);
+		server.register("/api/reports/blocking", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				try {
+					block.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				holder.response.setEntity(new StringEntity(builder.buildReportNode("blocking", "name", "", "owner", null)
+					.toString()));
+			}
+		});
+		return block;
+	}
+}
@@ -0,0 +1,314 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.HttpEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.dataset.data.DataTable;
+import com.belladati.sdk.dataset.data.OverwritePolicy;
+import com.belladati.sdk.exception.dataset.data.UnknownServerColumnException;
+import com.belladati.sdk.test.TestRequestHandler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Tests uploading data in concurrent batches.
+ */
+@Test
+public class BatchedUploadTest extends SDKTest {
+
+	private final String id = "id";
+	private final String column = "column";
+	private final String url = "/api/import/" + id;
+
+	/** uploaded batches, in the order they arrived */
+	private final List<JsonNode> batches = new CopyOnWriteArrayList<JsonNode>();
+
+	private final AtomicInteger active = new AtomicInteger();
+	private final AtomicInteger maxActive = new AtomicInteger();
+
+	/** number of the row that makes the server fail, or -1 */
+	private volatile int failingRow;
+
+	/** how long the server takes for each batch */
+	private volatile long delay;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupHandler() {
+		batches.clear();
+		active.set(0);
+		maxActive.set(0);
+		failingRow = -1;
+		delay = 0;
+		server.register(url, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				int current = active.incrementAndGet();
+				try {
+					maxActive.set(Math.max(maxActive.get(), current));
+					HttpEntity entity = ((BasicHttpEntityEnclosingRequest) holder.request).getEntity();
+					JsonNode json = new ObjectMapper().readTree(entity.getContent());
+					batches.add(json);
+					Thread.sleep(delay);
+					for (JsonNode row : json.get("data")) {
+						if (row.get(0).asText().equals("row " + failingRow)) {
+							holder.response.setStatusCode(400);
+							holder.response.setEntity(new StringEntity("Indicator/attribute '" + column + "' doesn't exist"));
+						}
+					}
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				} finally {
+					active.decrementAndGet();
+				}
+			}
+		});
+	}
+
+	/** rows are split into batches, with the overwrite policy only in the first */
+	public void splitIntoBatches() {
+		int uploaded = new BatchedDataUpload(service, id).setBatchSize(10).upload(
+			buildTable(25).setOverwritePolicy(OverwritePolicy.deleteAll()));
+
+		assertEquals(uploaded, 25);
+		assertEquals(batches.size(), 3);
+		assertEquals(batches.get(0).get("overwrite"), OverwritePolicy.deleteAll().toJson());
+		assertEquals(batches.get(0).get("data").size(), 10);
+		assertEquals(batches.get(0).get("columns"), buildTable(0).toJson().get("columns"));
+		Set<String> rows = new TreeSet<String>();
+		for (JsonNode batch : batches.subList(1, 3)) {
+			assertEquals(batch.get("overwrite"), OverwritePolicy.deleteNone().toJson());
+		}
+		for (JsonNode batch : batches) {
+			for (JsonNode row : batch.get("data")) {
+				rows.add(row.get(0).asText());
+			}
+		}
+		assertEquals(rows.size(), 25);
+	}
+
+	/** a single batch is uploaded without starting threads */
+	public void singleBatch() {
+		assertEquals(new BatchedDataUpload(service, id).upload(buildTable(5)), 5);
+
+		assertEquals(batches.size(), 1);
+	}
+
+	/** nothing is uploaded without rows */
+	public void noRows() {
+		assertEquals(new BatchedDataUpload(service, id).upload(buildTable(0)), 0);
+
+		server.assertRequestUris();
+	}
+
+	/** batches are uploaded concurrently up to the given limit */
+	public void boundedParallelism() {
+		delay = 50;
+		new BatchedDataUpload(service, id).setBatchSize(1).setParallelism(3).upload(buildTable(10));
+
+		assertEquals(batches.size(), 10);
+		assertEquals(maxActive.get(), 3);
+	}
+
+	/** the first batch is complete before other batches start */
+	public void firstBatchAlone() {
+		delay = 50;
+		final List<Integer> activeAtStart = new CopyOnWriteArrayList<Integer>();
+		new BatchedDataUpload(service, id).setBatchSize(1).setParallelism(4)
+			.setProgressListener(new BatchedDataUpload.ProgressListener() {
+				@Override
+				public void batchCompleted(BatchedDataUpload.BatchProgress progress) {
+					if (progress.getBatch() == 0) {
+						activeAtStart.add(active.get());
+					}
+				}
+			}).upload(buildTable(5));
+
+		assertEquals(activeAtStart, Collections.singletonList(0));
+		assertTrue(maxActive.get() > 1, "No concurrent batches");
+	}
+
+	/** the listener is notified of each batch */
+	public void progress() {
+		final List<BatchedDataUpload.BatchProgress> progress = new CopyOnWriteArrayList<BatchedDataUpload.BatchProgress>();
+		new BatchedDataUpload(service, id).setBatchSize(4).setParallelism(2)
+			.setProgressListener(new BatchedDataUpload.ProgressListener() {
+				@Override
+				public void batchCompleted(BatchedDataUpload.BatchProgress batch) {
+					progress.add(batch);
+				}
+			}).upload(buildTable(10));
+
+		assertEquals(progress.size(), 3);
+		assertEquals(progress.get(0).getBatch(), 0);
+		assertEquals(progress.get(0).getUploadedRows(), 4);
+		int rows = 0;
+		List<Integer> indexes = new ArrayList<Integer>();
+		for (BatchedDataUpload.BatchProgress batch : progress) {
+			assertNull(batch.getFailure());
+			rows += batch.getBatchRows();
+			indexes.add(batch.getBatch());
+		}
+		Collections.sort(indexes);
+		assertEquals(rows, 10);
+		assertEquals(indexes.toString(), "[0, 1, 2]");
+		BatchedDataUpload.BatchProgress last = progress.get(2);
+		assertEquals(last.getUploadedRows(), 10);
+		assertEquals(last.getCompletedBatches(), 3);
+		assertTrue(last.getRowsPerSecond() > 0);
+	}
+
+	/** a failing batch stops the upload and is reported */
+	public void batchFailure() {
+		failingRow = 2;
+		final List<BatchedDataUpload.BatchProgress> progress = new CopyOnWriteArrayList<BatchedDataUpload.BatchProgress>();
+		try {
+			new BatchedDataUpload(service, id).setBatchSize(1).setParallelism(1)
+				.setProgressListener(new BatchedDataUpload.ProgressListener() {
+					@Override
+					public void batchCompleted(BatchedDataUpload.BatchProgress batch) {
+						progress.add(batch);
+					}
+				}).upload(buildTable(10));
+			fail("No exception thrown");
+		} catch (UnknownServerColumnException e) {
+			assertEquals(e.getColumn(), column);
+		}
+
+		// batches after the failure aren't sent
+		assertEquals(batches.size(), 3);
+		assertEquals(progress.size(), 3);
+		assertNotNull(progress.get(2).getFailure());
+		assertEquals(progress.get(2).getUploadedRows(), 2);
+	}
+
+	/** if reading rows fails, batches in progress are complete before returning */
+	public void rowFailure() {
+		delay = 100;
+		final List<String> row = Collections.singletonList("row");
+		Iterator<List<String>> rows = new Iterator<List<String>>() {
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public List<String> next() {
+				if (index++ == 3) {
+					throw new IllegalStateException("broken row");
+				}
+				return row;
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		try {
+			new BatchedDataUpload(service, id).setBatchSize(1).setParallelism(2)
+				.upload(buildTable(0).getColumns(), null, rows);
+			fail("No exception thrown");
+		} catch (IllegalStateException e) {}
+
+		assertEquals(batches.size(), 3);
+		assertEquals(active.get(), 0);
+	}
+
+	/** a batch failing while rows are read wins over a later reading failure */
+	public void batchFailureBeforeRowFailure() {
+		failingRow = 1;
+		final CountDownLatch failed = new CountDownLatch(1);
+		Iterator<List<String>> rows = new Iterator<List<String>>() {
+			private int index;
+
+			@Override
+			public boolean hasNext() {
+				return true;
+			}
+
+			@Override
+			public List<String> next() {
+				if (index == 2) {
+					// fail while the second batch is failing
+					try {
+						failed.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					throw new IllegalStateException("broken row");
+				}
+				return Collections.singletonList("row " + index++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+		try {
+			new BatchedDataUpload(service, id).setBatchSize(1).setParallelism(2)
+				.setProgressListener(new BatchedDataUpload.ProgressListener() {
+					@Override
+					public void batchCompleted(BatchedDataUpload.BatchProgress batch) {
+						if (batch.getFailure() != null) {
+							failed.countDown();
+						}
+					}
+				}).upload(buildTable(0).getColumns(), null, rows);
+			fail("No exception thrown");
+		} catch (UnknownServerColumnException e) {
+			assertEquals(e.getColumn(), column);
+		}
+
+		assertEquals(batches.size(), 2);
+		assertEquals(active.get(), 0);
+	}
+
+	/** if the first batch fails, nothing else is sent */
+	public void firstBatchFailure() {
+		failingRow = 0;
+		try {
+			new BatchedDataUpload(service, id).setBatchSize(2).upload(buildTable(10));
+			fail("No exception thrown");
+		} catch (UnknownServerColumnException e) {}
+
+		assertEquals(batches.size(), 1);
+	}
+
+	/** batch size must be positive */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void invalidBatchSize() {
+		new BatchedDataUpload(service, id).setBatchSize(0);
+	}
+
+	private DataTable buildTable(int rows) {
+		DataTable table = DataTable.createBasicInstance(column);
+		for (int i = 0; i < rows; i++) {
+			table.createRow("row " + i);
+		}
+		return table;
+	}
+}
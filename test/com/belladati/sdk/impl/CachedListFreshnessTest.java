@@ -0,0 +1,292 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.test.TestRequestHandler;
+import com.belladati.sdk.util.CachedList;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Tests refreshing {@link CachedList}s once their elements are stale.
+ */
+@Test
+public class CachedListFreshnessTest extends SDKTest {
+
+	private final String uri = "/list";
+	private final String field = "field";
+
+	private CachedList<Item> list;
+	/** ID of the element on the server */
+	private volatile String serverId;
+	/** HTTP status the server responds with */
+	private volatile int status;
+	/** released to let the server respond */
+	private volatile CountDownLatch release;
+	/** number of requests received by the server */
+	private AtomicInteger requests;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupList() {
+		final AtomicInteger received = new AtomicInteger();
+		requests = received;
+		serverId = "id1";
+		status = 200;
+		release = new CountDownLatch(0);
+		server.register(uri, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				received.incrementAndGet();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				holder.response.setStatusCode(status);
+				holder.response.setEntity(new StringEntity(buildResponse(serverId).toString()));
+			}
+		});
+		list = createList();
+	}
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		release.countDown();
+		System.clearProperty("bdCachedListTtl");
+		System.clearProperty("bdCachedListMaxStale");
+	}
+
+	/** without a TTL, elements are kept until loaded explicitly */
+	public void noTtlByDefault() throws InterruptedException {
+		list.load();
+		Thread.sleep(20);
+
+		list.get();
+		list.loadFirstTime();
+
+		assertFalse(CachedLists.isStale(list));
+		assertEquals(requests.get(), 1);
+	}
+
+	/** elements within the TTL are returned without loading */
+	public void fresh() {
+		CachedLists.setFreshness(list, 10, 0, TimeUnit.SECONDS);
+		list.load();
+		serverId = "id2";
+
+		assertEquals(list.get(), Arrays.asList(new Item("id1")));
+		list.loadFirstTime();
+
+		assertFalse(CachedLists.isStale(list));
+		assertEquals(requests.get(), 1);
+	}
+
+	/** stale elements are returned while they're refreshed in the background */
+	public void staleWhileRefreshing() throws InterruptedException {
+		CachedLists.setFreshness(list, 20, 10000, TimeUnit.MILLISECONDS);
+		list.load();
+		serverId = "id2";
+		release = new CountDownLatch(1);
+		Thread.sleep(40);
+		assertTrue(CachedLists.isStale(list));
+
+		assertEquals(list.get(), Arrays.asList(new Item("id1")));
+		awaitRequests(2);
+		// only one refresh at a time, the old elements are still available
+		assertEquals(list.get(), Arrays.asList(new Item("id1")));
+		list.loadFirstTime();
+		assertEquals(list.toList(), Arrays.asList(new Item("id1")));
+		release.countDown();
+
+		awaitItems("id2");
+		assertEquals(requests.get(), 2);
+	}
+
+	/** elements beyond the maximum stale time are loaded before returning */
+	public void expired() throws InterruptedException {
+		CachedLists.setFreshness(list, 20, 20, TimeUnit.MILLISECONDS);
+		list.load();
+		serverId = "id2";
+		Thread.sleep(60);
+
+		list.loadFirstTime();
+
+		assertEquals(list.toString(), Arrays.asList(new Item("id2")).toString());
+		assertEquals(requests.get(), 2);
+	}
+
+	/** expired elements aren't loaded again if a refresh loaded them while waiting */
+	public void expiredWhileRefreshing() throws InterruptedException {
+		CachedLists.setFreshness(list, 20, 20, TimeUnit.MILLISECONDS);
+		list.load();
+		serverId = "id2";
+		release = new CountDownLatch(1);
+		Thread.sleep(60);
+		list.get();
+		awaitRequests(2);
+
+		Thread loader = new Thread() {
+			@Override
+			public void run() {
+				list.loadFirstTime();
+			}
+		};
+		loader.start();
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (loader.getState() != Thread.State.BLOCKED) {
+			assertTrue(System.nanoTime() < deadline, "Not waiting for the refresh, was " + loader.getState());
+			Thread.sleep(5);
+		}
+		release.countDown();
+		loader.join(5000);
+
+		assertEquals(list.toString(), Arrays.asList(new Item("id2")).toString());
+		assertEquals(requests.get(), 2);
+	}
+
+	/** failed refreshes keep the previous elements and are tried again */
+	public void refreshFailure() throws InterruptedException {
+		CachedLists.setFreshness(list, 20, 10000, TimeUnit.MILLISECONDS);
+		list.load();
+		serverId = "id2";
+		status = 500;
+		Thread.sleep(40);
+
+		list.get();
+		awaitRequests(2);
+		Thread.sleep(20);
+		assertEquals(list.get(), Arrays.asList(new Item("id1")));
+
+		status = 200;
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (!list.get().equals(Arrays.asList(new Item("id2")))) {
+			assertTrue(System.nanoTime() < deadline, "Not refreshed, was " + list);
+			Thread.sleep(5);
+		}
+	}
+
+	/** lists returned earlier aren't changed by loading */
+	public void snapshotUnchanged() {
+		list.load();
+		List<Item> before = list.get();
+		serverId = "id2";
+
+		list.load();
+
+		assertEquals(before, Arrays.asList(new Item("id1")));
+		assertEquals(list.get(), Arrays.asList(new Item("id2")));
+	}
+
+	/** readers see the previous elements while loading */
+	public void previousElementsWhileLoading() throws InterruptedException {
+		list.load();
+		serverId = "id2";
+		release = new CountDownLatch(1);
+		Thread loader = new Thread() {
+			@Override
+			public void run() {
+				list.load();
+			}
+		};
+		loader.start();
+		awaitRequests(2);
+
+		assertEquals(list.get(), Arrays.asList(new Item("id1")));
+		release.countDown();
+		loader.join(5000);
+		assertEquals(list.get(), Arrays.asList(new Item("id2")));
+	}
+
+	/** system properties set the default freshness of new lists */
+	public void defaultFromProperties() throws InterruptedException {
+		System.setProperty("bdCachedListTtl", "20");
+		System.setProperty("bdCachedListMaxStale", "10000");
+		list = createList();
+		list.load();
+		serverId = "id2";
+		Thread.sleep(40);
+
+		assertTrue(CachedLists.isStale(list));
+		list.loadFirstTime();
+		awaitItems("id2");
+	}
+
+	/** a negative TTL disables refreshing again */
+	public void disable() throws InterruptedException {
+		CachedLists.setFreshness(list, 20, 0, TimeUnit.MILLISECONDS);
+		CachedLists.setFreshness(list, -1, 0, TimeUnit.MILLISECONDS);
+		list.load();
+		Thread.sleep(40);
+
+		list.loadFirstTime();
+
+		assertFalse(CachedLists.isStale(list));
+		assertEquals(requests.get(), 1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void maxStaleNegative() {
+		CachedLists.setFreshness(list, 10, -1, TimeUnit.SECONDS);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void foreignList() {
+		CachedLists.setFreshness(null, 10, 0, TimeUnit.SECONDS);
+	}
+
+	private CachedList<Item> createList() {
+		return new CachedListImpl<Item>(service, uri, field) {
+			@Override
+			protected Item parse(BellaDatiServiceImpl service, JsonNode node) {
+				return new Item(node.get("id").asText());
+			}
+		};
+	}
+
+	/** Waits until the server has received the given number of requests. */
+	private void awaitRequests(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (requests.get() < count) {
+			assertTrue(System.nanoTime() < deadline, "Expected " + count + " requests, was " + requests.get());
+			// keeps trying to refresh if a refresh failed
+			list.get();
+			Thread.sleep(5);
+		}
+	}
+
+	/** Waits until the list contains an element with the given ID. */
+	private void awaitItems(String id) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		String expected = Arrays.asList(new Item(id)).toString();
+		// doesn't trigger refreshing, unlike get()
+		while (!list.toString().equals(expected)) {
+			assertTrue(System.nanoTime() < deadline, "Expected " + id + ", was " + list);
+			Thread.sleep(5);
+		}
+	}
+
+	private JsonNode buildResponse(String id) {
+		ObjectMapper mapper = new ObjectMapper();
+		ObjectNode node = mapper.createObjectNode();
+		ArrayNode items = mapper.createArrayNode();
+		items.add(mapper.createObjectNode().put("id", id));
+		node.put(field, items);
+		return node;
+	}
+}
@@ -0,0 +1,193 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.zip.GZIPInputStream;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.message.BasicHttpEntityEnclosingRequest;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.httpclientandroidlib.message.BasicNameValuePair;
+import com.belladati.sdk.dataset.data.DataTable;
+import com.belladati.sdk.test.TestRequestHandler;
+
+/**
+ * Tests compressing request and response bodies.
+ */
+@Test
+public class CompressionTest extends SDKTest {
+
+	private final AtomicReference<String> received = new AtomicReference<String>();
+	private final AtomicReference<String> contentEncoding = new AtomicReference<String>();
+	private final AtomicReference<String> authorization = new AtomicReference<String>();
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		System.clearProperty("bdCompressUploads");
+		System.clearProperty("bdCompressResponses");
+	}
+
+	/** responses are compressed if the client accepts it */
+	public void compressedResponse() {
+		final String json = buildJson();
+		registerCompressing("/api/reports/views/123/chart", json);
+
+		assertEquals(service.client.getJson("api/reports/views/123/chart", service.tokenHolder).get("rows").size(), 1000);
+
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		assertEquals(metrics.getContentBytesReceived(), json.length());
+		assertTrue(metrics.getBytesReceived() * 5 < json.length(), "Received " + metrics.getBytesReceived());
+	}
+
+	/** compressed responses can be disabled */
+	public void uncompressedResponse() {
+		System.setProperty("bdCompressResponses", "false");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		final String json = buildJson();
+		registerCompressing("/api/reports/views/123/chart", json);
+
+		assertEquals(client.getJson("api/reports/views/123/chart", service.tokenHolder).get("rows").size(), 1000);
+
+		BellaDatiMetrics metrics = client.getMetrics();
+		assertEquals(metrics.getContentBytesReceived(), json.length());
+		assertTrue(metrics.getBytesReceived() > json.length(), "Received " + metrics.getBytesReceived());
+	}
+
+	/** uploads aren't compressed by default */
+	public void uncompressedUpload() throws IOException {
+		registerReceiving("/api/import/123");
+		String json = buildJson();
+
+		service.client.postData("api/import/123", service.tokenHolder, json.getBytes("UTF-8"));
+
+		assertNull(contentEncoding.get());
+		assertEquals(received.get(), json);
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		assertEquals(metrics.getContentBytesSent(), json.length());
+		assertTrue(metrics.getBytesSent() > json.length(), "Sent " + metrics.getBytesSent());
+	}
+
+	/** uploads are compressed if enabled */
+	public void compressedUpload() throws IOException {
+		System.setProperty("bdCompressUploads", "true");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		registerReceiving("/api/import/123");
+		String json = buildJson();
+
+		client.postData("api/import/123", service.tokenHolder, json.getBytes("UTF-8"));
+
+		assertEquals(contentEncoding.get(), "gzip");
+		assertEquals(received.get(), json);
+		BellaDatiMetrics metrics = client.getMetrics();
+		assertEquals(metrics.getContentBytesSent(), json.length());
+		assertTrue(metrics.getBytesSent() * 5 < json.length(), "Sent " + metrics.getBytesSent());
+	}
+
+	/** streamed data imports are compressed if enabled */
+	public void compressedDataUpload() throws IOException {
+		System.setProperty("bdCompressUploads", "true");
+		BellaDatiServiceImpl service = new BellaDatiServiceImpl(new BellaDatiClient(server.getHttpURL(), false),
+			this.service.tokenHolder);
+		registerReceiving("/api/import/123");
+		DataTable table = DataTable.createBasicInstance("column");
+		for (int i = 0; i < 1000; i++) {
+			table.createRow("value " + i);
+		}
+
+		service.uploadData("123", table);
+
+		assertEquals(contentEncoding.get(), "gzip");
+		assertEquals(received.get(), table.toJson().toString());
+	}
+
+	/** small uploads aren't compressed */
+	public void smallUpload() throws IOException {
+		System.setProperty("bdCompressUploads", "true");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		registerReceiving("/api/import/123");
+
+		client.postData("api/import/123", service.tokenHolder, "{}".getBytes("UTF-8"));
+
+		assertNull(contentEncoding.get());
+		assertEquals(received.get(), "{}");
+	}
+
+	/** forms aren't compressed, they're part of the signature */
+	public void formNotCompressed() {
+		System.setProperty("bdCompressUploads", "true");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		registerReceiving("/api/reports/123/comments");
+		char[] text = new char[2000];
+		Arrays.fill(text, 'a');
+
+		client.post("api/reports/123/comments", service.tokenHolder,
+			Arrays.asList(new BasicNameValuePair("text", new String(text))));
+
+		assertNull(contentEncoding.get());
+		assertEquals(received.get(), "text=" + new String(text));
+		assertTrue(authorization.get().startsWith("OAuth "), authorization.get());
+	}
+
+	/** Builds a large, repetitive JSON object. */
+	private String buildJson() {
+		StringBuilder sb = new StringBuilder("{\"rows\":[");
+		for (int i = 0; i < 1000; i++) {
+			sb.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append(",\"name\":\"some row\"}");
+		}
+		return sb.append("]}").toString();
+	}
+
+	/** Responds with the given content, compressed if the client accepts it. */
+	private void registerCompressing(String uri, final String content) {
+		server.register(uri, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				Header accept = holder.request.getFirstHeader("Accept-Encoding");
+				StringEntity entity = new StringEntity(content);
+				if (accept != null && accept.getValue().contains("gzip")) {
+					holder.response.setEntity(new GzipCompressingEntity(entity));
+				} else {
+					holder.response.setEntity(entity);
+				}
+			}
+		});
+	}
+
+	/** Stores the request body received, decompressing it if needed. */
+	private void registerReceiving(String uri) {
+		received.set(null);
+		contentEncoding.set(null);
+		server.register(uri, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				HttpEntity entity = ((BasicHttpEntityEnclosingRequest) holder.request).getEntity();
+				authorization.set(holder.request.getFirstHeader("Authorization").getValue());
+				Header encoding = holder.request.getFirstHeader("Content-Encoding");
+				InputStream in = entity.getContent();
+				if (encoding != null) {
+					contentEncoding.set(encoding.getValue());
+					in = new GZIPInputStream(in);
+				}
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[8192];
+				int len;
+				while ((len = in.read(buffer)) != -1) {
+					out.write(buffer, 0, len);
+				}
+				received.set(new String(out.toByteArray(), "UTF-8"));
+			}
+		});
+	}
+}
@@ -5,13 +5,22 @@ import static org.testng.Assert.fail;
 
 import java.io.ByteArrayOutputStream;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.apache.http.HttpEntity;
 import org.apache.http.message.BasicHttpEntityEnclosingRequest;
 import org.testng.annotations.Test;
 
 import com.belladati.sdk.dataset.DataSet;
+import com.belladati.sdk.dataset.data.DataColumn;
 import com.belladati.sdk.dataset.data.DataTable;
+import com.belladati.sdk.dataset.data.OverwritePolicy;
+import com.belladati.sdk.exception.dataset.data.TooManyColumnsException;
 import com.belladati.sdk.exception.dataset.data.UnknownServerColumnException;
 import com.belladati.sdk.exception.server.UnexpectedResponseException;
 import com.belladati.sdk.test.TestRequestHandler;
@@ -97,4 +106,111 @@ public class DataImportTest extends SDKTest {
 
 		service.uploadData(id, DataTable.createBasicInstance(column).createRow("content"));
 	}
+
+	/** data tables are streamed with chunked encoding */
+	public void uploadChunked() {
+		server.register(url, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				assertEquals(holder.request.getFirstHeader("Transfer-Encoding").getValue(), "chunked");
+			}
+		});
+
+		service.uploadData(id, DataTable.createBasicInstance(column).createRow("content"));
+
+		server.assertRequestUris(url);
+	}
+
+	/** rows from an iterator are sent like a data table */
+	public void uploadRows() {
+		final DataTable table = DataTable.createBasicInstance(column, "other").createRow("a", "b").createRow("c")
+			.setOverwritePolicy(OverwritePolicy.byAttributes(column));
+		List<List<String>> rows = new ArrayList<List<String>>();
+		rows.add(Arrays.asList("a", "b"));
+		rows.add(Arrays.asList("c"));
+		registerExpected(table.toJson());
+
+		DataUpload.uploadData(service, id, table.getColumns(), OverwritePolicy.byAttributes(column), rows.iterator());
+
+		server.assertRequestUris(url);
+	}
+
+	/** rows are read while they're sent */
+	public void uploadManyRows() {
+		final int count = 100000;
+		final AtomicInteger received = new AtomicInteger();
+		server.register(url, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				HttpEntity entity = ((BasicHttpEntityEnclosingRequest) holder.request).getEntity();
+				JsonNode json = new ObjectMapper().readTree(entity.getContent());
+				received.set(json.get("data").size());
+				assertEquals(json.get("data").get(count - 1).get(0).asText(), "row " + (count - 1));
+				assertEquals(json.get("overwrite"), new ObjectMapper().createObjectNode());
+			}
+		});
+
+		DataUpload.uploadData(service, id, Arrays.asList(new DataColumn(column)), null, new Iterator<List<String>>() {
+			private int next = 0;
+
+			@Override
+			public boolean hasNext() {
+				return next < count;
+			}
+
+			@Override
+			public List<String> next() {
+				return Collections.singletonList("row " + next++);
+			}
+
+			@Override
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		});
+
+		assertEquals(received.get(), count);
+	}
+
+	/** nothing happens when uploading no rows */
+	public void uploadNoRows() {
+		DataUpload.uploadData(service, id, Arrays.asList(new DataColumn(column)), null,
+			Collections.<List<String>> emptyList().iterator());
+
+		server.assertRequestUris();
+	}
+
+	/** rows can't have more values than columns */
+	@Test(expectedExceptions = TooManyColumnsException.class)
+	public void uploadTooManyValues() {
+		server.register(url, "");
+
+		DataUpload.uploadData(service, id, Arrays.asList(new DataColumn(column)), null,
+			Collections.singletonList(Arrays.asList("a", "b")).iterator());
+	}
+
+	/** non-existing column server error when uploading rows */
+	public void nonExistingColumnRows() {
+		server.registerError(url, 400, "Indicator/attribute '" + column + "' doesn't exist");
+
+		try {
+			DataUpload.uploadData(service, id, Arrays.asList(new DataColumn(column)), null,
+				Collections.singletonList(Arrays.asList("a")).iterator());
+			fail("No exception thrown");
+		} catch (UnknownServerColumnException e) {
+			assertEquals(e.getId(), id);
+			assertEquals(e.getColumn(), column);
+		}
+	}
+
+	/** Expects the given JSON to be uploaded. */
+	private void registerExpected(final JsonNode expected) {
+		server.register(url, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				HttpEntity entity = ((BasicHttpEntityEnclosingRequest) holder.request).getEntity();
+				assertEquals(new ObjectMapper().readTree(entity.getContent()), expected);
+			}
+		});
+	}
 }
@@ -0,0 +1,191 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.apache.http.Header;
+import org.apache.http.HttpRequest;
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.dashboard.Dashboard;
+import com.belladati.sdk.dataset.DataSet;
+import com.belladati.sdk.exception.server.UnexpectedResponseException;
+import com.belladati.sdk.report.Report;
+import com.belladati.sdk.report.ReportInfo;
+import com.belladati.sdk.test.TestRequestHandler;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Tests conditional loading of report, dashboard and data set details.
+ */
+@Test
+public class DetailCacheTest extends SDKTest {
+
+	private final String id = "123";
+	private final String lastChange = "Mon, 16 Apr 2012 10:17:26 GMT";
+	private final String newLastChange = "Tue, 17 Apr 2012 10:17:26 GMT";
+
+	/** If-None-Match headers received by the server */
+	private final List<String> eTags = new ArrayList<String>();
+
+	/** If-Modified-Since headers received by the server */
+	private final List<String> modifiedSince = new ArrayList<String>();
+
+	@BeforeMethod(alwaysRun = true)
+	protected void clearHeaders() {
+		eTags.clear();
+		modifiedSince.clear();
+	}
+
+	/** an unchanged report is reused when the server responds 304 */
+	public void reportNotModified() {
+		registerConditional("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null), "\"v1\"", null);
+
+		Report first = service.loadReport(id);
+		Report second = service.loadReport(id);
+
+		assertSame(second, first);
+		assertEquals(eTags, Arrays.asList(null, "\"v1\""));
+	}
+
+	/** a changed report is loaded again */
+	public void reportModified() {
+		registerConditional("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null), "\"v1\"", null);
+		Report first = service.loadReport(id);
+
+		registerConditional("/api/reports/" + id, builder.buildReportNode(id, "new name", "", "owner", null), "\"v2\"", null);
+		Report second = service.loadReport(id);
+		Report third = service.loadReport(id);
+
+		assertNotSame(second, first);
+		assertEquals(second.getName(), "new name");
+		assertSame(third, second);
+		assertEquals(eTags, Arrays.asList(null, "\"v1\"", "\"v2\""));
+	}
+
+	/** last modified dates are sent back as If-Modified-Since */
+	public void lastModified() {
+		String date = "Mon, 16 Apr 2012 10:17:26 GMT";
+		registerConditional("/api/dashboards/" + id, builder.buildDashboardNode(id, "name", null), null, date);
+
+		Dashboard first = service.loadDashboard(id);
+		Dashboard second = service.loadDashboard(id);
+
+		assertSame(second, first);
+		assertEquals(modifiedSince, Arrays.asList(null, date));
+	}
+
+	/** data sets are loaded conditionally */
+	public void dataSetNotModified() {
+		registerConditional("/api/dataSets/" + id, builder.buildDataSetNode(id, "name", "", "owner", null), "\"v1\"", null);
+
+		DataSet first = service.loadDataSet(id);
+		DataSet second = service.loadDataSet(id);
+
+		assertSame(second, first);
+		assertEquals(eTags, Arrays.asList(null, "\"v1\""));
+	}
+
+	/** without validators, no conditional requests are made */
+	public void noValidators() {
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", null).toString());
+
+		Report first = service.loadReport(id);
+		Report second = service.loadReport(id);
+
+		assertNotSame(second, first);
+		server.assertRequestUris("/api/reports/" + id, "/api/reports/" + id);
+	}
+
+	/** report details aren't requested when the list shows no change */
+	public void unchangedLastChange() {
+		registerReportList(lastChange);
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", lastChange).toString());
+
+		ReportInfo info = service.getReportInfo().load().get(0);
+		Report first = info.loadDetails();
+		Report second = info.loadDetails();
+
+		assertSame(second, first);
+		server.assertRequestUris("/api/reports", "/api/reports/" + id);
+	}
+
+	/** report details are requested when the list shows a change */
+	public void changedLastChange() {
+		registerReportList(lastChange);
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", lastChange).toString());
+		Report first = service.getReportInfo().load().get(0).loadDetails();
+
+		registerReportList(newLastChange);
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "new name", "", "owner", newLastChange).toString());
+		Report second = service.getReportInfo().load().get(0).loadDetails();
+
+		assertNotSame(second, first);
+		assertEquals(second.getName(), "new name");
+		server.assertRequestUris("/api/reports", "/api/reports/" + id, "/api/reports", "/api/reports/" + id);
+	}
+
+	/** the service API always asks the server */
+	public void serviceIgnoresLastChange() {
+		server.register("/api/reports/" + id, builder.buildReportNode(id, "name", "", "owner", lastChange).toString());
+
+		service.loadReport(id);
+		service.loadReport(id);
+
+		server.assertRequestUris("/api/reports/" + id, "/api/reports/" + id);
+	}
+
+	/** a 304 without having sent validators is an error */
+	@Test(expectedExceptions = UnexpectedResponseException.class)
+	public void unexpectedNotModified() {
+		server.registerError("/api/reports/" + id, 304, "");
+
+		service.loadReport(id);
+	}
+
+	private void registerReportList(String lastChange) {
+		ObjectNode report = builder.buildReportNode(id, "name", "", "owner", lastChange);
+		server.registerPaginatedItem("/api/reports", "reports", report);
+	}
+
+	/**
+	 * Registers a handler sending the given validators, responding 304 if the
+	 * request contains matching validators.
+	 */
+	private void registerConditional(String uri, final ObjectNode content, final String eTag, final String lastModified) {
+		server.register(uri, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				String ifNoneMatch = getHeader(holder.request, "If-None-Match");
+				String ifModifiedSince = getHeader(holder.request, "If-Modified-Since");
+				eTags.add(ifNoneMatch);
+				modifiedSince.add(ifModifiedSince);
+				if (eTag != null) {
+					holder.response.setHeader("ETag", eTag);
+				}
+				if (lastModified != null) {
+					holder.response.setHeader("Last-Modified", lastModified);
+				}
+				if ((eTag != null && eTag.equals(ifNoneMatch))
+					|| (eTag == null && lastModified != null && lastModified.equals(ifModifiedSince))) {
+					holder.response.setStatusCode(304);
+				} else {
+					holder.response.setEntity(new StringEntity(content.toString()));
+				}
+			}
+		});
+	}
+
+	private String getHeader(HttpRequest request, String name) {
+		Header header = request.getFirstHeader(name);
+		return header == null ? null : header.getValue();
+	}
+}
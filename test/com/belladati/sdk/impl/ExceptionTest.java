@@ -12,6 +12,7 @@ import com.belladati.sdk.exception.auth.AuthorizationException;
 import com.belladati.sdk.exception.auth.AuthorizationException.Reason;
 import com.belladati.sdk.exception.auth.InvalidTimestampException;
 import com.belladati.sdk.exception.server.InternalErrorException;
+import com.belladati.sdk.exception.server.InvalidJsonException;
 import com.belladati.sdk.exception.server.NotFoundException;
 import com.belladati.sdk.exception.server.ServerResponseException;
 import com.belladati.sdk.exception.server.UnexpectedResponseException;
@@ -233,6 +234,27 @@ public class ExceptionTest extends SDKTest {
 		}
 	}
 
+	/** server returns content that isn't valid JSON */
+	@Test(expectedExceptions = InvalidJsonException.class)
+	public void invalidJson() {
+		server.register("/" + uri, "{\"not\": json");
+		service.client.getJson(uri, service.tokenHolder);
+	}
+
+	/** server returns an empty response where JSON is expected */
+	@Test(expectedExceptions = InvalidJsonException.class)
+	public void emptyJson() {
+		server.register("/" + uri, "");
+		service.client.getJson(uri, service.tokenHolder);
+	}
+
+	/** a JSON error response is still mapped to the right exception */
+	@Test(expectedExceptions = InternalErrorException.class)
+	public void jsonInternalError() {
+		registerError(500, "{}");
+		service.client.getJson(uri, service.tokenHolder);
+	}
+
 	private void registerError(final int status, final String content) {
 		server.registerError("/" + uri, status, content);
 	}
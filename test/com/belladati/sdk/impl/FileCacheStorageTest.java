@@ -0,0 +1,259 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotNull;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Date;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.httpclientandroidlib.Header;
+import com.belladati.httpclientandroidlib.HttpVersion;
+import com.belladati.httpclientandroidlib.client.cache.HttpCacheEntry;
+import com.belladati.httpclientandroidlib.client.cache.HttpCacheUpdateCallback;
+import com.belladati.httpclientandroidlib.impl.client.cache.HeapResource;
+import com.belladati.httpclientandroidlib.message.BasicHeader;
+import com.belladati.httpclientandroidlib.message.BasicStatusLine;
+
+/**
+ * Tests the file-based HTTP cache storage.
+ */
+@Test
+public class FileCacheStorageTest {
+
+	private File directory;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void createDirectory() throws IOException {
+		directory = File.createTempFile("bdcache", "");
+		directory.delete();
+	}
+
+	@AfterMethod(alwaysRun = true)
+	protected void deleteDirectory() {
+		File[] files = directory.listFiles();
+		if (files != null) {
+			for (File file : files) {
+				file.delete();
+			}
+		}
+		directory.delete();
+	}
+
+	/** entries can be stored and read back */
+	public void putAndGet() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+
+		storage.putEntry("key", buildEntry("content"));
+		HttpCacheEntry entry = storage.getEntry("key");
+
+		assertNotNull(entry);
+		assertEquals(readContent(entry), "content");
+		assertEquals(entry.getStatusLine().getStatusCode(), 200);
+		assertEquals(entry.getFirstHeader("ETag").getValue(), "\"tag\"");
+		assertEquals(storage.getEntryCount(), 1);
+		storage.close();
+	}
+
+	/** unknown keys return null */
+	public void missingEntry() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+
+		assertNull(storage.getEntry("key"));
+		storage.close();
+	}
+
+	/** entries can be removed */
+	public void removeEntry() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+		storage.putEntry("key", buildEntry("content"));
+
+		storage.removeEntry("key");
+
+		assertNull(storage.getEntry("key"));
+		assertEquals(storage.getSize(), 0);
+		assertFalse(new File(directory, FileCacheStorage.fileName("key") + ".entry").exists());
+		storage.close();
+	}
+
+	/** entries can be updated through a callback */
+	public void updateEntry() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+		storage.putEntry("key", buildEntry("old"));
+
+		storage.updateEntry("key", new HttpCacheUpdateCallback() {
+			@Override
+			public HttpCacheEntry update(HttpCacheEntry existing) {
+				return buildEntry(readContent(existing) + " new");
+			}
+		});
+
+		assertEquals(readContent(storage.getEntry("key")), "old new");
+		assertEquals(storage.getEntryCount(), 1);
+		storage.close();
+	}
+
+	/** the least recently used entries are evicted when the size is exceeded */
+	public void evictLeastRecentlyUsed() throws IOException {
+		FileCacheStorage probe = new FileCacheStorage(directory, 100000);
+		probe.putEntry("probe", buildEntry("content"));
+		long entrySize = probe.getSize();
+		probe.removeEntry("probe");
+		probe.close();
+
+		FileCacheStorage storage = new FileCacheStorage(directory, entrySize * 2 + entrySize / 2);
+		storage.putEntry("key1", buildEntry("content"));
+		storage.putEntry("key2", buildEntry("content"));
+		storage.getEntry("key1");
+		storage.putEntry("key3", buildEntry("content"));
+
+		assertNotNull(storage.getEntry("key1"));
+		assertNull(storage.getEntry("key2"));
+		assertNotNull(storage.getEntry("key3"));
+		assertEquals(storage.getEntryCount(), 2);
+		assertTrue(storage.getSize() <= entrySize * 2 + entrySize / 2);
+		storage.close();
+	}
+
+	/** entries survive a restart */
+	public void restoreAfterRestart() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+		storage.putEntry("key1", buildEntry("content1"));
+		storage.putEntry("key2", buildEntry("content2"));
+		storage.removeEntry("key2");
+		long size = storage.getSize();
+		storage.close();
+
+		FileCacheStorage restored = new FileCacheStorage(directory, 100000);
+
+		assertEquals(restored.getEntryCount(), 1);
+		assertEquals(restored.getSize(), size);
+		assertEquals(readContent(restored.getEntry("key1")), "content1");
+		assertNull(restored.getEntry("key2"));
+		restored.close();
+	}
+
+	/** a broken journal line and leftover files from a crash are ignored */
+	public void recoverFromCrash() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+		storage.putEntry("key", buildEntry("content"));
+		storage.close();
+
+		FileOutputStream journal = new FileOutputStream(new File(directory, "journal"), true);
+		journal.write("PUT abc 12".getBytes("UTF-8"));
+		journal.close();
+		File orphan = new File(directory, FileCacheStorage.fileName("orphan") + ".entry");
+		File tmp = new File(directory, FileCacheStorage.fileName("key") + ".1.tmp");
+		orphan.createNewFile();
+		tmp.createNewFile();
+
+		FileCacheStorage restored = new FileCacheStorage(directory, 100000);
+
+		assertEquals(readContent(restored.getEntry("key")), "content");
+		assertFalse(orphan.exists());
+		assertFalse(tmp.exists());
+		restored.close();
+	}
+
+	/** entries whose file was lost are forgotten */
+	public void lostEntryFile() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+		storage.putEntry("key", buildEntry("content"));
+
+		new File(directory, FileCacheStorage.fileName("key") + ".entry").delete();
+
+		assertNull(storage.getEntry("key"));
+		assertEquals(storage.getEntryCount(), 0);
+		assertEquals(storage.getSize(), 0);
+		storage.close();
+	}
+
+	/** sizes are taken from the entry files, not from a truncated journal */
+	public void truncatedJournalSize() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+		storage.putEntry("key", buildEntry("content"));
+		long size = storage.getSize();
+		storage.close();
+
+		String name = FileCacheStorage.fileName("key");
+		FileOutputStream journal = new FileOutputStream(new File(directory, "journal"), true);
+		journal.write(("PUT " + name + " 1").getBytes("UTF-8"));
+		journal.close();
+
+		FileCacheStorage restored = new FileCacheStorage(directory, 100000);
+
+		assertEquals(restored.getEntryCount(), 1);
+		assertEquals(restored.getSize(), size);
+		restored.close();
+	}
+
+	/** journal entries whose file was lost don't count toward the size */
+	public void lostEntryFileOnRestart() throws IOException {
+		FileCacheStorage storage = new FileCacheStorage(directory, 100000);
+		storage.putEntry("key1", buildEntry("content1"));
+		long size = storage.getSize();
+		storage.putEntry("key2", buildEntry("content2"));
+		storage.close();
+
+		new File(directory, FileCacheStorage.fileName("key2") + ".entry").delete();
+		FileCacheStorage restored = new FileCacheStorage(directory, 100000);
+
+		assertEquals(restored.getEntryCount(), 1);
+		assertEquals(restored.getSize(), size);
+		assertNull(restored.getEntry("key2"));
+		restored.close();
+	}
+
+	/** the same directory always uses the same storage */
+	public void sharedPerDirectory() {
+		assertSame(FileCacheStorage.forDirectory(directory, 1000),
+			FileCacheStorage.forDirectory(new File(directory, "../" + directory.getName()), 1000));
+	}
+
+	/** a shared directory can't be used with a different size */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void sharedDifferentSize() {
+		FileCacheStorage.forDirectory(directory, 1000);
+		FileCacheStorage.forDirectory(directory, 2000);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void invalidSize() {
+		new FileCacheStorage(directory, 0);
+	}
+
+	private HttpCacheEntry buildEntry(String content) {
+		return new HttpCacheEntry(new Date(), new Date(), new BasicStatusLine(HttpVersion.HTTP_1_1, 200, "OK"),
+			new Header[] { new BasicHeader("ETag", "\"tag\"") }, new HeapResource(content.getBytes()));
+	}
+
+	private String readContent(HttpCacheEntry entry) {
+		try {
+			InputStream in = entry.getResource().getInputStream();
+			try {
+				ByteArrayOutputStream out = new ByteArrayOutputStream();
+				byte[] buffer = new byte[1024];
+				int read;
+				while ((read = in.read(buffer)) != -1) {
+					out.write(buffer, 0, read);
+				}
+				return new String(out.toByteArray());
+			} finally {
+				in.close();
+			}
+		} catch (IOException e) {
+			throw new RuntimeException(e);
+		}
+	}
+}
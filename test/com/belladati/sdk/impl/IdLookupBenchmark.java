@@ -0,0 +1,110 @@
+package com.belladati.sdk.impl;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import com.belladati.sdk.impl.PaginatedListImpl.Page;
+import com.belladati.sdk.impl.PaginatedListImpl.Snapshot;
+import com.belladati.sdk.test.BenchmarkRunner;
+
+/**
+ * Compares looking up elements of a paginated ID list by scanning all
+ * elements against the ID index, and the cost of maintaining the index while
+ * pages are added. Run with <tt>main</tt>; not part of the regular test
+ * suite.
+ */
+public class IdLookupBenchmark {
+
+	private static final int[] SIZES = { 1000, 10000, 100000 };
+	private static final int PAGE_SIZE = 1000;
+	private static final int LOOKUPS = 1000;
+
+	public static void main(String[] args) throws Exception {
+		for (int size : SIZES) {
+			List<Page<Item>> pages = createPages(size);
+			String[] ids = lookupIds(size);
+			int iterations = Math.max(5, 2000000 / size);
+			BenchmarkRunner runner = new BenchmarkRunner(iterations / 5, iterations);
+			runner.run("build " + size + " scan", new BuildTask(pages, false));
+			runner.run("build " + size + " indexed", new BuildTask(pages, true));
+
+			int lookupIterations = Math.max(5, 10000000 / size / LOOKUPS);
+			BenchmarkRunner lookupRunner = new BenchmarkRunner(lookupIterations, lookupIterations);
+			lookupRunner.run(LOOKUPS + " lookups " + size + " scan", new LookupTask(build(pages, false), ids));
+			lookupRunner.run(LOOKUPS + " lookups " + size + " indexed", new LookupTask(build(pages, true), ids));
+		}
+	}
+
+	private static List<Page<Item>> createPages(int size) {
+		List<Page<Item>> pages = new ArrayList<Page<Item>>();
+		for (int offset = 0; offset < size; offset += PAGE_SIZE) {
+			List<Item> items = new ArrayList<Item>();
+			for (int i = offset; i < Math.min(offset + PAGE_SIZE, size); i++) {
+				items.add(new Item("item-" + i));
+			}
+			pages.add(new Page<Item>(offset / PAGE_SIZE, PAGE_SIZE, items));
+		}
+		return pages;
+	}
+
+	/** IDs to look up, a tenth of which aren't in the list. */
+	private static String[] lookupIds(int size) {
+		Random random = new Random(42);
+		String[] ids = new String[LOOKUPS];
+		for (int i = 0; i < ids.length; i++) {
+			ids[i] = "item-" + (i % 10 == 0 ? size + i : random.nextInt(size));
+		}
+		return ids;
+	}
+
+	private static Snapshot<Item> build(List<Page<Item>> pages, boolean indexed) {
+		Snapshot<Item> snapshot = Snapshot.empty();
+		boolean first = true;
+		for (Page<Item> page : pages) {
+			snapshot = snapshot.append(page, first, indexed);
+			first = false;
+		}
+		return snapshot;
+	}
+
+	/** Adds all pages to a new snapshot, as when loading them one by one. */
+	private static class BuildTask implements BenchmarkRunner.Task {
+		private final List<Page<Item>> pages;
+		private final boolean indexed;
+
+		BuildTask(List<Page<Item>> pages, boolean indexed) {
+			this.pages = pages;
+			this.indexed = indexed;
+		}
+
+		@Override
+		public void run() {
+			build(pages, indexed);
+		}
+	}
+
+	/** Looks up each of the IDs. */
+	private static class LookupTask implements BenchmarkRunner.Task {
+		private final Snapshot<Item> snapshot;
+		private final String[] ids;
+
+		LookupTask(Snapshot<Item> snapshot, String[] ids) {
+			this.snapshot = snapshot;
+			this.ids = ids;
+		}
+
+		@Override
+		public void run() {
+			int found = 0;
+			for (String id : ids) {
+				if (snapshot.indexOfId(id) >= 0) {
+					found++;
+				}
+			}
+			if (found != ids.length - ids.length / 10) {
+				throw new IllegalStateException("Found " + found + " elements");
+			}
+		}
+	}
+}
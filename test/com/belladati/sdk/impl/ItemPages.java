@@ -0,0 +1,152 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.StringEntity;
+
+import com.belladati.sdk.test.TestRequestHandler;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Serves pages of {@link Item}s to paginated lists in tests. Each request is
+ * answered with the elements at the requested offset and size, and the
+ * requested offsets and sizes are recorded. Override
+ * {@link #beforeResponse(int, int)} to delay or fail requests.
+ */
+class ItemPages extends TestRequestHandler {
+
+	/** field containing the elements in responses */
+	static final String FIELD = "field";
+
+	/** offsets requested from the server, in order */
+	final List<Integer> offsets = new CopyOnWriteArrayList<Integer>();
+	/** sizes requested from the server, in order */
+	final List<Integer> sizes = new CopyOnWriteArrayList<Integer>();
+	/** number of elements on the server */
+	volatile int total;
+	/** page size used by the server, 0 to use the requested size */
+	volatile int serverSize;
+	/** prefix of element IDs on the server */
+	volatile String prefix = "";
+	/** offset at which the server fails once */
+	volatile int failAt = -1;
+
+	ItemPages(int total) {
+		this.total = total;
+	}
+
+	/**
+	 * Creates a list of the items served at the given URI.
+	 * 
+	 * @param service service to load the list from
+	 * @param uri URI the items are registered at
+	 * @return a new list
+	 */
+	static PaginatedListImpl<Item> createList(BellaDatiServiceImpl service, String uri) {
+		return new PaginatedListImpl<Item>(service, uri, FIELD) {
+			@Override
+			protected Item parse(BellaDatiServiceImpl service, JsonNode node) {
+				return new Item(node.get("id").asText());
+			}
+		};
+	}
+
+	/**
+	 * Creates a list of the items served at the given URI, indexing them by
+	 * ID.
+	 * 
+	 * @param service service to load the list from
+	 * @param uri URI the items are registered at
+	 * @return a new list
+	 */
+	static PaginatedIdListImpl<Item> createIdList(BellaDatiServiceImpl service, String uri) {
+		return new PaginatedIdListImpl<Item>(service, uri, FIELD) {
+			@Override
+			protected Item parse(BellaDatiServiceImpl service, JsonNode node) {
+				return new Item(node.get("id").asText());
+			}
+		};
+	}
+
+	@Override
+	protected final void handle(HttpHolder holder) throws IOException {
+		Map<String, String> params = holder.getUrlParameters();
+		int requestedSize = Integer.parseInt(params.get("size"));
+		int offset = Integer.parseInt(params.get("offset"));
+		offsets.add(offset);
+		sizes.add(requestedSize);
+		int size = serverSize > 0 ? serverSize : requestedSize;
+		if (!beforeResponse(offset, size)) {
+			holder.response.setStatusCode(500);
+			return;
+		}
+		holder.response.setEntity(new StringEntity(buildResponse(size, offset).toString()));
+	}
+
+	/**
+	 * Called for each request before responding. Fails the request at
+	 * {@link #failAt} once.
+	 * 
+	 * @param offset the requested offset
+	 * @param size size of the page to respond with
+	 * @return <tt>true</tt> to respond with the page, <tt>false</tt> to fail
+	 */
+	protected boolean beforeResponse(int offset, int size) {
+		if (offset == failAt) {
+			failAt = -1;
+			return false;
+		}
+		return true;
+	}
+
+	/**
+	 * Returns the requested offsets in ascending order, for pages read ahead
+	 * in any order.
+	 * 
+	 * @return the sorted offsets
+	 */
+	List<Integer> sortedOffsets() {
+		List<Integer> sorted = new ArrayList<Integer>(offsets);
+		Collections.sort(sorted);
+		return sorted;
+	}
+
+	/**
+	 * Waits until the server has received the given number of requests.
+	 * 
+	 * @param count the number of requests to wait for
+	 */
+	void awaitRequests(int count) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (offsets.size() < count) {
+			assertTrue(System.nanoTime() < deadline, "Expected " + count + " requests, was " + offsets);
+			Thread.sleep(5);
+		}
+	}
+
+	/**
+	 * Builds an API response with the page of server elements at the given
+	 * size and offset.
+	 */
+	private JsonNode buildResponse(int size, int offset) {
+		ObjectMapper mapper = new ObjectMapper();
+		ObjectNode node = mapper.createObjectNode();
+		ArrayNode items = mapper.createArrayNode();
+		for (int i = offset; i < Math.min(offset + size, total); i++) {
+			items.add(mapper.createObjectNode().put("id", prefix + i));
+		}
+		node.put("size", "" + size).put("offset", "" + offset).put(FIELD, items);
+		return node;
+	}
+}
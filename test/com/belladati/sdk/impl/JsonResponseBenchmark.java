@@ -0,0 +1,102 @@
+package com.belladati.sdk.impl;
+
+import java.io.IOException;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.ByteArrayEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+
+import com.belladati.sdk.test.BenchmarkRunner;
+import com.belladati.sdk.test.RequestTrackingServer;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+/**
+ * Compares loading JSON by first buffering the response into a byte array and
+ * parsing it with a new mapper against parsing it directly from the response
+ * stream. Run with <tt>main</tt>; not part of the regular test suite.
+ */
+public class JsonResponseBenchmark {
+
+	public static void main(String[] args) throws Exception {
+		RequestTrackingServer server = new RequestTrackingServer();
+		server.start();
+		try {
+			BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+			TokenHolder tokenHolder = new TokenHolder("key", "secret");
+
+			for (int megabytes : new int[] { 1, 20 }) {
+				final String uri = "payload" + megabytes;
+				final byte[] payload = buildPayload(megabytes * 1024 * 1024);
+				server.register("/" + uri, new HttpRequestHandler() {
+					@Override
+					public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException,
+						IOException {
+						response.setEntity(new ByteArrayEntity(payload));
+					}
+				});
+				int iterations = megabytes > 1 ? 10 : 50;
+				BenchmarkRunner runner = new BenchmarkRunner(iterations / 5, iterations);
+				runner.run(megabytes + " MB buffered", new BufferedTask(client, tokenHolder, uri));
+				runner.run(megabytes + " MB streaming", new StreamingTask(client, tokenHolder, uri));
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	/** Builds a table-like JSON payload of roughly the given size. */
+	private static byte[] buildPayload(int bytes) {
+		StringBuilder sb = new StringBuilder(bytes + 256);
+		sb.append("{\"header\":[\"id\",\"name\",\"value\"],\"rows\":[");
+		int row = 0;
+		while (sb.length() < bytes) {
+			if (row > 0) {
+				sb.append(',');
+			}
+			sb.append("{\"id\":").append(row).append(",\"name\":\"row ").append(row).append("\",\"value\":")
+				.append(row * 0.25).append('}');
+			row++;
+		}
+		sb.append("]}");
+		return sb.toString().getBytes();
+	}
+
+	/** The previous approach: read all bytes, then parse with a new mapper. */
+	private static class BufferedTask implements BenchmarkRunner.Task {
+		private final BellaDatiClient client;
+		private final TokenHolder tokenHolder;
+		private final String uri;
+
+		BufferedTask(BellaDatiClient client, TokenHolder tokenHolder, String uri) {
+			this.client = client;
+			this.tokenHolder = tokenHolder;
+			this.uri = uri;
+		}
+
+		@Override
+		public void run() throws Exception {
+			new ObjectMapper().readTree(client.get(uri, tokenHolder));
+		}
+	}
+
+	/** Parses directly from the response stream. */
+	private static class StreamingTask implements BenchmarkRunner.Task {
+		private final BellaDatiClient client;
+		private final TokenHolder tokenHolder;
+		private final String uri;
+
+		StreamingTask(BellaDatiClient client, TokenHolder tokenHolder, String uri) {
+			this.client = client;
+			this.tokenHolder = tokenHolder;
+			this.uri = uri;
+		}
+
+		@Override
+		public void run() throws Exception {
+			client.getJson(uri, tokenHolder);
+		}
+	}
+}
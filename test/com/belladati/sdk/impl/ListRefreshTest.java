@@ -0,0 +1,255 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.dashboard.DashboardInfo;
+import com.belladati.sdk.dataset.DataSetInfo;
+import com.belladati.sdk.report.ReportInfo;
+import com.belladati.sdk.test.TestRequestHandler;
+import com.belladati.sdk.util.PaginatedIdList;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Tests refreshing lists by comparing them to the previously loaded elements.
+ */
+@Test
+public class ListRefreshTest extends SDKTest {
+
+	private final String reportsUri = "/api/reports";
+	private final String lastChange = "Mon, 16 Apr 2012 10:17:26 GMT";
+	private final String newerChange = "Tue, 17 Apr 2012 08:00:00 GMT";
+
+	/** elements on the server */
+	private List<ObjectNode> reports;
+	/** offsets requested from the server, in order */
+	private List<Integer> offsets;
+	private List<ListChangeEvent<ReportInfo>> events;
+	private ListChangeListener<ReportInfo> listener;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupLists() {
+		reports = new CopyOnWriteArrayList<ObjectNode>();
+		for (String id : new String[] { "a", "b", "c" }) {
+			reports.add(builder.buildReportNode(id, "report " + id, "", "owner", lastChange));
+		}
+		offsets = new CopyOnWriteArrayList<Integer>();
+		registerPaginated(reportsUri, "reports", reports, offsets);
+		events = new CopyOnWriteArrayList<ListChangeEvent<ReportInfo>>();
+		listener = new ListChangeListener<ReportInfo>() {
+			@Override
+			public void listChanged(ListChangeEvent<ReportInfo> event) {
+				events.add(event);
+			}
+		};
+	}
+
+	/** unchanged elements keep their instances */
+	public void unchanged() {
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+		PaginatedLists.addChangeListener(list, listener);
+		list.load(0, 10);
+		List<ReportInfo> before = list.toList();
+
+		ListChangeEvent<ReportInfo> event = PaginatedLists.refresh(list);
+
+		assertFalse(event.hasChanges());
+		assertTrue(events.isEmpty());
+		assertEquals(list.size(), 3);
+		for (int i = 0; i < 3; i++) {
+			assertSame(list.get(i), before.get(i));
+		}
+		assertEquals(offsets, Arrays.asList(0, 0));
+	}
+
+	/** elements with a new last change date are replaced */
+	public void changed() {
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+		list.load(0, 10);
+		List<ReportInfo> before = list.toList();
+		reports.set(1, builder.buildReportNode("b", "renamed", "", "owner", newerChange));
+
+		ListChangeEvent<ReportInfo> event = PaginatedLists.refresh(list);
+
+		assertEquals(event.getChanged().size(), 1);
+		assertSame(event.getChanged().get(0), list.get(1));
+		assertEquals(list.get(1).getName(), "renamed");
+		assertNotSame(list.get(1), before.get(1));
+		assertSame(list.get(0), before.get(0));
+		assertSame(list.get(2), before.get(2));
+		assertTrue(event.getAdded().isEmpty());
+		assertTrue(event.getRemoved().isEmpty());
+	}
+
+	/** new and missing elements are reported as added and removed */
+	public void addedAndRemoved() {
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+		PaginatedLists.addChangeListener(list, listener);
+		list.load(0, 10);
+		ReportInfo removedReport = list.get(1);
+		reports.remove(1);
+		reports.add(builder.buildReportNode("d", "report d", "", "owner", lastChange));
+
+		ListChangeEvent<ReportInfo> event = PaginatedLists.refresh(list);
+
+		assertEquals(events, Arrays.asList(event));
+		assertEquals(event.getRemoved(), Arrays.asList(removedReport));
+		assertEquals(event.getAdded().size(), 1);
+		assertEquals(event.getAdded().get(0).getId(), "d");
+		assertTrue(event.getChanged().isEmpty());
+		assertEquals(ids(list), Arrays.asList("a", "c", "d"));
+		assertEquals(list.indexOf("d"), 2);
+		assertFalse(list.contains("b"));
+	}
+
+	/** elements without a last change date are always replaced */
+	public void noLastChange() {
+		reports.set(0, builder.buildReportNode("a", "report a", "", "owner", null));
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+		list.load(0, 10);
+		ReportInfo first = list.get(0);
+
+		ListChangeEvent<ReportInfo> event = PaginatedLists.refresh(list);
+
+		assertEquals(event.getChanged().size(), 1);
+		assertNotSame(list.get(0), first);
+	}
+
+	/** all loaded pages are loaded again */
+	public void multiplePages() {
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+		list.load(0, 2);
+		list.loadNext();
+		ReportInfo last = list.get(2);
+		offsets.clear();
+
+		PaginatedLists.refresh(list);
+
+		assertEquals(offsets, Arrays.asList(0, 2));
+		assertEquals(ids(list), Arrays.asList("a", "b", "c"));
+		assertSame(list.get(2), last);
+		assertEquals(list.getLastLoadedPage(), 1);
+	}
+
+	/** only the loaded pages are loaded again */
+	public void partiallyLoaded() {
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+		list.load(0, 2);
+		reports.add(0, builder.buildReportNode("z", "report z", "", "owner", lastChange));
+
+		ListChangeEvent<ReportInfo> event = PaginatedLists.refresh(list);
+
+		assertEquals(ids(list), Arrays.asList("z", "a"));
+		assertEquals(event.getAdded().get(0).getId(), "z");
+		// moved to the next page, which isn't loaded
+		assertEquals(event.getRemoved().get(0).getId(), "b");
+		assertTrue(list.hasNextPage());
+	}
+
+	/** refreshing a list that wasn't loaded loads it */
+	public void notLoaded() {
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+
+		ListChangeEvent<ReportInfo> event = PaginatedLists.refresh(list);
+
+		assertEquals(list.size(), 3);
+		assertEquals(event.getAdded(), list.toList());
+	}
+
+	/** removed listeners aren't notified, broken listeners are ignored */
+	public void listeners() {
+		PaginatedIdList<ReportInfo> list = service.getReportInfo();
+		PaginatedLists.addChangeListener(list, new ListChangeListener<ReportInfo>() {
+			@Override
+			public void listChanged(ListChangeEvent<ReportInfo> event) {
+				throw new IllegalStateException("broken listener");
+			}
+		});
+		PaginatedLists.addChangeListener(list, listener);
+		list.load(0, 10);
+		reports.remove(0);
+		PaginatedLists.refresh(list);
+		assertEquals(events.size(), 1);
+
+		PaginatedLists.removeChangeListener(list, listener);
+		reports.remove(0);
+		PaginatedLists.refresh(list);
+		assertEquals(events.size(), 1);
+	}
+
+	/** dashboard and data set lists keep unchanged elements */
+	public void otherLists() {
+		List<ObjectNode> dashboards = new ArrayList<ObjectNode>();
+		dashboards.add(builder.buildDashboardNode("d1", "dashboard", lastChange));
+		registerPaginated("/api/dashboards", "dashboards", dashboards, new ArrayList<Integer>());
+		List<ObjectNode> dataSets = new ArrayList<ObjectNode>();
+		dataSets.add(builder.buildDataSetNode("s1", "data set", "", "owner", lastChange));
+		registerPaginated("/api/dataSets", "dataSets", dataSets, new ArrayList<Integer>());
+
+		PaginatedIdList<DashboardInfo> dashboardList = service.getDashboardInfo();
+		dashboardList.load(0, 10);
+		DashboardInfo dashboard = dashboardList.get(0);
+		assertFalse(PaginatedLists.refresh(dashboardList).hasChanges());
+		assertSame(dashboardList.get(0), dashboard);
+
+		PaginatedIdList<DataSetInfo> dataSetList = service.getDataSetInfo();
+		dataSetList.load(0, 10);
+		DataSetInfo dataSet = dataSetList.get(0);
+		assertFalse(PaginatedLists.refresh(dataSetList).hasChanges());
+		assertSame(dataSetList.get(0), dataSet);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void foreignList() {
+		PaginatedLists.refresh(null);
+	}
+
+	private List<String> ids(PaginatedIdList<ReportInfo> list) {
+		List<String> ids = new ArrayList<String>();
+		for (ReportInfo info : list) {
+			ids.add(info.getId());
+		}
+		return ids;
+	}
+
+	/**
+	 * Tells the server to respond to the given URI with pages of the given
+	 * elements.
+	 */
+	private void registerPaginated(String uri, final String field, final List<ObjectNode> elements,
+		final List<Integer> requested) {
+		server.register(uri, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				Map<String, String> params = holder.getUrlParameters();
+				int size = params.containsKey("size") ? Integer.parseInt(params.get("size")) : 10;
+				int offset = params.containsKey("offset") ? Integer.parseInt(params.get("offset")) : 0;
+				requested.add(offset);
+				ObjectMapper mapper = new ObjectMapper();
+				ArrayNode items = mapper.createArrayNode();
+				for (int i = offset; i < Math.min(offset + size, elements.size()); i++) {
+					items.add(elements.get(i));
+				}
+				ObjectNode page = mapper.createObjectNode().put("size", size).put("offset", offset);
+				page.put(field, items);
+				holder.response.setEntity(new StringEntity(page.toString()));
+			}
+		});
+	}
+}
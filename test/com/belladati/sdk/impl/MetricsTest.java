@@ -0,0 +1,180 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.httpclientandroidlib.client.cache.CacheResponseStatus;
+import com.belladati.sdk.BellaDatiService;
+import com.belladati.sdk.exception.ConnectionException;
+import com.belladati.sdk.exception.server.NotFoundException;
+import com.belladati.sdk.test.TestRequestHandler;
+
+/**
+ * Tests the transport metrics of a client.
+ */
+@Test
+public class MetricsTest extends SDKTest {
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		System.clearProperty("bdMaxConnections");
+		System.clearProperty("bdConnectionRequestTimeout");
+		System.clearProperty("bdPrioritizeRequests");
+	}
+
+	/** a new client has no activity */
+	public void initialMetrics() {
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+
+		assertEquals(metrics.getMaxConnections(), 40);
+		assertEquals(metrics.getLeasedConnections(), 0);
+		assertEquals(metrics.getConnectionRequests(), 0);
+		assertEquals(metrics.getResponseCounts(), Collections.emptyMap());
+		assertEquals(metrics.getBytesReceived(), 0);
+	}
+
+	/** responses are counted by status code */
+	public void responseCounts() {
+		server.register("/api/reports/123", "{}");
+		server.registerError("/api/reports/456", 404, "");
+		service.client.getJson("api/reports/123", service.tokenHolder);
+		service.client.getJson("api/reports/123", service.tokenHolder);
+		try {
+			service.client.getJson("api/reports/456", service.tokenHolder);
+			fail("No exception thrown");
+		} catch (NotFoundException e) {}
+
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		assertEquals(metrics.getResponseCount(200), 2);
+		assertEquals(metrics.getResponseCount(404), 1);
+		assertEquals(metrics.getResponseCount(500), 0);
+		assertEquals(metrics.getFailedRequests(), 0);
+	}
+
+	/** bytes and connections are counted once requests complete */
+	public void transfer() {
+		server.register("/api/reports/123", "{\"content\":\"some content\"}");
+		service.client.getJson("api/reports/123", service.tokenHolder);
+
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		assertEquals(metrics.getConnectionRequests(), 1);
+		assertEquals(metrics.getLeasedConnections(), 0);
+		assertEquals(metrics.getAvailableConnections(), 1);
+		assertTrue(metrics.getBytesSent() > "GET /api/reports/123 HTTP/1.1".length(), "Sent " + metrics.getBytesSent());
+		assertTrue(metrics.getBytesReceived() > "{\"content\":\"some content\"}".length(), "Received "
+			+ metrics.getBytesReceived());
+	}
+
+	/** metrics are shared by a connection and its services */
+	public void connectionMetrics() {
+		BellaDatiConnectionImpl connection = new BellaDatiConnectionImpl(server.getHttpURL(), false);
+		BellaDatiServiceImpl connectionService = new BellaDatiServiceImpl(connection.client, new TokenHolder("key", "secret"));
+		server.register("/api/reports/123", "{}");
+		connectionService.client.getJson("api/reports/123", connectionService.tokenHolder);
+
+		assertEquals(BellaDatiMetrics.of(connection).getResponseCount(200), 1);
+		assertEquals(BellaDatiMetrics.of(connectionService).getResponseCount(200), 1);
+	}
+
+	/** waiting for a connection and timing out are reported */
+	public void connectionTimeout() throws Exception {
+		System.setProperty("bdMaxConnections", "1");
+		System.setProperty("bdConnectionRequestTimeout", "200");
+		// requests would otherwise wait before reaching the pool
+		System.setProperty("bdPrioritizeRequests", "false");
+		final BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		final CountDownLatch arrived = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		server.register("/api/slow", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				arrived.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				holder.response.setEntity(new StringEntity("{}"));
+			}
+		});
+		Thread slow = new Thread() {
+			@Override
+			public void run() {
+				client.getJson("api/slow", service.tokenHolder);
+			}
+		};
+		slow.start();
+		try {
+			assertTrue(arrived.await(5, TimeUnit.SECONDS));
+			assertEquals(client.getMetrics().getLeasedConnections(), 1);
+			try {
+				client.getJson("api/other", service.tokenHolder);
+				fail("No exception thrown");
+			} catch (ConnectionException e) {}
+		} finally {
+			release.countDown();
+			slow.join(5000);
+		}
+
+		BellaDatiMetrics metrics = client.getMetrics();
+		assertEquals(metrics.getConnectionRequests(), 2);
+		assertEquals(metrics.getConnectionTimeouts(), 1);
+		assertEquals(metrics.getFailedRequests(), 1);
+		assertTrue(metrics.getMaxConnectionWaitTime(TimeUnit.MILLISECONDS) >= 150);
+		assertEquals(metrics.getResponseCount(200), 1);
+	}
+
+	/** cache results are counted by status */
+	public void cacheStatus() {
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.recordResponse(200, CacheResponseStatus.CACHE_HIT);
+		metrics.recordResponse(200, CacheResponseStatus.CACHE_HIT);
+		metrics.recordResponse(200, CacheResponseStatus.CACHE_MISS);
+		metrics.recordResponse(200, CacheResponseStatus.VALIDATED);
+		metrics.recordResponse(504, CacheResponseStatus.CACHE_MODULE_RESPONSE);
+		metrics.recordResponse(200, null);
+
+		BellaDatiMetrics snapshot = metrics.snapshot(0, 0, 0);
+		assertEquals(snapshot.getCacheHits(), 2);
+		assertEquals(snapshot.getCacheMisses(), 1);
+		assertEquals(snapshot.getCacheValidations(), 1);
+		assertEquals(snapshot.getResponseCount(200), 5);
+		assertEquals(snapshot.getResponseCount(504), 1);
+	}
+
+	/** all metrics are available by name */
+	public void metricsMap() {
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.recordResponse(200, CacheResponseStatus.CACHE_HIT);
+		metrics.recordTransfer(10, 20);
+		metrics.recordConnectionWait(TimeUnit.MILLISECONDS.toNanos(3), false);
+
+		Map<String, Long> map = metrics.snapshot(4, 5, 6).toMap();
+		assertEquals(map.get("responses.200"), (Long) 1L);
+		assertEquals(map.get("bytes.sent"), (Long) 10L);
+		assertEquals(map.get("bytes.received"), (Long) 20L);
+		assertEquals(map.get("pool.requests"), (Long) 1L);
+		assertEquals(map.get("pool.maxWaitTime"), (Long) 3L);
+		assertEquals(map.get("cache.hits"), (Long) 1L);
+		assertEquals(map.get("requests.coalesced"), (Long) 4L);
+		assertEquals(map.get("requests.hedged"), (Long) 5L);
+		assertEquals(map.get("requests.hedgesWon"), (Long) 6L);
+	}
+
+	/** only services created by this SDK have metrics */
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void unsupportedService() {
+		BellaDatiMetrics.of((BellaDatiService) null);
+	}
+}
@@ -0,0 +1,142 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+
+import oauth.signpost.OAuthConsumer;
+
+import org.testng.annotations.DataProvider;
+import org.testng.annotations.Test;
+
+import com.belladati.httpclientandroidlib.client.entity.UrlEncodedFormEntity;
+import com.belladati.httpclientandroidlib.client.methods.HttpGet;
+import com.belladati.httpclientandroidlib.client.methods.HttpPost;
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
+import com.belladati.httpclientandroidlib.entity.StringEntity;
+import com.belladati.httpclientandroidlib.message.BasicNameValuePair;
+import com.belladati.sdk.impl.oauth.BellaDatiOAuthConsumer;
+
+/**
+ * Tests that requests are signed exactly like signpost signs them.
+ */
+@Test
+public class OAuthSignerTest {
+
+	private static final String NONCE = "-4983721038437710712";
+	private static final String TIMESTAMP = "1393425218";
+
+	@DataProvider(name = "tokens")
+	protected Object[][] tokenProvider() {
+		return new Object[][] { { "key", "secret", null, null }, { "key", "secret", "token", "tokenSecret" },
+			{ "key with spaces", "secret&more=~*", "tok/en+", "s\u00e9cret \u20ac" }, { "key", "secret", "", "" } };
+	}
+
+	@DataProvider(name = "urls")
+	protected Object[][] urlProvider() {
+		return new Object[][] { { "http://localhost:8080/api/reports" }, { "http://LOCALHOST:80/api/reports" },
+			{ "https://service.belladati.com:443/api/reports/123" }, { "https://service.belladati.com" },
+			{ "http://localhost/api/reports?offset=0&size=10" }, { "http://localhost/api/reports?a1=2&a=1&b=%2B+x&a=0" },
+			{ "http://localhost/api/reports?same=1&same=1" }, { "http://localhost/api/reports?" },
+			{ "http://localhost/api/reports/views/123/chart?filter=%7B%22drilldown%22%3A%7B%7D%7D&lang=de" },
+			{ "http://localhost/api/path%20with%20spaces/%C3%A9" } };
+	}
+
+	/** GET requests are signed like signpost */
+	@Test(dataProvider = "urls")
+	public void getRequest(String url) throws Exception {
+		for (Object[] token : tokenProvider()) {
+			assertSameHeader(new HttpGet(url), (String) token[0], (String) token[1], (String) token[2], (String) token[3]);
+		}
+	}
+
+	/** POST requests with form parameters are signed like signpost */
+	@Test(dataProvider = "tokens")
+	public void formPost(String key, String secret, String token, String tokenSecret) throws Exception {
+		HttpPost post = new HttpPost("http://localhost/api/reports/123/comments?x=y");
+		post.setEntity(new UrlEncodedFormEntity(Arrays.asList(new BasicNameValuePair("text", "a comment, with \u00fcml\u00e4uts"),
+			new BasicNameValuePair("b", "")), "UTF-8"));
+		assertSameHeader(post, key, secret, token, tokenSecret);
+	}
+
+	/** POST requests with other content are signed like signpost */
+	@Test(dataProvider = "tokens")
+	public void dataPost(String key, String secret, String token, String tokenSecret) throws Exception {
+		HttpPost post = new HttpPost("http://localhost/api/import/123");
+		StringEntity entity = new StringEntity("{\"data\":[]}", "UTF-8");
+		entity.setContentType("application/octet-stream");
+		post.setEntity(entity);
+		assertSameHeader(post, key, secret, token, tokenSecret);
+	}
+
+	/** requests with their own OAuth parameters are left to signpost */
+	public void oauthParameters() throws Exception {
+		OAuthSigner signer = new OAuthSigner("key", "secret", null, null);
+
+		assertNull(signer.buildHeader(new HttpGet("http://localhost/api?oauth_token=abc"), NONCE, TIMESTAMP));
+		assertNull(signer.buildHeader(new HttpGet("http://localhost/api?realm=abc"), NONCE, TIMESTAMP));
+		assertNull(signer.buildHeader(new HttpGet("http://localhost/api?flag"), NONCE, TIMESTAMP));
+	}
+
+	/** requests already signed are left to signpost */
+	public void alreadySigned() throws Exception {
+		HttpGet get = new HttpGet("http://localhost/api");
+		get.setHeader("Authorization", "OAuth oauth_token=\"abc\"");
+
+		assertNull(new OAuthSigner("key", "secret", null, null).buildHeader(get, NONCE, TIMESTAMP));
+	}
+
+	/** the token holder signs requests and uses new tokens when set */
+	public void tokenHolder() throws Exception {
+		TokenHolder holder = new TokenHolder("key", "secret");
+		HttpGet first = new HttpGet("http://localhost/api");
+		holder.sign(first, null);
+		holder.setToken("token", "tokenSecret");
+		HttpGet second = new HttpGet("http://localhost/api");
+		holder.sign(second, null);
+
+		assertTrue(first.getFirstHeader("Authorization").getValue().startsWith("OAuth oauth_consumer_key=\"key\""));
+		assertTrue(!first.getFirstHeader("Authorization").getValue().contains("oauth_token"));
+		assertTrue(second.getFirstHeader("Authorization").getValue().contains("oauth_token=\"token\""));
+	}
+
+	/** nonces differ between requests */
+	public void nonces() {
+		assertNotEquals(OAuthSigner.generateNonce(), OAuthSigner.generateNonce());
+	}
+
+	/** percent encoding matches OAuth's rules */
+	public void percentEncode() {
+		assertEquals(OAuthSigner.percentEncode("aZ09-._~"), "aZ09-._~");
+		assertEquals(OAuthSigner.percentEncode(" *+/=&%"), "%20%2A%2B%2F%3D%26%25");
+		assertEquals(OAuthSigner.percentEncode("\u00e9\u20ac\ud83d\ude00"), "%C3%A9%E2%82%AC%F0%9F%98%80");
+		assertEquals(OAuthSigner.percentEncode(null), "");
+	}
+
+	private void assertSameHeader(HttpRequestBase request, String key, String secret, String token, String tokenSecret)
+		throws Exception {
+		String header = new OAuthSigner(key, secret, token, tokenSecret).buildHeader(request, NONCE, TIMESTAMP);
+
+		OAuthConsumer consumer = new BellaDatiOAuthConsumer(key, secret) {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected String generateNonce() {
+				return NONCE;
+			}
+
+			@Override
+			protected String generateTimestamp() {
+				return TIMESTAMP;
+			}
+		};
+		consumer.setTokenWithSecret(token, tokenSecret);
+		consumer.sign(request);
+
+		assertEquals(header, request.getFirstHeader("Authorization").getValue(), "Different header for "
+			+ request.getRequestLine() + " with token " + token);
+	}
+}
@@ -0,0 +1,36 @@
+package com.belladati.sdk.impl;
+
+import oauth.signpost.OAuthConsumer;
+
+import com.belladati.httpclientandroidlib.client.methods.HttpGet;
+import com.belladati.sdk.test.BenchmarkRunner;
+
+/**
+ * Compares signing requests with a new signpost consumer per request against
+ * the token holder's reusable signer. Run with <tt>main</tt>; not part of the
+ * regular test suite.
+ */
+public class OAuthSigningBenchmark {
+
+	private static final String URL = "http://localhost:8080/api/reports/views/123/chart?filter=%7B%22drilldown%22%3A%7B%7D%7D&lang=de";
+
+	public static void main(String[] args) throws Exception {
+		final TokenHolder tokenHolder = new TokenHolder("key", "secret");
+		tokenHolder.setToken("token", "tokenSecret");
+
+		BenchmarkRunner runner = new BenchmarkRunner(20000, 100000);
+		runner.run("signpost consumer", new BenchmarkRunner.Task() {
+			@Override
+			public void run() throws Exception {
+				OAuthConsumer consumer = tokenHolder.createConsumer();
+				consumer.sign(new HttpGet(URL));
+			}
+		});
+		runner.run("reusable signer", new BenchmarkRunner.Task() {
+			@Override
+			public void run() throws Exception {
+				tokenHolder.sign(new HttpGet(URL), null);
+			}
+		});
+	}
+}
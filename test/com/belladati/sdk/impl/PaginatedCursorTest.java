@@ -0,0 +1,274 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.server.InternalErrorException;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Tests iterating over a {@link PaginatedList} with a
+ * {@link PaginatedCursor}.
+ */
+@Test
+public class PaginatedCursorTest extends SDKTest {
+
+	private final String relativeUrl = "/list";
+
+	private PaginatedList<Item> list;
+	private ItemPages pages;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupList() {
+		pages = new ItemPages(10);
+		server.register(relativeUrl, pages);
+		list = ItemPages.createList(service, relativeUrl);
+	}
+
+	/** the cursor iterates over all pages without loading them into the list */
+	public void iterateAll() {
+		pages.total = 5;
+		assertEquals(ids(PaginatedLists.cursor(list, 2, 0)), Arrays.asList("0", "1", "2", "3", "4"));
+
+		assertEquals(pages.offsets, Arrays.asList(0, 2, 4));
+		assertTrue(list.isEmpty());
+	}
+
+	/** the cursor stops at the first page that isn't full */
+	public void fullLastPage() {
+		pages.total = 4;
+		assertEquals(ids(PaginatedLists.cursor(list, 2, 0)), Arrays.asList("0", "1", "2", "3"));
+
+		assertEquals(pages.offsets, Arrays.asList(0, 2, 4));
+	}
+
+	/** an empty list has no elements */
+	public void empty() {
+		pages.total = 0;
+		PaginatedCursor<Item> cursor = PaginatedLists.cursor(list, 2, 0);
+
+		assertFalse(cursor.hasNext());
+		assertFalse(cursor.hasNext());
+		assertEquals(pages.offsets, Arrays.asList(0));
+	}
+
+	/** pages are loaded ahead while the current page is processed */
+	public void loadAhead() throws InterruptedException {
+		PaginatedCursor<Item> cursor = PaginatedLists.cursor(list, 2, 2);
+		assertTrue(cursor.hasNext());
+		pages.awaitRequests(3);
+		assertEquals(pages.sortedOffsets(), Arrays.asList(0, 2, 4));
+
+		List<String> ids = ids(cursor);
+		assertEquals(ids, Arrays.asList("0", "1", "2", "3", "4", "5", "6", "7", "8", "9"));
+		// no page is loaded more than once
+		assertEquals(pages.sortedOffsets().subList(0, 6), Arrays.asList(0, 2, 4, 6, 8, 10));
+	}
+
+	/** closing the cursor stops loading further pages */
+	public void close() throws InterruptedException {
+		pages.total = 100;
+		PaginatedCursor<Item> cursor = PaginatedLists.cursor(list, 2, 1);
+		cursor.next();
+		cursor.next();
+		cursor.next();
+		cursor.close();
+
+		// the rest of the current page is still available
+		assertEquals(cursor.next(), new Item("3"));
+		assertFalse(cursor.hasNext());
+		Thread.sleep(50);
+		// the page loaded ahead may have been sent before closing
+		assertEquals(pages.sortedOffsets().subList(0, 2), Arrays.asList(0, 2));
+		assertTrue(pages.offsets.size() <= 3, "Unexpected requests " + pages.offsets);
+	}
+
+	/** the page size returned by the server is used for further pages */
+	public void serverPageSize() {
+		pages.serverSize = 3;
+		pages.total = 7;
+		assertEquals(ids(PaginatedLists.cursor(list, 2, 0)), Arrays.asList("0", "1", "2", "3", "4", "5", "6"));
+
+		assertEquals(pages.offsets, Arrays.asList(0, 3, 6));
+	}
+
+	/** pages that failed to load ahead are loaded again */
+	public void failureFallsBack() {
+		pages.failAt = 4;
+		assertEquals(ids(PaginatedLists.cursor(list, 2, 1)).size(), 10);
+
+		assertEquals(Collections.frequency(pages.offsets, 4), 2);
+	}
+
+	/** failures loading the next page are reported to the caller */
+	public void failure() {
+		pages.failAt = 2;
+		PaginatedCursor<Item> cursor = PaginatedLists.cursor(list, 2, 0);
+		cursor.next();
+		cursor.next();
+		try {
+			cursor.hasNext();
+			fail("No exception thrown");
+		} catch (InternalErrorException e) {}
+	}
+
+	/** pages are loaded with the priority of the thread creating the cursor */
+	public void priority() throws Exception {
+		PaginatedCursor<Item> cursor = RequestPriority.INTERACTIVE.call(new Callable<PaginatedCursor<Item>>() {
+			@Override
+			public PaginatedCursor<Item> call() {
+				return PaginatedLists.cursor(list, 2, 1);
+			}
+		});
+		ids(cursor);
+
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		// the first page is loaded when iterating
+		assertEquals(metrics.getRequestCount(RequestPriority.NORMAL), 1);
+		assertTrue(metrics.getRequestCount(RequestPriority.INTERACTIVE) >= 5);
+		assertEquals(metrics.getRequestCount(RequestPriority.BACKGROUND), 0);
+	}
+
+	/** adaptive pages start small and grow without gaps */
+	public void adaptiveSizes() {
+		pages.total = 100;
+		List<String> ids = ids(PaginatedLists.adaptiveCursor(list, 2, 16, 0));
+
+		assertEquals(ids.size(), 100);
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(ids.get(i), "" + i);
+		}
+		assertEquals(pages.sizes.get(0), (Integer) 2);
+		int offset = 0;
+		for (int i = 0; i < pages.sizes.size(); i++) {
+			assertEquals(pages.offsets.get(i), (Integer) offset);
+			int size = pages.sizes.get(i);
+			assertTrue(size >= 2 && size <= 16, "Unexpected size " + size);
+			if (i > 0) {
+				assertTrue(size <= 2 * pages.sizes.get(i - 1), "Unexpected sizes " + pages.sizes);
+			}
+			offset += size;
+		}
+	}
+
+	/** adaptive pages loaded ahead follow each other without gaps */
+	public void adaptiveLoadAhead() {
+		pages.total = 100;
+		List<String> ids = ids(PaginatedLists.adaptiveCursor(list, 2, 16, 2));
+
+		assertEquals(ids.size(), 100);
+		for (int i = 0; i < ids.size(); i++) {
+			assertEquals(ids.get(i), "" + i);
+		}
+		assertEquals(pages.sizes.get(0), (Integer) 2);
+	}
+
+	/** the page size returned by the server replaces adaptive sizes */
+	public void adaptiveServerPageSize() {
+		pages.serverSize = 3;
+		assertEquals(ids(PaginatedLists.adaptiveCursor(list, 2, 16, 0)).size(), 10);
+
+		assertEquals(pages.offsets, Arrays.asList(0, 3, 6, 9));
+		assertEquals(pages.sizes, Arrays.asList(2, 3, 3, 3));
+	}
+
+	/** while requests take most of the time, pages double up to the maximum */
+	public void sizerGrowsWhenRequestsDominate() {
+		PageSizer sizer = new PageSizer(10, 100);
+		List<Integer> sizes = new ArrayList<Integer>();
+		for (int i = 0; i < 6; i++) {
+			int size = sizer.next();
+			sizes.add(size);
+			sizer.record(size, millis(50) + size * 1000L);
+		}
+
+		assertEquals(sizes, Arrays.asList(10, 20, 40, 80, 100, 100));
+	}
+
+	/** while elements take most of the time, pages stay small */
+	public void sizerStaysSmallWhenElementsDominate() {
+		PageSizer sizer = new PageSizer(10, 100);
+		assertEquals(sizer.next(), 10);
+		sizer.record(10, millis(1 + 10));
+		assertEquals(sizer.next(), 20);
+		sizer.record(20, millis(1 + 20));
+
+		// 1 ms per request makes up 10% of the time at 9 elements
+		assertEquals(sizer.next(), 10);
+	}
+
+	/** pages grow until requests make up a small part of their time */
+	public void sizerTargetSize() {
+		// 9 ms per request makes up 10% of the time at 8100 elements
+		PageSizer sizer = new PageSizer(10, 10000);
+		int size = 0;
+		for (int i = 0; i < 20; i++) {
+			size = sizer.next();
+			sizer.record(size, millis(9) + size * millis(1) / 100);
+		}
+		assertEquals(size, 8100);
+	}
+
+	/** a fixed size is used for all further pages */
+	public void sizerFixed() {
+		PageSizer sizer = new PageSizer(10, 100);
+		sizer.next();
+		sizer.fix(7);
+
+		assertEquals(sizer.next(), 7);
+		sizer.record(7, millis(50));
+		assertEquals(sizer.next(), 7);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void adaptiveMinZero() {
+		PaginatedLists.adaptiveCursor(list, 0, 10, 0);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void adaptiveMaxBelowMin() {
+		PaginatedLists.adaptiveCursor(list, 10, 5, 0);
+	}
+
+	@Test(expectedExceptions = UnsupportedOperationException.class)
+	public void remove() {
+		PaginatedCursor<Item> cursor = PaginatedLists.cursor(list, 2, 0);
+		cursor.next();
+		cursor.remove();
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void sizeZero() {
+		PaginatedLists.cursor(list, 0, 0);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void aheadNegative() {
+		PaginatedLists.cursor(list, 2, -1);
+	}
+
+	/** Iterates over the cursor, returning the IDs of its elements. */
+	private List<String> ids(PaginatedCursor<Item> cursor) {
+		List<String> ids = new ArrayList<String>();
+		while (cursor.hasNext()) {
+			ids.add(cursor.next().getId());
+		}
+		return ids;
+	}
+
+	private long millis(long millis) {
+		return TimeUnit.MILLISECONDS.toNanos(millis);
+	}
+}
@@ -0,0 +1,151 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.server.InternalErrorException;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Tests reading a {@link PaginatedList} while it's being loaded.
+ */
+@Test
+public class PaginatedListConcurrencyTest extends SDKTest {
+
+	private final String relativeUrl = "/list";
+
+	private PaginatedList<Item> list;
+	private ItemPages pages;
+	/** whether the server fails all requests */
+	private volatile boolean fail;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupList() {
+		fail = false;
+		pages = new ItemPages(1000) {
+			@Override
+			protected boolean beforeResponse(int offset, int size) {
+				return !fail && super.beforeResponse(offset, size);
+			}
+		};
+		server.register(relativeUrl, pages);
+		list = ItemPages.createIdList(service, relativeUrl);
+	}
+
+	/** iterators keep iterating over the elements loaded when created */
+	public void iterateWhileLoading() {
+		list.load(0, 10);
+		Iterator<Item> iterator = list.iterator();
+		iterator.next();
+
+		list.loadNext();
+		int count = 1;
+		while (iterator.hasNext()) {
+			assertEquals(iterator.next(), new Item("" + count++));
+		}
+		assertEquals(count, 10);
+		assertEquals(list.size(), 20);
+	}
+
+	/** the list returned by toList doesn't change when loading */
+	public void toListSnapshot() {
+		list.load(0, 10);
+		List<Item> snapshot = list.toList();
+
+		list.loadNext();
+		assertEquals(snapshot.size(), 10);
+		assertEquals(list.toList().size(), 20);
+		try {
+			snapshot.add(new Item("new"));
+			fail("List is modifiable");
+		} catch (UnsupportedOperationException e) {}
+	}
+
+	/** elements are found across the loaded pages */
+	public void getAcrossPages() {
+		pages.total = 30;
+		list.load(1, 10);
+		list.loadNext();
+		list.loadNext();
+
+		assertEquals(list.size(), 20);
+		assertFalse(list.hasNextPage());
+		for (int i = 10; i < 30; i++) {
+			assertEquals(list.get(i), new Item("" + i));
+			assertEquals(list.indexOf(new Item("" + i)), i);
+			assertEquals(((PaginatedIdListImpl<Item>) list).indexOf("" + i), i);
+		}
+		assertEquals(list.toList().indexOf(new Item("25")), 15);
+		assertEquals(list.toList().get(19), new Item("29"));
+	}
+
+	/** the loaded elements are kept if loading fails */
+	public void failureKeepsElements() {
+		list.load(0, 10);
+		fail = true;
+		try {
+			list.load(0, 10);
+			fail("No exception thrown");
+		} catch (InternalErrorException e) {}
+
+		assertEquals(list.size(), 10);
+		assertEquals(list.getLastLoadedIndex(), 9);
+	}
+
+	/** readers always see a consistent list while another thread loads */
+	public void concurrentReaders() throws InterruptedException {
+		list.load(0, 10);
+		final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+		final CountDownLatch done = new CountDownLatch(1);
+		List<Thread> readers = new ArrayList<Thread>();
+		for (int i = 0; i < 4; i++) {
+			Thread reader = new Thread() {
+				@Override
+				public void run() {
+					try {
+						while (done.getCount() > 0) {
+							int expected = 0;
+							for (Item item : list) {
+								assertEquals(item, new Item("" + expected++));
+							}
+							assertEquals(expected % 10, 0);
+							int last = list.getLastLoadedIndex();
+							assertEquals(list.get(last), new Item("" + last));
+							assertEquals(list.toList().size() % 10, 0);
+						}
+					} catch (Throwable t) {
+						failure.compareAndSet(null, t);
+					}
+				}
+			};
+			reader.start();
+			readers.add(reader);
+		}
+		try {
+			while (list.hasNextPage()) {
+				list.loadNext();
+			}
+		} finally {
+			done.countDown();
+			for (Thread reader : readers) {
+				reader.join(5000);
+			}
+		}
+
+		assertNull(failure.get());
+		assertEquals(list.size(), 1000);
+		assertTrue(list.toList().contains(new Item("999")));
+	}
+}
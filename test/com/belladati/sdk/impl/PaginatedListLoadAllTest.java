@@ -0,0 +1,174 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.server.InternalErrorException;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Tests loading all pages of a {@link PaginatedList} in parallel.
+ */
+@Test
+public class PaginatedListLoadAllTest extends SDKTest {
+
+	private final String relativeUrl = "/list";
+
+	private PaginatedList<Item> list;
+	private ItemPages pages;
+	/** time the server takes to respond */
+	private volatile int delayMillis;
+	private AtomicInteger active;
+	private AtomicInteger maxActive;
+	/** whether the server holds the second page until the third is requested */
+	private volatile boolean holdSecondPage;
+	/** whether the third page was requested while the second was held */
+	private volatile boolean overlapped;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupList() {
+		delayMillis = 0;
+		active = new AtomicInteger();
+		maxActive = new AtomicInteger();
+		holdSecondPage = false;
+		overlapped = false;
+		// counted down by the requests for the second and third page
+		final CountDownLatch arrived = new CountDownLatch(2);
+		pages = new ItemPages(25) {
+			@Override
+			protected boolean beforeResponse(int offset, int size) {
+				int current = active.incrementAndGet();
+				synchronized (maxActive) {
+					maxActive.set(Math.max(maxActive.get(), current));
+				}
+				if (offset == size || offset == 2 * size) {
+					arrived.countDown();
+				}
+				if (holdSecondPage && offset == size) {
+					try {
+						overlapped = arrived.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				try {
+					Thread.sleep(delayMillis);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				active.decrementAndGet();
+				return super.beforeResponse(offset, size);
+			}
+		};
+		server.register(relativeUrl, pages);
+		list = ItemPages.createList(service, relativeUrl);
+	}
+
+	/** all pages are loaded into the list in order */
+	public void loadAll() {
+		assertEquals(PaginatedLists.loadAll(list, 10, 3), list);
+
+		assertEquals(ids(), range(0, 25));
+		assertEquals(list.getFirstLoadedPage(), 0);
+		assertEquals(list.getLastLoadedPage(), 2);
+		assertEquals(list.getLastLoadedIndex(), 24);
+		assertFalse(list.hasNextPage());
+		// pages after the end may have been requested
+		assertEquals(pages.sortedOffsets().subList(0, 3), Arrays.asList(0, 10, 20));
+		assertTrue(pages.offsets.size() <= 5, "Unexpected requests " + pages.offsets);
+	}
+
+	/** a full last page is followed by an empty one */
+	public void fullLastPage() {
+		pages.total = 20;
+		PaginatedLists.loadAll(list, 10, 2);
+
+		assertEquals(ids(), range(0, 20));
+		assertFalse(list.hasNextPage());
+		list.loadNext();
+		assertEquals(list.size(), 20);
+	}
+
+	/** a list with a single page needs a single request */
+	public void singlePage() {
+		pages.total = 5;
+		PaginatedLists.loadAll(list, 10, 4);
+
+		assertEquals(ids(), range(0, 5));
+		assertEquals(pages.offsets, Arrays.asList(0));
+	}
+
+	/** pages are requested at the same time, up to the given parallelism */
+	public void parallelism() {
+		pages.total = 100;
+		delayMillis = 20;
+		holdSecondPage = true;
+		PaginatedLists.loadAll(list, 10, 3);
+
+		assertEquals(list.size(), 100);
+		assertTrue(overlapped, "Pages weren't requested at the same time");
+		assertTrue(maxActive.get() <= 3, "Too many pages requested at the same time: " + maxActive.get());
+	}
+
+	/** the page size returned by the server is used for further pages */
+	public void serverPageSize() {
+		pages.serverSize = 5;
+		pages.total = 12;
+		PaginatedLists.loadAll(list, 10, 1);
+
+		assertEquals(ids(), range(0, 12));
+		assertEquals(list.getPageSize(), 5);
+		assertEquals(pages.offsets, Arrays.asList(0, 5, 10));
+	}
+
+	/** the list isn't changed if a page fails to load */
+	public void failure() {
+		pages.total = 50;
+		list.load(0, 10);
+		pages.failAt = 20;
+		try {
+			PaginatedLists.loadAll(list, 10, 2);
+			fail("No exception thrown");
+		} catch (InternalErrorException e) {}
+
+		assertEquals(ids(), range(0, 10));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void sizeZero() {
+		PaginatedLists.loadAll(list, 0, 1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void parallelismZero() {
+		PaginatedLists.loadAll(list, 10, 0);
+	}
+
+	private List<String> ids() {
+		List<String> ids = new ArrayList<String>();
+		for (Item item : list) {
+			ids.add(item.getId());
+		}
+		return ids;
+	}
+
+	private List<String> range(int from, int to) {
+		List<String> ids = new ArrayList<String>();
+		for (int i = from; i < to; i++) {
+			ids.add("" + i);
+		}
+		return ids;
+	}
+}
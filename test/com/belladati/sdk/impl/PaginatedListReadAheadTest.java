@@ -0,0 +1,322 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.impl.PaginatedListImpl.Page;
+import com.belladati.sdk.util.PaginatedIdList;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Tests reading ahead in a {@link PaginatedList}.
+ */
+@Test
+public class PaginatedListReadAheadTest extends SDKTest {
+
+	private final String relativeUrl = "/list";
+
+	private PaginatedIdList<Item> list;
+	private ItemPages pages;
+	/** offset at which the server waits for release */
+	private volatile int holdAt;
+	private CountDownLatch release;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupList() {
+		holdAt = -1;
+		release = new CountDownLatch(1);
+		pages = new ItemPages(10) {
+			@Override
+			protected boolean beforeResponse(int offset, int size) {
+				if (offset == holdAt) {
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				return super.beforeResponse(offset, size);
+			}
+		};
+		pages.prefix = "a";
+		server.register(relativeUrl, pages);
+		list = ItemPages.createIdList(service, relativeUrl);
+	}
+
+	@AfterMethod(alwaysRun = true)
+	protected void releaseServer() {
+		release.countDown();
+	}
+
+	/** lists don't read ahead unless enabled */
+	public void disabledByDefault() throws InterruptedException {
+		list.load(0, 2);
+		list.get(1);
+		for (Iterator<Item> iterator = list.iterator(); iterator.hasNext();) {
+			iterator.next();
+		}
+		Thread.sleep(50);
+
+		assertOffsets(0);
+	}
+
+	/** the next page is loaded when the last loaded element is accessed */
+	public void readAheadOnGet() throws InterruptedException {
+		PaginatedLists.readAhead(list, 0, 1);
+		list.load(0, 2);
+		list.get(0);
+		Thread.sleep(50);
+		assertOffsets(0);
+
+		list.get(1);
+		awaitOffsets(0, 2);
+		list.loadNext();
+
+		assertOffsets(0, 2);
+		assertEquals(list.size(), 4);
+		assertEquals(list.get(3), new Item("a3"));
+		assertEquals(list.getLastLoadedPage(), 1);
+	}
+
+	/** reading ahead starts within the configured distance */
+	public void readAheadOnIterate() throws InterruptedException {
+		PaginatedLists.readAhead(list, 2, 1);
+		list.load(0, 4);
+		Iterator<Item> iterator = list.iterator();
+		iterator.next();
+		Thread.sleep(50);
+		assertOffsets(0);
+
+		iterator.next();
+		awaitOffsets(0, 4);
+		// further accesses don't load the page again
+		list.get(3);
+		list.loadNext();
+
+		assertOffsets(0, 4);
+		assertEquals(list.size(), 8);
+	}
+
+	/** multiple pages can be read ahead, more once they've been added */
+	public void multiplePages() throws InterruptedException {
+		PaginatedLists.readAhead(list, 0, 2);
+		list.load(0, 2);
+		list.get(1);
+		awaitOffsets(0, 2, 4);
+		list.loadNext();
+		list.loadNext();
+		assertOffsets(0, 2, 4);
+		assertEquals(list.size(), 6);
+
+		list.get(5);
+		awaitOffsets(0, 2, 4, 6, 8);
+		list.loadNext().loadNext();
+		assertEquals(list.size(), 10);
+		assertEquals(list.get(9), new Item("a9"));
+	}
+
+	/** reading ahead stops after a partial page */
+	public void partialPage() throws InterruptedException {
+		pages.total = 5;
+		PaginatedLists.readAhead(list, 0, 3);
+		list.load(0, 2);
+		list.get(1);
+		awaitOffsets(0, 2, 4, 6);
+		list.loadNext().loadNext();
+		assertFalse(list.hasNextPage());
+		list.loadNext();
+		list.get(4);
+		Thread.sleep(50);
+
+		assertEquals(list.size(), 5);
+		assertOffsets(0, 2, 4, 6);
+	}
+
+	/** loading the list discards pages read ahead */
+	public void loadCancels() throws InterruptedException {
+		holdAt = 2;
+		PaginatedLists.readAhead(list, 0, 1);
+		list.load(0, 2);
+		list.get(1);
+		awaitOffsets(0, 2);
+
+		pages.prefix = "b";
+		list.load(0, 2);
+		release.countDown();
+		holdAt = -1;
+		list.loadNext();
+
+		assertEquals(list.get(1), new Item("b1"));
+		assertEquals(list.get(3), new Item("b3"));
+	}
+
+	/** pages read ahead at the previous page size aren't added after resizing */
+	public void resizeWhileReading() throws InterruptedException {
+		pages.total = 100;
+		PaginatedLists.readAhead(list, 0, 1);
+		list.load(0, 10);
+		holdAt = 0;
+		Thread loader = new Thread() {
+			@Override
+			public void run() {
+				list.load(0, 50);
+			}
+		};
+		loader.start();
+		awaitOffsets(0, 0);
+		// a reader reaching the end of the previous elements reads ahead
+		list.get(9);
+		awaitOffsets(0, 0, 10);
+		release.countDown();
+		loader.join(5000);
+
+		list.loadNext();
+
+		assertEquals(list.getPageSize(), 50);
+		assertEquals(list.size(), 100);
+		for (int i = 0; i < 100; i++) {
+			assertEquals(list.get(i), new Item("a" + i));
+		}
+	}
+
+	/** pages taken but not yet added aren't read ahead again */
+	public void noDuplicateWhileAdding() throws InterruptedException {
+		holdAt = 2;
+		PaginatedLists.readAhead(list, 0, 1);
+		list.load(0, 2);
+		list.get(1);
+		awaitOffsets(0, 2);
+		Thread loader = new Thread() {
+			@Override
+			public void run() {
+				list.loadNext();
+			}
+		};
+		loader.start();
+		// give loadNext() time to take the page being read ahead
+		Thread.sleep(50);
+		list.get(1);
+		awaitOffsets(0, 2, 4);
+		release.countDown();
+		loader.join(5000);
+
+		assertEquals(list.size(), 4);
+		assertEquals(list.get(3), new Item("a3"));
+		assertOffsets(0, 2, 4);
+	}
+
+	/** pages that failed to load in the background are loaded again */
+	public void failureFallsBack() throws InterruptedException {
+		pages.failAt = 2;
+		PaginatedLists.readAhead(list, 0, 1);
+		list.load(0, 2);
+		list.get(1);
+		awaitOffsets(0, 2);
+		list.loadNext();
+
+		assertEquals(list.size(), 4);
+		assertEquals(list.get(2), new Item("a2"));
+		assertOffsets(0, 2, 2);
+	}
+
+	/** background requests are sent with background priority */
+	public void backgroundPriority() throws InterruptedException {
+		PaginatedLists.readAhead(list, 0, 1);
+		list.load(0, 2);
+		list.get(1);
+		awaitOffsets(0, 2);
+		list.loadNext();
+
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		assertEquals(metrics.getRequestCount(RequestPriority.BACKGROUND), 1);
+		assertEquals(metrics.getRequestCount(RequestPriority.NORMAL), 1);
+	}
+
+	/** a page still queued is loaded with the caller's priority instead */
+	public void claimQueued() throws Exception {
+		PaginatedLists.readAhead(list, 0, 1);
+		list.load(0, 2);
+		final CountDownLatch block = new CountDownLatch(1);
+		int threads = BellaDatiClient.readFromProperty("bdReadAheadThreads", 4);
+		final CountDownLatch blocking = new CountDownLatch(threads);
+		for (int i = 0; i < threads; i++) {
+			// keep all threads loading pages in the background busy
+			((PaginatedListImpl<Item>) list).fetchInBackground(new Callable<Page<Item>>() {
+				@Override
+				public Page<Item> call() throws InterruptedException {
+					blocking.countDown();
+					block.await(5, TimeUnit.SECONDS);
+					return null;
+				}
+			}, RequestPriority.BACKGROUND);
+		}
+		try {
+			assertTrue(blocking.await(5, TimeUnit.SECONDS));
+			list.get(1);
+			list.loadNext();
+
+			assertEquals(list.size(), 4);
+			// toList() doesn't read ahead, unlike get()
+			assertEquals(list.toList().get(3), new Item("a3"));
+			BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+			assertEquals(metrics.getRequestCount(RequestPriority.NORMAL), 2);
+			assertEquals(metrics.getRequestCount(RequestPriority.BACKGROUND), 0);
+		} finally {
+			block.countDown();
+		}
+		Thread.sleep(50);
+		// the claimed page isn't loaded in the background anymore
+		assertOffsets(0, 2);
+	}
+
+	/** reading ahead can be disabled again */
+	public void disable() throws InterruptedException {
+		PaginatedLists.readAhead(list, 0, 1);
+		PaginatedLists.readAhead(list, 0, 0);
+		list.load(0, 2);
+		list.get(1);
+		Thread.sleep(50);
+
+		assertOffsets(0);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void negativeDistance() {
+		PaginatedLists.readAhead(list, -1, 1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void negativePages() {
+		PaginatedLists.readAhead(list, 0, -1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void foreignList() {
+		PaginatedLists.readAhead(null, 0, 1);
+	}
+
+	/** Waits until the server has received requests for the given offsets. */
+	private void awaitOffsets(Integer... expected) throws InterruptedException {
+		pages.awaitRequests(expected.length);
+		assertOffsets(expected);
+	}
+
+	/**
+	 * Asserts that the server has received requests for the given offsets.
+	 * Pages read ahead may be requested in any order.
+	 */
+	private void assertOffsets(Integer... expected) {
+		assertEquals(pages.sortedOffsets(), Arrays.asList(expected), "Requested offsets " + pages.offsets);
+	}
+}
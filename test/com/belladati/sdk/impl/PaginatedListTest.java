@@ -445,6 +445,42 @@ public class PaginatedListTest extends SDKTest {
 		assertEquals(list.indexOf(id), -1);
 	}
 
+	/** indexOf(id) finds elements on all loaded pages. */
+	public void indexOfIdAcrossPages() {
+		registerResponse(2, 0, "a", "b");
+		list.load();
+		registerResponse(2, 2, "c", "a");
+		list.loadNext();
+
+		assertEquals(list.indexOf("c"), 2);
+		assertTrue(list.contains("c"));
+		// the first element with the ID is found
+		assertEquals(list.indexOf("a"), 0);
+		assertEquals(list.indexOf("d"), -1);
+		assertFalse(list.contains("d"));
+	}
+
+	/** Earlier snapshots don't find elements added after them. */
+	public void snapshotIndexOfId() {
+		PaginatedListImpl.Snapshot<Item> first = PaginatedListImpl.Snapshot.<Item> empty().append(
+			new PaginatedListImpl.Page<Item>(0, 2, Arrays.asList(new Item("a"), new Item("b"))), true, true);
+		PaginatedListImpl.Snapshot<Item> second = first.append(
+			new PaginatedListImpl.Page<Item>(1, 2, Arrays.asList(new Item("c"), new Item("b"))), false, true);
+
+		assertEquals(first.indexOfId("b"), 1);
+		assertEquals(first.indexOfId("c"), -1);
+		assertEquals(second.indexOfId("b"), 1);
+		assertEquals(second.indexOfId("c"), 2);
+
+		// starting over doesn't affect the earlier snapshots
+		PaginatedListImpl.Snapshot<Item> reloaded = second.append(
+			new PaginatedListImpl.Page<Item>(0, 2, Arrays.asList(new Item("c"))), true, true);
+		assertEquals(reloaded.indexOfId("c"), 0);
+		assertEquals(reloaded.indexOfId("a"), -1);
+		assertEquals(second.indexOfId("c"), 2);
+		assertEquals(second.indexOfId("a"), 0);
+	}
+
 	/** List is empty if it hasn't been loaded or actually is empty. */
 	public void isEmpty() {
 		assertTrue(list.isEmpty());
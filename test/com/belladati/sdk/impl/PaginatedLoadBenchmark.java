@@ -0,0 +1,153 @@
+package com.belladati.sdk.impl;
+
+import java.io.IOException;
+import java.util.Map;
+
+import org.apache.http.entity.StringEntity;
+
+import com.belladati.sdk.test.BenchmarkRunner;
+import com.belladati.sdk.test.RequestTrackingServer;
+import com.belladati.sdk.test.TestRequestHandler;
+import com.belladati.sdk.util.PaginatedList;
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.ArrayNode;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+
+/**
+ * Compares loading all pages of a list one after the other through
+ * {@link PaginatedList#loadNext()} against
+ * {@link PaginatedLists#loadAll(PaginatedList, int, int)} with increasing
+ * parallelism, against a local server that takes a fixed time to respond.
+ * Also compares cursors with small and large fixed page sizes against an
+ * adaptive cursor growing from the small to the large size. Run with <tt>main</tt>; not part of the regular test suite.
+ */
+public class PaginatedLoadBenchmark {
+
+	private static final int TOTAL = 2000;
+	private static final int PAGE_SIZE = 100;
+	private static final int MIN_PAGE_SIZE = 10;
+	private static final int LATENCY_MILLIS = 20;
+	private static final int[] PARALLELISM = { 1, 2, 4, 8 };
+
+	public static void main(String[] args) throws Exception {
+		System.setProperty("bdReadAheadThreads", "8");
+		RequestTrackingServer server = new RequestTrackingServer();
+		server.start();
+		try {
+			server.register("/list", new TestRequestHandler() {
+				@Override
+				protected void handle(HttpHolder holder) throws IOException {
+					Map<String, String> params = holder.getUrlParameters();
+					int size = Integer.parseInt(params.get("size"));
+					int offset = Integer.parseInt(params.get("offset"));
+					try {
+						Thread.sleep(LATENCY_MILLIS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+					holder.response.setEntity(new StringEntity(buildResponse(size, offset).toString()));
+				}
+			});
+			BellaDatiServiceImpl service = new BellaDatiServiceImpl(new BellaDatiClient(server.getHttpURL(), false),
+				new TokenHolder("key", "secret"));
+			BenchmarkRunner runner = new BenchmarkRunner(2, 10);
+			runner.run("sequential loadNext", new SequentialTask(service));
+			for (int parallelism : PARALLELISM) {
+				runner.run("loadAll parallelism " + parallelism, new LoadAllTask(service, parallelism));
+			}
+			runner.run("cursor size " + MIN_PAGE_SIZE, new CursorTask(service, MIN_PAGE_SIZE, MIN_PAGE_SIZE));
+			runner.run("cursor size " + TOTAL, new CursorTask(service, TOTAL, TOTAL));
+			runner.run("adaptive cursor " + MIN_PAGE_SIZE + "-" + TOTAL, new CursorTask(service, MIN_PAGE_SIZE, TOTAL));
+		} finally {
+			server.stop();
+		}
+	}
+
+	private static PaginatedList<Item> createList(BellaDatiServiceImpl service) {
+		return new PaginatedListImpl<Item>(service, "/list", "items") {
+			@Override
+			protected Item parse(BellaDatiServiceImpl service, JsonNode node) {
+				return new Item(node.get("id").asText());
+			}
+		};
+	}
+
+	private static void check(PaginatedList<Item> list) {
+		if (list.size() != TOTAL) {
+			throw new IllegalStateException("Loaded " + list.size() + " elements, expected " + TOTAL);
+		}
+	}
+
+	private static JsonNode buildResponse(int size, int offset) {
+		ObjectMapper mapper = new ObjectMapper();
+		ObjectNode node = mapper.createObjectNode();
+		ArrayNode items = mapper.createArrayNode();
+		for (int i = offset; i < Math.min(offset + size, TOTAL); i++) {
+			items.add(mapper.createObjectNode().put("id", "" + i).put("name", "Report " + i));
+		}
+		node.put("size", size).put("offset", offset).put("items", items);
+		return node;
+	}
+
+	/** Loads the first page, then the following pages one by one. */
+	private static class SequentialTask implements BenchmarkRunner.Task {
+		private final BellaDatiServiceImpl service;
+
+		SequentialTask(BellaDatiServiceImpl service) {
+			this.service = service;
+		}
+
+		@Override
+		public void run() {
+			PaginatedList<Item> list = createList(service).load(0, PAGE_SIZE);
+			while (list.hasNextPage()) {
+				list.loadNext();
+			}
+			check(list);
+		}
+	}
+
+	/** Loads all pages with the given parallelism. */
+	private static class LoadAllTask implements BenchmarkRunner.Task {
+		private final BellaDatiServiceImpl service;
+		private final int parallelism;
+
+		LoadAllTask(BellaDatiServiceImpl service, int parallelism) {
+			this.service = service;
+			this.parallelism = parallelism;
+		}
+
+		@Override
+		public void run() {
+			check(PaginatedLists.loadAll(createList(service), PAGE_SIZE, parallelism));
+		}
+	}
+
+	/** Iterates over all elements with a cursor. */
+	private static class CursorTask implements BenchmarkRunner.Task {
+		private final BellaDatiServiceImpl service;
+		private final int minPageSize;
+		private final int maxPageSize;
+
+		CursorTask(BellaDatiServiceImpl service, int minPageSize, int maxPageSize) {
+			this.service = service;
+			this.minPageSize = minPageSize;
+			this.maxPageSize = maxPageSize;
+		}
+
+		@Override
+		public void run() {
+			PaginatedCursor<Item> cursor = PaginatedLists.adaptiveCursor(createList(service), minPageSize, maxPageSize,
+				1);
+			int count = 0;
+			while (cursor.hasNext()) {
+				cursor.next();
+				count++;
+			}
+			if (count != TOTAL) {
+				throw new IllegalStateException("Iterated over " + count + " elements, expected " + TOTAL);
+			}
+		}
+	}
+}
@@ -0,0 +1,203 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.server.NotFoundException;
+import com.belladati.sdk.test.TestRequestHandler;
+import com.fasterxml.jackson.databind.JsonNode;
+
+/**
+ * Tests coalescing of identical concurrent GET requests.
+ */
+@Test
+public class RequestCoalescingTest extends SDKTest {
+
+	private final String uri = "/api/reports/123";
+	private final int callers = 4;
+
+	private final AtomicInteger requestCount = new AtomicInteger();
+	private CountDownLatch arrived;
+	private CountDownLatch release;
+	private ExecutorService executor;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupExecutor() {
+		executor = Executors.newFixedThreadPool(callers);
+		requestCount.set(0);
+		arrived = new CountDownLatch(1);
+		release = new CountDownLatch(1);
+	}
+
+	@AfterMethod(alwaysRun = true)
+	protected void shutdownExecutor() {
+		release.countDown();
+		executor.shutdownNow();
+	}
+
+	/** concurrent JSON requests share one round trip and one result */
+	public void concurrentJson() throws Exception {
+		registerBlocking(200, "{\"id\":\"123\"}");
+
+		List<Future<JsonNode>> results = submit(new Callable<JsonNode>() {
+			@Override
+			public JsonNode call() {
+				return service.client.getJson(uri.substring(1), service.tokenHolder);
+			}
+		});
+
+		assertEquals(requestCount.get(), 1);
+		JsonNode first = results.get(0).get();
+		assertEquals(first.get("id").asText(), "123");
+		for (Future<JsonNode> result : results) {
+			assertSame(result.get(), first);
+		}
+		assertEquals(service.client.getCoalescedRequestCount(), callers - 1);
+	}
+
+	/** concurrent byte requests share one round trip but get separate copies */
+	public void concurrentBytes() throws Exception {
+		registerBlocking(200, "content");
+
+		List<Future<byte[]>> results = submit(new Callable<byte[]>() {
+			@Override
+			public byte[] call() {
+				return service.client.get(uri.substring(1), service.tokenHolder);
+			}
+		});
+
+		assertEquals(requestCount.get(), 1);
+		byte[] first = results.get(0).get();
+		for (int i = 1; i < results.size(); i++) {
+			assertEquals(results.get(i).get(), first);
+			assertNotSame(results.get(i).get(), first);
+		}
+	}
+
+	/** all callers receive the exception of a failed request */
+	public void concurrentFailure() throws Exception {
+		registerBlocking(404, "");
+
+		List<Future<Exception>> results = submit(new Callable<Exception>() {
+			@Override
+			public Exception call() {
+				try {
+					service.client.getJson(uri.substring(1), service.tokenHolder);
+					return null;
+				} catch (Exception e) {
+					return e;
+				}
+			}
+		});
+
+		assertEquals(requestCount.get(), 1);
+		for (Future<Exception> result : results) {
+			assertTrue(result.get() instanceof NotFoundException, "Unexpected result " + result.get());
+		}
+	}
+
+	/** requests made with different tokens are not shared */
+	public void differentTokens() throws Exception {
+		registerBlocking(200, "{}");
+		final TokenHolder otherHolder = new TokenHolder("key", "secret");
+		otherHolder.setToken("other", "secret");
+
+		Future<JsonNode> first = executor.submit(new Callable<JsonNode>() {
+			@Override
+			public JsonNode call() {
+				return service.client.getJson(uri.substring(1), service.tokenHolder);
+			}
+		});
+		assertTrue(arrived.await(5, TimeUnit.SECONDS));
+		Future<JsonNode> second = executor.submit(new Callable<JsonNode>() {
+			@Override
+			public JsonNode call() {
+				return service.client.getJson(uri.substring(1), otherHolder);
+			}
+		});
+		waitForRequests(2);
+		release.countDown();
+		first.get(5, TimeUnit.SECONDS);
+		second.get(5, TimeUnit.SECONDS);
+
+		assertEquals(requestCount.get(), 2);
+		assertEquals(service.client.getCoalescedRequestCount(), 0);
+	}
+
+	/** sequential requests are not shared */
+	public void sequential() {
+		server.register(uri, "{}");
+
+		service.client.getJson(uri.substring(1), service.tokenHolder);
+		service.client.getJson(uri.substring(1), service.tokenHolder);
+
+		server.assertRequestUris(uri, uri);
+		assertEquals(service.client.getCoalescedRequestCount(), 0);
+	}
+
+	/**
+	 * Submits the call for all callers: one caller first, then the remaining
+	 * callers once the first request has reached the server, and releases the
+	 * server response once all callers are waiting.
+	 */
+	private <T> List<Future<T>> submit(Callable<T> call) throws Exception {
+		List<Future<T>> results = new ArrayList<Future<T>>();
+		results.add(executor.submit(call));
+		assertTrue(arrived.await(5, TimeUnit.SECONDS));
+		for (int i = 1; i < callers; i++) {
+			results.add(executor.submit(call));
+		}
+		long deadline = System.currentTimeMillis() + 5000;
+		while (service.client.getCoalescedRequestCount() < callers - 1 && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+		release.countDown();
+		for (Future<T> result : results) {
+			result.get(5, TimeUnit.SECONDS);
+		}
+		return results;
+	}
+
+	private void waitForRequests(int count) throws InterruptedException {
+		long deadline = System.currentTimeMillis() + 5000;
+		while (requestCount.get() < count && System.currentTimeMillis() < deadline) {
+			Thread.sleep(5);
+		}
+	}
+
+	/** Registers a handler that blocks until released. */
+	private void registerBlocking(final int status, final String content) {
+		server.register(uri, new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				requestCount.incrementAndGet();
+				arrived.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				holder.response.setStatusCode(status);
+				holder.response.setEntity(new StringEntity(content));
+			}
+		});
+	}
+}
@@ -0,0 +1,307 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.httpclientandroidlib.client.methods.HttpGet;
+import com.belladati.httpclientandroidlib.client.methods.HttpRequestBase;
+import com.belladati.sdk.exception.ConnectionException;
+import com.belladati.sdk.exception.server.NotFoundException;
+import com.belladati.sdk.test.TestRequestHandler;
+
+/**
+ * Tests duplicating slow GET requests.
+ */
+@Test
+public class RequestHedgingTest extends SDKTest {
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		System.clearProperty("bdHedgeRequests");
+		System.clearProperty("bdHedgeMinDelay");
+	}
+
+	/** nothing is duplicated before response times are known */
+	public void noHedgeWithoutSamples() {
+		RequestHedger hedger = new RequestHedger(95, 0, 100, 100);
+
+		TestAttempt attempt = new TestAttempt(50, 0);
+		assertEquals(hedger.execute(attempt), "0");
+
+		assertEquals(attempt.requests.size(), 1);
+		assertEquals(hedger.getHedgeCount(), 0);
+	}
+
+	/** a slow request is duplicated and the duplicate's result used */
+	public void hedgeWins() {
+		RequestHedger hedger = warmUp(new RequestHedger(95, 20, 100, 100));
+
+		long start = System.currentTimeMillis();
+		TestAttempt attempt = new TestAttempt(-1, 0);
+		assertEquals(hedger.execute(attempt), "1");
+
+		assertTrue(System.currentTimeMillis() - start < 2000, "Waited for the slow request");
+		assertEquals(attempt.requests.size(), 2);
+		assertTrue(attempt.requests.get(0).isAborted(), "Slow request not aborted");
+		assertEquals(hedger.getHedgeCount(), 1);
+		assertEquals(hedger.getHedgeWonCount(), 1);
+	}
+
+	/** the original request's result is used if it completes first */
+	public void primaryWins() {
+		RequestHedger hedger = warmUp(new RequestHedger(95, 20, 100, 100));
+
+		TestAttempt attempt = new TestAttempt(100, -1);
+		assertEquals(hedger.execute(attempt), "0");
+
+		assertEquals(attempt.requests.size(), 2);
+		assertFalse(attempt.requests.get(0).isAborted());
+		assertTrue(attempt.requests.get(1).isAborted(), "Duplicate request not aborted");
+		assertEquals(hedger.getHedgeCount(), 1);
+		assertEquals(hedger.getHedgeWonCount(), 0);
+	}
+
+	/** nothing is duplicated beyond the configured share of requests */
+	public void hedgeLimit() {
+		RequestHedger hedger = warmUp(new RequestHedger(95, 20, 0, 100));
+
+		TestAttempt attempt = new TestAttempt(100, 0);
+		assertEquals(hedger.execute(attempt), "0");
+
+		assertEquals(attempt.requests.size(), 1);
+		assertEquals(hedger.getHedgeCount(), 0);
+	}
+
+	/** concurrent slow requests don't exceed the limit together */
+	public void concurrentHedgeLimit() throws InterruptedException {
+		final RequestHedger hedger = warmUp(new RequestHedger(95, 20, 10, 100));
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 20; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					hedger.execute(new TestAttempt(100, 100));
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+
+		// 10% of 60 requests
+		assertTrue(hedger.getHedgeCount() <= 6, "Hedged " + hedger.getHedgeCount() + " requests");
+		assertTrue(hedger.getHedgeCount() > 0);
+	}
+
+	/** requests are sent on the calling thread while all threads are busy */
+	public void threadsBusy() throws InterruptedException {
+		RequestHedger hedger = warmUp(new RequestHedger(95, 20, 100, 1));
+		TestAttempt slow;
+		Thread thread;
+		do {
+			slow = new TestAttempt(-1, -1);
+			thread = new HedgedThread(hedger, slow);
+			thread.start();
+			long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+			while (slow.threads.isEmpty()) {
+				assertTrue(System.nanoTime() < deadline, "Slow request not sent");
+				Thread.sleep(5);
+			}
+			if (slow.threads.get(0) == thread) {
+				// the pool thread hadn't finished warming up yet, try again
+				slow.requests.get(0).abort();
+				thread.join(5000);
+				continue;
+			}
+			// the duplicate is created once the slow request is running
+			while (slow.requests.size() < 2) {
+				assertTrue(System.nanoTime() < deadline, "Duplicate not created");
+				Thread.sleep(5);
+			}
+		} while (slow.requests.size() < 2);
+
+		final Thread caller = Thread.currentThread();
+		final List<Thread> sentOn = new ArrayList<Thread>();
+		assertEquals(hedger.execute(new RequestHedger.Attempt<String>() {
+			@Override
+			public HttpRequestBase createRequest() {
+				return new HttpGet("http://localhost/");
+			}
+
+			@Override
+			public String execute(HttpRequestBase request) {
+				sentOn.add(Thread.currentThread());
+				return "done";
+			}
+		}), "done");
+
+		assertEquals(sentOn, Arrays.asList(caller));
+		slow.requests.get(0).abort();
+		thread.join(5000);
+		// the duplicate wasn't sent since no thread was free
+		assertEquals(hedger.getHedgeCount(), 0);
+	}
+
+	/** the minimum delay is respected */
+	public void minDelay() {
+		RequestHedger hedger = warmUp(new RequestHedger(95, 10000, 100, 100));
+
+		assertTrue(hedger.getDelayNanos() >= TimeUnit.SECONDS.toNanos(10));
+	}
+
+	/** server errors are not hidden by a duplicate request */
+	@Test(expectedExceptions = NotFoundException.class)
+	public void serverError() {
+		RequestHedger hedger = warmUp(new RequestHedger(95, 20, 100, 100));
+
+		hedger.execute(new RequestHedger.Attempt<String>() {
+			@Override
+			public HttpRequestBase createRequest() {
+				return new HttpGet("http://localhost/");
+			}
+
+			@Override
+			public String execute(HttpRequestBase request) {
+				sleep(100);
+				throw new NotFoundException("/");
+			}
+		});
+	}
+
+	/** hedging is disabled by default */
+	public void disabledByDefault() {
+		server.register("/api/reports/123", "{}");
+
+		service.client.getJson("api/reports/123", service.tokenHolder);
+
+		assertEquals(service.client.getHedgeCount(), 0);
+	}
+
+	/** the client sends a duplicate of a slow request */
+	public void clientHedge() throws Exception {
+		System.setProperty("bdHedgeRequests", "true");
+		System.setProperty("bdHedgeMinDelay", "200");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		final CountDownLatch release = new CountDownLatch(1);
+		final AtomicInteger slowCount = new AtomicInteger();
+		server.register("/api/fast", "{}");
+		server.register("/api/slow", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				if (slowCount.incrementAndGet() == 1) {
+					try {
+						release.await(5, TimeUnit.SECONDS);
+					} catch (InterruptedException e) {
+						Thread.currentThread().interrupt();
+					}
+				}
+				holder.response.setEntity(new StringEntity("{\"slow\":" + slowCount.get() + "}"));
+			}
+		});
+		try {
+			// enough requests to allow a hedge at 5%
+			for (int i = 0; i < 40; i++) {
+				client.getJson("api/fast", service.tokenHolder);
+			}
+
+			assertEquals(client.getJson("api/slow", service.tokenHolder).get("slow").asInt(), 2);
+			assertEquals(client.getHedgeCount(), 1);
+			assertEquals(client.getHedgeWonCount(), 1);
+		} finally {
+			release.countDown();
+		}
+	}
+
+	/** Executes enough fast requests to know response times. */
+	private RequestHedger warmUp(RequestHedger hedger) {
+		for (int i = 0; i < 40; i++) {
+			hedger.execute(new TestAttempt(0, 0));
+		}
+		return hedger;
+	}
+
+	private static void sleep(long millis) {
+		try {
+			Thread.sleep(millis);
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/** Executes an attempt through a hedger, ignoring aborted requests. */
+	private static class HedgedThread extends Thread {
+		private final RequestHedger hedger;
+		private final TestAttempt attempt;
+
+		HedgedThread(RequestHedger hedger, TestAttempt attempt) {
+			this.hedger = hedger;
+			this.attempt = attempt;
+		}
+
+		@Override
+		public void run() {
+			try {
+				hedger.execute(attempt);
+			} catch (ConnectionException e) {
+				// expected once aborted
+			}
+		}
+	}
+
+	/**
+	 * Attempt whose requests take the given time. Requests taking -1 ms block
+	 * until they're aborted. Results are the number of the request.
+	 */
+	private static class TestAttempt implements RequestHedger.Attempt<String> {
+		private final long[] durations;
+		private final List<HttpRequestBase> requests = new ArrayList<HttpRequestBase>();
+		/** threads the requests were sent on, in order */
+		private final List<Thread> threads = new CopyOnWriteArrayList<Thread>();
+
+		TestAttempt(long... durations) {
+			this.durations = durations;
+		}
+
+		@Override
+		public synchronized HttpRequestBase createRequest() {
+			HttpGet request = new HttpGet("http://localhost/" + requests.size());
+			requests.add(request);
+			return request;
+		}
+
+		@Override
+		public String execute(HttpRequestBase request) {
+			threads.add(Thread.currentThread());
+			int number;
+			synchronized (this) {
+				number = requests.indexOf(request);
+			}
+			long duration = durations[number];
+			if (duration < 0) {
+				long deadline = System.currentTimeMillis() + 5000;
+				while (!request.isAborted() && System.currentTimeMillis() < deadline) {
+					sleep(5);
+				}
+				throw new ConnectionException("Request aborted", null);
+			}
+			sleep(duration);
+			return "" + number;
+		}
+	}
+}
@@ -0,0 +1,238 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.ConnectionException;
+import com.belladati.sdk.exception.server.InternalErrorException;
+import com.belladati.sdk.impl.RequestEvent.Phase;
+import com.belladati.sdk.test.TestRequestHandler;
+
+/**
+ * Tests limiting the requests sent to a server.
+ */
+@Test
+public class RequestLimiterTest extends SDKTest {
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		System.clearProperty("bdMaxConcurrentRequests");
+		System.clearProperty("bdMaxRequestsPerSecond");
+		System.clearProperty("bdRequestBurst");
+		System.clearProperty("bdAdaptiveLimit");
+		System.clearProperty("bdConnectionRequestTimeout");
+		System.clearProperty("bdCoalesceRequests");
+	}
+
+	/** requests aren't limited by default */
+	public void unlimitedByDefault() {
+		assertNull(service.client.sharedClient.limiter);
+		assertEquals(BellaDatiMetrics.of(service).getRequestLimit(), 0);
+	}
+
+	/** no more than the configured number of requests are in flight */
+	public void concurrencyLimited() throws Exception {
+		System.setProperty("bdMaxConcurrentRequests", "2");
+		// identical concurrent requests would be sent only once
+		System.setProperty("bdCoalesceRequests", "false");
+		final BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		final AtomicInteger active = new AtomicInteger();
+		final AtomicInteger maxActive = new AtomicInteger();
+		server.register("/api/slow", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				int current = active.incrementAndGet();
+				maxActive.set(Math.max(maxActive.get(), current));
+				try {
+					Thread.sleep(50);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				active.decrementAndGet();
+				holder.response.setEntity(new StringEntity("{}"));
+			}
+		});
+		List<Thread> threads = new ArrayList<Thread>();
+		for (int i = 0; i < 6; i++) {
+			Thread thread = new Thread() {
+				@Override
+				public void run() {
+					client.getJson("api/slow", service.tokenHolder);
+				}
+			};
+			thread.start();
+			threads.add(thread);
+		}
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+
+		assertEquals(maxActive.get(), 2);
+		BellaDatiMetrics metrics = client.getMetrics();
+		assertEquals(metrics.getResponseCount(200), 6);
+		assertEquals(metrics.getLimitedRequests(), 6);
+		assertEquals(metrics.getRequestsInFlight(), 0);
+		assertEquals(metrics.getWaitingRequests(), 0);
+		assertTrue(metrics.getMaxQueueWaitTime(TimeUnit.MILLISECONDS) >= 40);
+	}
+
+	/** requests are sent no faster than the configured rate */
+	public void rateLimited() {
+		System.setProperty("bdMaxRequestsPerSecond", "20");
+		System.setProperty("bdRequestBurst", "1");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		server.register("/api/reports/123", "{}");
+
+		long start = System.nanoTime();
+		for (int i = 0; i < 5; i++) {
+			client.getJson("api/reports/123", service.tokenHolder);
+		}
+
+		// the first request is sent immediately, the others 50 ms apart
+		assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(190));
+		assertEquals(client.getMetrics().getLimitedRequests(), 5);
+	}
+
+	/** requests fail if they can't be sent in time */
+	public void queueTimeout() throws Exception {
+		System.setProperty("bdMaxConcurrentRequests", "1");
+		System.setProperty("bdConnectionRequestTimeout", "200");
+		final BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		final CountDownLatch arrived = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		server.register("/api/slow", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				arrived.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				holder.response.setEntity(new StringEntity("{}"));
+			}
+		});
+		Thread slow = new Thread() {
+			@Override
+			public void run() {
+				client.getJson("api/slow", service.tokenHolder);
+			}
+		};
+		slow.start();
+		try {
+			assertTrue(arrived.await(5, TimeUnit.SECONDS));
+			assertEquals(client.getMetrics().getRequestsInFlight(), 1);
+			try {
+				client.getJson("api/other", service.tokenHolder);
+				fail("No exception thrown");
+			} catch (ConnectionException e) {}
+		} finally {
+			release.countDown();
+			slow.join(5000);
+		}
+
+		BellaDatiMetrics metrics = client.getMetrics();
+		assertEquals(metrics.getLimitedRequests(), 2);
+		assertEquals(metrics.getQueueTimeouts(), 1);
+		assertTrue(metrics.getMaxQueueWaitTime(TimeUnit.MILLISECONDS) >= 150);
+		assertEquals(metrics.getResponseCount(200), 1);
+		// the request never reached the server
+		server.assertRequestUris("/api/slow");
+	}
+
+	/** in adaptive mode, server errors lower the limit */
+	public void adaptiveServerError() {
+		System.setProperty("bdAdaptiveLimit", "true");
+		System.setProperty("bdMaxConcurrentRequests", "8");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		server.registerError("/api/reports/123", 500, "error");
+		assertEquals(client.getMetrics().getRequestLimit(), 8);
+
+		try {
+			client.getJson("api/reports/123", service.tokenHolder);
+			fail("No exception thrown");
+		} catch (InternalErrorException e) {}
+
+		assertEquals(client.getMetrics().getRequestLimit(), 4);
+	}
+
+	/** the limit is halved once per overload and recovers gradually */
+	public void adaptiveLimit() {
+		RequestLimiter limiter = new RequestLimiter(8, 0, 0, true, 1000, new ClientMetrics());
+		long first = limiter.acquire(RequestPriority.NORMAL);
+		long second = limiter.acquire(RequestPriority.NORMAL);
+
+		limiter.release(first, true);
+		assertEquals(limiter.getLimit(), 4);
+		// sent before the decrease, doesn't lower the limit again
+		limiter.release(second, true);
+		assertEquals(limiter.getLimit(), 4);
+
+		limiter.release(limiter.acquire(RequestPriority.NORMAL), true);
+		assertEquals(limiter.getLimit(), 2);
+
+		// grows by about one per limit's worth of successes
+		for (int i = 0; i < 3; i++) {
+			limiter.release(limiter.acquire(RequestPriority.NORMAL), false);
+		}
+		assertEquals(limiter.getLimit(), 3);
+		for (int i = 0; i < 100; i++) {
+			limiter.release(limiter.acquire(RequestPriority.NORMAL), false);
+		}
+		assertEquals(limiter.getLimit(), 8);
+	}
+
+	/** time spent waiting is reported to request listeners */
+	public void queueWaitReported() {
+		System.setProperty("bdMaxRequestsPerSecond", "10");
+		System.setProperty("bdRequestBurst", "1");
+		BellaDatiServiceImpl limitedService = new BellaDatiServiceImpl(new BellaDatiClient(server.getHttpURL(), false),
+			new TokenHolder("key", "secret"));
+		final List<RequestEvent> events = new CopyOnWriteArrayList<RequestEvent>();
+		BellaDatiMetrics.addRequestListener(limitedService, new RequestListener() {
+			@Override
+			public void requestCompleted(RequestEvent event) {
+				events.add(event);
+			}
+		});
+		server.register("/api/reports/123", "{}");
+
+		limitedService.client.getJson("api/reports/123", limitedService.tokenHolder);
+		limitedService.client.getJson("api/reports/123", limitedService.tokenHolder);
+
+		assertEquals(events.size(), 2);
+		assertTrue(events.get(0).getTime(Phase.QUEUE_WAIT, TimeUnit.MILLISECONDS) < 50);
+		assertTrue(events.get(1).getTime(Phase.QUEUE_WAIT, TimeUnit.MILLISECONDS) >= 50);
+	}
+
+	/** limiter metrics are available by name */
+	public void metricsMap() {
+		ClientMetrics metrics = new ClientMetrics();
+		RequestLimiter limiter = new RequestLimiter(5, 0, 0, false, 1000, metrics);
+		limiter.acquire(RequestPriority.NORMAL);
+		metrics.recordQueueWait(TimeUnit.MILLISECONDS.toNanos(3), true);
+
+		Map<String, Long> map = metrics.snapshot(0, 0, 0).toMap();
+		assertEquals(map.get("limiter.limit"), (Long) 5L);
+		assertEquals(map.get("limiter.inFlight"), (Long) 1L);
+		assertEquals(map.get("limiter.waiting"), (Long) 0L);
+		assertEquals(map.get("limiter.requests"), (Long) 2L);
+		assertEquals(map.get("limiter.timeouts"), (Long) 1L);
+		assertEquals(map.get("limiter.maxWaitTime"), (Long) 3L);
+	}
+}
@@ -0,0 +1,157 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertNull;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.server.NotFoundException;
+import com.belladati.sdk.impl.RequestEvent.Phase;
+import com.belladati.sdk.test.TestRequestHandler;
+
+/**
+ * Tests notifying request listeners of request timings.
+ */
+@Test
+public class RequestListenerTest extends SDKTest {
+
+	private final List<RequestEvent> events = new CopyOnWriteArrayList<RequestEvent>();
+
+	private final RequestListener listener = new RequestListener() {
+		@Override
+		public void requestCompleted(RequestEvent event) {
+			events.add(event);
+		}
+	};
+
+	@BeforeMethod(alwaysRun = true)
+	protected void clearEvents() {
+		events.clear();
+	}
+
+	/** successful requests are reported with their phases */
+	public void successfulRequest() {
+		BellaDatiMetrics.addRequestListener(service, listener);
+		server.register("/api/reports/views/123/chart", "{\"chart\":[1,2,3]}");
+
+		service.client.getJson("api/reports/views/123/chart?filter=x", service.tokenHolder);
+
+		assertEquals(events.size(), 1);
+		RequestEvent event = events.get(0);
+		assertEquals(event.getMethod(), "GET");
+		assertEquals(event.getUriTemplate(), "api/reports/views/{id}/chart");
+		assertEquals(event.getUri(), server.getHttpURL() + "/api/reports/views/123/chart?filter=x");
+		assertEquals(event.getStatusCode(), 200);
+		assertNull(event.getFailure());
+		assertTrue(event.getTime(Phase.SIGNING, TimeUnit.NANOSECONDS) > 0);
+		assertTrue(event.getTime(Phase.CONNECT, TimeUnit.NANOSECONDS) > 0);
+		assertTrue(event.getTime(Phase.TIME_TO_FIRST_BYTE, TimeUnit.NANOSECONDS) > 0);
+		assertTrue(event.getTime(Phase.BODY_READ, TimeUnit.NANOSECONDS) > 0);
+		assertTrue(event.getTime(Phase.PARSE, TimeUnit.NANOSECONDS) > 0);
+
+		long sum = 0;
+		for (Phase phase : Phase.values()) {
+			sum += event.getTime(phase, TimeUnit.NANOSECONDS);
+		}
+		assertTrue(event.getTotalTime(TimeUnit.NANOSECONDS) >= sum);
+	}
+
+	/** pooled connections don't need to connect again */
+	public void reusedConnection() {
+		BellaDatiMetrics.addRequestListener(service, listener);
+		server.register("/api/reports/123", "{}");
+
+		service.client.getJson("api/reports/123", service.tokenHolder);
+		service.client.getJson("api/reports/123", service.tokenHolder);
+
+		assertEquals(events.size(), 2);
+		assertTrue(events.get(0).getTime(Phase.CONNECT, TimeUnit.NANOSECONDS) > 0);
+		assertEquals(events.get(1).getTime(Phase.CONNECT, TimeUnit.NANOSECONDS), 0);
+	}
+
+	/** waiting for the server counts towards the time to first byte */
+	public void slowServer() {
+		BellaDatiMetrics.addRequestListener(service, listener);
+		server.register("/api/reports/123", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				try {
+					Thread.sleep(100);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				holder.response.setEntity(new StringEntity("{}"));
+			}
+		});
+
+		service.client.get("api/reports/123", service.tokenHolder);
+
+		assertTrue(events.get(0).getTime(Phase.TIME_TO_FIRST_BYTE, TimeUnit.MILLISECONDS) >= 90);
+		assertTrue(events.get(0).getTime(Phase.BODY_READ, TimeUnit.MILLISECONDS) < 90);
+	}
+
+	/** failed requests are reported with their status and exception */
+	public void failedRequest() {
+		BellaDatiMetrics.addRequestListener(service, listener);
+		server.registerError("/api/users/abc", 404, "");
+
+		try {
+			service.loadUser("abc");
+			fail("No exception thrown");
+		} catch (NotFoundException e) {
+			assertEquals(events.size(), 1);
+			assertEquals(events.get(0).getUriTemplate(), "api/users/{id}");
+			assertEquals(events.get(0).getStatusCode(), 404);
+			assertEquals(events.get(0).getFailure(), e);
+		}
+	}
+
+	/** removed listeners aren't notified */
+	public void removeListener() {
+		BellaDatiMetrics.addRequestListener(service, listener);
+		BellaDatiMetrics.removeRequestListener(service, listener);
+		server.register("/api/reports/123", "{}");
+
+		service.client.getJson("api/reports/123", service.tokenHolder);
+
+		assertEquals(events.size(), 0);
+	}
+
+	/** exceptions thrown by listeners don't affect the request */
+	public void brokenListener() {
+		BellaDatiMetrics.addRequestListener(service, new RequestListener() {
+			@Override
+			public void requestCompleted(RequestEvent event) {
+				throw new IllegalStateException("broken");
+			}
+		});
+		BellaDatiMetrics.addRequestListener(service, listener);
+		server.register("/api/reports/123", "{\"id\":\"123\"}");
+
+		assertEquals(service.client.getJson("api/reports/123", service.tokenHolder).get("id").asText(), "123");
+		assertEquals(events.size(), 1);
+	}
+
+	/** IDs in paths are replaced by placeholders */
+	public void uriTemplates() {
+		assertEquals(UriTemplates.of("api/reports"), "api/reports");
+		assertEquals(UriTemplates.of("api/reports?offset=10&size=5"), "api/reports");
+		assertEquals(UriTemplates.of("api/reports/123"), "api/reports/{id}");
+		assertEquals(UriTemplates.of("api/reports/123/comments"), "api/reports/{id}/comments");
+		assertEquals(UriTemplates.of("api/reports/views/abc-12/table/leftHeader"), "api/reports/views/{id}/table/leftHeader");
+		assertEquals(UriTemplates.of("api/dataSets/dataSources/5/executions"), "api/dataSets/dataSources/{id}/executions");
+		assertEquals(UriTemplates.of("api/dataSets/ds1/attributes/L_CITY/values"), "api/dataSets/{id}/attributes/{code}/values");
+		assertEquals(UriTemplates.of("api/users/someone/image"), "api/users/{id}/image");
+		assertEquals(UriTemplates.of("api/custom/endpoint/42"), "api/custom/endpoint/{id}");
+		assertEquals(UriTemplates.of("oauth/accessToken"), "oauth/accessToken");
+	}
+}
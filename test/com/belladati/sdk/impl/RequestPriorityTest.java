@@ -0,0 +1,298 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.apache.http.entity.StringEntity;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.ConnectionException;
+import com.belladati.sdk.test.TestRequestHandler;
+
+/**
+ * Tests sending requests in order of priority.
+ */
+@Test
+public class RequestPriorityTest extends SDKTest {
+
+	private CountDownLatch release;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupRelease() {
+		release = new CountDownLatch(1);
+	}
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		release.countDown();
+		System.clearProperty("bdMaxConnections");
+		System.clearProperty("bdMaxBackgroundRequests");
+		System.clearProperty("bdConnectionRequestTimeout");
+	}
+
+	/** requests have normal priority by default */
+	public void defaultPriority() {
+		server.register("/api/reports/123", "{}");
+
+		service.client.getJson("api/reports/123", service.tokenHolder);
+
+		assertEquals(RequestPriority.current(), RequestPriority.NORMAL);
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		assertEquals(metrics.getRequestCount(RequestPriority.NORMAL), 1);
+		assertEquals(metrics.getRequestCount(RequestPriority.INTERACTIVE), 0);
+		assertTrue(metrics.getTotalRequestTime(RequestPriority.NORMAL, TimeUnit.NANOSECONDS) > 0);
+	}
+
+	/** requests are made with the priority set for the thread */
+	public void callWithPriority() throws Exception {
+		server.register("/api/reports/123", "{}");
+
+		RequestPriority inside = RequestPriority.INTERACTIVE.call(new Callable<RequestPriority>() {
+			@Override
+			public RequestPriority call() {
+				service.client.getJson("api/reports/123", service.tokenHolder);
+				return RequestPriority.current();
+			}
+		});
+
+		assertEquals(inside, RequestPriority.INTERACTIVE);
+		assertEquals(RequestPriority.current(), RequestPriority.NORMAL);
+		assertEquals(BellaDatiMetrics.of(service).getRequestCount(RequestPriority.INTERACTIVE), 1);
+	}
+
+	/** waiting requests are sent highest priority first */
+	public void priorityOrder() throws Exception {
+		System.setProperty("bdMaxConnections", "1");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		CountDownLatch arrived = registerSlow();
+		server.register("/api/reports/1", "{}");
+		server.register("/api/reports/2", "{}");
+		server.register("/api/reports/3", "{}");
+		List<Thread> threads = new ArrayList<Thread>();
+		threads.add(request(client, "api/slow", RequestPriority.BACKGROUND));
+		assertTrue(arrived.await(5, TimeUnit.SECONDS));
+
+		threads.add(request(client, "api/reports/3", RequestPriority.BACKGROUND));
+		awaitWaiting(client, RequestPriority.BACKGROUND);
+		threads.add(request(client, "api/reports/2", RequestPriority.NORMAL));
+		awaitWaiting(client, RequestPriority.NORMAL);
+		threads.add(request(client, "api/reports/1", RequestPriority.INTERACTIVE));
+		awaitWaiting(client, RequestPriority.INTERACTIVE);
+		release.countDown();
+		for (Thread thread : threads) {
+			thread.join(5000);
+		}
+
+		server.assertRequestUris("/api/slow", "/api/reports/1", "/api/reports/2", "/api/reports/3");
+		BellaDatiMetrics metrics = client.getMetrics();
+		assertEquals(metrics.getRequestCount(RequestPriority.BACKGROUND), 2);
+		assertTrue(metrics.getMaxDispatchWaitTime(RequestPriority.BACKGROUND, TimeUnit.NANOSECONDS) > 0);
+	}
+
+	/** background requests leave connections free for other requests */
+	public void backgroundLimited() throws Exception {
+		System.setProperty("bdMaxConnections", "4");
+		System.setProperty("bdMaxBackgroundRequests", "1");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		CountDownLatch arrived = registerSlow();
+		server.register("/api/reports/123", "{}");
+		Thread first = request(client, "api/slow", RequestPriority.BACKGROUND);
+		assertTrue(arrived.await(5, TimeUnit.SECONDS));
+
+		Thread second = request(client, "api/reports/123", RequestPriority.BACKGROUND);
+		awaitWaiting(client, RequestPriority.BACKGROUND);
+		// other requests aren't held up by background requests, not even by
+		// joining an identical one
+		client.getJson("api/reports/123", service.tokenHolder);
+		assertEquals(client.getMetrics().getWaitingRequests(RequestPriority.BACKGROUND), 1);
+		release.countDown();
+		first.join(5000);
+		second.join(5000);
+
+		assertEquals(client.getMetrics().getRequestCount(RequestPriority.BACKGROUND), 2);
+		assertEquals(client.getMetrics().getResponseCount(200), 3);
+	}
+
+	/** requests fail if they can't be sent in time */
+	public void dispatchTimeout() throws Exception {
+		System.setProperty("bdMaxConnections", "1");
+		System.setProperty("bdConnectionRequestTimeout", "200");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		CountDownLatch arrived = registerSlow();
+		Thread slow = request(client, "api/slow", RequestPriority.NORMAL);
+		assertTrue(arrived.await(5, TimeUnit.SECONDS));
+
+		try {
+			client.getJson("api/other", service.tokenHolder);
+			fail("No exception thrown");
+		} catch (ConnectionException e) {}
+		release.countDown();
+		slow.join(5000);
+
+		BellaDatiMetrics metrics = client.getMetrics();
+		assertEquals(metrics.getDispatchTimeouts(RequestPriority.NORMAL), 1);
+		assertTrue(metrics.getMaxDispatchWaitTime(RequestPriority.NORMAL, TimeUnit.MILLISECONDS) >= 150);
+		// the pool wasn't involved
+		assertEquals(metrics.getConnectionTimeouts(), 0);
+		server.assertRequestUris("/api/slow");
+	}
+
+	/** queued asynchronous calls run highest priority first */
+	public void asyncPriority() throws Exception {
+		AsyncBellaDatiService async = new AsyncBellaDatiService(service, AsyncBellaDatiService.createExecutor(1));
+		try {
+			final CountDownLatch started = new CountDownLatch(1);
+			async.submit(new Callable<Void>() {
+				@Override
+				public Void call() throws Exception {
+					started.countDown();
+					release.await(5, TimeUnit.SECONDS);
+					return null;
+				}
+			});
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			final List<RequestPriority> order = new CopyOnWriteArrayList<RequestPriority>();
+			List<BellaDatiFuture<Void>> futures = new ArrayList<BellaDatiFuture<Void>>();
+			for (RequestPriority priority : new RequestPriority[] { RequestPriority.BACKGROUND, RequestPriority.NORMAL,
+				RequestPriority.INTERACTIVE }) {
+				assertEquals(async.withPriority(priority).getPriority(), priority);
+				futures.add(async.withPriority(priority).submit(new Callable<Void>() {
+					@Override
+					public Void call() {
+						order.add(RequestPriority.current());
+						return null;
+					}
+				}));
+			}
+			release.countDown();
+			BellaDatiFuture.allOf(futures).get(5, TimeUnit.SECONDS);
+
+			assertEquals(order, Arrays.asList(RequestPriority.INTERACTIVE, RequestPriority.NORMAL,
+				RequestPriority.BACKGROUND));
+		} finally {
+			async.shutdown();
+		}
+	}
+
+	/** continuations keep the priority of their future */
+	public void continuationPriority() throws Exception {
+		AsyncBellaDatiService async = new AsyncBellaDatiService(service, AsyncBellaDatiService.createExecutor(2))
+			.withPriority(RequestPriority.INTERACTIVE);
+		try {
+			RequestPriority priority = async.submit(new Callable<String>() {
+				@Override
+				public String call() {
+					return "value";
+				}
+			}).then(new BellaDatiFuture.Continuation<String, RequestPriority>() {
+				@Override
+				public RequestPriority apply(String input) {
+					return RequestPriority.current();
+				}
+			}).get(5, TimeUnit.SECONDS);
+
+			assertEquals(priority, RequestPriority.INTERACTIVE);
+		} finally {
+			async.shutdown();
+		}
+	}
+
+	/** request events report the priority */
+	public void eventPriority() throws Exception {
+		final List<RequestEvent> events = new CopyOnWriteArrayList<RequestEvent>();
+		BellaDatiMetrics.addRequestListener(service, new RequestListener() {
+			@Override
+			public void requestCompleted(RequestEvent event) {
+				events.add(event);
+			}
+		});
+		server.register("/api/reports/123", "{}");
+
+		RequestPriority.BACKGROUND.call(new Callable<Void>() {
+			@Override
+			public Void call() {
+				service.client.getJson("api/reports/123", service.tokenHolder);
+				return null;
+			}
+		});
+
+		assertEquals(events.size(), 1);
+		assertEquals(events.get(0).getPriority(), RequestPriority.BACKGROUND);
+	}
+
+	/** priority metrics are available by name */
+	public void metricsMap() {
+		ClientMetrics metrics = new ClientMetrics();
+		metrics.recordRequestTime(RequestPriority.INTERACTIVE, TimeUnit.MILLISECONDS.toNanos(5));
+		metrics.recordDispatchWait(RequestPriority.BACKGROUND, TimeUnit.MILLISECONDS.toNanos(3), true);
+
+		Map<String, Long> map = metrics.snapshot(0, 0, 0).toMap();
+		assertEquals(map.get("priority.interactive.requests"), (Long) 1L);
+		assertEquals(map.get("priority.interactive.maxTime"), (Long) 5L);
+		assertEquals(map.get("priority.background.timeouts"), (Long) 1L);
+		assertEquals(map.get("priority.background.maxWaitTime"), (Long) 3L);
+		assertEquals(map.get("priority.normal.waiting"), (Long) 0L);
+	}
+
+	/** Registers a handler at <tt>/api/slow</tt> that waits for release. */
+	private CountDownLatch registerSlow() {
+		final CountDownLatch arrived = new CountDownLatch(1);
+		server.register("/api/slow", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				arrived.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+				holder.response.setEntity(new StringEntity("{}"));
+			}
+		});
+		return arrived;
+	}
+
+	/** Starts a thread making a request with the given priority. */
+	private Thread request(final BellaDatiClient client, final String uri, final RequestPriority priority) {
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					priority.call(new Callable<Void>() {
+						@Override
+						public Void call() {
+							client.getJson(uri, service.tokenHolder);
+							return null;
+						}
+					});
+				} catch (Exception e) {
+					// the test checks which requests arrived
+				}
+			}
+		};
+		thread.start();
+		return thread;
+	}
+
+	/** Waits until a request with the given priority is waiting. */
+	private void awaitWaiting(BellaDatiClient client, RequestPriority priority) throws InterruptedException {
+		long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(5);
+		while (client.getMetrics().getWaitingRequests(priority) == 0) {
+			assertTrue(System.nanoTime() < deadline, "No " + priority + " request waiting");
+			Thread.sleep(5);
+		}
+	}
+}
@@ -0,0 +1,173 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertNotSame;
+import static org.testng.Assert.assertSame;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.Test;
+
+/**
+ * Tests sharing HTTP clients between SDK clients.
+ */
+@Test
+public class SharedClientTest extends SDKTest {
+
+	private final ClientRegistry.ClientFactory factory = new ClientRegistry.ClientFactory() {
+		@Override
+		public HttpTransport build(ClientMetrics metrics) {
+			return new UrlConnectionTransport(false, metrics);
+		}
+	};
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		System.clearProperty("bdShareClients");
+		System.clearProperty("bdMaxConnections");
+	}
+
+	/** clients of the same server share their HTTP client and metrics */
+	public void sameServerShared() {
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		server.register("/api/reports/123", "{}");
+
+		client.getJson("api/reports/123", service.tokenHolder);
+
+		assertSame(client.sharedClient, service.client.sharedClient);
+		assertEquals(BellaDatiMetrics.of(service).getResponseCount(200), 1);
+	}
+
+	/** connections and their services share a client with other services */
+	public void connectionShared() {
+		BellaDatiConnectionImpl connection = new BellaDatiConnectionImpl(server.getHttpURL(), false);
+
+		assertSame(connection.client.sharedClient, service.client.sharedClient);
+	}
+
+	/** clients trusting self-signed certificates aren't shared with others */
+	public void trustSelfSignedSeparate() {
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), true);
+
+		assertNotSame(client.sharedClient, service.client.sharedClient);
+	}
+
+	/** clients with a different configuration aren't shared */
+	public void configurationSeparate() {
+		System.setProperty("bdMaxConnections", "1");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+
+		assertNotSame(client.sharedClient, service.client.sharedClient);
+	}
+
+	/** sharing can be disabled */
+	public void sharingDisabled() {
+		System.setProperty("bdShareClients", "false");
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+
+		assertNotSame(client.sharedClient, service.client.sharedClient);
+	}
+
+	/** deserialized services use the same client as existing services */
+	public void deserializedShared() throws IOException, ClassNotFoundException {
+		ByteArrayOutputStream baos = new ByteArrayOutputStream();
+		ObjectOutputStream output = new ObjectOutputStream(baos);
+		output.writeObject(service);
+		output.writeObject(service);
+		output.close();
+
+		ObjectInputStream input = new ObjectInputStream(new ByteArrayInputStream(baos.toByteArray()));
+		BellaDatiServiceImpl first = (BellaDatiServiceImpl) input.readObject();
+		BellaDatiServiceImpl second = (BellaDatiServiceImpl) input.readObject();
+		input.close();
+
+		assertSame(first.client.sharedClient, service.client.sharedClient);
+		assertSame(second.client.sharedClient, service.client.sharedClient);
+	}
+
+	/** closing a client releases its shared client once */
+	public void closeReleases() {
+		BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+		server.register("/api/reports/123", "{}");
+		assertEquals(client.sharedClient.getReferences(), 2);
+
+		client.close();
+		client.close();
+
+		assertTrue(client.isClosed());
+		assertEquals(client.sharedClient.getReferences(), 1);
+		service.client.getJson("api/reports/123", service.tokenHolder);
+		try {
+			client.getJson("api/reports/123", service.tokenHolder);
+			fail("Closed client sent a request");
+		} catch (IllegalStateException e) {}
+
+		BellaDatiConnections.close(service);
+		assertTrue(BellaDatiConnections.isClosed(service));
+		assertEquals(client.sharedClient.getReferences(), 0);
+		server.assertRequestUris("/api/reports/123");
+	}
+
+	/** closing a connection closes the services created from it */
+	public void connectionClosesServices() {
+		BellaDatiConnectionImpl connection = new BellaDatiConnectionImpl(server.getHttpURL(), false);
+		BellaDatiServiceImpl connectionService = new BellaDatiServiceImpl(connection.client, new TokenHolder("key",
+			"secret"));
+		assertFalse(BellaDatiConnections.isClosed(connection));
+
+		BellaDatiConnections.close(connection);
+
+		assertTrue(BellaDatiConnections.isClosed(connectionService));
+		assertFalse(BellaDatiConnections.isClosed(service));
+		try {
+			connectionService.loadReport("123");
+			fail("Closed service sent a request");
+		} catch (IllegalStateException e) {}
+		assertEquals(server.getRequestUris().size(), 0);
+	}
+
+	/** shared clients are counted and removed when no longer used */
+	public void referenceCounting() {
+		String key = "test:" + server.getHttpURL();
+		ClientRegistry.SharedClient first = ClientRegistry.acquire(key, factory);
+		ClientRegistry.SharedClient second = ClientRegistry.acquire(key, factory);
+
+		assertSame(second, first);
+		assertEquals(first.getReferences(), 2);
+		assertTrue(ClientRegistry.isRegistered(key));
+
+		ClientRegistry.release(first);
+		assertEquals(first.getReferences(), 1);
+		assertTrue(ClientRegistry.isRegistered(key));
+
+		ClientRegistry.release(second);
+		assertEquals(first.getReferences(), 0);
+		assertFalse(ClientRegistry.isRegistered(key));
+
+		// releasing again has no effect, acquiring again builds a new client
+		ClientRegistry.release(second);
+		assertFalse(ClientRegistry.isRegistered(key));
+		ClientRegistry.SharedClient third = ClientRegistry.acquire(key, factory);
+		assertNotSame(third, first);
+		ClientRegistry.release(third);
+	}
+
+	/** clients without a key are never registered */
+	public void unsharedNotRegistered() {
+		ClientRegistry.SharedClient first = ClientRegistry.acquire(null, factory);
+		ClientRegistry.SharedClient second = ClientRegistry.acquire(null, factory);
+
+		assertNotSame(second, first);
+		assertFalse(ClientRegistry.isRegistered(null));
+		ClientRegistry.release(first);
+		ClientRegistry.release(second);
+	}
+}
@@ -0,0 +1,195 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertFalse;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.sdk.exception.server.InternalErrorException;
+import com.belladati.sdk.util.PaginatedList;
+
+/**
+ * Tests random access to a {@link PaginatedList} through a
+ * {@link SparsePaginatedList}.
+ */
+@Test
+public class SparsePaginatedListTest extends SDKTest {
+
+	private final String relativeUrl = "/list";
+
+	private PaginatedList<Item> list;
+	private ItemPages pages;
+
+	@BeforeMethod(alwaysRun = true)
+	protected void setupList() {
+		pages = new ItemPages(3000);
+		server.register(relativeUrl, pages);
+		list = ItemPages.createList(service, relativeUrl);
+	}
+
+	/** pages are loaded when an element is first accessed */
+	public void loadOnDemand() {
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 4, 0);
+		assertFalse(sparse.isLoaded(55));
+
+		assertEquals(sparse.get(55), new Item("55"));
+		assertEquals(sparse.get(57), new Item("57"));
+		assertTrue(sparse.isLoaded(50));
+		assertFalse(sparse.isLoaded(60));
+		assertEquals(pages.offsets, Arrays.asList(50));
+		assertTrue(list.isEmpty());
+	}
+
+	/** jumping to a distant element keeps the pages already loaded */
+	public void jump() {
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 4, 0);
+
+		assertEquals(sparse.get(5), new Item("5"));
+		assertEquals(sparse.get(2005), new Item("2005"));
+		assertEquals(sparse.get(7), new Item("7"));
+		assertEquals(pages.offsets, Arrays.asList(0, 2000));
+	}
+
+	/** the least recently used pages are discarded */
+	public void leastRecentlyUsed() {
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 2, 0);
+		sparse.get(0);
+		sparse.get(10);
+		sparse.get(1);
+		sparse.get(20);
+		assertEquals(sparse.getCachedPages(), 2);
+
+		// the first page was used more recently than the second
+		sparse.get(2);
+		sparse.get(11);
+		assertEquals(pages.offsets, Arrays.asList(0, 10, 20, 10));
+	}
+
+	/** neighbouring pages are loaded ahead in the background */
+	public void neighbours() throws InterruptedException {
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 5, 1);
+		sparse.get(55);
+		pages.awaitRequests(3);
+		assertEquals(pages.sortedOffsets(), Arrays.asList(40, 50, 60));
+
+		assertEquals(sparse.get(65), new Item("65"));
+		pages.awaitRequests(4);
+		assertEquals(Collections.frequency(pages.offsets, 60), 1);
+		assertEquals(pages.sortedOffsets(), Arrays.asList(40, 50, 60, 70));
+		assertEquals(BellaDatiMetrics.of(service).getRequestCount(RequestPriority.NORMAL), 1);
+	}
+
+	/** the first page has no previous neighbour */
+	public void firstPageNeighbours() throws InterruptedException {
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 5, 2);
+		sparse.get(0);
+		pages.awaitRequests(3);
+
+		assertEquals(pages.sortedOffsets(), Arrays.asList(0, 10, 20));
+	}
+
+	/** the size is known once the last page is loaded */
+	public void size() throws InterruptedException {
+		pages.total = 25;
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 5, 1);
+		assertEquals(sparse.size(), -1);
+		sparse.get(0);
+		assertEquals(sparse.size(), -1);
+
+		assertEquals(sparse.get(24), new Item("24"));
+		assertEquals(sparse.size(), 25);
+		try {
+			sparse.get(25);
+			fail("No exception thrown");
+		} catch (IndexOutOfBoundsException e) {}
+		try {
+			sparse.get(100);
+			fail("No exception thrown");
+		} catch (IndexOutOfBoundsException e) {}
+		// pages after the last aren't loaded ahead
+		assertFalse(pages.offsets.contains(30));
+	}
+
+	/** accessing an element after the end fails */
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void afterEnd() {
+		pages.total = 25;
+		PaginatedLists.sparse(list, 10, 1, 0).get(27);
+	}
+
+	@Test(expectedExceptions = IndexOutOfBoundsException.class)
+	public void negativeIndex() {
+		PaginatedLists.sparse(list, 10, 1, 0).get(-1);
+	}
+
+	/** the page size returned by the server replaces the requested size */
+	public void serverPageSize() {
+		pages.serverSize = 20;
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 4, 0);
+
+		assertEquals(sparse.get(55), new Item("55"));
+		assertEquals(sparse.getPageSize(), 20);
+		assertEquals(sparse.get(59), new Item("59"));
+		assertEquals(pages.offsets, Arrays.asList(50, 40));
+	}
+
+	/** failures loading a page are reported, the page is loaded again later */
+	public void failure() {
+		pages.failAt = 10;
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 4, 0);
+		try {
+			sparse.get(15);
+			fail("No exception thrown");
+		} catch (InternalErrorException e) {}
+		assertFalse(sparse.isLoaded(15));
+
+		assertEquals(sparse.get(15), new Item("15"));
+		assertEquals(pages.offsets, Arrays.asList(10, 10));
+	}
+
+	/** pages that failed to load in the background are loaded again */
+	public void neighbourFailure() throws InterruptedException {
+		pages.failAt = 10;
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 4, 1);
+		sparse.get(5);
+		pages.awaitRequests(2);
+
+		assertEquals(sparse.get(15), new Item("15"));
+		assertEquals(Collections.frequency(pages.offsets, 10), 2);
+	}
+
+	/** clearing the list discards all pages */
+	public void clear() {
+		pages.total = 5;
+		SparsePaginatedList<Item> sparse = PaginatedLists.sparse(list, 10, 4, 0);
+		sparse.get(0);
+		assertEquals(sparse.size(), 5);
+
+		sparse.clear();
+		assertEquals(sparse.getCachedPages(), 0);
+		assertEquals(sparse.size(), -1);
+		sparse.get(0);
+		assertEquals(pages.offsets, Arrays.asList(0, 0));
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void sizeZero() {
+		PaginatedLists.sparse(list, 0, 1, 0);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void neighboursNegative() {
+		PaginatedLists.sparse(list, 10, 1, -1);
+	}
+
+	@Test(expectedExceptions = IllegalArgumentException.class)
+	public void tooFewPages() {
+		PaginatedLists.sparse(list, 10, 2, 1);
+	}
+}
@@ -0,0 +1,62 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertTrue;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.testng.annotations.Test;
+
+import com.belladati.httpclientandroidlib.client.methods.HttpGet;
+
+/**
+ * Tests signing requests while the token changes.
+ */
+@Test
+public class TokenHolderTest {
+
+	/** requests are signed with the latest token while other threads sign */
+	public void setTokenWhileSigning() throws Exception {
+		final TokenHolder holder = new TokenHolder("key", "secret");
+		final AtomicBoolean running = new AtomicBoolean(true);
+		final AtomicReference<Throwable> error = new AtomicReference<Throwable>();
+		Thread[] signers = new Thread[4];
+		final CountDownLatch started = new CountDownLatch(signers.length);
+		for (int i = 0; i < signers.length; i++) {
+			signers[i] = new Thread() {
+				@Override
+				public void run() {
+					started.countDown();
+					try {
+						while (running.get()) {
+							holder.sign(new HttpGet("http://localhost/api/reports"), null);
+						}
+					} catch (Throwable t) {
+						error.set(t);
+					}
+				}
+			};
+			signers[i].start();
+		}
+		try {
+			assertTrue(started.await(5, TimeUnit.SECONDS));
+			for (int i = 0; i < 5000; i++) {
+				holder.setToken("token" + i, "secret" + i);
+				HttpGet request = new HttpGet("http://localhost/api/reports");
+				holder.sign(request, null);
+				String header = request.getFirstHeader("Authorization").getValue();
+				assertTrue(header.contains("oauth_token=\"token" + i + "\""), "Signed with stale token: " + header);
+			}
+		} finally {
+			running.set(false);
+			for (Thread signer : signers) {
+				signer.join(5000);
+			}
+		}
+		if (error.get() != null) {
+			throw new AssertionError(error.get());
+		}
+	}
+}
@@ -0,0 +1,144 @@
+package com.belladati.sdk.impl;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.apache.http.HttpException;
+import org.apache.http.HttpRequest;
+import org.apache.http.HttpResponse;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.protocol.HttpContext;
+import org.apache.http.protocol.HttpRequestHandler;
+
+import com.belladati.sdk.test.BenchmarkRunner;
+import com.belladati.sdk.test.RequestTrackingServer;
+
+/**
+ * Compares the bundled HTTP client transport against the
+ * {@link java.net.HttpURLConnection} transport: time and classes loaded until
+ * the first response in a new JVM, time per request and throughput of
+ * concurrent requests. Run with <tt>main</tt>; not part of the regular test
+ * suite.
+ */
+public class TransportBenchmark {
+
+	private static final String[] TRANSPORTS = { "httpclient", "urlconnection" };
+	private static final String JSON = "{\"id\":\"123\",\"name\":\"some report\"}";
+
+	public static void main(String[] args) throws Exception {
+		if (args.length == 3 && args[0].equals("cold")) {
+			coldStart(args[1], args[2]);
+			return;
+		}
+		// identical concurrent requests would be sent only once
+		System.setProperty("bdCoalesceRequests", "false");
+		RequestTrackingServer server = new RequestTrackingServer();
+		server.start();
+		try {
+			server.register("/api/reports/123", new HttpRequestHandler() {
+				@Override
+				public void handle(HttpRequest request, HttpResponse response, HttpContext context) throws HttpException,
+					IOException {
+					response.setEntity(new StringEntity(JSON));
+				}
+			});
+			for (String transport : TRANSPORTS) {
+				measureColdStart(transport, server.getHttpURL(), 5);
+			}
+			for (String transport : TRANSPORTS) {
+				System.setProperty("bdTransport", transport);
+				BellaDatiClient client = new BellaDatiClient(server.getHttpURL(), false);
+				TokenHolder tokenHolder = new TokenHolder("key", "secret");
+				new BenchmarkRunner(2000, 5000).run(transport + " request", new RequestTask(client, tokenHolder));
+				measureThroughput(transport, client, tokenHolder, 8, 2000);
+			}
+		} finally {
+			server.stop();
+		}
+	}
+
+	/** Starts new JVMs that each send a single request and report timings. */
+	private static void measureColdStart(String transport, String url, int runs) throws Exception {
+		String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+		double totalMillis = 0;
+		long classes = 0;
+		for (int i = 0; i < runs; i++) {
+			Process process = new ProcessBuilder(java, "-cp", System.getProperty("java.class.path"),
+				TransportBenchmark.class.getName(), "cold", transport, url).redirectErrorStream(true).start();
+			BufferedReader reader = new BufferedReader(new InputStreamReader(process.getInputStream(), "UTF-8"));
+			String line = reader.readLine();
+			reader.close();
+			process.waitFor();
+			String[] values = line.split(" ");
+			totalMillis += Double.parseDouble(values[0]);
+			classes = Long.parseLong(values[1]);
+		}
+		System.out.println(String.format(Locale.ENGLISH, "%-45s %12.3f ms %12d classes loaded", transport
+			+ " first request", totalMillis / runs, classes));
+	}
+
+	/** Sends the first request of a new JVM and prints its time. */
+	private static void coldStart(String transport, String url) {
+		long start = System.nanoTime();
+		System.setProperty("bdTransport", transport);
+		BellaDatiClient client = new BellaDatiClient(url, false);
+		client.getJson("api/reports/123", new TokenHolder("key", "secret"));
+		double millis = (System.nanoTime() - start) / 1e6;
+		System.out.println(millis + " " + ManagementFactory.getClassLoadingMXBean().getLoadedClassCount());
+	}
+
+	/** Sends requests from several threads at the same time. */
+	private static void measureThroughput(String transport, final BellaDatiClient client, final TokenHolder tokenHolder,
+		int threads, final int requestsPerThread) throws Exception {
+		ExecutorService executor = Executors.newFixedThreadPool(threads);
+		try {
+			List<Future<Void>> futures = new ArrayList<Future<Void>>();
+			long start = System.nanoTime();
+			for (int i = 0; i < threads; i++) {
+				futures.add(executor.submit(new Callable<Void>() {
+					@Override
+					public Void call() throws Exception {
+						for (int j = 0; j < requestsPerThread; j++) {
+							client.getJson("api/reports/123", tokenHolder);
+						}
+						return null;
+					}
+				}));
+			}
+			for (Future<Void> future : futures) {
+				future.get();
+			}
+			double seconds = (System.nanoTime() - start) / 1e9;
+			System.out.println(String.format(Locale.ENGLISH, "%-45s %12.1f requests/s", transport + " " + threads
+				+ " threads", threads * requestsPerThread / seconds));
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	/** Loads a small JSON object. */
+	private static class RequestTask implements BenchmarkRunner.Task {
+		private final BellaDatiClient client;
+		private final TokenHolder tokenHolder;
+
+		RequestTask(BellaDatiClient client, TokenHolder tokenHolder) {
+			this.client = client;
+			this.tokenHolder = tokenHolder;
+		}
+
+		@Override
+		public void run() throws Exception {
+			client.getJson("api/reports/123", tokenHolder);
+		}
+	}
+}
@@ -0,0 +1,184 @@
+package com.belladati.sdk.impl;
+
+import static org.testng.Assert.assertEquals;
+import static org.testng.Assert.assertTrue;
+import static org.testng.Assert.fail;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import org.apache.http.Header;
+import org.apache.http.HttpEntity;
+import org.apache.http.HttpEntityEnclosingRequest;
+import org.apache.http.client.entity.GzipCompressingEntity;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.testng.annotations.AfterMethod;
+import org.testng.annotations.BeforeMethod;
+import org.testng.annotations.Test;
+
+import com.belladati.httpclientandroidlib.client.cache.HttpCacheContext;
+import com.belladati.httpclientandroidlib.client.methods.HttpGet;
+import com.belladati.httpclientandroidlib.message.BasicNameValuePair;
+import com.belladati.sdk.dataset.data.DataTable;
+import com.belladati.sdk.exception.server.InternalErrorException;
+import com.belladati.sdk.exception.server.NotFoundException;
+import com.belladati.sdk.test.TestRequestHandler;
+
+/**
+ * Tests sending requests through {@link java.net.HttpURLConnection}.
+ */
+@Test
+public class UrlConnectionTransportTest extends SDKTest {
+
+	@Override
+	@BeforeMethod(alwaysRun = true)
+	protected void setupServer() throws Exception {
+		System.setProperty("bdTransport", "urlconnection");
+		super.setupServer();
+	}
+
+	@AfterMethod(alwaysRun = true)
+	protected void clearProperties() {
+		System.clearProperty("bdTransport");
+	}
+
+	/** the transport is selected by system property */
+	public void transportSelected() {
+		assertTrue(service.client.sharedClient.transport instanceof UrlConnectionTransport);
+	}
+
+	/** JSON is loaded and the request is signed */
+	public void getJson() {
+		server.register("/api/reports/123", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				holder.assertGet();
+				holder.assertAuth("key", null);
+				holder.response.setEntity(new StringEntity("{\"id\":\"123\"}"));
+			}
+		});
+
+		assertEquals(service.client.getJson("api/reports/123", service.tokenHolder).get("id").asText(), "123");
+		assertEquals(BellaDatiMetrics.of(service).getResponseCount(200), 1);
+	}
+
+	/** form parameters are sent */
+	public void postForm() {
+		final AtomicReference<String> text = new AtomicReference<String>();
+		server.register("/api/reports/123/comments", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				holder.assertPost();
+				text.set(holder.getFormParameters().get("text"));
+			}
+		});
+
+		service.client.post("api/reports/123/comments", service.tokenHolder,
+			Arrays.asList(new BasicNameValuePair("text", "some comment")));
+
+		assertEquals(text.get(), "some comment");
+	}
+
+	/** streamed data uploads are sent */
+	public void streamedUpload() {
+		final AtomicReference<String> body = new AtomicReference<String>();
+		server.register("/api/import/123", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				HttpEntity entity = ((HttpEntityEnclosingRequest) holder.request).getEntity();
+				body.set(EntityUtils.toString(entity, "UTF-8"));
+			}
+		});
+		DataTable table = DataTable.createBasicInstance("column");
+		for (int i = 0; i < 10000; i++) {
+			table.createRow("value " + i);
+		}
+
+		service.uploadData("123", table);
+
+		assertEquals(body.get(), table.toJson().toString());
+	}
+
+	/** compressed responses are decompressed */
+	public void compressedResponse() {
+		final StringBuilder json = new StringBuilder("{\"rows\":[");
+		for (int i = 0; i < 1000; i++) {
+			json.append(i == 0 ? "" : ",").append("{\"id\":").append(i).append('}');
+		}
+		json.append("]}");
+		server.register("/api/reports/123", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				Header accept = holder.request.getFirstHeader("Accept-Encoding");
+				assertTrue(accept != null && accept.getValue().contains("gzip"));
+				holder.response.setEntity(new GzipCompressingEntity(new StringEntity(json.toString())));
+			}
+		});
+
+		assertEquals(service.client.getJson("api/reports/123", service.tokenHolder).get("rows").size(), 1000);
+
+		BellaDatiMetrics metrics = BellaDatiMetrics.of(service);
+		assertEquals(metrics.getContentBytesReceived(), json.length());
+		assertTrue(metrics.getBytesReceived() * 5 < json.length(), "Received " + metrics.getBytesReceived());
+	}
+
+	/** error responses are mapped to exceptions */
+	public void errorResponses() {
+		server.registerError("/api/reports/123", 404, "");
+		server.registerError("/api/reports/456", 500, "error");
+
+		try {
+			service.client.getJson("api/reports/123", service.tokenHolder);
+			fail("No exception thrown");
+		} catch (NotFoundException e) {}
+		try {
+			service.client.getJson("api/reports/456", service.tokenHolder);
+			fail("No exception thrown");
+		} catch (InternalErrorException e) {}
+	}
+
+	/** aborting a request closes its connection */
+	public void abort() throws Exception {
+		final CountDownLatch arrived = new CountDownLatch(1);
+		final CountDownLatch release = new CountDownLatch(1);
+		server.register("/api/slow", new TestRequestHandler() {
+			@Override
+			protected void handle(HttpHolder holder) throws IOException {
+				arrived.countDown();
+				try {
+					release.await(5, TimeUnit.SECONDS);
+				} catch (InterruptedException e) {
+					Thread.currentThread().interrupt();
+				}
+			}
+		});
+		final HttpGet request = new HttpGet(server.getHttpURL() + "/api/slow");
+		service.tokenHolder.sign(request, null);
+		final AtomicReference<Exception> failure = new AtomicReference<Exception>();
+		Thread thread = new Thread() {
+			@Override
+			public void run() {
+				try {
+					new UrlConnectionTransport(false, new ClientMetrics()).execute(request, HttpCacheContext.create());
+				} catch (Exception e) {
+					failure.set(e);
+				}
+			}
+		};
+		thread.start();
+		try {
+			assertTrue(arrived.await(5, TimeUnit.SECONDS));
+			request.abort();
+			thread.join(5000);
+		} finally {
+			release.countDown();
+		}
+
+		assertTrue(failure.get() instanceof InterruptedIOException, "Failed with " + failure.get());
+	}
+}
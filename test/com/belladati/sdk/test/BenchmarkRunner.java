@@ -0,0 +1,88 @@
+package com.belladati.sdk.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.util.Locale;
+
+/**
+ * Minimal benchmark harness for comparing alternative code paths. Runs each
+ * task for a number of warmup and measured iterations and prints the average
+ * time and, where the JVM supports it, the bytes allocated per iteration by
+ * the calling thread.
+ */
+public class BenchmarkRunner {
+
+	private final int warmupIterations;
+	private final int iterations;
+
+	public BenchmarkRunner(int warmupIterations, int iterations) {
+		this.warmupIterations = warmupIterations;
+		this.iterations = iterations;
+	}
+
+	/**
+	 * Runs the given task and prints its results.
+	 * 
+	 * @param name name to print for the task
+	 * @param task the task to measure
+	 * @return the measured results
+	 */
+	public Result run(String name, Task task) throws Exception {
+		for (int i = 0; i < warmupIterations; i++) {
+			task.run();
+		}
+		System.gc();
+
+		long allocatedBefore = allocatedBytes();
+		long start = System.nanoTime();
+		for (int i = 0; i < iterations; i++) {
+			task.run();
+		}
+		long nanos = System.nanoTime() - start;
+		long allocated = allocatedBytes() - allocatedBefore;
+
+		Result result = new Result(name, nanos / (double) iterations, allocated < 0 ? -1 : allocated / iterations);
+		System.out.println(result);
+		return result;
+	}
+
+	/**
+	 * Returns the number of bytes allocated by the current thread, or a
+	 * negative number if the JVM doesn't support measuring it.
+	 */
+	private static long allocatedBytes() {
+		ThreadMXBean bean = ManagementFactory.getThreadMXBean();
+		if (bean instanceof com.sun.management.ThreadMXBean) {
+			return ((com.sun.management.ThreadMXBean) bean).getThreadAllocatedBytes(Thread.currentThread().getId());
+		}
+		return Long.MIN_VALUE;
+	}
+
+	/** A piece of work to measure. */
+	public interface Task {
+		void run() throws Exception;
+	}
+
+	/** Results of a single benchmark run. */
+	public static class Result {
+		public final String name;
+		public final double nanosPerOp;
+		public final long bytesPerOp;
+
+		private Result(String name, double nanosPerOp, long bytesPerOp) {
+			this.name = name;
+			this.nanosPerOp = nanosPerOp;
+			this.bytesPerOp = bytesPerOp;
+		}
+
+		public double opsPerSecond() {
+			return 1e9 / nanosPerOp;
+		}
+
+		@Override
+		public String toString() {
+			return String.format(Locale.ENGLISH, "%-45s %12.3f ms/op %12.1f ops/s %14s bytes/op", name, nanosPerOp / 1e6,
+				opsPerSecond(), bytesPerOp < 0 ? "n/a" : Long.toString(bytesPerOp));
+		}
+	}
+}